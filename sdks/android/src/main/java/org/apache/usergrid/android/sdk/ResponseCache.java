@@ -0,0 +1,241 @@
+package org.apache.usergrid.android.sdk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+/**
+ * Size bounded on-device cache of GET responses. Each entry keeps the ETag and
+ * Last-Modified validators sent by the server, so revisiting a cached entity or
+ * query costs a conditional request answered with an empty 304, and the cached
+ * body is served as is when the device is offline. The least recently used
+ * entries are evicted once the cached bodies exceed the maximum size.
+ */
+public class ResponseCache {
+
+	/**
+	 * Default limit of the cached bodies, in bytes
+	 */
+	public static final long DEFAULT_MAX_SIZE = 1024 * 1024;
+
+	private static final String LOGGING_TAG = "UGCLIENT";
+
+	private final File directory;
+	private final long maxSize;
+	private long size = 0;
+
+	// file name to file length, in access order
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+	/**
+	 * A cached response and its validators
+	 */
+	public static class Entry {
+
+		private final String etag;
+		private final String lastModified;
+		private final String body;
+
+		public Entry(String etag, String lastModified, String body) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.body = body;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		public String getBody() {
+			return body;
+		}
+	}
+
+	/**
+	 * Opens the cache in <em>directory</em>, usually a sub directory of
+	 * Context.getCacheDir(). Entries left by a previous run are reused.
+	 *
+	 * @param directory The directory holding one file per cached response.
+	 * @param maxSize The limit of the cached bodies, in bytes.
+	 */
+	public ResponseCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+
+		directory.mkdirs();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			Arrays.sort(files, new Comparator<File>() {
+				public int compare(File f1, File f2) {
+					long diff = f1.lastModified() - f2.lastModified();
+					return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+				}
+			});
+			for (File file : files) {
+				entries.put(file.getName(), file.length());
+				size += file.length();
+			}
+		}
+		trim();
+	}
+
+	/**
+	 * Builds the cache key of a request. The access token is part of the key
+	 * since what a request returns depends on the permissions of the caller.
+	 *
+	 * @param url The request url, including the query string.
+	 * @param accessToken The access token sent with the request, may be null.
+	 * @return The cache key.
+	 */
+	public static String key(String url, String accessToken) {
+		String value = (accessToken != null ? accessToken : "") + " " + url;
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (Exception e) {
+			return Integer.toHexString(value.hashCode());
+		}
+	}
+
+	/**
+	 * @param key The key returned by {@link #key(String, String)}.
+	 * @return The cached response, or null if there is none.
+	 */
+	public synchronized Entry get(String key) {
+		// touches the entry, moving it to the end of the eviction order
+		if (entries.get(key) == null) {
+			return null;
+		}
+
+		File file = new File(directory, key);
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			String etag = in.readUTF();
+			String lastModified = in.readUTF();
+			byte[] body = new byte[in.readInt()];
+			in.readFully(body);
+
+			// keeps the eviction order across restarts
+			file.setLastModified(System.currentTimeMillis());
+
+			return new Entry(etag.length() > 0 ? etag : null,
+					lastModified.length() > 0 ? lastModified : null,
+					new String(body, "UTF-8"));
+		} catch (IOException e) {
+			Log.w(LOGGING_TAG, "Dropping unreadable cache entry " + key, e);
+			remove(key);
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * Stores a response, replacing any previous one with the same key.
+	 *
+	 * @param key The key returned by {@link #key(String, String)}.
+	 * @param entry The response to cache.
+	 */
+	public synchronized void put(String key, Entry entry) {
+		File file = new File(directory, key);
+		DataOutputStream out = null;
+		try {
+			byte[] body = entry.getBody().getBytes("UTF-8");
+			if (body.length > maxSize) {
+				remove(key);
+				return;
+			}
+
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			out.writeUTF(entry.getEtag() != null ? entry.getEtag() : "");
+			out.writeUTF(entry.getLastModified() != null ? entry.getLastModified() : "");
+			out.writeInt(body.length);
+			out.write(body);
+			out.close();
+			out = null;
+
+			Long previous = entries.put(key, file.length());
+			size += file.length() - (previous != null ? previous : 0);
+			trim();
+		} catch (IOException e) {
+			Log.w(LOGGING_TAG, "Unable to cache response " + key, e);
+			close(out);
+			out = null;
+			remove(key);
+		} finally {
+			close(out);
+		}
+	}
+
+	/**
+	 * @param key The key returned by {@link #key(String, String)}.
+	 */
+	public synchronized void remove(String key) {
+		Long length = entries.remove(key);
+		if (length != null) {
+			size -= length;
+		}
+		new File(directory, key).delete();
+	}
+
+	/**
+	 * Removes every cached response.
+	 */
+	public synchronized void clear() {
+		for (String key : entries.keySet()) {
+			new File(directory, key).delete();
+		}
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return The size of the cached responses, in bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	private void trim() {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while ((size > maxSize) && it.hasNext()) {
+			Map.Entry<String, Long> eldest = it.next();
+			size -= eldest.getValue();
+			new File(directory, eldest.getKey()).delete();
+			it.remove();
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+}
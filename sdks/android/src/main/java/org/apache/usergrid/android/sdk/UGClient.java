@@ -6,6 +6,8 @@ import static org.apache.usergrid.android.sdk.utils.UrlUtils.encodeParams;
 import static org.apache.usergrid.android.sdk.utils.UrlUtils.path;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
@@ -14,13 +16,16 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.Date;
 
+import android.content.Context;
 import android.location.Location;
 import android.location.LocationManager;
 import android.location.LocationListener;
@@ -31,6 +36,7 @@ import android.util.Log;
 import org.apache.usergrid.android.sdk.URLConnectionFactory;
 import org.apache.usergrid.android.sdk.callbacks.ApiResponseCallback;
 import org.apache.usergrid.android.sdk.callbacks.ClientAsyncTask;
+import org.apache.usergrid.android.sdk.callbacks.ClientCallback;
 import org.apache.usergrid.android.sdk.callbacks.GroupsRetrievedCallback;
 import org.apache.usergrid.android.sdk.callbacks.QueryResultsCallback;
 import org.apache.usergrid.android.sdk.entities.Activity;
@@ -138,6 +144,15 @@ public class UGClient {
 
     private String currentOrganization = null;
     private URLConnectionFactory urlConnectionFactory = null;
+
+    private ResponseCache responseCache = null;
+
+    private WriteQueue writeQueue = null;
+    private Context writeQueueContext = null;
+    private int writeQueueMaxPending = 20;
+    private long writeQueueMaxDelay = 5 * 60 * 1000;
+    private int writeQueueMinBatteryPercent = 20;
+    private final AtomicBoolean flushingWriteQueue = new AtomicBoolean(false);
     
     private LocationManager locationManager;
     private UUID deviceID;
@@ -555,6 +570,15 @@ public class UGClient {
      *  @return  ApiResponse object
      */
 	public ApiResponse doHttpRequest(String httpMethod, Map<String, Object> params, Object data, String... segments) {
+		return sendHttpRequest(httpMethod, params, data, null, segments);
+	}
+
+	/**
+	 * Performs the http request of {@link #doHttpRequest(String,Map,Object,String...)}
+	 * and reports the status code of the response, -1 if none was received.
+	 */
+	private ApiResponse sendHttpRequest(String httpMethod, Map<String, Object> params, Object data,
+			int[] responseCode, String... segments) {
 		
         ApiResponse response = null;
 		OutputStream out = null;
@@ -562,6 +586,13 @@ public class UGClient {
 		HttpURLConnection conn = null;
 		
 		String urlAsString = path(apiUrl, segments);
+		String cacheKey = null;
+		ResponseCache.Entry cached = null;
+		int status = -1;
+
+		if (responseCode != null) {
+			responseCode[0] = status;
+		}
 		
 		try {
 	        String contentType = "application/json";
@@ -586,6 +617,19 @@ public class UGClient {
 				conn.setRequestProperty("Authorization", authStr);
 			}
 
+			if ((responseCache != null) && httpMethod.equals(HTTP_METHOD_GET)) {
+				cacheKey = ResponseCache.key(urlAsString, accessToken);
+				cached = responseCache.get(cacheKey);
+				if (cached != null) {
+					if (cached.getEtag() != null) {
+						conn.setRequestProperty("If-None-Match", cached.getEtag());
+					}
+					if (cached.getLastModified() != null) {
+						conn.setRequestProperty("If-Modified-Since", cached.getLastModified());
+					}
+				}
+			}
+
 			conn.setDoInput(true);
 			
 	        if (httpMethod.equals(HTTP_METHOD_POST) || httpMethod.equals(HTTP_METHOD_PUT)) {
@@ -616,6 +660,16 @@ public class UGClient {
 				out.close();
 				out = null;
 	        }
+
+			status = conn.getResponseCode();
+			if (responseCode != null) {
+				responseCode[0] = status;
+			}
+
+			if ((cached != null) && (status == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+				response = parseResponse(cached.getBody());
+				return response;
+			}
 	        
 			in = conn.getInputStream();
 			if( in != null ) {
@@ -631,13 +685,12 @@ public class UGClient {
 				String responseAsString = sb.toString();
 
 				//logTrace("response from server: '" + responseAsString + "'");
-                ObjectMapper objectMapper = new ObjectMapper();
-                objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-                objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-                response = (ApiResponse) objectMapper.readValue(responseAsString, ApiResponse.class);
-				response.setRawResponse(responseAsString);
+				response = parseResponse(responseAsString);
 
-				response.setUGClient(this);
+				if (cacheKey != null) {
+					responseCache.put(cacheKey, new ResponseCache.Entry(conn.getHeaderField("ETag"),
+							conn.getHeaderField("Last-Modified"), responseAsString));
+				}
 			} else {
 				response = null;
 				logTrace("no response body from server");
@@ -653,6 +706,15 @@ public class UGClient {
 				logError(e.getLocalizedMessage());
 			}
 			response = null;
+
+			// offline, or the server is unreachable, serve the cached copy. Responses
+			// the server did send, errors included, are never replaced by the cache
+			if ((cached != null) && (e instanceof IOException) && (status < 0)) {
+				try {
+					response = parseResponse(cached.getBody());
+				} catch(Exception ignored) {
+				}
+			}
 		}
 		catch(Throwable t) {
 			logError("Error " + httpMethod + " to '" + urlAsString + "'" );
@@ -682,6 +744,17 @@ public class UGClient {
 	    return response;
 	}
 
+	private ApiResponse parseResponse(String responseAsString) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        ApiResponse response = (ApiResponse) objectMapper.readValue(responseAsString, ApiResponse.class);
+		response.setRawResponse(responseAsString);
+
+		response.setUGClient(this);
+		return response;
+	}
+
 
     /**
      * High-level synchronous API request. Implements the http request
@@ -714,6 +787,217 @@ public class UGClient {
         }
     }
 
+    /****************** OFFLINE CACHE/WRITE QUEUE ***********************/
+    /****************** OFFLINE CACHE/WRITE QUEUE ***********************/
+
+    /**
+     * Sets the cache of GET responses. Cached entities and queries are
+     * revalidated with a conditional request, and served from the cache
+     * when the server can't be reached. Pass null to disable caching.
+     *
+     * @param  responseCache  the cache to use, or null
+     */
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * @return the cache of GET responses, or null if caching is disabled
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Caches GET responses in the application cache directory, limited to
+     * {@link ResponseCache#DEFAULT_MAX_SIZE} bytes.
+     *
+     * @param  context  the application context
+     * @return UGClient object for method call chaining
+     */
+    public UGClient withResponseCache(Context context) {
+        setResponseCache(new ResponseCache(new File(context.getCacheDir(), "usergrid-responses"),
+                ResponseCache.DEFAULT_MAX_SIZE));
+        return this;
+    }
+
+    /**
+     * Enables the write queue, saved in the application files directory.
+     * Writes queued with {@link #queueEntityUpdate(String, Map)} and
+     * {@link #queueCounterIncrement(CounterIncrement)} are coalesced and sent
+     * together once enough of them are waiting, or the oldest has waited long
+     * enough, and the device is connected with enough battery.
+     *
+     * @param  context  the application context
+     * @return UGClient object for method call chaining
+     */
+    public UGClient withWriteQueue(Context context) {
+        writeQueueContext = context.getApplicationContext();
+        writeQueue = new WriteQueue(new File(context.getFilesDir(), "usergrid-write-queue.json"));
+        return this;
+    }
+
+    /**
+     * Sets when the write queue is flushed on its own.
+     *
+     * @param  maxPending  the number of requests waiting that triggers a flush
+     * @param  maxDelay  the time in milliseconds the oldest write waits before a flush
+     * @param  minBatteryPercent  the battery level below which writes are held
+     *      while the device is not charging
+     */
+    public void setWriteQueuePolicy(int maxPending, long maxDelay, int minBatteryPercent) {
+        this.writeQueueMaxPending = maxPending;
+        this.writeQueueMaxDelay = maxDelay;
+        this.writeQueueMinBatteryPercent = minBatteryPercent;
+    }
+
+    /**
+     * @return the write queue, or null if it is not enabled
+     */
+    public WriteQueue getWriteQueue() {
+        return writeQueue;
+    }
+
+    /**
+     * Queues an update of an existing entity. Properties must include a
+     * "type" property. The update is merged with any queued update of the
+     * same entity and sent with the next flush of the write queue.
+     *
+     * @param  entityID  the entity to update
+     * @param  updatedProperties  the new properties
+     */
+    public void queueEntityUpdate(String entityID, Map<String, Object> updatedProperties) {
+        assertValidApplicationId();
+        assertWriteQueue();
+        if (isEmpty(updatedProperties.get("type"))) {
+            throw new IllegalArgumentException("Missing entity type");
+        }
+        writeQueue.addEntityUpdate(entityID, updatedProperties);
+        flushWriteQueueIfReady();
+    }
+
+    /**
+     * Queues a counter increment. Increments of the same counter are summed,
+     * and all counters are sent as one event with the next flush of the
+     * write queue.
+     *
+     * @param  counterIncrement  the counter name and increment value
+     */
+    public void queueCounterIncrement(CounterIncrement counterIncrement) {
+        assertValidApplicationId();
+        assertWriteQueue();
+        writeQueue.addCounterIncrement(counterIncrement);
+        flushWriteQueueIfReady();
+    }
+
+    /**
+     * Sends the queued writes. Counter increments are sent as a single event,
+     * entity updates as one request per entity. Writes that fail are put back
+     * in the queue to be sent with the next flush, unless the server rejected
+     * them with a client error, which retrying would not fix.
+     *
+     * @return true if every queued write was sent
+     */
+    public boolean flushWriteQueue() {
+        if ((writeQueue == null) || !flushingWriteQueue.compareAndSet(false, true)) {
+            return false;
+        }
+
+        try {
+            WriteQueue.Batch batch = writeQueue.drain();
+            Map<String, Map<String, Object>> failedUpdates = new LinkedHashMap<String, Map<String, Object>>();
+            Map<String, Long> failedCounters = new LinkedHashMap<String, Long>();
+            boolean dropped = false;
+            int[] status = new int[1];
+
+            if (!batch.getCounterIncrements().isEmpty()) {
+                Map<String, Object> event = new HashMap<String, Object>();
+                event.put("type", "events");
+                // let the server assign the timestamp
+                event.put("timestamp", "0");
+                event.put("counters", new HashMap<String, Object>(batch.getCounterIncrements()));
+                if (sendHttpRequest(HTTP_METHOD_POST, null, event, status, organizationId, applicationId,
+                        "events") == null) {
+                    if (isRejected(status[0])) {
+                        logError("Dropping queued counter increments rejected by the server with " + status[0]);
+                        dropped = true;
+                    } else {
+                        failedCounters.putAll(batch.getCounterIncrements());
+                    }
+                }
+            }
+
+            for (Map.Entry<String, Map<String, Object>> update : batch.getEntityUpdates().entrySet()) {
+                if (sendHttpRequest(HTTP_METHOD_PUT, null, update.getValue(), status, organizationId,
+                        applicationId, update.getValue().get("type").toString(), update.getKey()) == null) {
+                    if (isRejected(status[0])) {
+                        logError("Dropping queued update of entity " + update.getKey()
+                                + " rejected by the server with " + status[0]);
+                        dropped = true;
+                    } else {
+                        failedUpdates.put(update.getKey(), update.getValue());
+                    }
+                }
+            }
+
+            if (failedUpdates.isEmpty() && failedCounters.isEmpty()) {
+                return !dropped;
+            }
+
+            writeQueue.restore(batch.remaining(failedUpdates, failedCounters));
+            return false;
+        } finally {
+            flushingWriteQueue.set(false);
+        }
+    }
+
+    /**
+     * True if the server answered with a client error that sending the same
+     * write again would not fix. Timeouts and throttling are retried.
+     */
+    private static boolean isRejected(int status) {
+        return (status >= 400) && (status < 500) && (status != HttpURLConnection.HTTP_CLIENT_TIMEOUT)
+                && (status != 429);
+    }
+
+    /**
+     * Sends the queued writes in the background. Call this from a
+     * connectivity receiver to send the writes held while the device was
+     * offline.
+     *
+     * @param  callback  called with true if every queued write was sent, may be null
+     */
+    public void flushWriteQueueAsync(ClientCallback<Boolean> callback) {
+        (new ClientAsyncTask<Boolean>(callback) {
+            @Override
+            public Boolean doTask() {
+                return flushWriteQueue();
+            }
+        }).execute();
+    }
+
+    private void assertWriteQueue() {
+        if (writeQueue == null) {
+            throw new IllegalStateException("The write queue is not enabled");
+        }
+    }
+
+    private void flushWriteQueueIfReady() {
+        if ((writeQueue.size() < writeQueueMaxPending) && (writeQueue.getAge() < writeQueueMaxDelay)) {
+            return;
+        }
+        if (flushingWriteQueue.get() || !WriteQueue.canFlush(writeQueueContext, writeQueueMinBatteryPercent)) {
+            return;
+        }
+
+        // a plain thread, writes may be queued from threads without a looper
+        new Thread(new Runnable() {
+            public void run() {
+                flushWriteQueue();
+            }
+        }, "usergrid-write-queue").start();
+    }
+
     /****************** ROLES/PERMISSIONS ***********************/
     /****************** ROLES/PERMISSIONS ***********************/
 
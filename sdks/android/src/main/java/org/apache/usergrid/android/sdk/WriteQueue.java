@@ -0,0 +1,271 @@
+package org.apache.usergrid.android.sdk;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.util.Log;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Persistent queue of the writes made while the client waits for a good moment
+ * to send them. Updates to the same entity are merged into one update with the
+ * latest value of each property, and increments of the same counter are summed,
+ * so a burst of writes is sent as a few requests on a single radio wakeup. The
+ * queue is saved to a file on every change and survives the app being killed.
+ */
+public class WriteQueue {
+
+	private static final String LOGGING_TAG = "UGCLIENT";
+
+	private static final String ENTITIES = "entities";
+	private static final String COUNTERS = "counters";
+	private static final String SINCE = "since";
+
+	private final File file;
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	// entity id to the merged properties, which include the entity type
+	private final Map<String, Map<String, Object>> entityUpdates = new LinkedHashMap<String, Map<String, Object>>();
+	private final Map<String, Long> counterIncrements = new LinkedHashMap<String, Long>();
+
+	// time of the oldest write waiting in the queue
+	private long since = 0;
+
+	/**
+	 * The writes taken from the queue by a flush
+	 */
+	public static class Batch {
+
+		private final Map<String, Map<String, Object>> entityUpdates;
+		private final Map<String, Long> counterIncrements;
+		private final long since;
+
+		Batch(Map<String, Map<String, Object>> entityUpdates, Map<String, Long> counterIncrements, long since) {
+			this.entityUpdates = entityUpdates;
+			this.counterIncrements = counterIncrements;
+			this.since = since;
+		}
+
+		public Map<String, Map<String, Object>> getEntityUpdates() {
+			return entityUpdates;
+		}
+
+		public Map<String, Long> getCounterIncrements() {
+			return counterIncrements;
+		}
+
+		public boolean isEmpty() {
+			return entityUpdates.isEmpty() && counterIncrements.isEmpty();
+		}
+
+		/**
+		 * @return A batch of the given writes, as old as this one.
+		 */
+		Batch remaining(Map<String, Map<String, Object>> entityUpdates, Map<String, Long> counterIncrements) {
+			return new Batch(entityUpdates, counterIncrements, since);
+		}
+	}
+
+	/**
+	 * Opens the queue saved in <em>file</em>, usually in Context.getFilesDir().
+	 *
+	 * @param file The file the queue is saved to.
+	 */
+	public WriteQueue(File file) {
+		this.file = file;
+		load();
+	}
+
+	/**
+	 * Queues an update of an existing entity, merged with any update of the
+	 * same entity still waiting in the queue.
+	 *
+	 * @param entityID The entity to update.
+	 * @param updatedProperties The new properties, including the entity type.
+	 */
+	public synchronized void addEntityUpdate(String entityID, Map<String, Object> updatedProperties) {
+		Map<String, Object> pending = entityUpdates.get(entityID);
+		if (pending == null) {
+			pending = new HashMap<String, Object>();
+			entityUpdates.put(entityID, pending);
+		}
+		pending.putAll(updatedProperties);
+		touch();
+		save();
+	}
+
+	/**
+	 * Queues a counter increment, summed with any increment of the same
+	 * counter still waiting in the queue.
+	 *
+	 * @param counterIncrement The counter name and increment value.
+	 */
+	public synchronized void addCounterIncrement(CounterIncrement counterIncrement) {
+		String counterName = counterIncrement.getCounterName();
+		if ((counterName == null) || (counterName.length() == 0)) {
+			return;
+		}
+		Long pending = counterIncrements.get(counterName);
+		counterIncrements.put(counterName, (pending != null ? pending : 0)
+				+ counterIncrement.getCounterIncrementValue());
+		touch();
+		save();
+	}
+
+	/**
+	 * @return The number of requests a flush would make.
+	 */
+	public synchronized int size() {
+		return entityUpdates.size() + (counterIncrements.isEmpty() ? 0 : 1);
+	}
+
+	/**
+	 * @return How long the oldest write has been waiting, in milliseconds.
+	 */
+	public synchronized long getAge() {
+		return since > 0 ? System.currentTimeMillis() - since : 0;
+	}
+
+	/**
+	 * Takes every write from the queue. Writes that could not be sent must
+	 * be handed back with {@link #restore(Batch)}.
+	 *
+	 * @return The writes waiting in the queue.
+	 */
+	public synchronized Batch drain() {
+		Batch batch = new Batch(new LinkedHashMap<String, Map<String, Object>>(entityUpdates),
+				new LinkedHashMap<String, Long>(counterIncrements), since);
+		entityUpdates.clear();
+		counterIncrements.clear();
+		since = 0;
+		save();
+		return batch;
+	}
+
+	/**
+	 * Puts back writes that could not be sent. Writes queued since the batch
+	 * was drained are newer, and win over the restored ones.
+	 *
+	 * @param batch The writes to put back.
+	 */
+	public synchronized void restore(Batch batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		Map<String, Map<String, Object>> newerUpdates = new LinkedHashMap<String, Map<String, Object>>(entityUpdates);
+		entityUpdates.clear();
+		entityUpdates.putAll(batch.getEntityUpdates());
+		for (Map.Entry<String, Map<String, Object>> newer : newerUpdates.entrySet()) {
+			Map<String, Object> pending = entityUpdates.get(newer.getKey());
+			if (pending == null) {
+				entityUpdates.put(newer.getKey(), newer.getValue());
+			} else {
+				pending.putAll(newer.getValue());
+			}
+		}
+
+		for (Map.Entry<String, Long> restored : batch.getCounterIncrements().entrySet()) {
+			Long pending = counterIncrements.get(restored.getKey());
+			counterIncrements.put(restored.getKey(), (pending != null ? pending : 0) + restored.getValue());
+		}
+
+		since = since > 0 ? Math.min(since, batch.since) : batch.since;
+		save();
+	}
+
+	/**
+	 * Checks that the device is in a good state to flush the queue: a network
+	 * connection is up, and the battery is charging or above
+	 * <em>minBatteryPercent</em>.
+	 *
+	 * @param context The application context.
+	 * @param minBatteryPercent The battery level below which writes are held
+	 * while the device is not charging.
+	 * @return true if the queue may be flushed.
+	 */
+	public static boolean canFlush(Context context, int minBatteryPercent) {
+		ConnectivityManager connectivityManager = (ConnectivityManager) context
+				.getSystemService(Context.CONNECTIVITY_SERVICE);
+		if (connectivityManager != null) {
+			NetworkInfo network = connectivityManager.getActiveNetworkInfo();
+			if ((network == null) || !network.isConnected()) {
+				return false;
+			}
+		}
+
+		// the battery broadcast is sticky, no receiver is registered
+		Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		if (battery != null) {
+			if (battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+				return true;
+			}
+			int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+			int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+			if ((level >= 0) && (scale > 0)) {
+				return (level * 100 / scale) >= minBatteryPercent;
+			}
+		}
+		return true;
+	}
+
+	private void touch() {
+		if (since == 0) {
+			since = System.currentTimeMillis();
+		}
+	}
+
+	private void save() {
+		Map<String, Object> state = new HashMap<String, Object>();
+		state.put(ENTITIES, entityUpdates);
+		state.put(COUNTERS, counterIncrements);
+		state.put(SINCE, since);
+
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			mapper.writeValue(temp, state);
+			if (!temp.renameTo(file)) {
+				Log.w(LOGGING_TAG, "Unable to save the write queue to " + file);
+			}
+		} catch (Exception e) {
+			Log.w(LOGGING_TAG, "Unable to save the write queue to " + file, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void load() {
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			Map<String, Object> state = mapper.readValue(file, Map.class);
+
+			Map<String, Map<String, Object>> entities = (Map<String, Map<String, Object>>) state.get(ENTITIES);
+			if (entities != null) {
+				entityUpdates.putAll(entities);
+			}
+
+			Map<String, Number> counters = (Map<String, Number>) state.get(COUNTERS);
+			if (counters != null) {
+				for (Map.Entry<String, Number> counter : counters.entrySet()) {
+					counterIncrements.put(counter.getKey(), counter.getValue().longValue());
+				}
+			}
+
+			Number saved = (Number) state.get(SINCE);
+			since = saved != null ? saved.longValue() : 0;
+		} catch (Exception e) {
+			Log.w(LOGGING_TAG, "Discarding unreadable write queue " + file, e);
+			file.delete();
+		}
+	}
+}
@@ -30,16 +30,28 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.apache.usergrid.java.client.entities.Activity;
@@ -47,7 +59,9 @@ import org.apache.usergrid.java.client.entities.Device;
 import org.apache.usergrid.java.client.entities.Entity;
 import org.apache.usergrid.java.client.entities.Group;
 import org.apache.usergrid.java.client.entities.User;
+import org.apache.usergrid.java.client.exception.ClientException;
 import org.apache.usergrid.java.client.response.ApiResponse;
+import org.apache.usergrid.java.client.utils.HttpClientUtils;
 
 /**
  * The Client class for accessing the Usergrid API. Start by instantiating this
@@ -85,7 +99,18 @@ public class Client {
 
     private String currentOrganization = null;
 
-    static RestTemplate restTemplate = new RestTemplate();
+    private ClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+
+    private RestTemplate restTemplate = new RestTemplate(requestFactory);
+
+    // runs the async requests and page prefetches, created on first use
+    private ExecutorService executor = null;
+
+    private boolean ownsExecutor = false;
+
+    private int asyncThreads = HttpClientUtils.DEFAULT_MAX_CONNECTIONS;
+
+    private boolean prefetch = false;
 
     /**
      * Default constructor for instantiating a client.
@@ -148,6 +173,112 @@ public class Client {
 
 
 
+    /**
+     * Replace the transport used for every request, e.g. a factory from
+     * {@link HttpClientUtils#pooledRequestFactory(int, boolean)}. The previous
+     * transport is released.
+     *
+     * @param requestFactory
+     *            the factory creating the http requests
+     * @return Client object for method call chaining
+     */
+    public Client withRequestFactory(ClientHttpRequestFactory requestFactory) {
+        ClientHttpRequestFactory previous = this.requestFactory;
+        this.requestFactory = requestFactory;
+        restTemplate = new RestTemplate(requestFactory);
+        destroy(previous);
+        return this;
+    }
+
+    /**
+     * Use a pool of keep-alive connections instead of a connection per
+     * request. The async executor is sized to the pool.
+     *
+     * @param maxConnections
+     *            connections kept open to the API server
+     * @param gzip
+     *            request gzip encoded responses
+     * @return Client object for method call chaining
+     */
+    public Client withPooledTransport(int maxConnections, boolean gzip) {
+        asyncThreads = maxConnections;
+        return withRequestFactory(HttpClientUtils.pooledRequestFactory(
+                maxConnections, gzip));
+    }
+
+    /**
+     * @param executor
+     *            the executor running async requests and page prefetches, the
+     *            caller remains responsible for shutting it down
+     * @return Client object for method call chaining
+     */
+    public synchronized Client withExecutor(ExecutorService executor) {
+        this.executor = executor;
+        ownsExecutor = false;
+        return this;
+    }
+
+    /**
+     * @param prefetch
+     *            when true, a query requests the next page in the background
+     *            as soon as a page with a cursor arrives, so iterating with
+     *            {@link Query#next()} overlaps the network round trips with
+     *            the caller's processing, at the cost of one unused request
+     *            when iteration stops early
+     * @return Client object for method call chaining
+     */
+    public Client withPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+        return this;
+    }
+
+    /**
+     * @return true if query pages are prefetched
+     */
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Release the pooled connections and the async executor created by this
+     * client.
+     */
+    public synchronized void shutdown() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+        executor = null;
+        ownsExecutor = false;
+        destroy(requestFactory);
+    }
+
+    private void destroy(ClientHttpRequestFactory factory) {
+        if (factory instanceof DisposableBean) {
+            try {
+                ((DisposableBean) factory).destroy();
+            } catch (Exception e) {
+                log.warn("Client.destroy(): Unable to release transport", e);
+            }
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(asyncThreads,
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "usergrid-client-"
+                                    + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            ownsExecutor = true;
+        }
+        return executor;
+    }
+
     /**
      * @return the organizationId
      */
@@ -374,6 +505,47 @@ public class Client {
         return response;
     }
 
+    /**
+     * High-level Usergrid API request, executed on the client's executor.
+     * Requests are issued concurrently up to the size of the executor and the
+     * connection pool.
+     *
+     * @param method
+     * @param params
+     * @param data
+     * @param segments
+     * @return future of the response
+     */
+    public Future<ApiResponse> apiRequestAsync(final HttpMethod method,
+            final Map<String, Object> params, final Object data,
+            final String... segments) {
+        return getExecutor().submit(new Callable<ApiResponse>() {
+            public ApiResponse call() {
+                return apiRequest(method, params, data, segments);
+            }
+        });
+    }
+
+    /**
+     * Wait for a response requested with one of the async methods.
+     *
+     * @param future
+     * @return the response
+     */
+    public static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException("Interrupted waiting for response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ClientException("Request failed", e.getCause());
+        }
+    }
+
     protected void assertValidApplicationId() {
         if (isEmpty(applicationId)) {
             throw new IllegalArgumentException("No application id specified");
@@ -824,6 +996,25 @@ public class Client {
         return new EntityQuery(response, method, params, data, segments);
     }
 
+    /**
+     * Perform a query request on the client's executor.
+     *
+     * @param method
+     * @param params
+     * @param data
+     * @param segments
+     * @return future of the query object
+     */
+    public Future<Query> queryEntitiesRequestAsync(final HttpMethod method,
+            final Map<String, Object> params, final Object data,
+            final String... segments) {
+        return getExecutor().submit(new Callable<Query>() {
+            public Query call() {
+                return queryEntitiesRequest(method, params, data, segments);
+            }
+        });
+    }
+
     /**
      * Perform a query of the users collection.
      *
@@ -1050,6 +1241,29 @@ public class Client {
 
         public Query next();
 
+        /**
+         * @return future of the next set of results, or null if there are no
+         *         more results
+         */
+        public Future<Query> nextAsync();
+
+    }
+
+    private Map<String, Object> nextParams(Map<String, Object> params,
+            String name, String cursor) {
+        Map<String, Object> nextParams = null;
+        if (params != null) {
+            nextParams = new HashMap<String, Object>(params);
+        } else {
+            nextParams = new HashMap<String, Object>();
+        }
+        nextParams.put(name, cursor);
+        return nextParams;
+    }
+
+    private boolean hasCursor(ApiResponse response) {
+        return (response != null) && (response.getCursor() != null)
+                && (response.getCursor().length() > 0);
     }
 
     /**
@@ -1062,6 +1276,7 @@ public class Client {
         final Object data;
         final String[] segments;
         final ApiResponse response;
+        final Future<ApiResponse> nextResponse;
 
         private EntityQuery(ApiResponse response, HttpMethod method,
                 Map<String, Object> params, Object data, String[] segments) {
@@ -1070,6 +1285,7 @@ public class Client {
             this.params = params;
             this.data = data;
             this.segments = segments;
+            nextResponse = prefetch ? requestNext() : null;
         }
 
         private EntityQuery(ApiResponse response, EntityQuery q) {
@@ -1078,6 +1294,16 @@ public class Client {
             params = q.params;
             data = q.data;
             segments = q.segments;
+            nextResponse = prefetch ? requestNext() : null;
+        }
+
+        private Future<ApiResponse> requestNext() {
+            if (!more()) {
+                return null;
+            }
+            return apiRequestAsync(method,
+                    nextParams(params, "cursor", response.getCursor()), data,
+                    segments);
         }
 
         /**
@@ -1091,34 +1317,90 @@ public class Client {
          * @return true if the server indicates more results are available
          */
         public boolean more() {
-            if ((response != null) && (response.getCursor() != null)
-                    && (response.getCursor().length() > 0)) {
-                return true;
-            }
-            return false;
+            return hasCursor(response);
         }
 
         /**
-         * Performs a request for the next set of results
+         * Performs a request for the next set of results, or waits for the
+         * prefetched one
          *
          * @return query that contains results and where to get more from.
          */
         public Query next() {
             if (more()) {
-                Map<String, Object> nextParams = null;
-                if (params != null) {
-                    nextParams = new HashMap<String, Object>(params);
-                } else {
-                    nextParams = new HashMap<String, Object>();
-                }
-                nextParams.put("cursor", response.getCursor());
-                ApiResponse nextResponse = apiRequest(method, nextParams, data,
-                        segments);
-                return new EntityQuery(nextResponse, this);
+                ApiResponse next = nextResponse != null ? await(nextResponse)
+                        : apiRequest(method,
+                                nextParams(params, "cursor", response.getCursor()),
+                                data, segments);
+                return new EntityQuery(next, this);
             }
             return null;
         }
 
+        public Future<Query> nextAsync() {
+            if (!more()) {
+                return null;
+            }
+            // chain the prefetch instead of blocking a pool thread on it
+            if (nextResponse != null) {
+                return new NextQueryFuture(nextResponse) {
+                    protected Query toQuery(ApiResponse next) {
+                        return new EntityQuery(next, EntityQuery.this);
+                    }
+                };
+            }
+            return getExecutor().submit(new Callable<Query>() {
+                public Query call() {
+                    return next();
+                }
+            });
+        }
+
+    }
+
+    /**
+     * The next page of a query whose response is already being prefetched.
+     * The page is built from the prefetched response by the thread that gets
+     * it, so no executor thread waits on another.
+     */
+    private static abstract class NextQueryFuture implements Future<Query> {
+        private final Future<ApiResponse> nextResponse;
+        private Query query;
+
+        NextQueryFuture(Future<ApiResponse> nextResponse) {
+            this.nextResponse = nextResponse;
+        }
+
+        protected abstract Query toQuery(ApiResponse next);
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return nextResponse.cancel(mayInterruptIfRunning);
+        }
+
+        public boolean isCancelled() {
+            return nextResponse.isCancelled();
+        }
+
+        public boolean isDone() {
+            return nextResponse.isDone();
+        }
+
+        public synchronized Query get() throws InterruptedException,
+                ExecutionException {
+            if (query == null) {
+                query = toQuery(nextResponse.get());
+            }
+            return query;
+        }
+
+        public synchronized Query get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException,
+                TimeoutException {
+            if (query == null) {
+                query = toQuery(nextResponse.get(timeout, unit));
+            }
+            return query;
+        }
     }
 
     private String normalizeQueuePath(String path) {
@@ -1224,6 +1506,7 @@ public class Client {
         final Object data;
         final String queuePath;
         final ApiResponse response;
+        final Future<ApiResponse> nextResponse;
 
         private QueueQuery(ApiResponse response, HttpMethod method,
                 Map<String, Object> params, Object data, String queuePath) {
@@ -1232,6 +1515,7 @@ public class Client {
             this.params = params;
             this.data = data;
             this.queuePath = normalizeQueuePath(queuePath);
+            nextResponse = prefetch ? requestNext() : null;
         }
 
         private QueueQuery(ApiResponse response, QueueQuery q) {
@@ -1240,6 +1524,16 @@ public class Client {
             params = q.params;
             data = q.data;
             queuePath = q.queuePath;
+            nextResponse = prefetch ? requestNext() : null;
+        }
+
+        private Future<ApiResponse> requestNext() {
+            if (!more()) {
+                return null;
+            }
+            return apiRequestAsync(method,
+                    nextParams(params, "start", response.getCursor()), data,
+                    queuePath);
         }
 
         /**
@@ -1253,34 +1547,45 @@ public class Client {
          * @return true if the server indicates more results are available
          */
         public boolean more() {
-            if ((response != null) && (response.getCursor() != null)
-                    && (response.getCursor().length() > 0)) {
-                return true;
-            }
-            return false;
+            return hasCursor(response);
         }
 
         /**
-         * Performs a request for the next set of results
+         * Performs a request for the next set of results, or waits for the
+         * prefetched one
          *
          * @return query that contains results and where to get more from.
          */
         public Query next() {
             if (more()) {
-                Map<String, Object> nextParams = null;
-                if (params != null) {
-                    nextParams = new HashMap<String, Object>(params);
-                } else {
-                    nextParams = new HashMap<String, Object>();
-                }
-                nextParams.put("start", response.getCursor());
-                ApiResponse nextResponse = apiRequest(method, nextParams, data,
-                        queuePath);
-                return new QueueQuery(nextResponse, this);
+                ApiResponse next = nextResponse != null ? await(nextResponse)
+                        : apiRequest(method,
+                                nextParams(params, "start", response.getCursor()),
+                                data, queuePath);
+                return new QueueQuery(next, this);
             }
             return null;
         }
 
+        public Future<Query> nextAsync() {
+            if (!more()) {
+                return null;
+            }
+            // chain the prefetch instead of blocking a pool thread on it
+            if (nextResponse != null) {
+                return new NextQueryFuture(nextResponse) {
+                    protected Query toQuery(ApiResponse next) {
+                        return new QueueQuery(next, QueueQuery.this);
+                    }
+                };
+            }
+            return getExecutor().submit(new Callable<Query>() {
+                public Query call() {
+                    return next();
+                }
+            });
+        }
+
     }
 
     public Query queryQueuesRequest(HttpMethod method,
@@ -1289,4 +1594,14 @@ public class Client {
         return new QueueQuery(response, method, params, data, queuePath);
     }
 
+    public Future<Query> queryQueuesRequestAsync(final HttpMethod method,
+            final Map<String, Object> params, final Object data,
+            final String queuePath) {
+        return getExecutor().submit(new Callable<Query>() {
+            public Query call() {
+                return queryQueuesRequest(method, params, data, queuePath);
+            }
+        });
+    }
+
 }
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.java.client.utils;
+
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+/**
+ * Builds the pooled transport for the {@link org.apache.usergrid.java.client.Client}. The default
+ * RestTemplate transport opens an HttpURLConnection per request, this one keeps a pool of keep-alive
+ * connections to the API server so concurrent callers don't pay for a new connection on every call.
+ */
+public class HttpClientUtils {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 50;
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    public static final int DEFAULT_READ_TIMEOUT = 60000;
+
+    /**
+     * @param maxConnections
+     *            connections kept to the API server, also the per route limit
+     *            since a client talks to a single server
+     * @param gzip
+     *            ask for gzip encoded responses and decode them transparently
+     * @return request factory backed by a pooled HttpClient
+     */
+    public static ClientHttpRequestFactory pooledRequestFactory(
+            int maxConnections, boolean gzip) {
+        return pooledRequestFactory(maxConnections, gzip,
+                DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    public static ClientHttpRequestFactory pooledRequestFactory(
+            int maxConnections, boolean gzip, int connectTimeout,
+            int readTimeout) {
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", 80, PlainSocketFactory
+                .getSocketFactory()));
+        schemeRegistry.register(new Scheme("https", 443, SSLSocketFactory
+                .getSocketFactory()));
+
+        ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager(
+                schemeRegistry);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        DefaultHttpClient httpClient = new DefaultHttpClient(connectionManager);
+        HttpParams params = httpClient.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+        HttpConnectionParams.setSoTimeout(params, readTimeout);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+
+        if (gzip) {
+            httpClient.addRequestInterceptor(new RequestAcceptEncoding());
+            httpClient.addResponseInterceptor(new ResponseContentEncoding());
+        }
+
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.count;
+
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.apache.usergrid.count.common.Count;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import com.google.common.util.concurrent.Futures;
+
+
+/**
+ * Aggregation of counter increments, done for every entity write.  The submitter discards the batches so only the
+ * batching itself is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatcherBenchmark {
+
+    private SimpleBatcher batcher;
+    private UUID applicationId;
+
+
+    @Setup
+    public void setup() {
+        batcher = new SimpleBatcher();
+        batcher.setBatchSize( 500 );
+        batcher.setBatchSubmitter( new BatchSubmitter() {
+            @Override
+            public Future<?> submit( Collection<Count> counts ) {
+                return Futures.immediateFuture( null );
+            }
+
+
+            @Override
+            public void shutdown() {
+            }
+        } );
+        applicationId = UUIDUtils.newTimeUUID();
+    }
+
+
+    @Benchmark
+    public void add() throws Exception {
+        batcher.add( new Count( "Counters", applicationId, "application.collection.users", 1 ) );
+    }
+
+
+    @Benchmark
+    @Threads(8)
+    public void addContended() throws Exception {
+        batcher.add( new Count( "Counters", applicationId, "application.collection.users", 1 ) );
+    }
+}
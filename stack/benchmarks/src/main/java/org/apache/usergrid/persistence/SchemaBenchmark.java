@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.apache.usergrid.persistence.Schema.deserializeEntityProperties;
+import static org.apache.usergrid.persistence.Schema.serializeEntityProperty;
+
+
+/** Serialization of entity properties to and from their column values, done for every entity read and written */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SchemaBenchmark {
+
+    private static final String TYPE = "user";
+
+    private Map<String, Object> properties;
+    private Map<String, ByteBuffer> columns;
+
+
+    @Setup
+    public void setup() {
+        Map<String, Object> location = new HashMap<String, Object>();
+        location.put( "latitude", 37.779632 );
+        location.put( "longitude", -122.395131 );
+
+        properties = new LinkedHashMap<String, Object>();
+        properties.put( Schema.PROPERTY_UUID, UUIDUtils.newTimeUUID() );
+        properties.put( Schema.PROPERTY_TYPE, TYPE );
+        properties.put( Schema.PROPERTY_CREATED, System.currentTimeMillis() );
+        properties.put( Schema.PROPERTY_MODIFIED, System.currentTimeMillis() );
+        properties.put( "username", "benchmark" );
+        properties.put( "email", "benchmark@usergrid.org" );
+        properties.put( "activated", true );
+        properties.put( "location", location );
+        properties.put( "tags", Arrays.asList( "one", "two", "three" ) );
+
+        columns = new LinkedHashMap<String, ByteBuffer>();
+
+        for ( Entry<String, Object> property : properties.entrySet() ) {
+            columns.put( property.getKey(), serializeEntityProperty( TYPE, property.getKey(), property.getValue() ) );
+        }
+    }
+
+
+    @Benchmark
+    public ByteBuffer serializeString() {
+        return serializeEntityProperty( TYPE, "username", "benchmark" );
+    }
+
+
+    @Benchmark
+    public ByteBuffer serializeMap() {
+        return serializeEntityProperty( TYPE, "location", properties.get( "location" ) );
+    }
+
+
+    @Benchmark
+    public void serializeEntity( Blackhole blackhole ) {
+        for ( Entry<String, Object> property : properties.entrySet() ) {
+            blackhole.consume( serializeEntityProperty( TYPE, property.getKey(), property.getValue() ) );
+        }
+    }
+
+
+    @Benchmark
+    public Map<String, Object> deserializeEntity() {
+        return deserializeEntityProperties( columns );
+    }
+}
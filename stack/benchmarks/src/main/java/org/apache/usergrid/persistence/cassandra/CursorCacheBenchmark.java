@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.apache.usergrid.utils.ConversionUtils.bytebuffer;
+
+
+/** Encoding and parsing of query cursors, done for every page of every query */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CursorCacheBenchmark {
+
+    /** The number of slices in the query, one cursor per slice */
+    @Param({ "1", "5" })
+    public int slices;
+
+    private CursorCache cache;
+    private String cursor;
+
+
+    @Setup
+    public void setup() {
+        cache = new CursorCache();
+
+        for ( int i = 0; i < slices; i++ ) {
+            cache.setNextCursor( i, bytebuffer( UUIDUtils.newTimeUUID() ) );
+        }
+
+        cursor = cache.asString();
+    }
+
+
+    @Benchmark
+    public String encode() {
+        return cache.asString();
+    }
+
+
+    @Benchmark
+    public CursorCache parse() {
+        return new CursorCache( cursor );
+    }
+}
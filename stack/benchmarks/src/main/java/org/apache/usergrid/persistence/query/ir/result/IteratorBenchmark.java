@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.query.ir.result;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.apache.usergrid.utils.UUIDUtils;
+
+
+/**
+ * Merging of index slices for compound queries.  The left and right slices overlap on every other column, so each
+ * merge produces and discards a realistic share of its input.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IteratorBenchmark {
+
+    /** The number of columns in each slice */
+    @Param({ "100", "1000" })
+    public int size;
+
+    /** The page size of the slices and of the merge */
+    @Param({ "100" })
+    public int pageSize;
+
+    private List<ScanColumn> left;
+    private List<ScanColumn> right;
+
+
+    @Setup
+    public void setup() {
+        left = new ArrayList<ScanColumn>( size );
+        right = new ArrayList<ScanColumn>( size );
+
+        for ( int i = 0; i < size * 2; i++ ) {
+            ScanColumn column = new UUIDIndexSliceParser.UUIDColumn( UUIDUtils.newTimeUUID(), ByteBuffer.allocate( 0 ) );
+
+            if ( i % 2 == 0 || i % 3 == 0 ) {
+                left.add( column );
+            }
+
+            if ( i % 2 == 0 || i % 3 != 0 ) {
+                right.add( column );
+            }
+        }
+    }
+
+
+    @Benchmark
+    public void union( Blackhole bh ) {
+        UnionIterator union = new UnionIterator( pageSize, 0, null );
+        union.addIterator( new ListResultIterator( left, pageSize ) );
+        union.addIterator( new ListResultIterator( right, pageSize ) );
+
+        drain( union, bh );
+    }
+
+
+    @Benchmark
+    public void intersection( Blackhole bh ) {
+        IntersectionIterator intersection = new IntersectionIterator( pageSize );
+        intersection.addIterator( new ListResultIterator( left, pageSize ) );
+        intersection.addIterator( new ListResultIterator( right, pageSize ) );
+
+        drain( intersection, bh );
+    }
+
+
+    @Benchmark
+    public void subtraction( Blackhole bh ) {
+        SubtractionIterator subtraction = new SubtractionIterator( pageSize );
+        subtraction.setKeepIterator( new ListResultIterator( left, pageSize ) );
+        subtraction.setSubtractIterator( new ListResultIterator( right, pageSize ) );
+
+        drain( subtraction, bh );
+    }
+
+
+    private static void drain( ResultIterator itr, Blackhole bh ) {
+        while ( itr.hasNext() ) {
+            Set<ScanColumn> page = itr.next();
+            bh.consume( page );
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.query.ir.result;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.usergrid.persistence.cassandra.CursorCache;
+
+import com.google.common.collect.Iterables;
+
+
+/** Iterates a fixed list of columns in pages, standing in for a cassandra slice in the merge benchmarks */
+public class ListResultIterator implements ResultIterator {
+
+    private final List<ScanColumn> columns;
+    private final int pageSize;
+    private Iterator<List<ScanColumn>> iterator;
+
+
+    public ListResultIterator( List<ScanColumn> columns, int pageSize ) {
+        this.columns = columns;
+        this.pageSize = pageSize;
+        reset();
+    }
+
+
+    @Override
+    public Iterator<Set<ScanColumn>> iterator() {
+        return this;
+    }
+
+
+    @Override
+    public boolean hasNext() {
+        return iterator.hasNext();
+    }
+
+
+    @Override
+    public Set<ScanColumn> next() {
+        return new LinkedHashSet<ScanColumn>( iterator.next() );
+    }
+
+
+    @Override
+    public void reset() {
+        iterator = Iterables.partition( columns, pageSize ).iterator();
+    }
+
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException( "You can't remove from a list iterator" );
+    }
+
+
+    @Override
+    public void finalizeCursor( CursorCache cache, UUID lastValue ) {
+    }
+}
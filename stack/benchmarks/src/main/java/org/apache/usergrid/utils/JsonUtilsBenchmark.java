@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.utils;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/** SMILE encoding of property values, the binary format of every stored property */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonUtilsBenchmark {
+
+    private Map<String, Object> document;
+    private ByteBuffer smile;
+
+
+    @Setup
+    public void setup() {
+        Map<String, Object> address = new HashMap<String, Object>();
+        address.put( "street", "10 Almaden Blvd" );
+        address.put( "city", "San Jose" );
+        address.put( "zip", 95113 );
+
+        document = new HashMap<String, Object>();
+        document.put( "name", "benchmark" );
+        document.put( "count", 42 );
+        document.put( "score", 0.75 );
+        document.put( "active", true );
+        document.put( "address", address );
+        document.put( "tags", Arrays.asList( "one", "two", "three" ) );
+
+        smile = JsonUtils.toByteBuffer( document );
+    }
+
+
+    @Benchmark
+    public ByteBuffer write() {
+        return JsonUtils.toByteBuffer( document );
+    }
+
+
+    @Benchmark
+    public Object read() {
+        return JsonUtils.fromByteBuffer( smile );
+    }
+
+
+    @Benchmark
+    public Object roundTrip() {
+        return JsonUtils.normalizeJsonTree( JsonUtils.fromByteBuffer( JsonUtils.toByteBuffer( document ) ) );
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.clustering;
+
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+
+
+/**
+ * Base of the buses that deliver messages to the listeners of this node and, when clustered, relay them to the other
+ * nodes.  Clustered implementations override {@link #isRemote()} and {@link #send(TopicBatch)}, messages passed to
+ * {@link #enqueue(String, Serializable)} are then queued per topic and handed to {@link #send(TopicBatch)} in batches
+ * every flush interval, or as soon as a batch fills up.  Equal messages within a batch are sent once.  Batches from
+ * other nodes are passed to {@link #receive(TopicBatch)} and delivered with {@link #deliver(String, Serializable)}.
+ */
+public abstract class BatchingTopicBus<T extends Serializable> {
+
+    private static final Logger logger = LoggerFactory.getLogger( BatchingTopicBus.class );
+
+    private final Counter batchesSent;
+    private final Counter batchesReceived;
+    private final Counter received;
+    private final Counter sendFailures;
+
+    /** Identifies the batches sent by this bus */
+    private final UUID busId = UUID.randomUUID();
+
+    private final String threadName;
+
+    private final Map<String, Queue<T>> pending = new ConcurrentHashMap<String, Queue<T>>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean( false );
+
+    private ScheduledExecutorService executor;
+
+    private long flushInterval = 100;
+    private int batchSize = 500;
+
+
+    /**
+     * @param type The class the metrics of the bus are registered under
+     * @param threadName The name format of the flush thread
+     */
+    protected BatchingTopicBus( Class<?> type, String threadName ) {
+        this.threadName = threadName;
+
+        batchesSent = Metrics.newCounter( type, "batches_sent" );
+        batchesReceived = Metrics.newCounter( type, "batches_received" );
+        received = Metrics.newCounter( type, "received" );
+        sendFailures = Metrics.newCounter( type, "send_failures" );
+
+        Metrics.newGauge( type, "pending", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return pendingCount.get();
+            }
+        } );
+    }
+
+
+    public void init() {
+        if ( !isRemote() ) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat( threadName ).setDaemon( true ).build() );
+
+        executor.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS );
+    }
+
+
+    public void destroy() {
+        if ( executor == null ) {
+            return;
+        }
+
+        executor.shutdownNow();
+        flush();
+    }
+
+
+    /** Set the milliseconds messages are collected before they are sent to the other nodes */
+    public void setFlushInterval( long flushInterval ) {
+        this.flushInterval = flushInterval;
+    }
+
+
+    /** Set the maximum number of messages sent to the other nodes in a single batch */
+    public void setBatchSize( int batchSize ) {
+        this.batchSize = batchSize;
+    }
+
+
+    public UUID getBusId() {
+        return busId;
+    }
+
+
+    /** Queue the message for the other nodes.  Does nothing unless the bus is remote */
+    protected void enqueue( String topic, T message ) {
+        if ( !isRemote() ) {
+            return;
+        }
+
+        Queue<T> queue = pending.get( topic );
+
+        if ( queue == null ) {
+            synchronized ( pending ) {
+                queue = pending.get( topic );
+
+                if ( queue == null ) {
+                    queue = new ConcurrentLinkedQueue<T>();
+                    pending.put( topic, queue );
+                }
+            }
+        }
+
+        queue.add( message );
+
+        if ( pendingCount.incrementAndGet() >= batchSize ) {
+            scheduleFlush();
+        }
+    }
+
+
+    /** Send everything pending to the other nodes */
+    public synchronized void flush() {
+        flushScheduled.set( false );
+
+        for ( Map.Entry<String, Queue<T>> entry : pending.entrySet() ) {
+            Queue<T> queue = entry.getValue();
+
+            while ( !queue.isEmpty() ) {
+                Set<T> batch = new LinkedHashSet<T>();
+                int drained = 0;
+
+                T message;
+
+                while ( batch.size() < batchSize && ( message = queue.poll() ) != null ) {
+                    batch.add( message );
+                    drained++;
+                }
+
+                pendingCount.addAndGet( -drained );
+
+                if ( batch.isEmpty() ) {
+                    continue;
+                }
+
+                try {
+                    send( new TopicBatch<T>( busId, entry.getKey(), new ArrayList<T>( batch ) ) );
+                    batchesSent.inc();
+                }
+                catch ( Exception e ) {
+                    sendFailures.inc();
+                    logger.error( "Unable to send " + batch.size() + " messages of topic " + entry.getKey(), e );
+                }
+            }
+        }
+    }
+
+
+    /** Flush on the background thread before the interval elapses.  Multiple requests are coalesced */
+    private void scheduleFlush() {
+        if ( executor == null || !flushScheduled.compareAndSet( false, true ) ) {
+            return;
+        }
+
+        executor.execute( new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        } );
+    }
+
+
+    /** Deliver a batch sent by another node to the listeners of this node */
+    protected void receive( TopicBatch<T> batch ) {
+        if ( busId.equals( batch.getSender() ) ) {
+            return;
+        }
+
+        batchesReceived.inc();
+
+        for ( T message : batch.getMessages() ) {
+            received.inc();
+            deliver( batch.getTopic(), message );
+        }
+    }
+
+
+    /** Deliver a message of this or another node to the listeners of the topic on this node */
+    protected abstract void deliver( String topic, T message );
+
+
+    /** True if messages are sent to other nodes */
+    protected boolean isRemote() {
+        return false;
+    }
+
+
+    /** Send a batch of messages to the other nodes */
+    protected void send( TopicBatch<T> batch ) {
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.clustering;
+
+
+import java.io.Serializable;
+import java.util.UUID;
+
+
+/**
+ * Tells caches that what they hold for an application, an entity or a principal is stale.  Carries only identity, so
+ * a cache receiving it drops its entries and reloads them on the next read.  Unique value invalidations also carry the
+ * row key written to the unique index, so negative caches on the other nodes can add it.
+ */
+public class Invalidation implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public enum Type {
+        /** Everything cached for the application */
+        APPLICATION,
+        /** A single entity of the application */
+        ENTITY,
+        /** The credentials, roles or permissions of a user, admin user or application principal */
+        PRINCIPAL,
+        /** A value written to the unique index of the application */
+        UNIQUE_VALUE
+    }
+
+
+    private final Type type;
+    private final UUID applicationId;
+    private final UUID id;
+    private final String key;
+
+
+    public Invalidation( Type type, UUID applicationId, UUID id ) {
+        this( type, applicationId, id, null );
+    }
+
+
+    public Invalidation( Type type, UUID applicationId, UUID id, String key ) {
+        this.type = type;
+        this.applicationId = applicationId;
+        this.id = id;
+        this.key = key;
+    }
+
+
+    public static Invalidation application( UUID applicationId ) {
+        return new Invalidation( Type.APPLICATION, applicationId, applicationId );
+    }
+
+
+    public static Invalidation entity( UUID applicationId, UUID entityId ) {
+        return new Invalidation( Type.ENTITY, applicationId, entityId );
+    }
+
+
+    public static Invalidation principal( UUID applicationId, UUID principalId ) {
+        return new Invalidation( Type.PRINCIPAL, applicationId, principalId );
+    }
+
+
+    public static Invalidation uniqueValue( UUID applicationId, String rowKey ) {
+        return new Invalidation( Type.UNIQUE_VALUE, applicationId, applicationId, rowKey );
+    }
+
+
+    public Type getType() {
+        return type;
+    }
+
+
+    public UUID getApplicationId() {
+        return applicationId;
+    }
+
+
+    /** The id of the entity or principal, or the application id for application invalidations */
+    public UUID getId() {
+        return id;
+    }
+
+
+    /** The unique index row key of unique value invalidations, null otherwise */
+    public String getKey() {
+        return key;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int result = type.hashCode();
+        result = 31 * result + ( applicationId != null ? applicationId.hashCode() : 0 );
+        result = 31 * result + ( id != null ? id.hashCode() : 0 );
+        result = 31 * result + ( key != null ? key.hashCode() : 0 );
+        return result;
+    }
+
+
+    @Override
+    public boolean equals( Object obj ) {
+        if ( this == obj ) {
+            return true;
+        }
+        if ( !( obj instanceof Invalidation ) ) {
+            return false;
+        }
+
+        Invalidation other = ( Invalidation ) obj;
+
+        return type == other.type && equal( applicationId, other.applicationId ) && equal( id, other.id ) && equal(
+                key, other.key );
+    }
+
+
+    private static boolean equal( Object a, Object b ) {
+        return a != null ? a.equals( b ) : b == null;
+    }
+
+
+    @Override
+    public String toString() {
+        if ( type == Type.UNIQUE_VALUE ) {
+            return type + " " + key;
+        }
+
+        return type + " " + applicationId + ( type != Type.APPLICATION ? " " + id : "" );
+    }
+}
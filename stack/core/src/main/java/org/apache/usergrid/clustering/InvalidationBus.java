@@ -0,0 +1,34 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.clustering;
+
+
+/**
+ * Carries cache invalidations between the nodes of the cluster.  Each cache listens on its own topic, such as "entities"
+ * or "permissions".  Invalidations are delivered to the listeners on this node immediately and to the other nodes in
+ * batches, so a remote cache may serve stale entries for up to one flush interval.
+ */
+public interface InvalidationBus {
+
+    /** Register a listener for the invalidations of the topic raised on this or any other node */
+    public void addListener( String topic, InvalidationListener listener );
+
+    public void removeListener( String topic, InvalidationListener listener );
+
+    /** Invalidate the entries of every cache listening on the topic, on every node */
+    public void invalidate( String topic, Invalidation invalidation );
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.clustering;
+
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.UUID;
+
+
+/** The messages of one topic collected by a node between two flushes, sent to the other nodes as one message */
+public class TopicBatch<T extends Serializable> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final UUID sender;
+    private final String topic;
+    private final List<T> messages;
+
+
+    public TopicBatch( UUID sender, String topic, List<T> messages ) {
+        this.sender = sender;
+        this.topic = topic;
+        this.messages = messages;
+    }
+
+
+    /** The id of the bus that sent the batch, so a node can ignore its own batches */
+    public UUID getSender() {
+        return sender;
+    }
+
+
+    public String getTopic() {
+        return topic;
+    }
+
+
+    public List<T> getMessages() {
+        return messages;
+    }
+
+
+    @Override
+    public String toString() {
+        return topic + " " + messages.size() + " messages from " + sender;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.clustering.hazelcast;
+
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.clustering.TopicBatch;
+import org.apache.usergrid.persistence.EntityChange;
+import org.apache.usergrid.persistence.cassandra.EntityChangeBus;
+
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.MessageListener;
+
+
+/**
+ * Sends entity changes to the other nodes, such as a separate websocket server, over a Hazelcast topic.  When disabled
+ * it behaves as the {@link EntityChangeBus} and never starts Hazelcast.
+ */
+public class HazelcastEntityChangeBus extends EntityChangeBus
+        implements MessageListener<TopicBatch<EntityChange>> {
+
+    private static final Logger logger = LoggerFactory.getLogger( HazelcastEntityChangeBus.class );
+
+    public static final String TOPIC = "usergrid.entity.changes";
+
+    private ITopic<TopicBatch<EntityChange>> topic;
+
+    private boolean enabled = false;
+
+
+    public void setEnabled( boolean enabled ) {
+        this.enabled = enabled;
+    }
+
+
+    @Override
+    public void init() {
+        if ( enabled ) {
+            topic = Hazelcast.getTopic( TOPIC );
+            topic.addMessageListener( this );
+
+            logger.info( "Sending entity changes to the cluster as {}", getBusId() );
+        }
+
+        super.init();
+    }
+
+
+    @Override
+    protected boolean isRemote() {
+        return enabled;
+    }
+
+
+    @Override
+    protected void send( TopicBatch<EntityChange> batch ) {
+        topic.publish( batch );
+    }
+
+
+    @Override
+    public void onMessage( TopicBatch<EntityChange> batch ) {
+        receive( batch );
+    }
+}
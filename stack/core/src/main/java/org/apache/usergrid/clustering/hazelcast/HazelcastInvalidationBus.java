@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.clustering.hazelcast;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.clustering.Invalidation;
+import org.apache.usergrid.clustering.InvalidationListener;
+import org.apache.usergrid.clustering.TopicBatch;
+import org.apache.usergrid.clustering.local.LocalInvalidationBus;
+
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.MessageListener;
+
+
+/**
+ * Sends invalidations to the other nodes over a Hazelcast topic per invalidation topic.  When disabled it behaves as
+ * the {@link LocalInvalidationBus} and never starts Hazelcast.
+ */
+public class HazelcastInvalidationBus extends LocalInvalidationBus
+        implements MessageListener<TopicBatch<Invalidation>> {
+
+    private static final Logger logger = LoggerFactory.getLogger( HazelcastInvalidationBus.class );
+
+    public static final String TOPIC_PREFIX = "usergrid.invalidation.";
+
+    private final Map<String, ITopic<TopicBatch<Invalidation>>> topics =
+            new ConcurrentHashMap<String, ITopic<TopicBatch<Invalidation>>>();
+
+    private boolean enabled = false;
+
+
+    public void setEnabled( boolean enabled ) {
+        this.enabled = enabled;
+    }
+
+
+    @Override
+    public void init() {
+        super.init();
+
+        if ( enabled ) {
+            logger.info( "Sending cache invalidations to the cluster as {}", getBusId() );
+        }
+    }
+
+
+    @Override
+    public void addListener( String topic, InvalidationListener listener ) {
+        super.addListener( topic, listener );
+
+        if ( enabled ) {
+            getTopic( topic );
+        }
+    }
+
+
+    @Override
+    protected boolean isRemote() {
+        return enabled;
+    }
+
+
+    @Override
+    protected void send( TopicBatch<Invalidation> batch ) {
+        getTopic( batch.getTopic() ).publish( batch );
+    }
+
+
+    @Override
+    public void onMessage( TopicBatch<Invalidation> batch ) {
+        receive( batch );
+    }
+
+
+    /** Get the Hazelcast topic, subscribing to it the first time it is used */
+    private ITopic<TopicBatch<Invalidation>> getTopic( String topic ) {
+        ITopic<TopicBatch<Invalidation>> hzTopic = topics.get( topic );
+
+        if ( hzTopic != null ) {
+            return hzTopic;
+        }
+
+        synchronized ( topics ) {
+            hzTopic = topics.get( topic );
+
+            if ( hzTopic == null ) {
+                hzTopic = Hazelcast.getTopic( TOPIC_PREFIX + topic );
+                hzTopic.addMessageListener( this );
+                topics.put( topic, hzTopic );
+            }
+        }
+
+        return hzTopic;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.clustering.local;
+
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.clustering.BatchingTopicBus;
+import org.apache.usergrid.clustering.Invalidation;
+import org.apache.usergrid.clustering.InvalidationBus;
+import org.apache.usergrid.clustering.InvalidationListener;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+
+/**
+ * Delivers invalidations to the listeners of this node only, for single node deployments and tests.  Clustered
+ * implementations override {@link #isRemote()} and {@link #send(org.apache.usergrid.clustering.TopicBatch)}, see
+ * {@link BatchingTopicBus} for how invalidations are then batched per topic and sent to the other nodes.
+ */
+public class LocalInvalidationBus extends BatchingTopicBus<Invalidation> implements InvalidationBus {
+
+    private static final Logger logger = LoggerFactory.getLogger( LocalInvalidationBus.class );
+
+    private final Counter invalidations = Metrics.newCounter( LocalInvalidationBus.class, "invalidations" );
+    private final Counter delivered = Metrics.newCounter( LocalInvalidationBus.class, "delivered" );
+    private final Counter listenerErrors = Metrics.newCounter( LocalInvalidationBus.class, "listener_errors" );
+
+    private final Map<String, List<InvalidationListener>> listeners =
+            new ConcurrentHashMap<String, List<InvalidationListener>>();
+
+
+    public LocalInvalidationBus() {
+        super( LocalInvalidationBus.class, "invalidation-flush-%d" );
+    }
+
+
+    @Override
+    public void addListener( String topic, InvalidationListener listener ) {
+        List<InvalidationListener> topicListeners = listeners.get( topic );
+
+        if ( topicListeners == null ) {
+            synchronized ( listeners ) {
+                topicListeners = listeners.get( topic );
+
+                if ( topicListeners == null ) {
+                    topicListeners = new CopyOnWriteArrayList<InvalidationListener>();
+                    listeners.put( topic, topicListeners );
+                }
+            }
+        }
+
+        topicListeners.add( listener );
+    }
+
+
+    @Override
+    public void removeListener( String topic, InvalidationListener listener ) {
+        List<InvalidationListener> topicListeners = listeners.get( topic );
+
+        if ( topicListeners != null ) {
+            topicListeners.remove( listener );
+        }
+    }
+
+
+    @Override
+    public void invalidate( String topic, Invalidation invalidation ) {
+        invalidations.inc();
+
+        deliver( topic, invalidation );
+
+        enqueue( topic, invalidation );
+    }
+
+
+    @Override
+    protected void deliver( String topic, Invalidation invalidation ) {
+        List<InvalidationListener> topicListeners = listeners.get( topic );
+
+        if ( topicListeners == null ) {
+            return;
+        }
+
+        for ( InvalidationListener listener : topicListeners ) {
+            try {
+                listener.onInvalidation( invalidation );
+                delivered.inc();
+            }
+            catch ( Exception e ) {
+                listenerErrors.inc();
+                logger.error( "Unable to deliver invalidation " + invalidation + " to listener " + listener, e );
+            }
+        }
+    }
+}
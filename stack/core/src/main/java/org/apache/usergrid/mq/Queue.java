@@ -49,11 +49,13 @@ public class Queue {
     public static final String QUEUE_MODIFIED = "modified";
     public static final String QUEUE_NEWEST = "newest";
     public static final String QUEUE_OLDEST = "oldest";
+    public static final String QUEUE_STRIPES = "stripes";
 
     @SuppressWarnings("rawtypes")
     public static final Map<String, Class> QUEUE_PROPERTIES =
             hashMap( QUEUE_PATH, ( Class ) String.class ).map( QUEUE_ID, UUID.class ).map( QUEUE_CREATED, Long.class )
-                    .map( QUEUE_MODIFIED, Long.class ).map( QUEUE_NEWEST, UUID.class ).map( QUEUE_OLDEST, UUID.class );
+                    .map( QUEUE_MODIFIED, Long.class ).map( QUEUE_NEWEST, UUID.class ).map( QUEUE_OLDEST, UUID.class )
+                    .map( QUEUE_STRIPES, Long.class );
 
     protected Map<String, Object> properties = new TreeMap<String, Object>( String.CASE_INSENSITIVE_ORDER );
 
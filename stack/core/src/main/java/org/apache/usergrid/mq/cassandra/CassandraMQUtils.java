@@ -148,8 +148,9 @@ public class CassandraMQUtils {
             if ( property.getValue() == null ) {
                 continue;
             }
+            // written by the queue manager with their own timestamps
             if ( Queue.QUEUE_ID.equals( property.getKey() ) || QUEUE_NEWEST.equals( property.getKey() ) || QUEUE_OLDEST
-                    .equals( property.getKey() ) ) {
+                    .equals( property.getKey() ) || Queue.QUEUE_STRIPES.equals( property.getKey() ) ) {
                 continue;
             }
             if ( QUEUE_PROPERTIES.containsKey( property.getKey() ) ) {
@@ -217,6 +218,20 @@ public class CassandraMQUtils {
     }
 
 
+    /** Get the row key of a stripe of the inbox shard, stripe 0 is the row of unstriped queues */
+    public static ByteBuffer getQueueShardRowKey( UUID uuid, long ts, int stripe ) {
+        if ( stripe == 0 ) {
+            return getQueueShardRowKey( uuid, ts );
+        }
+        ByteBuffer bytes = ByteBuffer.allocate( 28 );
+        bytes.putLong( uuid.getMostSignificantBits() );
+        bytes.putLong( uuid.getLeastSignificantBits() );
+        bytes.putLong( ts );
+        bytes.putInt( stripe );
+        return ( ByteBuffer ) bytes.rewind();
+    }
+
+
     /** Get a row key in format of queueId+clientId */
     public static ByteBuffer getQueueClientTransactionKey( UUID queueId, UUID clientId ) {
         ByteBuffer bytes = ByteBuffer.allocate( 32 );
@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 import org.apache.usergrid.locking.LockManager;
 import org.apache.usergrid.mq.QueueManager;
 import org.apache.usergrid.mq.QueueManagerFactory;
+import org.apache.usergrid.mq.cassandra.io.ConsumerReadAhead;
 import org.apache.usergrid.persistence.cassandra.CassandraService;
 import org.apache.usergrid.persistence.cassandra.CounterUtils;
 
@@ -40,6 +41,8 @@ public class QueueManagerFactoryImpl implements QueueManagerFactory {
     private CounterUtils counterUtils;
     private LockManager lockManager;
     private int lockTimeout;
+    private ConsumerReadAhead readAhead;
+    private QueueWaiters waiters;
 
     /**
      * Must be constructed with a CassandraClientPool.
@@ -55,6 +58,16 @@ public class QueueManagerFactoryImpl implements QueueManagerFactory {
     }
 
 
+    public void setReadAhead( ConsumerReadAhead readAhead ) {
+        this.readAhead = readAhead;
+    }
+
+
+    public void setWaiters( QueueWaiters waiters ) {
+        this.waiters = waiters;
+    }
+
+
     @Override
     public String getImpementationDescription() throws Exception {
         return IMPLEMENTATION_DESCRIPTION;
@@ -65,6 +78,8 @@ public class QueueManagerFactoryImpl implements QueueManagerFactory {
     public QueueManager getQueueManager( UUID applicationId ) {
         QueueManagerImpl qm = new QueueManagerImpl();
         qm.init( cass, counterUtils, lockManager, applicationId, lockTimeout );
+        qm.setReadAhead( readAhead );
+        qm.setWaiters( waiters );
         return qm;
         //return applicationContext.getAutowireCapableBeanFactory()
         //		.createBean(QueueManagerImpl.class)
@@ -28,6 +28,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,12 +46,14 @@ import org.apache.usergrid.mq.QueueResults;
 import org.apache.usergrid.mq.QueueSet;
 import org.apache.usergrid.mq.QueueSet.QueueInfo;
 import org.apache.usergrid.mq.cassandra.QueueIndexUpdate.QueueIndexEntry;
+import org.apache.usergrid.mq.cassandra.io.ConsumerReadAhead;
 import org.apache.usergrid.mq.cassandra.io.ConsumerTransaction;
 import org.apache.usergrid.mq.cassandra.io.EndSearch;
 import org.apache.usergrid.mq.cassandra.io.FilterSearch;
 import org.apache.usergrid.mq.cassandra.io.NoTransactionSearch;
 import org.apache.usergrid.mq.cassandra.io.QueueBounds;
 import org.apache.usergrid.mq.cassandra.io.QueueSearch;
+import org.apache.usergrid.mq.cassandra.io.ReadAheadSearch;
 import org.apache.usergrid.mq.cassandra.io.StartSearch;
 import org.apache.usergrid.persistence.AggregateCounter;
 import org.apache.usergrid.persistence.AggregateCounterSet;
@@ -60,11 +63,14 @@ import org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils;
 import org.apache.usergrid.persistence.cassandra.CassandraService;
 import org.apache.usergrid.persistence.cassandra.CounterUtils;
 import org.apache.usergrid.persistence.cassandra.CounterUtils.AggregateCounterSelection;
+import org.apache.usergrid.persistence.exceptions.QueueException;
 import org.apache.usergrid.persistence.exceptions.TransactionNotFoundException;
 import org.apache.usergrid.persistence.hector.CountingMutator;
 import org.apache.usergrid.utils.UUIDUtils;
 
 import com.fasterxml.uuid.UUIDComparator;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.beans.AbstractComposite.ComponentEquality;
@@ -90,6 +96,7 @@ import static org.apache.usergrid.mq.Queue.QUEUE_CREATED;
 import static org.apache.usergrid.mq.Queue.QUEUE_MODIFIED;
 import static org.apache.usergrid.mq.Queue.QUEUE_NEWEST;
 import static org.apache.usergrid.mq.Queue.QUEUE_OLDEST;
+import static org.apache.usergrid.mq.Queue.QUEUE_STRIPES;
 import static org.apache.usergrid.mq.Queue.getQueueId;
 import static org.apache.usergrid.mq.Queue.normalizeQueuePath;
 import static org.apache.usergrid.mq.QueuePosition.CONSUMER;
@@ -143,11 +150,23 @@ public class QueueManagerImpl implements QueueManager {
     public static final int DEFAULT_SEARCH_COUNT = 10000;
     public static final int ALL_COUNT = 100000000;
 
+    /** Upper bound of the inbox rows a time shard of a queue can be striped over */
+    public static final int MAX_QUEUE_STRIPES = 64;
+
+    /**
+     * Stripe counts of the queues posted to by this node. A node that has not seen a raise yet keeps writing to fewer
+     * rows, which readers always include, so the count only needs to be eventually fresh.
+     */
+    private static final Cache<String, Integer> queueStripes =
+            CacheBuilder.newBuilder().maximumSize( 10000 ).expireAfterWrite( 30, TimeUnit.SECONDS ).build();
+
     private UUID applicationId;
     private CassandraService cass;
     private CounterUtils counterUtils;
     private LockManager lockManager;
     private int lockTimeout;
+    private ConsumerReadAhead readAhead;
+    private QueueWaiters waiters;
 
 
 
@@ -166,6 +185,16 @@ public class QueueManagerImpl implements QueueManager {
     }
 
 
+    public void setReadAhead( ConsumerReadAhead readAhead ) {
+        this.readAhead = readAhead;
+    }
+
+
+    public void setWaiters( QueueWaiters waiters ) {
+        this.waiters = waiters;
+    }
+
+
     @Override
     public Message getMessage( UUID messageId ) {
         SliceQuery<UUID, String, ByteBuffer> q =
@@ -194,7 +223,11 @@ public class QueueManagerImpl implements QueueManager {
 
         logger.debug( "Adding message with id '{}' to queue '{}'", message.getUuid(), queueId );
 
-        batch.addInsertion( getQueueShardRowKey( queueId, shard_ts ), QUEUE_INBOX.getColumnFamily(),
+        // spread the messages of a hot queue over the rows of its stripes
+        int stripes = getQueueStripes( queueId );
+        int stripe = stripes > 1 ? Math.abs( message.getUuid().hashCode() % stripes ) : 0;
+
+        batch.addInsertion( getQueueShardRowKey( queueId, shard_ts, stripe ), QUEUE_INBOX.getColumnFamily(),
                 createColumn( message.getUuid(), ByteBuffer.allocate( 0 ), timestamp, ue, be ) );
 
         long oldest_ts = Long.MAX_VALUE - getTimestampInMicros( message.getUuid() );
@@ -227,6 +260,25 @@ public class QueueManagerImpl implements QueueManager {
     }
 
 
+    /** Get the number of inbox rows each time shard of the queue is striped over */
+    public int getQueueStripes( UUID queueId ) {
+        String cacheKey = applicationId + "/" + queueId;
+        Integer stripes = queueStripes.getIfPresent( cacheKey );
+        if ( stripes != null ) {
+            return stripes;
+        }
+
+        HColumn<String, Long> column =
+                HFactory.createColumnQuery( cass.getApplicationKeyspace( applicationId ), ue, se, le )
+                        .setColumnFamily( QUEUE_PROPERTIES.getColumnFamily() ).setKey( queueId )
+                        .setName( QUEUE_STRIPES ).execute().get();
+
+        stripes = column != null ? column.getValue().intValue() : 1;
+        queueStripes.put( cacheKey, stripes );
+        return stripes;
+    }
+
+
     @Override
     public Message postToQueue( String queuePath, Message message ) {
         long timestamp = cass.createTimestamp();
@@ -241,6 +293,8 @@ public class QueueManagerImpl implements QueueManager {
 
         batchExecute( batch, RETRY_COUNT );
 
+        messagePosted( queuePath );
+
         String firstSubscriberQueuePath = null;
         while ( true ) {
 
@@ -258,6 +312,10 @@ public class QueueManagerImpl implements QueueManager {
             }
             batchExecute( batch, RETRY_COUNT );
 
+            for ( QueueInfo q : subscribers.getQueues() ) {
+                messagePosted( q.getPath() );
+            }
+
             if ( !subscribers.hasMore() ) {
                 break;
             }
@@ -267,6 +325,14 @@ public class QueueManagerImpl implements QueueManager {
     }
 
 
+    /** Wake the readers of this node waiting on the queue */
+    private void messagePosted( String queuePath ) {
+        if ( waiters != null ) {
+            waiters.messagePosted( applicationId, queuePath );
+        }
+    }
+
+
     @Override
     public List<Message> postToQueue( String queuePath, List<Message> messages ) {
 
@@ -388,6 +454,11 @@ public class QueueManagerImpl implements QueueManager {
             if ( query.getTimeout() > 0 ) {
                 search = new ConsumerTransaction( applicationId, ko, lockManager, cass, lockTimeout );
             }
+            // a consumer without an id is a new consumer on every read, there is nothing to read ahead for
+            else if ( readAhead != null && readAhead.isEnabled() && ( query.getPosition() == LAST
+                    || query.getConsumerId() != null ) ) {
+                search = new ReadAheadSearch( applicationId, ko, readAhead );
+            }
             else {
                 search = new NoTransactionSearch( ko );
             }
@@ -959,6 +1030,20 @@ public class QueueManagerImpl implements QueueManager {
 
         addQueueToMutator( batch, queue, timestamp );
 
+        if ( queue.getProperties().get( QUEUE_STRIPES ) != null ) {
+            long stripes = queue.getLongProperty( QUEUE_STRIPES );
+            if ( ( stripes < 1 ) || ( stripes > MAX_QUEUE_STRIPES ) ) {
+                throw new QueueException( "Queue stripes must be between 1 and " + MAX_QUEUE_STRIPES );
+            }
+
+            // the count is its own timestamp, so the highest count ever set wins and rows are never dropped
+            // from the reads while messages may still be in them
+            batch.addInsertion( bytebuffer( queue.getUuid() ), QUEUE_PROPERTIES.getColumnFamily(),
+                    createColumn( QUEUE_STRIPES, stripes, stripes, se, le ) );
+
+            queueStripes.invalidate( applicationId + "/" + queue.getUuid() );
+        }
+
         try {
             batchUpdateQueuePropertiesIndexes( batch, queuePath, queue.getUuid(), queue.getProperties(),
                     timestampUuid );
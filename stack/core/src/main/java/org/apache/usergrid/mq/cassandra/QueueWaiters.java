@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.persistence.cassandra.CassandraService;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+
+import me.prettyprint.hector.api.beans.HColumn;
+
+import static me.prettyprint.hector.api.factory.HFactory.createColumnQuery;
+import static org.apache.usergrid.mq.Queue.QUEUE_NEWEST;
+import static org.apache.usergrid.mq.Queue.getQueueId;
+import static org.apache.usergrid.mq.Queue.normalizeQueuePath;
+import static org.apache.usergrid.mq.cassandra.QueuesCF.QUEUE_PROPERTIES;
+import static org.apache.usergrid.utils.UUIDUtils.getTimestampInMillis;
+import static org.apache.usergrid.persistence.cassandra.Serializers.*;
+
+
+/**
+ * Node local registry of the readers waiting for messages to be posted to an empty queue.  Posts made through the
+ * queue managers of this node wake the waiters of the queue immediately.  Posts made on other nodes are noticed by
+ * polling the newest message id of each queue that has waiters, one column read per queue and poll interval no matter
+ * how many readers wait on it, and wake the waiters that started waiting before that message was posted.  Remote
+ * posts are ordered by their time uuid, so clock drift between nodes can delay or hasten such a wake by the drift.
+ * <p/>
+ * A waiter is called at most once and is removed before it is called.  A poll interval of 0 disables the polling, and
+ * only local posts wake waiters.
+ */
+public class QueueWaiters {
+
+    private static final Logger logger = LoggerFactory.getLogger( QueueWaiters.class );
+
+    private final Counter wokenLocal = Metrics.newCounter( QueueWaiters.class, "woken_local" );
+    private final Counter wokenRemote = Metrics.newCounter( QueueWaiters.class, "woken_remote" );
+    private final Counter polls = Metrics.newCounter( QueueWaiters.class, "polls" );
+    private final Counter waiterErrors = Metrics.newCounter( QueueWaiters.class, "waiter_errors" );
+
+
+    /** Called once messages may be available */
+    public interface Waiter {
+        public void onMessages();
+    }
+
+
+    private CassandraService cass;
+    private long pollInterval = 1000;
+
+    /** app/queue to the registrations waiting on it, guarded by this */
+    private final Map<String, List<Registration>> waiters = new HashMap<String, List<Registration>>();
+    private int waiting = 0;
+
+    private ScheduledExecutorService poller;
+
+
+    public QueueWaiters() {
+        Metrics.newGauge( QueueWaiters.class, "waiting", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                synchronized ( QueueWaiters.this ) {
+                    return waiting;
+                }
+            }
+        } );
+    }
+
+
+    public void init() {
+        if ( pollInterval > 0 && cass != null ) {
+            poller = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat( "queue-waiters-%d" ).setDaemon( true ).build() );
+            poller.scheduleWithFixedDelay( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        poll();
+                    }
+                    catch ( Exception e ) {
+                        logger.error( "Unable to poll the queues with waiters", e );
+                    }
+                }
+            }, pollInterval, pollInterval, TimeUnit.MILLISECONDS );
+        }
+    }
+
+
+    public void destroy() {
+        if ( poller != null ) {
+            poller.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Wait for messages posted to the queue
+     *
+     * @param since The time in milliseconds the reader last found the queue empty, messages posted on other nodes
+     * before then don't wake the waiter
+     */
+    public void addWaiter( UUID applicationId, String queuePath, long since, Waiter waiter ) {
+        String key = key( applicationId, queuePath );
+        synchronized ( this ) {
+            List<Registration> registrations = waiters.get( key );
+            if ( registrations == null ) {
+                registrations = new ArrayList<Registration>();
+                waiters.put( key, registrations );
+            }
+            registrations.add( new Registration( applicationId, normalizeQueuePath( queuePath ), since, waiter ) );
+            waiting++;
+        }
+    }
+
+
+    /**
+     * Stop waiting, when the wait timed out
+     *
+     * @return false if the waiter was already woken
+     */
+    public boolean removeWaiter( UUID applicationId, String queuePath, Waiter waiter ) {
+        String key = key( applicationId, queuePath );
+        synchronized ( this ) {
+            List<Registration> registrations = waiters.get( key );
+            if ( registrations == null ) {
+                return false;
+            }
+            for ( Iterator<Registration> it = registrations.iterator(); it.hasNext(); ) {
+                if ( it.next().waiter == waiter ) {
+                    it.remove();
+                    waiting--;
+                    if ( registrations.isEmpty() ) {
+                        waiters.remove( key );
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    /** Wake every waiter of the queue, called once a message posted on this node is written */
+    public void messagePosted( UUID applicationId, String queuePath ) {
+        List<Registration> woken;
+        synchronized ( this ) {
+            woken = waiters.remove( key( applicationId, queuePath ) );
+            if ( woken == null ) {
+                return;
+            }
+            waiting -= woken.size();
+        }
+
+        wokenLocal.inc( woken.size() );
+        wake( woken );
+    }
+
+
+    /** Read the newest message of every queue with waiters, and wake the waiters that are older */
+    void poll() {
+        List<Registration> queues = new ArrayList<Registration>();
+        synchronized ( this ) {
+            for ( List<Registration> registrations : waiters.values() ) {
+                queues.add( registrations.get( 0 ) );
+            }
+        }
+
+        for ( Registration queue : queues ) {
+            polls.inc();
+
+            HColumn<String, UUID> newest =
+                    createColumnQuery( cass.getApplicationKeyspace( queue.applicationId ), ue, se, ue )
+                            .setColumnFamily( QUEUE_PROPERTIES.getColumnFamily() )
+                            .setKey( getQueueId( queue.queuePath ) ).setName( QUEUE_NEWEST ).execute().get();
+
+            if ( newest != null ) {
+                postedAt( queue.applicationId, queue.queuePath, getTimestampInMillis( newest.getValue() ) );
+            }
+        }
+    }
+
+
+    /** Wake the waiters of the queue that started waiting before the time a message was posted */
+    void postedAt( UUID applicationId, String queuePath, long timestamp ) {
+        String key = key( applicationId, queuePath );
+        List<Registration> woken = new ArrayList<Registration>();
+        synchronized ( this ) {
+            List<Registration> registrations = waiters.get( key );
+            if ( registrations == null ) {
+                return;
+            }
+            for ( Iterator<Registration> it = registrations.iterator(); it.hasNext(); ) {
+                Registration registration = it.next();
+                if ( registration.since <= timestamp ) {
+                    it.remove();
+                    woken.add( registration );
+                }
+            }
+            if ( registrations.isEmpty() ) {
+                waiters.remove( key );
+            }
+            waiting -= woken.size();
+        }
+
+        wokenRemote.inc( woken.size() );
+        wake( woken );
+    }
+
+
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+
+
+    private void wake( List<Registration> registrations ) {
+        for ( Registration registration : registrations ) {
+            try {
+                registration.waiter.onMessages();
+            }
+            catch ( Exception e ) {
+                waiterErrors.inc();
+                logger.error( "Unable to wake waiter of queue {}", registration.queuePath, e );
+            }
+        }
+    }
+
+
+    private static String key( UUID applicationId, String queuePath ) {
+        return applicationId + normalizeQueuePath( queuePath );
+    }
+
+
+    public void setCassandraService( CassandraService cass ) {
+        this.cass = cass;
+    }
+
+
+    public void setPollInterval( long pollInterval ) {
+        this.pollInterval = pollInterval;
+    }
+
+
+    private static class Registration {
+
+        private final UUID applicationId;
+        private final String queuePath;
+        private final long since;
+        private final Waiter waiter;
+
+
+        private Registration( UUID applicationId, String queuePath, long since, Waiter waiter ) {
+            this.applicationId = applicationId;
+            this.queuePath = queuePath;
+            this.since = since;
+            this.waiter = waiter;
+        }
+    }
+}
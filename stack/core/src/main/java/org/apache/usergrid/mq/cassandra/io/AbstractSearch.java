@@ -36,6 +36,8 @@ import org.apache.usergrid.persistence.exceptions.QueueException;
 import org.apache.usergrid.persistence.hector.CountingMutator;
 import org.apache.usergrid.utils.UUIDUtils;
 
+import com.fasterxml.uuid.UUIDComparator;
+
 import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.beans.ColumnSlice;
 import me.prettyprint.hector.api.beans.HColumn;
@@ -51,6 +53,7 @@ import static me.prettyprint.hector.api.factory.HFactory.createMultigetSliceQuer
 import static me.prettyprint.hector.api.factory.HFactory.createSliceQuery;
 import static org.apache.usergrid.mq.Queue.QUEUE_NEWEST;
 import static org.apache.usergrid.mq.Queue.QUEUE_OLDEST;
+import static org.apache.usergrid.mq.Queue.QUEUE_STRIPES;
 import static org.apache.usergrid.mq.cassandra.CassandraMQUtils.deserializeMessage;
 import static org.apache.usergrid.mq.cassandra.CassandraMQUtils.getQueueShardRowKey;
 import static org.apache.usergrid.mq.cassandra.QueueManagerImpl.ALL_COUNT;
@@ -72,6 +75,9 @@ public abstract class AbstractSearch implements QueueSearch
 
     private static final Logger logger = LoggerFactory.getLogger( AbstractSearch.class );
 
+    /** Order of the TimeUUIDType column names of the inbox */
+    private static final Comparator<UUID> TIME_ORDER = new UUIDComparator();
+
     protected Keyspace ko;
 
 
@@ -210,25 +216,20 @@ public abstract class AbstractSearch implements QueueSearch
                 slice_end = finish_uuid;
             }
 
-            SliceQuery<ByteBuffer, UUID, ByteBuffer> q = createSliceQuery( ko, be, ue, be );
-            q.setColumnFamily( QUEUE_INBOX.getColumnFamily() );
-            q.setKey( getQueueShardRowKey( queueId, current_ts_shard ) );
-            q.setRange( slice_start, slice_end, params.reversed, params.limit + 1 );
-
-            List<HColumn<UUID, ByteBuffer>> cassResults = q.execute().get().getColumns();
+            List<UUID> cassResults =
+                    getShardRange( queueId, current_ts_shard, bounds.getStripes(), slice_start, slice_end,
+                            params.reversed, params.limit + 1 );
 
             for ( int i = 0; i < cassResults.size(); i++ )
             {
-                HColumn<UUID, ByteBuffer> column = cassResults.get( i );
+                UUID id = cassResults.get( i );
 
                 // skip the first one, we've already read it
-                if ( i == 0 && params.skipFirst && params.startId.equals( column.getName() ) )
+                if ( i == 0 && params.skipFirst && params.startId.equals( id ) )
                 {
                     continue;
                 }
 
-                UUID id = column.getName();
-
                 results.add( id );
 
                 logger.debug( "Added id '{}' to result set for queue id '{}'", id, queueId );
@@ -253,6 +254,59 @@ public abstract class AbstractSearch implements QueueSearch
     }
 
 
+    /**
+     * Read a range of message ids from one time shard of the inbox. A striped queue spreads the shard over several
+     * rows, these are read in a single multiget and merged back into time order.
+     */
+    private List<UUID> getShardRange( UUID queueId, long shard, int stripes, UUID start, UUID finish,
+                                      boolean reversed, int count )
+    {
+        if ( stripes <= 1 )
+        {
+            SliceQuery<ByteBuffer, UUID, ByteBuffer> q = createSliceQuery( ko, be, ue, be );
+            q.setColumnFamily( QUEUE_INBOX.getColumnFamily() );
+            q.setKey( getQueueShardRowKey( queueId, shard ) );
+            q.setRange( start, finish, reversed, count );
+
+            List<HColumn<UUID, ByteBuffer>> columns = q.execute().get().getColumns();
+            List<UUID> ids = new ArrayList<UUID>( columns.size() );
+
+            for ( HColumn<UUID, ByteBuffer> column : columns )
+            {
+                ids.add( column.getName() );
+            }
+
+            return ids;
+        }
+
+        List<ByteBuffer> keys = new ArrayList<ByteBuffer>( stripes );
+
+        for ( int stripe = 0; stripe < stripes; stripe++ )
+        {
+            keys.add( getQueueShardRowKey( queueId, shard, stripe ) );
+        }
+
+        Rows<ByteBuffer, UUID, ByteBuffer> rows =
+                createMultigetSliceQuery( ko, be, ue, be ).setColumnFamily( QUEUE_INBOX.getColumnFamily() )
+                        .setKeys( keys ).setRange( start, finish, reversed, count ).execute().get();
+
+        List<UUID> ids = new ArrayList<UUID>();
+
+        for ( Row<ByteBuffer, UUID, ByteBuffer> row : rows )
+        {
+            for ( HColumn<UUID, ByteBuffer> column : row.getColumnSlice().getColumns() )
+            {
+                ids.add( column.getName() );
+            }
+        }
+
+        Collections.sort( ids, reversed ? Collections.reverseOrder( TIME_ORDER ) : TIME_ORDER );
+
+        // every stripe returned up to count ids, only the first count of the merge are in range
+        return ids.size() > count ? ids.subList( 0, count ) : ids;
+    }
+
+
     /**
      * Get the bounds for the queue
      *
@@ -262,15 +316,19 @@ public abstract class AbstractSearch implements QueueSearch
     {
         try
         {
-            ColumnSlice<String, UUID> result = HFactory.createSliceQuery( ko, ue, se, ue ).setKey( queueId )
-                                                       .setColumnNames( QUEUE_NEWEST, QUEUE_OLDEST )
-                                                       .setColumnFamily( QUEUE_PROPERTIES.getColumnFamily() ).execute()
-                                                       .get();
+            ColumnSlice<String, ByteBuffer> result = HFactory.createSliceQuery( ko, ue, se, be ).setKey( queueId )
+                                                             .setColumnNames( QUEUE_NEWEST, QUEUE_OLDEST,
+                                                                     QUEUE_STRIPES )
+                                                             .setColumnFamily( QUEUE_PROPERTIES.getColumnFamily() )
+                                                             .execute().get();
             if ( result != null && result.getColumnByName( QUEUE_OLDEST ) != null
                     && result.getColumnByName( QUEUE_NEWEST ) != null )
             {
-                return new QueueBounds( result.getColumnByName( QUEUE_OLDEST ).getValue(),
-                        result.getColumnByName( QUEUE_NEWEST ).getValue() );
+                HColumn<String, ByteBuffer> stripes = result.getColumnByName( QUEUE_STRIPES );
+
+                return new QueueBounds( ue.fromByteBuffer( result.getColumnByName( QUEUE_OLDEST ).getValue() ),
+                        ue.fromByteBuffer( result.getColumnByName( QUEUE_NEWEST ).getValue() ),
+                        stripes != null ? le.fromByteBuffer( stripes.getValue() ).intValue() : 1 );
             }
         }
         catch ( Exception e )
@@ -0,0 +1,359 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra.io;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.mq.Message;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+
+
+/**
+ * Node local read ahead for consumers that poll a queue without transactions.  After each read, the messages that
+ * follow the new consumer position are loaded in the background, and the next read of the consumer is answered from
+ * memory instead of reading the queue bounds, slicing the inbox and loading the message bodies.
+ * <p/>
+ * The consumer position stored in Cassandra stays the authority: every read still fetches it, and the buffer is only
+ * used when it starts at that position and holds at least the requested number of messages.  A consumer that moved
+ * on another node, or reads more than is buffered, falls back to a regular read.  Reads answered from the buffer
+ * return the messages the regular read would have returned when the buffer was filled, a message posted since then
+ * with an older time uuid than the buffered ones is not returned, as it would not be by a regular read that already
+ * passed it.
+ * <p/>
+ * The number of buffered messages across all consumers is bounded, and buffers of consumers that stopped polling are
+ * dropped after the idle timeout.  A prefetch size of 0 disables read ahead.
+ */
+public class ConsumerReadAhead {
+
+    private static final Logger logger = LoggerFactory.getLogger( ConsumerReadAhead.class );
+
+    private final Counter hits = Metrics.newCounter( ConsumerReadAhead.class, "hits" );
+    private final Counter misses = Metrics.newCounter( ConsumerReadAhead.class, "misses" );
+    private final Counter prefetched = Metrics.newCounter( ConsumerReadAhead.class, "prefetched" );
+    private final Counter rejected = Metrics.newCounter( ConsumerReadAhead.class, "rejected" );
+    private final Counter failures = Metrics.newCounter( ConsumerReadAhead.class, "failures" );
+
+    /** Messages held by all buffers */
+    private final AtomicInteger buffered = new AtomicInteger();
+
+    private int prefetchSize = 50;
+    private int maxBufferedMessages = 50000;
+    private long idleTimeout = 60;
+    private int threads = 4;
+
+    private Cache<String, Buffer> buffers;
+    private Executor executor;
+
+
+    public ConsumerReadAhead() {
+        Metrics.newGauge( ConsumerReadAhead.class, "buffered", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return buffered.get();
+            }
+        } );
+        Metrics.newGauge( ConsumerReadAhead.class, "hit_ratio", new Gauge<Double>() {
+            @Override
+            public Double value() {
+                long reads = hits.count() + misses.count();
+                return reads == 0 ? 0 : ( double ) hits.count() / reads;
+            }
+        } );
+    }
+
+
+    public void init() {
+        buffers = CacheBuilder.newBuilder().expireAfterAccess( idleTimeout, TimeUnit.SECONDS )
+                              .removalListener( new RemovalListener<String, Buffer>() {
+                                  @Override
+                                  public void onRemoval( RemovalNotification<String, Buffer> notification ) {
+                                      notification.getValue().discard();
+                                  }
+                              } ).build();
+
+        if ( executor == null && isEnabled() ) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>( maxBufferedMessages / Math.max( prefetchSize, 1 ) + 1 ),
+                    new ThreadFactoryBuilder().setNameFormat( "queue-read-ahead-%d" ).setDaemon( true ).build() );
+            pool.allowCoreThreadTimeOut( true );
+            executor = pool;
+        }
+    }
+
+
+    public void destroy() {
+        if ( executor instanceof ThreadPoolExecutor ) {
+            ( ( ThreadPoolExecutor ) executor ).shutdownNow();
+        }
+        if ( buffers != null ) {
+            buffers.invalidateAll();
+        }
+    }
+
+
+    public boolean isEnabled() {
+        return prefetchSize > 0;
+    }
+
+
+    /**
+     * Take the messages following the position from the consumer's buffer
+     *
+     * @return The messages, or null if the buffer can't answer the read
+     */
+    public List<Message> take( UUID applicationId, UUID queueId, UUID consumerId, UUID position, int limit ) {
+        Buffer buffer = buffers.getIfPresent( key( applicationId, queueId, consumerId ) );
+
+        List<Message> messages = buffer == null ? null : buffer.take( position, limit );
+
+        if ( messages == null ) {
+            misses.inc();
+        }
+        else {
+            hits.inc();
+        }
+
+        return messages;
+    }
+
+
+    /** Fill the consumer's buffer with the messages following the position, in the background */
+    public void readAhead( final ReadAheadSearch search, UUID applicationId, final UUID queueId, UUID consumerId,
+                           UUID position ) {
+        if ( !isEnabled() ) {
+            return;
+        }
+
+        String key = key( applicationId, queueId, consumerId );
+        Buffer buffer = buffers.getIfPresent( key );
+        if ( buffer == null ) {
+            buffer = new Buffer( position );
+            Buffer existing = buffers.asMap().putIfAbsent( key, buffer );
+            if ( existing != null ) {
+                buffer = existing;
+            }
+        }
+
+        buffer.reset( position );
+
+        final int count = buffer.startFetch();
+        if ( count == 0 ) {
+            return;
+        }
+
+        if ( buffered.get() + count > maxBufferedMessages ) {
+            rejected.inc();
+            buffer.finishFetch( Collections.<Message>emptyList() );
+            return;
+        }
+
+        final Buffer target = buffer;
+        try {
+            executor.execute( new Runnable() {
+                @Override
+                public void run() {
+                    List<Message> messages = Collections.emptyList();
+                    try {
+                        messages = search.fetch( queueId, target.getFetchStart(), count );
+                    }
+                    catch ( Exception e ) {
+                        failures.inc();
+                        logger.warn( "Unable to read ahead of queue {}", queueId, e );
+                    }
+                    finally {
+                        target.finishFetch( messages );
+                    }
+                }
+            } );
+        }
+        catch ( RejectedExecutionException e ) {
+            rejected.inc();
+            buffer.finishFetch( Collections.<Message>emptyList() );
+        }
+    }
+
+
+    private static String key( UUID applicationId, UUID queueId, UUID consumerId ) {
+        return applicationId + "/" + queueId + "/" + consumerId;
+    }
+
+
+    public int getPrefetchSize() {
+        return prefetchSize;
+    }
+
+
+    public void setPrefetchSize( int prefetchSize ) {
+        this.prefetchSize = prefetchSize;
+    }
+
+
+    public int getMaxBufferedMessages() {
+        return maxBufferedMessages;
+    }
+
+
+    public void setMaxBufferedMessages( int maxBufferedMessages ) {
+        this.maxBufferedMessages = maxBufferedMessages;
+    }
+
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+
+    /** Seconds after which the buffer of a consumer that stopped reading is dropped */
+    public void setIdleTimeout( long idleTimeout ) {
+        this.idleTimeout = idleTimeout;
+    }
+
+
+    public void setThreads( int threads ) {
+        this.threads = threads;
+    }
+
+
+    /** Runs the background reads, for tests */
+    void setExecutor( Executor executor ) {
+        this.executor = executor;
+    }
+
+
+    /** The messages read ahead of one consumer */
+    private class Buffer {
+
+        /** The consumer position the buffered messages follow */
+        private UUID position;
+        private final LinkedList<Message> messages = new LinkedList<Message>();
+
+        /** Where the running fetch started, the end of the buffer when it was started */
+        private UUID fetchStart;
+        private int fetchCount;
+        private boolean fetching;
+
+        /** The last fetch reached the end of the queue, there is nothing to read ahead until the consumer misses */
+        private boolean atEnd;
+        private boolean discarded;
+
+
+        private Buffer( UUID position ) {
+            this.position = position;
+        }
+
+
+        private synchronized List<Message> take( UUID position, int limit ) {
+            if ( discarded || !Objects.equal( this.position, position ) || messages.size() < limit ) {
+                return null;
+            }
+
+            List<Message> taken = new ArrayList<Message>( limit );
+            for ( int i = 0; i < limit; i++ ) {
+                taken.add( messages.removeFirst() );
+            }
+            buffered.addAndGet( -limit );
+
+            if ( !taken.isEmpty() ) {
+                this.position = taken.get( taken.size() - 1 ).getUuid();
+            }
+
+            return taken;
+        }
+
+
+        /** Drop the buffered messages if the consumer is no longer where the buffer starts */
+        private synchronized void reset( UUID position ) {
+            if ( Objects.equal( this.position, position ) ) {
+                return;
+            }
+
+            buffered.addAndGet( -messages.size() );
+            messages.clear();
+            this.position = position;
+            atEnd = false;
+        }
+
+
+        /** @return The number of messages to fetch, 0 if the buffer is full enough or already being filled */
+        private synchronized int startFetch() {
+            // refill once half of the read ahead has been consumed
+            if ( discarded || fetching || atEnd || messages.size() > prefetchSize / 2 ) {
+                return 0;
+            }
+
+            fetching = true;
+            fetchStart = end();
+            fetchCount = prefetchSize - messages.size();
+            return fetchCount;
+        }
+
+
+        private synchronized UUID getFetchStart() {
+            return fetchStart;
+        }
+
+
+        private synchronized void finishFetch( List<Message> fetched ) {
+            fetching = false;
+
+            // the consumer moved elsewhere while the fetch ran, the messages don't follow the buffer
+            if ( discarded || !Objects.equal( fetchStart, end() ) ) {
+                return;
+            }
+
+            atEnd = fetched.size() < fetchCount;
+            messages.addAll( fetched );
+            buffered.addAndGet( fetched.size() );
+            prefetched.inc( fetched.size() );
+        }
+
+
+        private synchronized void discard() {
+            discarded = true;
+            buffered.addAndGet( -messages.size() );
+            messages.clear();
+        }
+
+
+        /** The last buffered message, or the position if the buffer is empty */
+        private UUID end() {
+            return messages.isEmpty() ? position : messages.getLast().getUuid();
+        }
+    }
+}
@@ -220,7 +220,7 @@ public class ConsumerTransaction extends NoTransactionSearch
 
             // with transactional reads, we can't read into the future, set the bounds
             // to be now
-            bounds = new QueueBounds( bounds.getOldest(), startTimeUUID );
+            bounds = new QueueBounds( bounds.getOldest(), startTimeUUID, bounds.getStripes() );
 
             SearchParam params = getParams( queueId, consumerId, query );
 
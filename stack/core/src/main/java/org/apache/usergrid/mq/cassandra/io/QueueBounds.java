@@ -26,11 +26,21 @@ public class QueueBounds
     private final UUID oldest;
     private final UUID newest;
 
+    /** The number of inbox rows of each time shard */
+    private final int stripes;
+
 
     public QueueBounds( UUID oldest, UUID newest )
+    {
+        this( oldest, newest, 1 );
+    }
+
+
+    public QueueBounds( UUID oldest, UUID newest, int stripes )
     {
         this.oldest = oldest;
         this.newest = newest;
+        this.stripes = stripes;
     }
 
 
@@ -46,6 +56,12 @@ public class QueueBounds
     }
 
 
+    public int getStripes()
+    {
+        return stripes;
+    }
+
+
     @Override
     public int hashCode()
     {
@@ -53,6 +69,7 @@ public class QueueBounds
         int result = 1;
         result = ( prime * result ) + ( ( newest == null ) ? 0 : newest.hashCode() );
         result = ( prime * result ) + ( ( oldest == null ) ? 0 : oldest.hashCode() );
+        result = ( prime * result ) + stripes;
         return result;
     }
 
@@ -95,6 +112,10 @@ public class QueueBounds
         {
             return false;
         }
+        if ( stripes != other.stripes )
+        {
+            return false;
+        }
         return true;
     }
 
@@ -102,6 +123,6 @@ public class QueueBounds
     @Override
     public String toString()
     {
-        return "QueueBounds [oldest=" + oldest + ", newest=" + newest + "]";
+        return "QueueBounds [oldest=" + oldest + ", newest=" + newest + ", stripes=" + stripes + "]";
     }
 }
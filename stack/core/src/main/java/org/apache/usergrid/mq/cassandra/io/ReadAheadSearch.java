@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra.io;
+
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.usergrid.mq.Message;
+import org.apache.usergrid.mq.QueueQuery;
+import org.apache.usergrid.mq.QueueResults;
+
+import me.prettyprint.hector.api.Keyspace;
+
+import static org.apache.usergrid.mq.cassandra.CassandraMQUtils.getConsumerId;
+import static org.apache.usergrid.mq.cassandra.CassandraMQUtils.getQueueId;
+
+
+/**
+ * Reads without transactions from the consumer position like {@link NoTransactionSearch}, answering from the
+ * consumer's {@link ConsumerReadAhead} buffer when it can, and reading ahead of the new position
+ */
+public class ReadAheadSearch extends NoTransactionSearch
+{
+
+    private final UUID applicationId;
+    private final ConsumerReadAhead readAhead;
+
+
+    public ReadAheadSearch( UUID applicationId, Keyspace ko, ConsumerReadAhead readAhead )
+    {
+        super( ko );
+        this.applicationId = applicationId;
+        this.readAhead = readAhead;
+    }
+
+
+    @Override
+    public QueueResults getResults( String queuePath, QueueQuery query )
+    {
+        UUID queueId = getQueueId( queuePath );
+        UUID consumerId = getConsumerId( queueId, query );
+        UUID position = getConsumerQueuePosition( queueId, consumerId );
+        int limit = query.getLimit( DEFAULT_READ );
+
+        List<Message> messages = readAhead.take( applicationId, queueId, consumerId, position, limit );
+        boolean hit = messages != null;
+
+        if ( !hit )
+        {
+            QueueBounds bounds = getQueueBounds( queueId );
+            SearchParam params = new SearchParam( position, false, position != null, limit );
+            messages = loadMessages( getIds( queueId, consumerId, bounds, params ), params.reversed );
+        }
+
+        QueueResults results = createResults( messages, queuePath, queueId, consumerId );
+
+        writeClientPointer( queueId, consumerId, results.getLast() );
+
+        // a regular read that came back short reached the end of the queue, there is nothing to read ahead
+        if ( hit || messages.size() >= limit )
+        {
+            UUID next = results.getLast() != null ? results.getLast() : position;
+            readAhead.readAhead( this, applicationId, queueId, consumerId, next );
+        }
+
+        return results;
+    }
+
+
+    /** Load the messages following the start id, called by the read ahead in the background */
+    List<Message> fetch( UUID queueId, UUID startId, int count )
+    {
+        QueueBounds bounds = getQueueBounds( queueId );
+
+        if ( bounds == null )
+        {
+            return Collections.emptyList();
+        }
+
+        SearchParam params = new SearchParam( startId, false, startId != null, count );
+        return loadMessages( getQueueRange( queueId, bounds, params ), params.reversed );
+    }
+}
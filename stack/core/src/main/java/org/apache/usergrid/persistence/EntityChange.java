@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence;
+
+
+import java.io.Serializable;
+import java.util.UUID;
+
+
+/**
+ * A change to an entity or one of its connections, raised after the change has been written.  Carries only the
+ * identity of the entity, subscribers are expected to read the entity if they need its state.
+ */
+public class EntityChange implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public enum Operation {
+        CREATE, UPDATE, DELETE, CONNECT, DISCONNECT
+    }
+
+
+    private final UUID applicationId;
+    private final Operation operation;
+    private final String entityType;
+    private final UUID entityId;
+    private final String connectionType;
+    private final UUID connectedEntityId;
+    private final long timestamp;
+
+
+    public EntityChange( UUID applicationId, Operation operation, String entityType, UUID entityId,
+                         long timestamp ) {
+        this( applicationId, operation, entityType, entityId, null, null, timestamp );
+    }
+
+
+    public EntityChange( UUID applicationId, Operation operation, String entityType, UUID entityId,
+                         String connectionType, UUID connectedEntityId, long timestamp ) {
+        this.applicationId = applicationId;
+        this.operation = operation;
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.connectionType = connectionType;
+        this.connectedEntityId = connectedEntityId;
+        this.timestamp = timestamp;
+    }
+
+
+    public UUID getApplicationId() {
+        return applicationId;
+    }
+
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+
+    public UUID getEntityId() {
+        return entityId;
+    }
+
+
+    /** The connection type for connect and disconnect operations, otherwise null */
+    public String getConnectionType() {
+        return connectionType;
+    }
+
+
+    /** The connected entity for connect and disconnect operations, otherwise null */
+    public UUID getConnectedEntityId() {
+        return connectedEntityId;
+    }
+
+
+    /** The time of the change in milliseconds */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+
+    @Override
+    public String toString() {
+        return operation + " " + entityType + " " + entityId + ( connectionType != null ?
+                                                                 " " + connectionType + " " + connectedEntityId : "" );
+    }
+}
@@ -84,6 +84,19 @@ public interface EntityManager {
      */
     public Entity create( UUID importId, String entityType, Map<String, Object> properties ) throws Exception;
 
+    /**
+     * Creates entities of the specified type in batched mutations.  Large batches are written in chunks, so a failure
+     * part way through may leave the earlier entities of the batch created.
+     *
+     * @param entityType the type of the entities to create.
+     * @param properties property values of each entity to create.
+     *
+     * @return the newly created entity objects, in the order of the properties.
+     *
+     * @throws Exception the exception
+     */
+    public List<Entity> createAll( String entityType, List<Map<String, Object>> properties ) throws Exception;
+
     public void createApplicationCollection( String entityType ) throws Exception;
 
     public EntityRef getAlias( String aliasType, String alias ) throws Exception;
@@ -123,6 +136,14 @@ public interface EntityManager {
 
     public Entity get( UUID entityId ) throws Exception;
 
+    /**
+     * Loads only the specified properties of the entity, along with its type and uuid.  Loads all properties if none
+     * are specified.
+     *
+     * @return the partial entity or null if it doesn't exist
+     */
+    public DynamicEntity loadPartialEntity( UUID entityId, String... propertyNames ) throws Exception;
+
     /**
      * Retrieves the entity for the specified entity reference.
      *
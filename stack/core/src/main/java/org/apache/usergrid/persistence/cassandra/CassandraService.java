@@ -39,6 +39,7 @@ import org.apache.usergrid.persistence.IndexBucketLocator;
 import org.apache.usergrid.persistence.IndexBucketLocator.IndexType;
 import org.apache.usergrid.persistence.cassandra.index.IndexBucketScanner;
 import org.apache.usergrid.persistence.cassandra.index.IndexScanner;
+import org.apache.usergrid.persistence.cassandra.util.RequestCost;
 import org.apache.usergrid.persistence.hector.CountingMutator;
 
 import me.prettyprint.cassandra.connection.HConnectionManager;
@@ -434,6 +435,7 @@ public class CassandraService {
         QueryResult<ColumnSlice<N, V>> r = q.execute();
         ColumnSlice<N, V> slice = r.get();
         List<HColumn<N, V>> results = slice.getColumns();
+        RequestCost.read( results );
 
         if ( db_logger.isInfoEnabled() ) {
             if ( results == null ) {
@@ -522,6 +524,7 @@ public class CassandraService {
         QueryResult<ColumnSlice<ByteBuffer, ByteBuffer>> r = q.execute();
         ColumnSlice<ByteBuffer, ByteBuffer> slice = r.get();
         List<HColumn<ByteBuffer, ByteBuffer>> results = slice.getColumns();
+        RequestCost.read( results );
 
         if ( db_logger.isDebugEnabled() ) {
             if ( results == null ) {
@@ -575,6 +578,7 @@ public class CassandraService {
         q.setRange( start_bytes, finish_bytes, reversed, count );
         QueryResult<Rows<ByteBuffer, ByteBuffer, ByteBuffer>> r = q.execute();
         Rows<ByteBuffer, ByteBuffer, ByteBuffer> rows = r.get();
+        RequestCost.read( rows );
 
         Map<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>> results =
                 new LinkedHashMap<ByteBuffer, List<HColumn<ByteBuffer, ByteBuffer>>>();
@@ -611,6 +615,7 @@ public class CassandraService {
         q.setRange( null, null, false, ALL_COUNT );
         QueryResult<Rows<K, N, V>> r = q.execute();
         Rows<K, N, V> results = r.get();
+        RequestCost.read( results );
 
         if ( db_logger.isInfoEnabled() ) {
             if ( results == null ) {
@@ -656,6 +661,7 @@ public class CassandraService {
         QueryResult<ColumnSlice<N, V>> r = q.execute();
         ColumnSlice<N, V> slice = r.get();
         List<HColumn<N, V>> results = slice.getColumns();
+        RequestCost.read( results );
 
         if ( db_logger.isInfoEnabled() ) {
             if ( results == null ) {
@@ -699,6 +705,7 @@ public class CassandraService {
                                                 .toArray() );
         QueryResult<Rows<K, N, V>> r = q.execute();
         Rows<K, N, V> results = r.get();
+        RequestCost.read( results );
 
         if ( db_logger.isInfoEnabled() ) {
             if ( results == null ) {
@@ -743,6 +750,7 @@ public class CassandraService {
         QueryResult<HColumn<N, V>> r =
                 q.setKey( bytebuffer( key ) ).setName( column ).setColumnFamily( columnFamily.toString() ).execute();
         HColumn<N, V> result = r.get();
+        RequestCost.read( result );
 
         if ( db_logger.isInfoEnabled() ) {
             if ( result == null ) {
@@ -773,6 +781,9 @@ public class CassandraService {
                 q.setKey( bytebuffer( key ) ).setColumnNames( columns ).setColumnFamily( columnFamily.toString() )
                  .execute();
         ColumnSlice<N, V> result = r.get();
+        if ( result != null ) {
+            RequestCost.read( result.getColumns() );
+        }
 
         if ( db_logger.isDebugEnabled() ) {
             if ( result == null ) {
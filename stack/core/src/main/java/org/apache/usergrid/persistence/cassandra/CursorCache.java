@@ -48,6 +48,9 @@ public class CursorCache {
     /** Create a new cursor cache from the string if passed */
     public CursorCache( String cursorString ) {
 
+        //strip the server cursor id if present
+        cursorString = ServerCursorCache.getStatelessCursor( cursorString );
+
         if ( cursorString == null ) {
             return;
         }
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.clustering.BatchingTopicBus;
+import org.apache.usergrid.persistence.EntityChange;
+import org.apache.usergrid.persistence.EntityChangeListener;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+
+/**
+ * Publishes entity changes to registered listeners.  On its own it only delivers the changes written by this node.
+ * Clustered implementations override {@link #isRemote()} and {@link #send(org.apache.usergrid.clustering.TopicBatch)},
+ * see {@link BatchingTopicBus} for how changes are then batched and sent to the other nodes.  When no listener is
+ * registered and nothing is sent to other nodes publishing is a single volatile read, so the entity managers always
+ * publish.
+ */
+public class EntityChangeBus extends BatchingTopicBus<EntityChange> {
+
+    private static final Logger logger = LoggerFactory.getLogger( EntityChangeBus.class );
+
+    /** All changes are sent on a single topic */
+    public static final String TOPIC = "changes";
+
+    private final Counter published = Metrics.newCounter( EntityChangeBus.class, "published" );
+    private final Counter listenerErrors = Metrics.newCounter( EntityChangeBus.class, "listener_errors" );
+
+    private final List<EntityChangeListener> listeners = new CopyOnWriteArrayList<EntityChangeListener>();
+
+
+    public EntityChangeBus() {
+        super( EntityChangeBus.class, "entity-change-flush-%d" );
+    }
+
+
+    public void addListener( EntityChangeListener listener ) {
+        listeners.add( listener );
+    }
+
+
+    public void removeListener( EntityChangeListener listener ) {
+        listeners.remove( listener );
+    }
+
+
+    /** True if a published change goes anywhere, i.e. to a listener on this node or to the other nodes */
+    public boolean hasListeners() {
+        return !listeners.isEmpty() || isRemote();
+    }
+
+
+    /** Deliver the change to every listener.  A failing listener never fails the write that raised the change */
+    public void publish( EntityChange change ) {
+        if ( !hasListeners() ) {
+            return;
+        }
+
+        published.inc();
+
+        deliver( TOPIC, change );
+
+        enqueue( TOPIC, change );
+    }
+
+
+    @Override
+    protected void deliver( String topic, EntityChange change ) {
+        for ( EntityChangeListener listener : listeners ) {
+            try {
+                listener.onChange( change );
+            }
+            catch ( Exception e ) {
+                listenerErrors.inc();
+                logger.error( "Unable to deliver change {} to listener {}", new Object[] { change, listener, e } );
+            }
+        }
+    }
+}
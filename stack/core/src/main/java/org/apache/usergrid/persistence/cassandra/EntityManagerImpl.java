@@ -52,6 +52,8 @@ import org.apache.usergrid.persistence.ConnectionRef;
 import org.apache.usergrid.persistence.CounterResolution;
 import org.apache.usergrid.persistence.DynamicEntity;
 import org.apache.usergrid.persistence.Entity;
+import org.apache.usergrid.persistence.EntityChange;
+import org.apache.usergrid.persistence.EntityChange.Operation;
 import org.apache.usergrid.persistence.EntityFactory;
 import org.apache.usergrid.persistence.EntityManager;
 import org.apache.usergrid.persistence.EntityRef;
@@ -69,6 +71,7 @@ import org.apache.usergrid.persistence.SimpleEntityRef;
 import org.apache.usergrid.persistence.SimpleRoleRef;
 import org.apache.usergrid.persistence.TypedEntity;
 import org.apache.usergrid.persistence.cassandra.CounterUtils.AggregateCounterSelection;
+import org.apache.usergrid.persistence.cassandra.index.IndexSliceSizer;
 import org.apache.usergrid.persistence.cassandra.util.TraceParticipant;
 import org.apache.usergrid.persistence.entities.Application;
 import org.apache.usergrid.persistence.entities.Event;
@@ -184,6 +187,8 @@ public class EntityManagerImpl implements EntityManager {
     public static final String APPLICATION_COLLECTION = "application.collection.";
     public static final String APPLICATION_ENTITIES = "application.entities";
     public static final long ONE_COUNT = 1L;
+    /** The number of entities of a createAll whose unique values are checked before they are written */
+    public static final int CREATE_ALL_CHUNK_SIZE = 100;
     @Resource
     private EntityManagerFactoryImpl emf;
     @Resource
@@ -198,6 +203,16 @@ public class EntityManagerImpl implements EntityManager {
     private CassandraService cass;
     @Resource
     private CounterUtils counterUtils;
+    @Resource
+    private UniqueValueFilter uniqueValueFilter;
+    @Resource
+    private ServerCursorCache serverCursorCache;
+    @Resource
+    private IndexSliceSizer indexSliceSizer;
+    @Resource
+    private EntityChangeBus entityChangeBus;
+    @Resource
+    private PropertyWriteCoalescer propertyWriteCoalescer;
 
     private boolean skipAggregateCounters;
 
@@ -264,6 +279,34 @@ public class EntityManagerImpl implements EntityManager {
     }
 
 
+    /** The node local cache of live query iterators, may be null */
+    public ServerCursorCache getServerCursorCache() {
+        return serverCursorCache;
+    }
+
+
+    /** The selectivity of index slices learned from recent queries, may be null */
+    public IndexSliceSizer getIndexSliceSizer() {
+        return indexSliceSizer;
+    }
+
+
+    public EntityChangeBus getEntityChangeBus() {
+        return entityChangeBus;
+    }
+
+
+    /** Publish a change once it has been written, skipped entirely when nobody is listening */
+    void publishChange( Operation operation, EntityRef entity, UUID timestampUuid ) {
+        if ( entityChangeBus == null || !entityChangeBus.hasListeners() ) {
+            return;
+        }
+
+        entityChangeBus.publish( new EntityChange( applicationId, operation, entity.getType(), entity.getUuid(),
+                getTimestampInMillis( timestampUuid ) ) );
+    }
+
+
     @Override
     public RelationManagerImpl getRelationManager( EntityRef entityRef ) {
         //RelationManagerImpl rmi = applicationContext.getBean(RelationManagerImpl.class);
@@ -295,6 +338,19 @@ public class EntityManagerImpl implements EntityManager {
     public Mutator<ByteBuffer> batchSetProperty( Mutator<ByteBuffer> batch, EntityRef entity, String propertyName,
                                                  Object propertyValue, boolean force, boolean noRead,
                                                  UUID timestampUuid ) throws Exception {
+        return batchSetProperty( batch, entity, propertyName, propertyValue, force, noRead, timestampUuid, null );
+    }
+
+
+    /**
+     * Batch a property, indexing it with the relation manager of the entity.  Pass the same relation manager for
+     * every property of an update, after {@link RelationManagerImpl#prefetchIndexEntries()}, to read the previous index
+     * entries once for the whole update.  A null relation manager reads the entries of this property only.
+     */
+    private Mutator<ByteBuffer> batchSetProperty( Mutator<ByteBuffer> batch, EntityRef entity, String propertyName,
+                                                  Object propertyValue, boolean force, boolean noRead,
+                                                  UUID timestampUuid, RelationManagerImpl relationManager )
+            throws Exception {
 
         long timestamp = getTimestampInMicros( timestampUuid );
 
@@ -364,9 +420,11 @@ public class EntityManagerImpl implements EntityManager {
 
         if ( getDefaultSchema().isPropertyIndexed( entity.getType(), propertyName ) ) {
             //this call is incorrect.  The current entity is NOT the head entity
-            getRelationManager( entity )
-                    .batchUpdatePropertyIndexes( batch, propertyName, propertyValue, entitySchemaHasProperty, noRead,
-                            timestampUuid );
+            if ( relationManager == null ) {
+                relationManager = getRelationManager( entity );
+            }
+            relationManager.batchUpdatePropertyIndexes( batch, propertyName, propertyValue, entitySchemaHasProperty,
+                    noRead, timestampUuid );
         }
 
 
@@ -406,16 +464,37 @@ public class EntityManagerImpl implements EntityManager {
                                                       Map<String, Object> properties, UUID timestampUuid )
             throws Exception {
 
+        // read the previous index entries of all the properties at once instead of one property at a time
+        RelationManagerImpl relationManager = getRelationManager( entity );
+
+        if ( countIndexedProperties( entity.getType(), properties.keySet() ) > 1 ) {
+            relationManager.prefetchIndexEntries();
+        }
+
         for ( String propertyName : properties.keySet() ) {
             Object propertyValue = properties.get( propertyName );
 
-            batch = batchSetProperty( batch, entity, propertyName, propertyValue, timestampUuid );
+            batch = batchSetProperty( batch, entity, propertyName, propertyValue, false, false, timestampUuid,
+                    relationManager );
         }
 
         return batch;
     }
 
 
+    private int countIndexedProperties( String entityType, Set<String> propertyNames ) {
+        int count = 0;
+
+        for ( String propertyName : propertyNames ) {
+            if ( getDefaultSchema().isPropertyIndexed( entityType, propertyName ) ) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
     /**
      * Batch update set.
      *
@@ -502,6 +581,12 @@ public class EntityManagerImpl implements EntityManager {
             return true;
         }
 
+        //the value has never been written, no need to read the index
+        if ( uniqueValueFilter != null && uniqueValueFilter
+                .isAbsent( applicationId, defaultCollectionName( entityType ), propertyName, propertyValue ) ) {
+            return true;
+        }
+
         /**
          * Doing this in a loop sucks, but we need to account for possibly having more than 1 entry in the index due
          * to corruption.  We need to allow them to update, otherwise
@@ -510,6 +595,10 @@ public class EntityManagerImpl implements EntityManager {
 
         Set<UUID> ownerEntityIds = getUUIDsForUniqueProperty( applicationId, entityType, propertyName, propertyValue );
 
+        if ( uniqueValueFilter != null ) {
+            uniqueValueFilter.recordRead( applicationId, ownerEntityIds.size() > 0 );
+        }
+
         //if there are no entities for this property, we know it's unique.  If there are,
         // we have to make sure the one we were passed is in the set.  otherwise it belongs
         //to a different entity
@@ -589,6 +678,11 @@ public class EntityManagerImpl implements EntityManager {
                                       Object propertyValue, UUID entityId, long timestamp ) throws Exception {
         Object key = createUniqueIndexKey( applicationId, collectionName, propertyName, propertyValue );
 
+        //must be added to the filter before the write executes so concurrent checks will read the index
+        if ( uniqueValueFilter != null ) {
+            uniqueValueFilter.put( applicationId, collectionName, propertyName, propertyValue );
+        }
+
         addInsertToMutator( m, ENTITY_UNIQUE, key, entityId, null, timestamp );
     }
 
@@ -683,6 +777,92 @@ public class EntityManagerImpl implements EntityManager {
     }
 
 
+    /**
+     * Creates the entities in chunks of {@link #CREATE_ALL_CHUNK_SIZE}.  The unique values of a chunk are checked
+     * against the unique index and then written with one mutation, so the window in which another writer can claim a
+     * value checked as free is that of a single chunk rather than the whole batch.  The window is still wider than
+     * that of {@link #create(String, Map)}, and as there, two writers checking the same value inside it may both
+     * succeed.  Duplicates within the batch are rejected before anything is written, a duplicate of an existing
+     * entity fails the batch at its chunk, after the earlier chunks were created.
+     */
+    @Override
+    @Metered( group = "core", name = "EntityManager_createAll" )
+    public List<Entity> createAll( String entityType, List<Map<String, Object>> properties ) throws Exception {
+        if ( ( entityType != null ) && ( entityType.startsWith( TYPE_ENTITY ) || entityType
+                .startsWith( "entities" ) ) ) {
+            throw new IllegalArgumentException( "Invalid entity type" );
+        }
+
+        //a chunk's mutator only executes after the chunk, so the unique index can't see the rest of the batch
+        Set<Object> uniqueKeys = new HashSet<Object>();
+
+        for ( Map<String, Object> entityProperties : properties ) {
+            checkUniqueInBatch( entityType, entityProperties, uniqueKeys );
+        }
+
+        Keyspace ko = cass.getApplicationKeyspace( applicationId );
+
+        List<Entity> entities = new ArrayList<Entity>( properties.size() );
+
+        for ( int start = 0; start < properties.size(); start += CREATE_ALL_CHUNK_SIZE ) {
+            List<Map<String, Object>> chunk =
+                    properties.subList( start, Math.min( start + CREATE_ALL_CHUNK_SIZE, properties.size() ) );
+
+            Mutator<ByteBuffer> m = CountingMutator.createFlushingMutator( ko, be );
+
+            List<Entity> created = new ArrayList<Entity>( chunk.size() );
+            List<UUID> timestamps = new ArrayList<UUID>( chunk.size() );
+
+            for ( Map<String, Object> entityProperties : chunk ) {
+                UUID timestampUuid = newTimeUUID();
+
+                created.add( this.<Entity>batchCreate( m, entityType, null, entityProperties, null, timestampUuid ) );
+                timestamps.add( timestampUuid );
+            }
+
+            batchExecute( m, CassandraService.RETRY_COUNT );
+
+            for ( int i = 0; i < created.size(); i++ ) {
+                if ( created.get( i ) != null ) {
+                    publishChange( Operation.CREATE, created.get( i ), timestamps.get( i ) );
+                }
+            }
+
+            entities.addAll( created );
+        }
+
+        return entities;
+    }
+
+
+    /**
+     * Throws if a unique property value of these properties was already used by another entity of the same batch.
+     * Values are compared by their unique index key, so they match the same way the index would.
+     */
+    private void checkUniqueInBatch( String entityType, Map<String, Object> properties, Set<Object> uniqueKeys )
+            throws Exception {
+        if ( properties == null ) {
+            return;
+        }
+
+        String collectionName = Schema.defaultCollectionName( Schema.normalizeEntityType( entityType ) );
+
+        for ( Map.Entry<String, Object> property : properties.entrySet() ) {
+            Object propertyValue = property.getValue();
+
+            if ( propertyValue == null || !getDefaultSchema().isPropertyUnique( entityType, property.getKey() ) ) {
+                continue;
+            }
+
+            Object key = createUniqueIndexKey( applicationId, collectionName, property.getKey(), propertyValue );
+
+            if ( !uniqueKeys.add( key ) ) {
+                throw new DuplicateUniquePropertyExistsException( entityType, property.getKey(), propertyValue );
+            }
+        }
+    }
+
+
     @SuppressWarnings( "unchecked" )
     @Override
     public <A extends TypedEntity> A create( A entity ) throws Exception {
@@ -722,6 +902,8 @@ public class EntityManagerImpl implements EntityManager {
 
         batchExecute( m, CassandraService.RETRY_COUNT );
 
+        publishChange( Operation.CREATE, entity, timestampUuid );
+
         return entity;
     }
 
@@ -1372,6 +1554,14 @@ public class EntityManagerImpl implements EntityManager {
      */
     @Metered( group = "core", name = "EntityManager_updateProperties" )
     public void updateProperties( UUID entityId, Map<String, Object> properties ) throws Exception {
+        drainCoalesced( entityId );
+        updateProperties( entityId, properties, newTimeUUID() );
+    }
+
+
+    /** Update the properties with the given timestamp, used to write updates buffered before now */
+    public void updateProperties( UUID entityId, Map<String, Object> properties, UUID timestampUuid )
+            throws Exception {
 
         EntityRef entity = getRef( entityId );
         if ( entity == null ) {
@@ -1381,12 +1571,13 @@ public class EntityManagerImpl implements EntityManager {
         Keyspace ko = cass.getApplicationKeyspace( applicationId );
         Mutator<ByteBuffer> m = CountingMutator.createFlushingMutator( ko, be );
 
-        UUID timestampUuid = newTimeUUID();
         properties.put( PROPERTY_MODIFIED, getTimestampInMillis( timestampUuid ) );
 
         batchUpdateProperties( m, entity, properties, timestampUuid );
 
         batchExecute( m, CassandraService.RETRY_COUNT );
+
+        publishChange( Operation.UPDATE, entity, timestampUuid );
     }
 
 
@@ -1395,6 +1586,8 @@ public class EntityManagerImpl implements EntityManager {
 
         logger.info( "deleteEntity {} of application {}", entityId, applicationId );
 
+        drainCoalesced( entityId );
+
         EntityRef entity = getRef( entityId );
         if ( entity == null ) {
             return;
@@ -1460,6 +1653,8 @@ public class EntityManagerImpl implements EntityManager {
         addDeleteToMutator( m, ENTITY_PROPERTIES, key( entityId ), timestamp );
 
         batchExecute( m, CassandraService.RETRY_COUNT );
+
+        publishChange( Operation.DELETE, entity, timestampUuid );
     }
 
 
@@ -2009,6 +2204,20 @@ public class EntityManagerImpl implements EntityManager {
             propertyValue = null;
         }
 
+        if ( !override && isCoalesced( entityRef, Collections.singleton( propertyName ) ) ) {
+            propertyValue =
+                    getDefaultSchema().validateEntityPropertyValue( entityRef.getType(), propertyName, propertyValue );
+
+            Map<String, Object> properties = new HashMap<String, Object>();
+            properties.put( propertyName, propertyValue );
+
+            if ( propertyWriteCoalescer.offer( this, entityRef, properties ) ) {
+                return;
+            }
+        }
+
+        drainCoalesced( entityRef.getUuid() );
+
         // todo: would this ever need to load more?
         DynamicEntity entity = loadPartialEntity( entityRef.getUuid(), propertyName );
 
@@ -2021,6 +2230,8 @@ public class EntityManagerImpl implements EntityManager {
         entity.setProperty( propertyName, propertyValue );
         batch = batchSetProperty( batch, entity, propertyName, propertyValue, override, false, timestampUuid );
         batchExecute( batch, CassandraService.RETRY_COUNT );
+
+        publishChange( Operation.UPDATE, entity, timestampUuid );
     }
 
 
@@ -2028,10 +2239,31 @@ public class EntityManagerImpl implements EntityManager {
     public void updateProperties( EntityRef entityRef, Map<String, Object> properties ) throws Exception {
         entityRef = validate( entityRef );
         properties = getDefaultSchema().cleanUpdatedProperties( entityRef.getType(), properties, false );
+
+        if ( isCoalesced( entityRef, properties.keySet() ) && propertyWriteCoalescer
+                .offer( this, entityRef, properties ) ) {
+            return;
+        }
+
         updateProperties( entityRef.getUuid(), properties );
     }
 
 
+    /** True if updates of all the properties of the entity are buffered by the property write coalescer */
+    private boolean isCoalesced( EntityRef entityRef, Set<String> propertyNames ) {
+        return propertyWriteCoalescer != null && propertyWriteCoalescer
+                .isCoalesced( entityRef.getType(), propertyNames );
+    }
+
+
+    /** Write any buffered update of the entity before it is written directly */
+    private void drainCoalesced( UUID entityId ) {
+        if ( propertyWriteCoalescer != null ) {
+            propertyWriteCoalescer.drain( applicationId, entityId );
+        }
+    }
+
+
     @Override
     public void addToDictionary( EntityRef entityRef, String dictionaryName, Object elementValue ) throws Exception {
         addToDictionary( entityRef, dictionaryName, elementValue, null );
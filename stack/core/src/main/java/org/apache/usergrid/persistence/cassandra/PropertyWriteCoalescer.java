@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.usergrid.persistence.EntityRef;
+import org.apache.usergrid.persistence.Schema;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+import static org.apache.commons.lang.StringUtils.split;
+import static org.apache.commons.lang.StringUtils.trim;
+
+
+/**
+ * Buffers updates of properties that are written at high rates, such as last seen times or device locations, and
+ * writes only the last value of each entity once per window.  The index entries of the property are then read and
+ * rewritten once per window instead of once per update.
+ * <p/>
+ * Coalescing is opt in per collection and property, configured as a comma separated list of
+ * <code>collection.property</code> entries, or <code>collection.*</code> for every property of the collection.
+ * Unique properties are never coalesced, since their uniqueness has to be checked when they are written.
+ * <p/>
+ * Durability: a coalesced update is acknowledged once it is buffered in memory on this node.  Until the window is
+ * flushed, reads return the previous value, and the update is lost if the node dies.  Buffered updates are flushed
+ * when the node shuts down cleanly.  A flush that fails is logged and counted and not retried, the next update of
+ * the entity writes the property again.  When more than the maximum number of entities are pending, updates are
+ * written through as if coalescing were disabled.
+ * <p/>
+ * Ordering: a buffered update is written with the timestamp it was offered at, not the time of the flush, so it never
+ * overwrites a direct write made after it.  Direct writes of an entity also {@link #drain(UUID, UUID)} its pending
+ * update first, so the index entries of the buffered values are replaced rather than left behind.
+ */
+public class PropertyWriteCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger( PropertyWriteCoalescer.class );
+
+    private static final String ALL_PROPERTIES = "*";
+
+    private final Counter buffered = Metrics.newCounter( PropertyWriteCoalescer.class, "buffered" );
+    private final Counter superseded = Metrics.newCounter( PropertyWriteCoalescer.class, "superseded" );
+    private final Counter flushed = Metrics.newCounter( PropertyWriteCoalescer.class, "flushed" );
+    private final Counter flushFailures = Metrics.newCounter( PropertyWriteCoalescer.class, "flush_failures" );
+    private final Counter overflows = Metrics.newCounter( PropertyWriteCoalescer.class, "overflows" );
+    private final Timer flushTimer =
+            Metrics.newTimer( PropertyWriteCoalescer.class, "flush", TimeUnit.MILLISECONDS, TimeUnit.SECONDS );
+
+    /** Pending updates by application and entity */
+    private final ConcurrentHashMap<PendingKey, PendingUpdate> pending =
+            new ConcurrentHashMap<PendingKey, PendingUpdate>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private Set<String> coalesced = new HashSet<String>();
+    private long window = 250;
+    private int maxPending = 10000;
+
+    private ScheduledExecutorService executor;
+
+
+    public PropertyWriteCoalescer() {
+        Metrics.newGauge( PropertyWriteCoalescer.class, "pending", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return pendingCount.get();
+            }
+        } );
+    }
+
+
+    public void init() {
+        if ( !isEnabled() ) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat( "property-coalesce-%d" ).setDaemon( true ).build() );
+
+        executor.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, window, window, TimeUnit.MILLISECONDS );
+    }
+
+
+    public void destroy() {
+        if ( executor == null ) {
+            return;
+        }
+
+        executor.shutdownNow();
+        flush();
+    }
+
+
+    /** True if any property is coalesced */
+    public boolean isEnabled() {
+        return !coalesced.isEmpty() && window > 0;
+    }
+
+
+    /** True if updates of the property of entities of the type are coalesced */
+    public boolean isCoalesced( String entityType, String propertyName ) {
+        if ( !isEnabled() || entityType == null || propertyName == null ) {
+            return false;
+        }
+
+        if ( Schema.getDefaultSchema().isPropertyUnique( entityType, propertyName ) ) {
+            return false;
+        }
+
+        String collection = Schema.defaultCollectionName( entityType );
+
+        return coalesced.contains( collection + "." + ALL_PROPERTIES ) || coalesced
+                .contains( collection + "." + propertyName.toLowerCase() );
+    }
+
+
+    /** True if updates of every one of the properties are coalesced */
+    public boolean isCoalesced( String entityType, Set<String> propertyNames ) {
+        if ( propertyNames.isEmpty() ) {
+            return false;
+        }
+
+        for ( String propertyName : propertyNames ) {
+            if ( !isCoalesced( entityType, propertyName ) ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Buffer an update of the properties of the entity, replacing any pending value of the same properties.  The
+     * properties must already be validated.
+     *
+     * @return False if the update was not buffered and must be written by the caller
+     */
+    public boolean offer( EntityManagerImpl em, EntityRef entity, Map<String, Object> properties ) {
+        if ( !isCoalesced( entity.getType(), properties.keySet() ) ) {
+            return false;
+        }
+
+        PendingKey key = new PendingKey( em.getApplicationId(), entity.getUuid() );
+
+        // taken now so the update is ordered with the direct writes of the entity, not with the flush
+        UUID timestampUuid = UUIDUtils.newTimeUUID();
+
+        while ( true ) {
+            PendingUpdate update = pending.get( key );
+
+            if ( update == null ) {
+                if ( pendingCount.get() >= maxPending ) {
+                    overflows.inc();
+                    return false;
+                }
+
+                update = new PendingUpdate( em );
+                PendingUpdate existing = pending.putIfAbsent( key, update );
+
+                if ( existing != null ) {
+                    update = existing;
+                }
+                else {
+                    pendingCount.incrementAndGet();
+                }
+            }
+
+            // the update is being flushed, start a new one
+            if ( !update.merge( properties, timestampUuid, superseded ) ) {
+                continue;
+            }
+
+            buffered.inc( properties.size() );
+            return true;
+        }
+    }
+
+
+    /** Write every pending update */
+    public void flush() {
+        if ( pending.isEmpty() ) {
+            return;
+        }
+
+        TimerContext timer = flushTimer.time();
+
+        try {
+            for ( PendingKey key : pending.keySet() ) {
+                write( key );
+            }
+        }
+        finally {
+            timer.stop();
+        }
+    }
+
+
+    /**
+     * Write the pending update of the entity, if any, before the caller writes the entity directly.  The update keeps
+     * the timestamp it was offered at, so the direct write that follows wins.
+     */
+    public void drain( UUID applicationId, UUID entityId ) {
+        if ( pending.isEmpty() ) {
+            return;
+        }
+
+        write( new PendingKey( applicationId, entityId ) );
+    }
+
+
+    private void write( PendingKey key ) {
+        PendingUpdate update = pending.remove( key );
+
+        if ( update == null ) {
+            return;
+        }
+
+        pendingCount.decrementAndGet();
+        Map<String, Object> properties = update.close();
+
+        try {
+            update.em.updateProperties( key.entityId, properties, update.timestampUuid );
+            flushed.inc();
+        }
+        catch ( Exception e ) {
+            flushFailures.inc();
+            logger.error( "Unable to write coalesced properties {} of entity {}", properties.keySet(), key.entityId,
+                    e );
+        }
+    }
+
+
+    /** The number of entities with pending updates */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+
+    /** The <code>collection.property</code> entries to coalesce, comma separated */
+    public void setProperties( String properties ) {
+        Set<String> entries = new HashSet<String>();
+
+        if ( !isBlank( properties ) ) {
+            for ( String entry : split( properties, ',' ) ) {
+                if ( !isBlank( entry ) ) {
+                    entries.add( trim( entry ).toLowerCase() );
+                }
+            }
+        }
+
+        this.coalesced = entries;
+    }
+
+
+    /** The time in milliseconds updates are buffered before they are written, 0 to disable coalescing */
+    public void setWindow( long window ) {
+        this.window = window;
+    }
+
+
+    /** The maximum number of entities with pending updates, beyond this updates are written through */
+    public void setMaxPending( int maxPending ) {
+        this.maxPending = maxPending;
+    }
+
+
+    /** The last value of each property of an entity since the last flush */
+    private static class PendingUpdate {
+
+        private final EntityManagerImpl em;
+        private Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        private UUID timestampUuid;
+
+
+        private PendingUpdate( EntityManagerImpl em ) {
+            this.em = em;
+        }
+
+
+        /** Returns false if the update was already taken by a flush */
+        private synchronized boolean merge( Map<String, Object> update, UUID timestampUuid, Counter superseded ) {
+            if ( properties == null ) {
+                return false;
+            }
+
+            // the pending values are written together, with the time of the last one offered
+            if ( this.timestampUuid == null || UUIDUtils.compare( timestampUuid, this.timestampUuid ) > 0 ) {
+                this.timestampUuid = timestampUuid;
+            }
+
+            for ( Map.Entry<String, Object> property : update.entrySet() ) {
+                if ( properties.containsKey( property.getKey() ) ) {
+                    superseded.inc();
+                }
+                properties.put( property.getKey(), property.getValue() );
+            }
+
+            return true;
+        }
+
+
+        private synchronized Map<String, Object> close() {
+            Map<String, Object> taken = properties;
+            properties = null;
+            return taken;
+        }
+    }
+
+
+    /** An entity of an application */
+    private static class PendingKey {
+
+        private final UUID applicationId;
+        private final UUID entityId;
+
+
+        private PendingKey( UUID applicationId, UUID entityId ) {
+            this.applicationId = applicationId;
+            this.entityId = entityId;
+        }
+
+
+        @Override
+        public boolean equals( Object o ) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( !( o instanceof PendingKey ) ) {
+                return false;
+            }
+
+            PendingKey other = ( PendingKey ) o;
+
+            return entityId.equals( other.entityId ) && ( applicationId == null ? other.applicationId == null :
+                                                          applicationId.equals( other.applicationId ) );
+        }
+
+
+        @Override
+        public int hashCode() {
+            return 31 * ( applicationId == null ? 0 : applicationId.hashCode() ) + entityId.hashCode();
+        }
+    }
+}
@@ -19,8 +19,13 @@ package org.apache.usergrid.persistence.cassandra;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.Stack;
 import java.util.UUID;
 
@@ -34,23 +39,30 @@ import org.apache.usergrid.persistence.Query.SortDirection;
 import org.apache.usergrid.persistence.Query.SortPredicate;
 import org.apache.usergrid.persistence.Results;
 import org.apache.usergrid.persistence.Schema;
+import org.apache.usergrid.persistence.cassandra.ServerCursorCache.ServerCursor;
+import org.apache.usergrid.persistence.cassandra.index.IndexSliceSizer;
+import org.apache.usergrid.persistence.cassandra.util.RequestCost;
 import org.apache.usergrid.persistence.entities.User;
 import org.apache.usergrid.persistence.exceptions.NoFullTextIndexException;
 import org.apache.usergrid.persistence.exceptions.NoIndexException;
 import org.apache.usergrid.persistence.exceptions.PersistenceException;
 import org.apache.usergrid.persistence.query.ir.AllNode;
 import org.apache.usergrid.persistence.query.ir.AndNode;
+import org.apache.usergrid.persistence.query.ir.ContainsNode;
 import org.apache.usergrid.persistence.query.ir.EmailIdentifierNode;
 import org.apache.usergrid.persistence.query.ir.NameIdentifierNode;
+import org.apache.usergrid.persistence.query.ir.NodeVisitor;
 import org.apache.usergrid.persistence.query.ir.NotNode;
 import org.apache.usergrid.persistence.query.ir.OrNode;
 import org.apache.usergrid.persistence.query.ir.OrderByNode;
 import org.apache.usergrid.persistence.query.ir.QueryNode;
 import org.apache.usergrid.persistence.query.ir.QuerySlice;
+import org.apache.usergrid.persistence.query.ir.QuerySlice.RangeValue;
 import org.apache.usergrid.persistence.query.ir.SearchVisitor;
 import org.apache.usergrid.persistence.query.ir.SliceNode;
 import org.apache.usergrid.persistence.query.ir.UuidIdentifierNode;
 import org.apache.usergrid.persistence.query.ir.WithinNode;
+import org.apache.usergrid.persistence.query.ir.result.OrderByIterator;
 import org.apache.usergrid.persistence.query.ir.result.ResultIterator;
 import org.apache.usergrid.persistence.query.ir.result.ResultsLoader;
 import org.apache.usergrid.persistence.query.ir.result.ResultsLoaderFactory;
@@ -71,6 +83,7 @@ import org.apache.usergrid.persistence.query.tree.QueryVisitor;
 import org.apache.usergrid.persistence.query.tree.StringLiteral;
 import org.apache.usergrid.persistence.query.tree.WithinOperand;
 import org.apache.usergrid.persistence.schema.CollectionInfo;
+import org.apache.usergrid.utils.IndexUtils;
 
 import me.prettyprint.cassandra.serializers.UUIDSerializer;
 
@@ -82,6 +95,9 @@ public class QueryProcessor {
     public static final int PAGE_SIZE = 1000;
     private static final Logger logger = LoggerFactory.getLogger( QueryProcessor.class );
 
+    /** Pages every slice by the fixed page size, used until a sizer is set */
+    private static final IndexSliceSizer FIXED_SLICE_SIZER = new IndexSliceSizer( false, PAGE_SIZE, PAGE_SIZE, 1 );
+
     private static final Schema SCHEMA = getDefaultSchema();
 
     private final CollectionInfo collectionInfo;
@@ -98,6 +114,15 @@ public class QueryProcessor {
     private Query query;
     private int sliceCount;
 
+    private ServerCursorCache serverCursors;
+    private String serverCursorScope;
+    private String queryScope;
+
+    private IndexSliceSizer sliceSizer = FIXED_SLICE_SIZER;
+    private String sliceScope;
+    private Set<QueryNode> intersectedNodes;
+    private final List<IndexSliceSizer.SliceTracker> sliceTrackers = new ArrayList<IndexSliceSizer.SliceTracker>();
+
 
     public QueryProcessor( Query query, CollectionInfo collectionInfo, EntityManager em,
                            ResultsLoaderFactory loaderFactory ) throws PersistenceException {
@@ -124,6 +149,30 @@ public class QueryProcessor {
     }
 
 
+    /**
+     * Enable server side cursors for this query
+     *
+     * @param serverCursors The cache of live iterators
+     * @param scope A unique identifier of the entity and collection or connection searched
+     */
+    public void setServerCursors( ServerCursorCache serverCursors, String scope ) {
+        this.serverCursors = serverCursors;
+        this.serverCursorScope = scope;
+    }
+
+
+    /**
+     * Size the slices of this query from the selectivity of their properties
+     *
+     * @param sliceSizer The selectivity learned from recent queries
+     * @param scope The application and collection or connection searched, without the entity searched from
+     */
+    public void setSliceSizer( IndexSliceSizer sliceSizer, String scope ) {
+        this.sliceSizer = sliceSizer != null ? sliceSizer : FIXED_SLICE_SIZER;
+        this.sliceScope = scope;
+    }
+
+
     public CollectionInfo getCollectionInfo() {
         return collectionInfo;
     }
@@ -266,11 +315,24 @@ public class QueryProcessor {
             return null;
         }
 
-        rootNode.visit( visitor );
+        List<ScanColumn> entityIds = new ArrayList<ScanColumn>( Math.min( size, Query.MAX_LIMIT ) );
 
-        ResultIterator itr = visitor.getResults();
+        ResultIterator itr = null;
 
-        List<ScanColumn> entityIds = new ArrayList<ScanColumn>( Math.min( size, Query.MAX_LIMIT ) );
+        ServerCursor serverCursor = takeServerCursor();
+
+        //resume the iterator tree from the last page, otherwise seek to the stateless cursor
+        if ( serverCursor != null ) {
+            itr = serverCursor.getIterator();
+            entityIds.addAll( serverCursor.getBuffered() );
+        }
+        else {
+            RequestCost.query( query, rootNode );
+
+            rootNode.visit( visitor );
+
+            itr = visitor.getResults();
+        }
 
         CursorCache resultsCursor = new CursorCache();
 
@@ -278,15 +340,26 @@ public class QueryProcessor {
             entityIds.addAll( itr.next() );
         }
 
+        List<ScanColumn> buffered = Collections.emptyList();
+
         //set our cursor, we paged through more entities than we want to return
         if ( entityIds.size() > 0 ) {
             int resultSize = Math.min( entityIds.size(), size );
+
+            if ( entityIds.size() > resultSize ) {
+                buffered = new ArrayList<ScanColumn>( entityIds.subList( resultSize, entityIds.size() ) );
+            }
+
             entityIds = entityIds.subList( 0, resultSize );
 
             if ( resultSize == size ) {
                 itr.finalizeCursor( resultsCursor, entityIds.get( resultSize - 1 ).getUUID() );
             }
         }
+
+        //order by iterators read their whole range whatever the limit, that says nothing of the selectivity
+        completeSlices( entityIds.size(), !( itr instanceof OrderByIterator ) );
+
         if ( logger.isDebugEnabled() ) {
             logger.debug( "Getting result for query: [{}],  returning entityIds size: {}", getQuery(),
                     entityIds.size() );
@@ -299,8 +372,16 @@ public class QueryProcessor {
             return null;
         }
 
+        String cursor = resultsCursor.asString();
+
+        //order by iterators sort their entire candidate range into a single page, they can't be resumed
+        if ( cursor != null && serverCursors != null && serverCursors.isEnabled()
+                && !( itr instanceof OrderByIterator ) ) {
+            cursor = serverCursors.put( getServerCursorScope(), cursor, itr, buffered );
+        }
+
         // now we need to set the cursor from our tree evaluation for return
-        results.setCursor( resultsCursor.asString() );
+        results.setCursor( cursor );
 
         results.setQuery( query );
         results.setQueryProcessor( this );
@@ -437,6 +518,14 @@ public class QueryProcessor {
 
             String indexName = op.getProperty().getIndexedValue();
 
+            // several words, every one of them has to be contained
+            List<String> terms = getTerms( string );
+
+            if ( terms.size() > 1 ) {
+                pushContainsNode( new ContainsNode( indexName, terms, ++contextCount ) );
+                return;
+            }
+
             SliceNode node = null;
 
             // sdg - if left & right have same field name, we need to create a new
@@ -456,6 +545,31 @@ public class QueryProcessor {
         }
 
 
+        /**
+         * The keywords of an exact contains value, analyzed as they were when indexed.  Prefix values are never split
+         */
+        private List<String> getTerms( StringLiteral string ) {
+            if ( string.getValue() == null || !string.getValue().equals( string.getEndValue() ) ) {
+                return Collections.emptyList();
+            }
+
+            return IndexUtils.keywords( string.getValue() );
+        }
+
+
+        /**
+         * Push a contains node.  An empty slice node created for the context of this operand, i.e. by a NOT or an OR,
+         * is replaced by it
+         */
+        private void pushContainsNode( ContainsNode node ) {
+            if ( !nodes.isEmpty() && nodes.peek() instanceof SliceNode && nodes.peek().getCount() == 0 ) {
+                nodes.pop();
+            }
+
+            nodes.push( node );
+        }
+
+
         /*
          * (non-Javadoc)
          *
@@ -621,6 +735,122 @@ public class QueryProcessor {
 
 
 
+    /** Take the live iterator for the query cursor if server cursors are enabled and one exists on this node */
+    private ServerCursor takeServerCursor() {
+        if ( serverCursors == null || !serverCursors.isEnabled() ) {
+            return null;
+        }
+
+        return serverCursors.take( getServerCursorScope(), query.getCursor() );
+    }
+
+
+    /** The scope of the server cursor includes the query so a cursor can't be resumed by a different query */
+    private String getServerCursorScope() {
+        return serverCursorScope + CassandraPersistenceUtils.KEY_DELIM + getQueryScope();
+    }
+
+
+    /**
+     * A normalized form of the query built from the processed tree, the sorts and the limit.  Equivalent queries have
+     * the same scope whatever their text, and the cursor isn't part of it.  Computed once, before the tree is visited
+     * and its slices are reversed for the sort
+     */
+    String getQueryScope() {
+        if ( queryScope != null ) {
+            return queryScope;
+        }
+
+        ScopeBuilder builder = new ScopeBuilder();
+
+        builder.append( entityType ).append( size );
+
+        for ( SortPredicate sort : sorts ) {
+            builder.append( sort.getPropertyName() ).append( sort.getDirection() );
+        }
+
+        if ( rootNode != null ) {
+            builder.node( rootNode );
+        }
+
+        queryScope = builder.toString();
+
+        return queryScope;
+    }
+
+
+    /**
+     * Track the reads of the slice of a node.  The root node reads the size of the page, like {@link
+     * #getPageSizeHint(QueryNode)}, the other nodes read pages sized from the selectivity of the slice's property and
+     * range.  Only slices intersected from the root learn from the results, the slices of a union are only sized.
+     */
+    public IndexSliceSizer.SliceTracker getSliceTracker( QueryNode node, QuerySlice slice ) {
+        IndexSliceSizer.SliceTracker tracker;
+
+        if ( node == rootNode && !node.ignoreHintSize() ) {
+            tracker = sliceSizer.fixed( size );
+        }
+        else {
+            tracker = sliceSizer
+                    .track( sliceScope, slice.getPropertyName(), getSliceShape( slice ), size, isIntersected( node ) );
+        }
+
+        sliceTrackers.add( tracker );
+
+        return tracker;
+    }
+
+
+    /** True if every result of the query is a result of the node, i.e. only and nodes lead from the root to it */
+    boolean isIntersected( QueryNode node ) {
+        if ( intersectedNodes == null ) {
+            intersectedNodes = Collections.newSetFromMap( new IdentityHashMap<QueryNode, Boolean>() );
+
+            Stack<QueryNode> nodes = new Stack<QueryNode>();
+            if ( rootNode != null ) {
+                nodes.push( rootNode );
+            }
+
+            while ( !nodes.isEmpty() ) {
+                QueryNode current = nodes.pop();
+                intersectedNodes.add( current );
+
+                if ( current instanceof AndNode ) {
+                    nodes.push( ( ( AndNode ) current ).getLeft() );
+                    nodes.push( ( ( AndNode ) current ).getRight() );
+                }
+            }
+        }
+
+        return intersectedNodes.contains( node );
+    }
+
+
+    /** The operator of the slice, equality or which ends of the range are bounded and whether they are inclusive */
+    static String getSliceShape( QuerySlice slice ) {
+        RangeValue start = slice.getStart();
+        RangeValue finish = slice.getFinish();
+
+        if ( start != null && start.equals( finish ) ) {
+            return "eq";
+        }
+
+        String from = start == null ? "*" : start.isInclusive() ? "[" : "(";
+        String to = finish == null ? "*" : finish.isInclusive() ? "]" : ")";
+
+        return from + ".." + to;
+    }
+
+
+    /** Learn the selectivity of the slices read for this page */
+    private void completeSlices( int results, boolean learn ) {
+        for ( IndexSliceSizer.SliceTracker tracker : sliceTrackers ) {
+            tracker.complete( results, learn );
+        }
+        sliceTrackers.clear();
+    }
+
+
     /**
      * @return the pageSizeHint
      */
@@ -681,4 +911,161 @@ public class QueryProcessor {
     public EntityManager getEntityManager() {
         return em;
     }
+
+
+    /** Writes the nodes and slices of a query tree in a form that doesn't depend on the query text or its cursor */
+    private static class ScopeBuilder implements NodeVisitor {
+
+        private final StringBuilder scope = new StringBuilder();
+
+
+        public ScopeBuilder append( Object value ) {
+            scope.append( value ).append( CassandraPersistenceUtils.KEY_DELIM );
+            return this;
+        }
+
+
+        public void node( QueryNode node ) {
+            try {
+                node.visit( this );
+            }
+            catch ( Exception e ) {
+                throw new RuntimeException( "Unable to build the scope of the query", e );
+            }
+        }
+
+
+        /** Slices of a node are ordered by property, so the order of the terms in the query doesn't matter */
+        private void slices( Collection<QuerySlice> slices ) {
+            List<QuerySlice> sorted = new ArrayList<QuerySlice>( slices );
+
+            Collections.sort( sorted, new Comparator<QuerySlice>() {
+                @Override
+                public int compare( QuerySlice o1, QuerySlice o2 ) {
+                    return o1.getPropertyName().compareTo( o2.getPropertyName() );
+                }
+            } );
+
+            for ( QuerySlice slice : sorted ) {
+                slice( slice );
+            }
+        }
+
+
+        private void slice( QuerySlice slice ) {
+            append( slice.getPropertyName() );
+            range( slice.getStart() );
+            range( slice.getFinish() );
+            append( slice.isReversed() );
+        }
+
+
+        private void range( RangeValue range ) {
+            if ( range == null ) {
+                append( "*" );
+                return;
+            }
+
+            append( range.getCode() ).append( range.getValue() ).append( range.isInclusive() );
+        }
+
+
+        @Override
+        public void visit( AndNode node ) throws Exception {
+            append( "and" );
+            node.getLeft().visit( this );
+            node.getRight().visit( this );
+        }
+
+
+        @Override
+        public void visit( NotNode node ) throws Exception {
+            append( "not" );
+            node.getSubtractNode().visit( this );
+
+            if ( node.getKeepNode() != null ) {
+                node.getKeepNode().visit( this );
+            }
+        }
+
+
+        @Override
+        public void visit( OrNode node ) throws Exception {
+            append( "or" );
+            node.getLeft().visit( this );
+            node.getRight().visit( this );
+        }
+
+
+        @Override
+        public void visit( SliceNode node ) throws Exception {
+            append( "slice" );
+            slices( node.getAllSlices() );
+        }
+
+
+        @Override
+        public void visit( ContainsNode node ) throws Exception {
+            append( "contains" );
+
+            for ( QuerySlice slice : node.getAllSlices() ) {
+                slice( slice );
+            }
+        }
+
+
+        @Override
+        public void visit( WithinNode node ) throws Exception {
+            append( "within" ).append( node.getPropertyName() ).append( node.getDistance() )
+                    .append( node.getLattitude() ).append( node.getLongitude() );
+        }
+
+
+        @Override
+        public void visit( AllNode node ) throws Exception {
+            append( "all" );
+            slice( node.getSlice() );
+        }
+
+
+        @Override
+        public void visit( NameIdentifierNode nameIdentifierNode ) throws Exception {
+            append( "name" ).append( nameIdentifierNode.getName() );
+        }
+
+
+        @Override
+        public void visit( UuidIdentifierNode uuidIdentifierNode ) {
+            append( "uuid" ).append( uuidIdentifierNode.getUuid() );
+        }
+
+
+        @Override
+        public void visit( OrderByNode orderByNode ) throws Exception {
+            append( "order" );
+            orderByNode.getFirstPredicate().visit( this );
+
+            if ( orderByNode.hasSecondarySorts() ) {
+                for ( SortPredicate sort : orderByNode.getSecondarySorts() ) {
+                    append( sort.getPropertyName() ).append( sort.getDirection() );
+                }
+            }
+
+            if ( orderByNode.getQueryOperations() != null ) {
+                orderByNode.getQueryOperations().visit( this );
+            }
+        }
+
+
+        @Override
+        public void visit( EmailIdentifierNode emailIdentifierNode ) throws Exception {
+            append( "email" ).append( emailIdentifierNode.getIdentifier() );
+        }
+
+
+        @Override
+        public String toString() {
+            return scope.toString();
+        }
+    }
 }
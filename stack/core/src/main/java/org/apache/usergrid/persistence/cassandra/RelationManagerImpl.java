@@ -21,6 +21,7 @@ import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -38,6 +39,8 @@ import org.apache.usergrid.persistence.CollectionRef;
 import org.apache.usergrid.persistence.ConnectedEntityRef;
 import org.apache.usergrid.persistence.ConnectionRef;
 import org.apache.usergrid.persistence.Entity;
+import org.apache.usergrid.persistence.EntityChange;
+import org.apache.usergrid.persistence.EntityChange.Operation;
 import org.apache.usergrid.persistence.EntityRef;
 import org.apache.usergrid.persistence.IndexBucketLocator;
 import org.apache.usergrid.persistence.IndexBucketLocator.IndexType;
@@ -55,6 +58,8 @@ import org.apache.usergrid.persistence.cassandra.IndexUpdate.IndexEntry;
 import org.apache.usergrid.persistence.cassandra.index.ConnectedIndexScanner;
 import org.apache.usergrid.persistence.cassandra.index.IndexBucketScanner;
 import org.apache.usergrid.persistence.cassandra.index.IndexScanner;
+import org.apache.usergrid.persistence.cassandra.index.IndexSliceSizer;
+import org.apache.usergrid.persistence.cassandra.index.KeywordFrequencies;
 import org.apache.usergrid.persistence.cassandra.index.NoOpIndexScanner;
 import org.apache.usergrid.persistence.entities.Group;
 import org.apache.usergrid.persistence.geo.CollectionGeoSearch;
@@ -139,6 +144,7 @@ import static org.apache.usergrid.utils.ConversionUtils.string;
 import static org.apache.usergrid.utils.InflectionUtils.singularize;
 import static org.apache.usergrid.utils.MapUtils.addMapSet;
 import static org.apache.usergrid.utils.UUIDUtils.getTimestampInMicros;
+import static org.apache.usergrid.utils.UUIDUtils.getTimestampInMillis;
 import static org.apache.usergrid.utils.UUIDUtils.newTimeUUID;
 
 
@@ -146,12 +152,20 @@ public class RelationManagerImpl implements RelationManager {
 
     private static final Logger logger = LoggerFactory.getLogger( RelationManagerImpl.class );
 
+    /** The maximum number of index entries of an entity read at once by {@link #prefetchIndexEntries()} */
+    public static final int INDEX_ENTRY_PREFETCH_COUNT = 5000;
+
     private EntityManagerImpl em;
     private CassandraService cass;
     private UUID applicationId;
     private EntityRef headEntity;
     private IndexBucketLocator indexBucketLocator;
 
+    /** The index entries of the head entity by entry name, read once for an update of several properties */
+    private Map<String, List<HColumn<ByteBuffer, ByteBuffer>>> prefetchedIndexEntries;
+    /** The collections containing the head entity, read once for an update of several properties */
+    private Map<EntityRef, Set<String>> prefetchedContainingCollections;
+
 
     public RelationManagerImpl() {
     }
@@ -287,6 +301,8 @@ public class RelationManagerImpl implements RelationManager {
                     indexUpdate.getTimestamp() );
         }
 
+        KeywordFrequencies.batchUpdate( indexUpdate.getBatch(), owner.getUuid(), collectionName, indexUpdate );
+
         return indexUpdate;
     }
 
@@ -312,6 +328,49 @@ public class RelationManagerImpl implements RelationManager {
     }
 
 
+    /**
+     * Read the index entries of every property of the head entity, and the collections containing it, with one slice
+     * each, for an update of several properties.  Subsequent calls of {@link #batchUpdatePropertyIndexes(Mutator,
+     * String, Object, boolean, boolean, UUID)} on this instance compute their previous entries from the prefetched
+     * row instead of reading them one property at a time.  Only valid for a single update, the prefetched entries are
+     * not updated with the entries written.
+     * <p/>
+     * If the row has more than {@link #INDEX_ENTRY_PREFETCH_COUNT} entries, typically because of large indexed
+     * dictionaries, the entries are not prefetched and each property is read on its own.
+     */
+    @Metered(group = "core", name = "RelationManager_prefetchIndexEntries")
+    public void prefetchIndexEntries() throws Exception {
+        prefetchedContainingCollections = getContainingCollections();
+
+        List<HColumn<ByteBuffer, ByteBuffer>> entries =
+                cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_INDEX_ENTRIES,
+                        headEntity.getUuid(), ByteBuffer.allocate( 0 ), ByteBuffer.allocate( 0 ),
+                        INDEX_ENTRY_PREFETCH_COUNT + 1, false );
+
+        if ( entries.size() > INDEX_ENTRY_PREFETCH_COUNT ) {
+            logger.debug( "Too many index entries to prefetch for entity {}", headEntity.getUuid() );
+            return;
+        }
+
+        prefetchedIndexEntries = new HashMap<String, List<HColumn<ByteBuffer, ByteBuffer>>>();
+
+        for ( HColumn<ByteBuffer, ByteBuffer> entry : entries ) {
+            Object entryName = DynamicComposite.fromByteBuffer( entry.getName().duplicate() ).get( 0 );
+
+            if ( !( entryName instanceof String ) ) {
+                continue;
+            }
+
+            List<HColumn<ByteBuffer, ByteBuffer>> named = prefetchedIndexEntries.get( entryName );
+            if ( named == null ) {
+                named = new ArrayList<HColumn<ByteBuffer, ByteBuffer>>();
+                prefetchedIndexEntries.put( ( String ) entryName, named );
+            }
+            named.add( entry );
+        }
+    }
+
+
     public Map<EntityRef, Set<String>> getContainingCollections() throws Exception {
         Map<EntityRef, Set<String>> results = new LinkedHashMap<EntityRef, Set<String>>();
 
@@ -1076,6 +1135,16 @@ public class RelationManagerImpl implements RelationManager {
         batchUpdateEntityConnection( batch, disconnect, loopback, timestampUuid );
 
         batchExecute( batch, CassandraService.RETRY_COUNT );
+
+        EntityChangeBus entityChangeBus = em.getEntityChangeBus();
+
+        if ( entityChangeBus != null && entityChangeBus.hasListeners() ) {
+            Operation operation = disconnect ? Operation.DISCONNECT : Operation.CONNECT;
+
+            entityChangeBus.publish( new EntityChange( applicationId, operation, connection.getConnectingEntityType(),
+                    connection.getConnectingEntityId(), connection.getConnectionType(),
+                    connection.getConnectedEntityId(), getTimestampInMillis( timestampUuid ) ) );
+        }
     }
 
 
@@ -1144,6 +1213,12 @@ public class RelationManagerImpl implements RelationManager {
                         setGreaterThanEqualityFlag( new DynamicComposite( entryName, indexValueCode( entryValue ),
                                 toIndexableValue( entryValue ) ) ), INDEX_ENTRY_LIST_COUNT, false );
             }
+            else if ( prefetchedIndexEntries != null && entity.getUuid().equals( headEntity.getUuid() ) ) {
+                entries = prefetchedIndexEntries.get( entryName );
+                if ( entries == null ) {
+                    entries = Collections.emptyList();
+                }
+            }
             else {
                 entries = cass.getColumns( cass.getApplicationKeyspace( applicationId ), ENTITY_INDEX_ENTRIES,
                         entity.getUuid(), new DynamicComposite( entryName ),
@@ -1293,6 +1368,9 @@ public class RelationManagerImpl implements RelationManager {
                 EntityRef applicationRef = new SimpleEntityRef( TYPE_APPLICATION, applicationId );
                 addMapSet( containerEntities, applicationRef, defaultCollectionName( entity.getType() ) );
             }
+            else if ( prefetchedContainingCollections != null ) {
+                containerEntities = prefetchedContainingCollections;
+            }
             else {
                 containerEntities = getContainingCollections();
             }
@@ -1374,15 +1452,18 @@ public class RelationManagerImpl implements RelationManager {
     }
 
 
-    private IndexScanner searchIndex( Object indexKey, QuerySlice slice, int pageSize ) throws Exception {
+    private IndexScanner searchIndex( Object indexKey, QuerySlice slice, IndexSliceSizer.SliceTracker tracker )
+            throws Exception {
 
         DynamicComposite[] range = slice.getRange();
 
         Object keyPrefix = key( indexKey, slice.getPropertyName() );
 
-        IndexScanner scanner =
+        IndexBucketScanner scanner =
                 new IndexBucketScanner( cass, indexBucketLocator, ENTITY_INDEX, applicationId, IndexType.CONNECTION,
-                        keyPrefix, range[0], range[1], slice.isReversed(), pageSize, slice.hasCursor(), slice.getPropertyName() );
+                        keyPrefix, range[0], range[1], slice.isReversed(), tracker.getPageSize(), slice.hasCursor(),
+                        slice.getPropertyName() );
+        scanner.setSliceTracker( tracker );
 
         return scanner;
     }
@@ -1394,18 +1475,20 @@ public class RelationManagerImpl implements RelationManager {
      * @param indexKey The index key to read
      * @param slice Slice set in the query
      * @param collectionName The name of the collection to search
-     * @param pageSize The page size to load when iterating
+     * @param tracker The tracker of the slice, giving the page size to load when iterating
      */
-    private IndexScanner searchIndexBuckets( Object indexKey, QuerySlice slice, String collectionName, int pageSize )
-            throws Exception {
+    private IndexScanner searchIndexBuckets( Object indexKey, QuerySlice slice, String collectionName,
+                                             IndexSliceSizer.SliceTracker tracker ) throws Exception {
 
         DynamicComposite[] range = slice.getRange();
 
         Object keyPrefix = key( indexKey, slice.getPropertyName() );
 
-        IndexScanner scanner =
+        IndexBucketScanner scanner =
                 new IndexBucketScanner( cass, indexBucketLocator, ENTITY_INDEX, applicationId, IndexType.COLLECTION,
-                        keyPrefix, range[0], range[1], slice.isReversed(), pageSize, slice.hasCursor(), collectionName );
+                        keyPrefix, range[0], range[1], slice.isReversed(), tracker.getPageSize(), slice.hasCursor(),
+                        collectionName );
+        scanner.setSliceTracker( tracker );
 
         return scanner;
     }
@@ -1772,6 +1855,8 @@ public class RelationManagerImpl implements RelationManager {
         // we have something to search with, visit our tree and evaluate the
         // results
         QueryProcessor qp = new QueryProcessor( query, collection, em, factory );
+        qp.setServerCursors( em.getServerCursorCache(), key( headEntity.getUuid(), collectionName ).toString() );
+        qp.setSliceSizer( em.getIndexSliceSizer(), key( applicationId, collectionName ).toString() );
         SearchCollectionVisitor visitor = new SearchCollectionVisitor( qp );
 
         return qp.getResults( visitor );
@@ -2047,6 +2132,10 @@ public class RelationManagerImpl implements RelationManager {
         final ConnectionResultsLoaderFactory factory = new ConnectionResultsLoaderFactory( connectionRef );
 
         QueryProcessor qp = new QueryProcessor( query, null, em, factory );
+        qp.setServerCursors( em.getServerCursorCache(),
+                key( headEntity.getUuid(), connectionType, connectedEntityType ).toString() );
+        qp.setSliceSizer( em.getIndexSliceSizer(),
+                key( applicationId, connectionType, connectedEntityType ).toString() );
         SearchConnectionVisitor visitor = new SearchConnectionVisitor( qp, connectionRef, true );
 
         return qp.getResults( visitor );
@@ -2105,13 +2194,62 @@ public class RelationManagerImpl implements RelationManager {
             // perform the search
             else {
                 columns = searchIndexBuckets( indexKey, slice, collection.getName(),
-                        queryProcessor.getPageSizeHint( node ) );
+                        queryProcessor.getSliceTracker( node, slice ) );
             }
 
             return columns;
         }
 
 
+        /**
+         * Estimate the size of the slices of single keywords from their frequencies in the collection, one read per
+         * full text indexed property
+         */
+        @Override
+        protected long[] estimateSizes( List<QuerySlice> slices ) throws Exception {
+            long[] sizes = super.estimateSizes( slices );
+
+            Map<String, Set<String>> keywords = new LinkedHashMap<String, Set<String>>();
+
+            for ( QuerySlice slice : slices ) {
+                String keyword = getKeyword( slice );
+                if ( keyword != null ) {
+                    addMapSet( keywords, slice.getPropertyName(), keyword );
+                }
+            }
+
+            for ( Entry<String, Set<String>> path : keywords.entrySet() ) {
+                Map<String, Long> frequencies = KeywordFrequencies
+                        .getFrequencies( cass.getApplicationKeyspace( applicationId ), headEntity.getUuid(),
+                                collection.getName(), path.getKey(), path.getValue() );
+
+                for ( int i = 0; i < slices.size(); i++ ) {
+                    QuerySlice slice = slices.get( i );
+                    if ( path.getKey().equals( slice.getPropertyName() ) ) {
+                        Long frequency = frequencies.get( getKeyword( slice ) );
+                        // unknown keywords stay unestimated, so they go last in query order
+                        if ( frequency != null ) {
+                            sizes[i] = frequency;
+                        }
+                    }
+                }
+            }
+
+            return sizes;
+        }
+
+
+        /** The keyword of a slice matching a single keyword exactly, null for any other slice */
+        private String getKeyword( QuerySlice slice ) {
+            if ( !KeywordFrequencies.isKeywords( slice.getPropertyName() ) || slice.getStart() == null || !slice
+                    .getStart().equals( slice.getFinish() ) || !( slice.getStart().getValue() instanceof String ) ) {
+                return null;
+            }
+
+            return ( String ) slice.getStart().getValue();
+        }
+
+
         public void visit( AllNode node ) throws Exception {
 
             String collectionName = collection.getName();
@@ -2221,7 +2359,7 @@ public class RelationManagerImpl implements RelationManager {
                 columns = new NoOpIndexScanner();
             }
             else {
-                columns = searchIndex( key, slice, queryProcessor.getPageSizeHint( node ) );
+                columns = searchIndex( key, slice, queryProcessor.getSliceTracker( node, slice ) );
             }
 
             return columns;
@@ -2256,7 +2394,9 @@ public class RelationManagerImpl implements RelationManager {
 
             queryProcessor.applyCursorAndSort( slice );
 
-            int size = queryProcessor.getPageSizeHint( node );
+            IndexSliceSizer.SliceTracker tracker = queryProcessor.getSliceTracker( node, slice );
+
+            int size = tracker.getPageSize();
 
             ByteBuffer start = null;
 
@@ -2307,9 +2447,10 @@ public class RelationManagerImpl implements RelationManager {
                 connectionTypes = new ConnectionTypesIterator( cass, applicationId, entityIdToUse, outgoing, size );
             }
 
-            IndexScanner connectionScanner =
+            ConnectedIndexScanner connectionScanner =
                     new ConnectedIndexScanner( cass, dictionaryType, applicationId, entityIdToUse, connectionTypes,
                             start, slice.isReversed(), size, skipFirst );
+            connectionScanner.setSliceTracker( tracker );
 
             this.results.push( new SliceIterator( slice, connectionScanner, connectionParser ) );
         }
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.usergrid.persistence.query.ir.result.ResultIterator;
+import org.apache.usergrid.persistence.query.ir.result.ScanColumn;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+
+/**
+ * Node local cache of live query iterators, so deep pages can resume the iterator tree where the last page left off
+ * instead of re-seeking every slice from the stateless cursor.  Each entry may only be taken once.  On a miss, i.e.
+ * the entry expired or the request was routed to another node, the query falls back to the stateless cursor that is
+ * always returned alongside the cursor id.
+ */
+public class ServerCursorCache {
+
+    /**
+     * Separates the stateless cursor from the server cursor id.  Never present in a url safe base64 stateless cursor
+     */
+    public static final char CURSOR_ID_DELIM = '.';
+
+    private final Counter hits = Metrics.newCounter( ServerCursorCache.class, "hits" );
+    private final Counter misses = Metrics.newCounter( ServerCursorCache.class, "misses" );
+
+    private final boolean enabled;
+    private final Cache<String, ServerCursor> cursors;
+
+
+    /**
+     * @param enabled True to return server cursors from searches
+     * @param maxSize The maximum number of live cursors to keep on this node
+     * @param timeout The time in seconds a cursor is kept after its page was returned
+     */
+    public ServerCursorCache( boolean enabled, long maxSize, long timeout ) {
+        this.enabled = enabled;
+        this.cursors =
+                CacheBuilder.newBuilder().maximumSize( maxSize ).expireAfterWrite( timeout, TimeUnit.SECONDS ).build();
+    }
+
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+
+    /**
+     * Store the live state of a query
+     *
+     * @param scope The entity and collection or connection the query was run against
+     * @param statelessCursor The stateless cursor for the same position
+     * @param iterator The root iterator of the query
+     * @param buffered Columns already read from the iterator that were not returned
+     *
+     * @return The cursor to return to the client
+     */
+    public String put( String scope, String statelessCursor, ResultIterator iterator, List<ScanColumn> buffered ) {
+        String id = UUID.randomUUID().toString();
+
+        cursors.put( id, new ServerCursor( scope, statelessCursor, iterator, buffered ) );
+
+        return statelessCursor + CURSOR_ID_DELIM + id;
+    }
+
+
+    /**
+     * Take the live state for the cursor.  Returns null if the cursor has no server state on this node, or the state
+     * was stored for a different query
+     */
+    public ServerCursor take( String scope, String cursor ) {
+        String id = getCursorId( cursor );
+
+        if ( id == null ) {
+            return null;
+        }
+
+        ServerCursor serverCursor = cursors.asMap().remove( id );
+
+        if ( serverCursor == null || !serverCursor.scope.equals( scope ) || !serverCursor.statelessCursor
+                .equals( getStatelessCursor( cursor ) ) ) {
+            misses.inc();
+            return null;
+        }
+
+        hits.inc();
+
+        return serverCursor;
+    }
+
+
+    /** Drop the live state of a cursor that was returned but will never be resumed, e.g. with a 304 response */
+    public void discard( String cursor ) {
+        String id = getCursorId( cursor );
+
+        if ( id != null ) {
+            cursors.invalidate( id );
+        }
+    }
+
+
+    /** Return the stateless part of the cursor */
+    public static String getStatelessCursor( String cursor ) {
+        if ( cursor == null ) {
+            return null;
+        }
+
+        int index = cursor.indexOf( CURSOR_ID_DELIM );
+
+        return index < 0 ? cursor : cursor.substring( 0, index );
+    }
+
+
+    /** Return the server cursor id, or null if the cursor is stateless */
+    public static String getCursorId( String cursor ) {
+        if ( cursor == null ) {
+            return null;
+        }
+
+        int index = cursor.indexOf( CURSOR_ID_DELIM );
+
+        return index < 0 ? null : cursor.substring( index + 1 );
+    }
+
+
+    /** The live state of a query between pages */
+    public static class ServerCursor {
+
+        private final String scope;
+        private final String statelessCursor;
+        private final ResultIterator iterator;
+        private final List<ScanColumn> buffered;
+
+
+        private ServerCursor( String scope, String statelessCursor, ResultIterator iterator,
+                              List<ScanColumn> buffered ) {
+            this.scope = scope;
+            this.statelessCursor = statelessCursor;
+            this.iterator = iterator;
+            this.buffered = buffered;
+        }
+
+
+        public ResultIterator getIterator() {
+            return iterator;
+        }
+
+
+        public List<ScanColumn> getBuffered() {
+            return buffered;
+        }
+    }
+}
@@ -0,0 +1,660 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.clustering.Invalidation;
+import org.apache.usergrid.clustering.InvalidationBus;
+import org.apache.usergrid.clustering.InvalidationListener;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
+import me.prettyprint.hector.api.beans.OrderedRows;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.query.RangeSlicesQuery;
+
+import static org.apache.usergrid.persistence.cassandra.ApplicationCF.ENTITY_UNIQUE;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.KEY_DELIM;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.apache.usergrid.persistence.cassandra.Serializers.be;
+import static org.apache.usergrid.utils.ConversionUtils.uuid;
+
+
+/**
+ * A negative cache for unique property checks.  Keeps one bloom filter per application, collection and unique
+ * property containing every row key written to {@link ApplicationCF#ENTITY_UNIQUE}.  When the filter reports a value
+ * as absent, the read of the unique index can be skipped since the value is definitely free.
+ * <p/>
+ * Filters are rebuilt in the background from a scan of the unique index and updated in place on every unique write.
+ * Until a rebuild that scanned the whole index for an application completes, every value is reported as possibly
+ * present, as is any collection and property the filters have no entry for.  The index can't be scanned per
+ * application, so applications seen for the first time are rebuilt together by one scan, at most once per new
+ * application delay, instead of a full scan each.  Deleted values stay in the filter until
+ * the next rebuild, which only costs an extra read.
+ * <p/>
+ * Unique writes are published on the {@link InvalidationBus} so the filters of the other nodes see them too.  Reads
+ * are only skipped when those writes reach this node, i.e. when the bus is clustered, or when the deployment is a
+ * single node.  Otherwise the filter only reports the false positive rate and every check reads the unique index.
+ */
+public class UniqueValueFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger( UniqueValueFilter.class );
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    /** The topic of the invalidation bus carrying unique writes between nodes */
+    public static final String TOPIC = "unique_values";
+
+    /** The number of row keys to read from the unique index per range slice */
+    private static final int SCAN_PAGE_SIZE = 1000;
+
+    private final Counter skippedReads = Metrics.newCounter( UniqueValueFilter.class, "skipped_reads" );
+    private final Counter positiveReads = Metrics.newCounter( UniqueValueFilter.class, "positive_reads" );
+    private final Counter falsePositives = Metrics.newCounter( UniqueValueFilter.class, "false_positives" );
+    private final Counter rebuilds = Metrics.newCounter( UniqueValueFilter.class, "rebuilds" );
+    private final Counter rebuildFailures = Metrics.newCounter( UniqueValueFilter.class, "rebuild_failures" );
+    private final Counter rebuildRows = Metrics.newCounter( UniqueValueFilter.class, "rebuild_rows" );
+    private final Timer rebuildTimer =
+            Metrics.newTimer( UniqueValueFilter.class, "rebuild", TimeUnit.MILLISECONDS, TimeUnit.SECONDS );
+
+
+    private final CassandraService cass;
+
+    /** The filters for each application that has performed a unique check on this node */
+    private final Map<UUID, ApplicationFilters> applications = new ConcurrentHashMap<UUID, ApplicationFilters>();
+
+    private final AtomicBoolean rebuildPending = new AtomicBoolean( false );
+
+    private ScheduledExecutorService executor;
+
+    private InvalidationBus invalidationBus;
+
+    private boolean enabled = false;
+    private boolean clustered = false;
+    private boolean singleNode = false;
+    private int expectedInsertions = 100000;
+    private double falsePositiveProbability = 0.01;
+    private long rebuildInterval = 3600;
+    private long newApplicationDelay = 300;
+
+
+    public UniqueValueFilter( CassandraService cass ) {
+        this.cass = cass;
+
+        Metrics.newGauge( UniqueValueFilter.class, "false_positive_rate", new Gauge<Double>() {
+            @Override
+            public Double value() {
+                long positive = positiveReads.count();
+                return positive == 0 ? 0d : ( double ) falsePositives.count() / positive;
+            }
+        } );
+    }
+
+
+    public void init() {
+        if ( !enabled ) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+                rebuild();
+            }
+        }, rebuildInterval, rebuildInterval, TimeUnit.SECONDS );
+
+        logger.info( "Unique value filter enabled, rebuilding every {} seconds", rebuildInterval );
+
+        if ( !isTrusted() ) {
+            logger.warn( "Unique writes of other nodes don't reach the unique value filter, reads won't be skipped" );
+        }
+    }
+
+
+    public void destroy() {
+        if ( executor != null ) {
+            executor.shutdownNow();
+        }
+    }
+
+
+    public void setEnabled( boolean enabled ) {
+        this.enabled = enabled;
+    }
+
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+
+    public void setInvalidationBus( InvalidationBus invalidationBus ) {
+        this.invalidationBus = invalidationBus;
+
+        invalidationBus.addListener( TOPIC, new InvalidationListener() {
+            @Override
+            public void onInvalidation( Invalidation invalidation ) {
+                received( invalidation );
+            }
+        } );
+    }
+
+
+    /** Set to true when the invalidation bus delivers the unique writes of the other nodes */
+    public void setClustered( boolean clustered ) {
+        this.clustered = clustered;
+    }
+
+
+    /** Set to true when this node is the only one writing the unique index */
+    public void setSingleNode( boolean singleNode ) {
+        this.singleNode = singleNode;
+    }
+
+
+    /** True if every unique write, on any node, reaches these filters so a negative answer can be trusted */
+    boolean isTrusted() {
+        return singleNode || ( clustered && invalidationBus != null );
+    }
+
+
+    public void setExpectedInsertions( int expectedInsertions ) {
+        this.expectedInsertions = expectedInsertions;
+    }
+
+
+    public void setFalsePositiveProbability( double falsePositiveProbability ) {
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+
+    /** Set the interval in seconds between full rebuilds of the filters */
+    public void setRebuildInterval( long rebuildInterval ) {
+        this.rebuildInterval = rebuildInterval;
+    }
+
+
+    /**
+     * Set the delay in seconds before applications seen for the first time are built.  Applications seen within the
+     * delay share a single scan of the unique index
+     */
+    public void setNewApplicationDelay( long newApplicationDelay ) {
+        this.newApplicationDelay = newApplicationDelay;
+    }
+
+
+    /**
+     * Returns true only if the value has definitely never been written to the unique index for this collection and
+     * property.  A false return means the unique index must be read.
+     */
+    public boolean isAbsent( UUID applicationId, String collectionName, String propertyName, Object value ) {
+        if ( !enabled ) {
+            return false;
+        }
+
+        ApplicationFilters filters = getFilters( applicationId );
+
+        if ( !filters.isBuilt() || !isTrusted() ) {
+            return false;
+        }
+
+        boolean absent = !filters.mightContain( filterKey( collectionName, propertyName ),
+                rowKey( applicationId, collectionName, propertyName, value ) );
+
+        if ( absent ) {
+            skippedReads.inc();
+        }
+
+        return absent;
+    }
+
+
+    /**
+     * Record the result of a unique index read that was not skipped by the filter, so the observed false positive
+     * rate can be reported
+     *
+     * @param found True if the read found an owner for the value
+     */
+    public void recordRead( UUID applicationId, boolean found ) {
+        if ( !enabled ) {
+            return;
+        }
+
+        ApplicationFilters filters = applications.get( applicationId );
+
+        if ( filters == null || !filters.isBuilt() ) {
+            return;
+        }
+
+        positiveReads.inc();
+
+        if ( !found ) {
+            falsePositives.inc();
+        }
+    }
+
+
+    /**
+     * Add a value to the filter and publish it to the other nodes.  Must be invoked before the unique index write is
+     * executed
+     */
+    public void put( UUID applicationId, String collectionName, String propertyName, Object value ) {
+        if ( !enabled ) {
+            return;
+        }
+
+        String rowKey = rowKey( applicationId, collectionName, propertyName, value );
+
+        getFilters( applicationId ).put( filterKey( collectionName, propertyName ), rowKey );
+
+        if ( invalidationBus != null ) {
+            invalidationBus.invalidate( TOPIC, Invalidation.uniqueValue( applicationId, rowKey ) );
+        }
+    }
+
+
+    /**
+     * Add a unique write published on the bus.  Applications this node hasn't seen yet are ignored, the remote write
+     * has been executed by the time the batch arrives so the first scan for the application will find it
+     */
+    void received( Invalidation invalidation ) {
+        if ( invalidation.getType() != Invalidation.Type.UNIQUE_VALUE ) {
+            return;
+        }
+
+        ApplicationFilters filters = applications.get( invalidation.getApplicationId() );
+
+        if ( filters == null ) {
+            return;
+        }
+
+        String filterKey = filterKey( invalidation.getApplicationId(), invalidation.getKey() );
+
+        if ( filterKey != null ) {
+            filters.put( filterKey, invalidation.getKey() );
+        }
+    }
+
+
+    /** Get the filters for the application, scheduling a build of new applications the first time we see it */
+    private ApplicationFilters getFilters( UUID applicationId ) {
+        ApplicationFilters filters = applications.get( applicationId );
+
+        if ( filters != null ) {
+            return filters;
+        }
+
+        synchronized ( applications ) {
+            filters = applications.get( applicationId );
+
+            if ( filters == null ) {
+                filters = new ApplicationFilters( expectedInsertions, falsePositiveProbability );
+                applications.put( applicationId, filters );
+                scheduleRebuild();
+            }
+        }
+
+        return filters;
+    }
+
+
+    /**
+     * Request a build of the new applications on the background thread after the new application delay.  Requests
+     * made before it runs are coalesced into its scan, which is skipped if a scheduled rebuild built them first
+     */
+    private void scheduleRebuild() {
+        if ( executor == null || !rebuildPending.compareAndSet( false, true ) ) {
+            return;
+        }
+
+        executor.schedule( new Runnable() {
+            @Override
+            public void run() {
+                if ( hasUnbuilt() ) {
+                    rebuild();
+                }
+                else {
+                    rebuildPending.set( false );
+                }
+            }
+        }, newApplicationDelay, TimeUnit.SECONDS );
+    }
+
+
+    /** True if an application has no filters from a completed scan yet */
+    boolean hasUnbuilt() {
+        for ( ApplicationFilters filters : applications.values() ) {
+            if ( !filters.isBuilt() ) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /** Rebuild the filters for every known application with a single scan of the unique index */
+    public void rebuild() {
+        rebuildPending.set( false );
+
+        if ( applications.isEmpty() ) {
+            return;
+        }
+
+        TimerContext timer = rebuildTimer.time();
+
+        try {
+            rebuild( new UniqueRowKeyIterator() );
+            rebuilds.inc();
+        }
+        catch ( Exception e ) {
+            rebuildFailures.inc();
+            logger.error( "Unable to rebuild unique value filters", e );
+        }
+        finally {
+            timer.stop();
+        }
+    }
+
+
+    /**
+     * Rebuild the filters from the given raw row keys of the unique index.  Writes that occur during the rebuild are
+     * applied to both the live and the rebuilding filters, so nothing is lost on the swap.  Only the applications known
+     * when the scan starts are rebuilt, those registered during the scan missed part of it and wait for the rebuild they scheduled
+     */
+    void rebuild( Iterator<ByteBuffer> rowKeys ) {
+
+        Map<UUID, ApplicationFilters> scanned = new HashMap<UUID, ApplicationFilters>( applications );
+
+        for ( ApplicationFilters filters : scanned.values() ) {
+            filters.startRebuild();
+        }
+
+        while ( rowKeys.hasNext() ) {
+            ByteBuffer rowKey = rowKeys.next().duplicate();
+
+            //virtual keyspace keys are the application id followed by the string key
+            if ( rowKey.remaining() <= 16 ) {
+                continue;
+            }
+
+            UUID applicationId = uuid( rowKey );
+            ApplicationFilters filters = scanned.get( applicationId );
+
+            if ( filters == null ) {
+                continue;
+            }
+
+            rowKey.position( rowKey.position() + 16 );
+
+            String key = UTF8.decode( rowKey ).toString();
+            String filterKey = filterKey( applicationId, key );
+
+            //not a unique key owned by the application, i.e. an alias owned by another entity
+            if ( filterKey == null ) {
+                continue;
+            }
+
+            filters.rebuildPut( filterKey, key );
+            rebuildRows.inc();
+        }
+
+        for ( ApplicationFilters filters : scanned.values() ) {
+            filters.finishRebuild();
+        }
+    }
+
+
+    /** The filter key of a unique index row key, or null if the key isn't a unique value owned by the application */
+    static String filterKey( UUID applicationId, String rowKey ) {
+        int ownerEnd = rowKey.indexOf( KEY_DELIM );
+        int collectionEnd = rowKey.indexOf( KEY_DELIM, ownerEnd + 1 );
+        int propertyEnd = rowKey.indexOf( KEY_DELIM, collectionEnd + 1 );
+
+        if ( ownerEnd < 0 || collectionEnd < 0 || propertyEnd < 0 || !applicationId.toString()
+                .equals( rowKey.substring( 0, ownerEnd ) ) ) {
+            return null;
+        }
+
+        return rowKey.substring( ownerEnd + 1, propertyEnd );
+    }
+
+
+    /** The key of the filter for the collection and property */
+    static String filterKey( String collectionName, String propertyName ) {
+        return key( collectionName, propertyName ).toString();
+    }
+
+
+    /** The value stored in the filter, identical to the unique index row key */
+    static String rowKey( UUID applicationId, String collectionName, String propertyName, Object value ) {
+        return key( applicationId, collectionName, propertyName, value ).toString();
+    }
+
+
+    /** The bloom filters for a single application, keyed by collection and property */
+    static class ApplicationFilters {
+
+        private final int defaultExpectedInsertions;
+        private final double fpp;
+
+        private volatile Map<String, BloomFilter<CharSequence>> live;
+        private Map<String, BloomFilter<CharSequence>> rebuilding;
+
+        /** The number of keys seen per filter on the last completed rebuild, and on the one in progress */
+        private volatile Map<String, Long> counts = new ConcurrentHashMap<String, Long>();
+        private Map<String, Long> rebuildingCounts;
+
+
+        ApplicationFilters( int expectedInsertions, double fpp ) {
+            this.defaultExpectedInsertions = expectedInsertions;
+            this.fpp = fpp;
+
+            //capture writes made before the first scan begins
+            startRebuild();
+        }
+
+
+        boolean isBuilt() {
+            return live != null;
+        }
+
+
+        boolean mightContain( String filterKey, String rowKey ) {
+            Map<String, BloomFilter<CharSequence>> filters = live;
+
+            if ( filters == null ) {
+                return true;
+            }
+
+            BloomFilter<CharSequence> filter = filters.get( filterKey );
+
+            //a miss proves nothing, the collection or property may be new to this node
+            if ( filter == null ) {
+                return true;
+            }
+
+            synchronized ( filter ) {
+                return filter.mightContain( rowKey );
+            }
+        }
+
+
+        synchronized void put( String filterKey, String rowKey ) {
+            if ( live != null ) {
+                put( live, filterKey, rowKey );
+            }
+
+            if ( rebuilding != null ) {
+                put( rebuilding, filterKey, rowKey );
+            }
+        }
+
+
+        synchronized void startRebuild() {
+            if ( rebuilding != null ) {
+                return;
+            }
+
+            rebuilding = new ConcurrentHashMap<String, BloomFilter<CharSequence>>();
+            rebuildingCounts = new ConcurrentHashMap<String, Long>();
+        }
+
+
+        synchronized void rebuildPut( String filterKey, String rowKey ) {
+            if ( rebuilding == null ) {
+                return;
+            }
+
+            put( rebuilding, filterKey, rowKey );
+
+            Long count = rebuildingCounts.get( filterKey );
+            rebuildingCounts.put( filterKey, count == null ? 1 : count + 1 );
+        }
+
+
+        synchronized void finishRebuild() {
+            if ( rebuilding == null ) {
+                return;
+            }
+
+            live = rebuilding;
+            counts = rebuildingCounts;
+            rebuilding = null;
+            rebuildingCounts = null;
+        }
+
+
+        private void put( Map<String, BloomFilter<CharSequence>> filters, String filterKey, String rowKey ) {
+            BloomFilter<CharSequence> filter = filters.get( filterKey );
+
+            if ( filter == null ) {
+                filter = BloomFilter.create( Funnels.stringFunnel( UTF8 ), expectedInsertions( filterKey ), fpp );
+                filters.put( filterKey, filter );
+            }
+
+            synchronized ( filter ) {
+                filter.put( rowKey );
+            }
+        }
+
+
+        /** Size the filter from the count seen on the last rebuild so it can grow with the collection */
+        private int expectedInsertions( String filterKey ) {
+            Long count = counts.get( filterKey );
+
+            if ( count == null ) {
+                return defaultExpectedInsertions;
+            }
+
+            return ( int ) Math.min( Integer.MAX_VALUE, Math.max( defaultExpectedInsertions, count * 2 ) );
+        }
+    }
+
+
+    /** Iterates the raw row keys of the unique index over every application with paged range slices */
+    private class UniqueRowKeyIterator implements Iterator<ByteBuffer> {
+
+        private Iterator<Row<ByteBuffer, ByteBuffer, ByteBuffer>> page;
+        private ByteBuffer lastKey = ByteBuffer.allocate( 0 );
+        private ByteBuffer next;
+        private boolean exhausted = false;
+
+
+        @Override
+        public boolean hasNext() {
+            while ( next == null ) {
+                if ( page != null && page.hasNext() ) {
+                    Row<ByteBuffer, ByteBuffer, ByteBuffer> row = page.next();
+
+                    //skip the start key we've already seen and tombstoned rows
+                    if ( row.getKey().equals( lastKey ) || row.getColumnSlice().getColumns().isEmpty() ) {
+                        continue;
+                    }
+
+                    next = row.getKey();
+                    continue;
+                }
+
+                if ( exhausted ) {
+                    return false;
+                }
+
+                loadPage();
+            }
+
+            return true;
+        }
+
+
+        @Override
+        public ByteBuffer next() {
+            if ( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+
+            ByteBuffer current = next;
+            lastKey = current;
+            next = null;
+            return current;
+        }
+
+
+        private void loadPage() {
+            RangeSlicesQuery<ByteBuffer, ByteBuffer, ByteBuffer> q =
+                    HFactory.createRangeSlicesQuery( cass.getUsergridApplicationKeyspace(), be, be, be );
+            q.setColumnFamily( ENTITY_UNIQUE.toString() );
+            q.setKeys( lastKey, ByteBuffer.allocate( 0 ) );
+            q.setRange( null, null, false, 1 );
+            q.setRowCount( SCAN_PAGE_SIZE );
+
+            OrderedRows<ByteBuffer, ByteBuffer, ByteBuffer> rows = q.execute().get();
+
+            exhausted = rows.getCount() < SCAN_PAGE_SIZE;
+            page = rows.getList().iterator();
+        }
+
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException( "Remove is not supported" );
+        }
+    }
+}
@@ -72,6 +72,11 @@ public class ConnectedIndexScanner implements IndexScanner {
 
     private String currentConnectionType;
 
+    /**
+     * Told about every page we load, may be null
+     */
+    private IndexSliceSizer.SliceTracker tracker;
+
 
     public ConnectedIndexScanner( CassandraService cass, String dictionaryType, UUID applicationId, UUID entityId,
                                   Iterator<String> connectionTypes, ByteBuffer start, boolean reversed, int pageSize,
@@ -109,6 +114,14 @@ public class ConnectedIndexScanner implements IndexScanner {
     }
 
 
+    /**
+     * Report every page loaded to the tracker of the slice
+     */
+    public void setSliceTracker( IndexSliceSizer.SliceTracker tracker ) {
+        this.tracker = tracker;
+    }
+
+
     /**
      * Search the collection index using all the buckets for the given collection. Load the next page. Return false if
      * nothing was loaded, true otherwise
@@ -192,6 +205,10 @@ public class ConnectedIndexScanner implements IndexScanner {
             }
         }
 
+        if ( tracker != null ) {
+            tracker.loaded( lastResults.size(), hasMore );
+        }
+
         //remove the first element, we need to skip it
         if ( skipFirst && first != null) {
             lastResults.remove( first  );
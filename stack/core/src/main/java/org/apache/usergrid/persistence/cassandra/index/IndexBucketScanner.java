@@ -70,6 +70,8 @@ public class IndexBucketScanner implements IndexScanner {
     /** True if our last load loaded a full page size. */
     private boolean hasMore = true;
 
+    /** Told about every page we load, may be null */
+    private IndexSliceSizer.SliceTracker tracker;
 
 
     public IndexBucketScanner( CassandraService cass, IndexBucketLocator locator, ApplicationCF columnFamily,
@@ -103,6 +105,12 @@ public class IndexBucketScanner implements IndexScanner {
     }
 
 
+    /** Report every page loaded to the tracker of the slice */
+    public void setSliceTracker( IndexSliceSizer.SliceTracker tracker ) {
+        this.tracker = tracker;
+    }
+
+
     /**
      * Search the collection index using all the buckets for the given collection. Load the next page. Return false if
      * nothing was loaded, true otherwise
@@ -156,6 +164,10 @@ public class IndexBucketScanner implements IndexScanner {
             hasMore = false;
         }
 
+        if ( tracker != null ) {
+            tracker.loaded( resultsTree.size(), hasMore );
+        }
+
         //remove the first element since it needs to be skipped AFTER the size check. Otherwise it will fail
         if ( firstPageSkipFirst ) {
             resultsTree.pollFirst();
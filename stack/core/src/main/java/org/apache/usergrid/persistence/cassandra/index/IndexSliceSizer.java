@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra.index;
+
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+
+
+/**
+ * Sizes the index slices read by queries from the selectivity of their property, learned from recent queries.  A
+ * slice of a selective property, one whose candidates rarely make it into the results, is read in large pages so the
+ * query fills in one or two round trips instead of many.  A slice of an unselective property is read in pages close
+ * to the query limit instead of over reading.
+ * <p/>
+ * Selectivity is the fraction of the columns read from a slice that end up as results.  It is kept per application,
+ * collection or connection, property and shape of the range, so an equality and a range of the same property are
+ * learned apart, as a moving average of the slices of completed queries.  Only slices whose every result is one of
+ * the query's results are learned from, i.e. the root of the query or slices intersected under it.  The results of a
+ * union come from several slices, so they say nothing of any one of them.  A slice that filled
+ * its query in one round trip may have read more than it needed, so it counts as having needed half its page, which
+ * shrinks the page until queries take one or two trips.
+ */
+public class IndexSliceSizer {
+
+    /** Weight of the last query in the moving average */
+    private static final double ALPHA = 0.3;
+
+    /** Lowest selectivity kept, a slice with no results otherwise asks for unbounded pages */
+    private static final double MIN_SELECTIVITY = 0.0001;
+
+    private final Histogram roundTrips = Metrics.newHistogram( IndexSliceSizer.class, "round_trips", true );
+    private final Histogram pageSizes = Metrics.newHistogram( IndexSliceSizer.class, "page_size", true );
+
+    private final boolean enabled;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+    private final Cache<String, Selectivity> selectivities;
+
+
+    /**
+     * @param enabled True to size slices from their selectivity, false to always use the default page size
+     * @param defaultPageSize The page size of slices with no selectivity learned yet
+     * @param maxPageSize The largest page read from a slice
+     * @param maxSize The number of slices whose selectivity is kept
+     */
+    public IndexSliceSizer( boolean enabled, int defaultPageSize, int maxPageSize, long maxSize ) {
+        this.enabled = enabled;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = Math.max( maxPageSize, defaultPageSize );
+        this.selectivities =
+                CacheBuilder.newBuilder().maximumSize( maxSize ).expireAfterAccess( 1, TimeUnit.HOURS ).build();
+    }
+
+
+    /**
+     * Track a slice that is read in pages sized from its selectivity
+     *
+     * @param scope The application and collection or connection searched
+     * @param propertyName The property of the slice
+     * @param shape The operator or shape of the range of the slice
+     * @param size The number of results the query returns
+     * @param learn False if the results of the query don't all come from this slice, it is then only sized
+     */
+    public SliceTracker track( String scope, String propertyName, String shape, int size, boolean learn ) {
+        if ( !enabled ) {
+            return fixed( defaultPageSize );
+        }
+
+        String key = scope + ":" + propertyName + ":" + shape;
+        Selectivity selectivity = selectivities.getIfPresent( key );
+        if ( selectivity == null ) {
+            selectivity = new Selectivity();
+            Selectivity existing = selectivities.asMap().putIfAbsent( key, selectivity );
+            if ( existing != null ) {
+                selectivity = existing;
+            }
+        }
+
+        return new SliceTracker( learn ? selectivity : null, getPageSize( selectivity, size ), size );
+    }
+
+
+    /** Track a slice that is read in pages of the given size */
+    public SliceTracker fixed( int pageSize ) {
+        return new SliceTracker( null, pageSize, pageSize );
+    }
+
+
+    private int getPageSize( Selectivity selectivity, int size ) {
+        double value = selectivity.get();
+        if ( value <= 0 ) {
+            return Math.max( defaultPageSize, size );
+        }
+        long pageSize = ( long ) Math.ceil( size / value );
+        return ( int ) Math.max( size, Math.min( pageSize, maxPageSize ) );
+    }
+
+
+    /** The moving average of the selectivity of one slice, 0 until the first query completes */
+    private static class Selectivity {
+
+        private double value = 0;
+
+
+        synchronized double get() {
+            return value;
+        }
+
+
+        synchronized void update( double sample ) {
+            sample = Math.max( MIN_SELECTIVITY, Math.min( sample, 1 ) );
+            value = value <= 0 ? sample : value + ALPHA * ( sample - value );
+        }
+    }
+
+
+    /**
+     * The page size and the reads of one slice of one query.  The scanner of the slice reports each page it loads and
+     * the query processor completes the tracker once the query has its results.
+     */
+    public class SliceTracker {
+
+        /** Null when the slice isn't learned from */
+        private final Selectivity selectivity;
+        private final int pageSize;
+        private final int size;
+
+        private int trips = 0;
+        private long columns = 0;
+        private boolean exhausted = false;
+        private boolean completed = false;
+
+
+        private SliceTracker( Selectivity selectivity, int pageSize, int size ) {
+            this.selectivity = selectivity;
+            this.pageSize = pageSize;
+            this.size = size;
+        }
+
+
+        public int getPageSize() {
+            return pageSize;
+        }
+
+
+        /**
+         * Record a page loaded by the scanner
+         *
+         * @param loaded The number of columns loaded
+         * @param hasMore False if the slice has no more columns
+         */
+        public synchronized void loaded( int loaded, boolean hasMore ) {
+            trips++;
+            columns += loaded;
+            exhausted = !hasMore;
+        }
+
+
+        /**
+         * Learn the selectivity of the slice from the results of the query.  Only slices that filled the query or were
+         * read to their end say how selective they are, other slices stopped because another slice ran out.
+         *
+         * @param results The number of results returned by the query
+         * @param learn False to only count the round trips
+         */
+        public synchronized void complete( int results, boolean learn ) {
+            if ( completed ) {
+                return;
+            }
+            completed = true;
+
+            if ( trips == 0 ) {
+                return;
+            }
+            roundTrips.update( trips );
+            pageSizes.update( pageSize );
+
+            if ( selectivity == null || !learn ) {
+                return;
+            }
+
+            if ( exhausted && columns > 0 ) {
+                selectivity.update( ( double ) results / columns );
+            }
+            else if ( results >= size ) {
+                // the last page was needed only in part, count half of it
+                double needed = ( trips - 0.5 ) * pageSize;
+                selectivity.update( results / needed );
+            }
+        }
+    }
+}
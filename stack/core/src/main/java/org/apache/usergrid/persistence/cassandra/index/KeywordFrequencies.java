@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra.index;
+
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.usergrid.persistence.cassandra.IndexUpdate;
+import org.apache.usergrid.persistence.cassandra.IndexUpdate.IndexEntry;
+
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.HCounterColumn;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hector.api.query.SliceCounterQuery;
+
+import static me.prettyprint.hector.api.factory.HFactory.createCounterColumn;
+import static me.prettyprint.hector.api.factory.HFactory.createCounterSliceQuery;
+import static org.apache.usergrid.persistence.cassandra.ApplicationCF.ENTITY_COUNTERS;
+import static org.apache.usergrid.persistence.cassandra.CassandraPersistenceUtils.key;
+import static org.apache.usergrid.persistence.cassandra.Serializers.be;
+import static org.apache.usergrid.persistence.cassandra.Serializers.se;
+import static org.apache.usergrid.utils.ConversionUtils.bytebuffer;
+
+
+/**
+ * The document frequency of every keyword of the full text indexed properties of a collection, i.e. the number of
+ * entities of the collection whose property contains the keyword.  Kept as counters in one row per collection and
+ * property, next to the keywords index itself, and used by queries to intersect the rarest keywords first.
+ * <p/>
+ * The frequencies are statistics for query planning, not exact counts: counter updates are not idempotent, so a
+ * retried batch counts its keywords twice.
+ */
+public class KeywordFrequencies {
+
+    public static final String KEYWORDS = "keywords";
+
+    /** Row key component separating the frequencies from the index rows of the collection */
+    public static final String DICTIONARY_KEYWORD_FREQUENCIES = "keyword_frequencies";
+
+
+    private KeywordFrequencies() {
+    }
+
+
+    /** True if the index path is the keywords of a full text indexed property */
+    public static boolean isKeywords( String path ) {
+        return path != null && ( path.equals( KEYWORDS ) || path.endsWith( "." + KEYWORDS ) );
+    }
+
+
+    /**
+     * Add the changes of the keyword frequencies of an index update of the owner's collection to the batch.  Only the
+     * keywords added to or removed from the entity are counted, keywords the entity kept are left unchanged.
+     */
+    public static void batchUpdate( Mutator<ByteBuffer> batch, UUID ownerId, String collectionName,
+                                    IndexUpdate indexUpdate ) {
+
+        Map<String, Set<Object>> removed = keywords( indexUpdate.getPrevEntries() );
+        Map<String, Set<Object>> added = keywords( indexUpdate.getNewEntries() );
+
+        for ( Map.Entry<String, Set<Object>> path : removed.entrySet() ) {
+            Set<Object> kept = added.get( path.getKey() );
+
+            for ( Object keyword : path.getValue() ) {
+                if ( kept != null && kept.remove( keyword ) ) {
+                    continue;
+                }
+                increment( batch, ownerId, collectionName, path.getKey(), keyword, -1 );
+            }
+        }
+
+        for ( Map.Entry<String, Set<Object>> path : added.entrySet() ) {
+            for ( Object keyword : path.getValue() ) {
+                increment( batch, ownerId, collectionName, path.getKey(), keyword, 1 );
+            }
+        }
+    }
+
+
+    /**
+     * Read the frequencies of the keywords of a property of the owner's collection.  Keywords without a counter are left
+     * out of the result, since their frequency is unknown rather than zero: they may have been written before the
+     * frequencies were kept.
+     */
+    public static Map<String, Long> getFrequencies( Keyspace ko, UUID ownerId, String collectionName, String path,
+                                                    Collection<String> keywords ) {
+
+        Map<String, Long> frequencies = new HashMap<String, Long>();
+
+        SliceCounterQuery<ByteBuffer, String> q = createCounterSliceQuery( ko, be, se );
+        q.setColumnFamily( ENTITY_COUNTERS.toString() );
+        q.setKey( rowKey( ownerId, collectionName, path ) );
+        q.setColumnNames( keywords.toArray( new String[keywords.size()] ) );
+
+        for ( HCounterColumn<String> column : q.execute().get().getColumns() ) {
+            frequencies.put( column.getName(), column.getValue() );
+        }
+
+        return frequencies;
+    }
+
+
+    private static Map<String, Set<Object>> keywords( Collection<IndexEntry> entries ) {
+        Map<String, Set<Object>> keywords = new HashMap<String, Set<Object>>();
+
+        for ( IndexEntry entry : entries ) {
+            if ( !isKeywords( entry.getPath() ) || !( entry.getValue() instanceof String ) ) {
+                continue;
+            }
+
+            Set<Object> values = keywords.get( entry.getPath() );
+            if ( values == null ) {
+                values = new HashSet<Object>();
+                keywords.put( entry.getPath(), values );
+            }
+            values.add( entry.getValue() );
+        }
+
+        return keywords;
+    }
+
+
+    private static void increment( Mutator<ByteBuffer> batch, UUID ownerId, String collectionName, String path,
+                                   Object keyword, long delta ) {
+        batch.addCounter( rowKey( ownerId, collectionName, path ), ENTITY_COUNTERS.toString(),
+                createCounterColumn( ( String ) keyword, delta ) );
+    }
+
+
+    private static ByteBuffer rowKey( UUID ownerId, String collectionName, String path ) {
+        return bytebuffer( key( ownerId, collectionName, DICTIONARY_KEYWORD_FREQUENCIES, path ) );
+    }
+}
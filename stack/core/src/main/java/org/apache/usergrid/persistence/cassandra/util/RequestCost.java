@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra.util;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+
+
+/**
+ * The Cassandra work done on behalf of one request: the operations executed and the time spent in them, as timed by
+ * the {@link TaggedOpTimer} on every Hector operation, the rows and columns returned by the read methods of the
+ * CassandraService, the mutations sent by counting mutators, and the queries planned.  Column bytes are the sizes of
+ * the serialized names and values that were returned as bytes or strings, a close estimate of the data read.
+ * <p/>
+ * The cost is kept in a ThreadLocal between {@link #begin()} and {@link #end()}.  Work handed to other threads is
+ * accounted to the request by attaching the cost to the worker thread with {@link #attach(RequestCost)}.  All the
+ * static recording methods do nothing when no cost is attached.
+ */
+public class RequestCost {
+
+    private static final ThreadLocal<RequestCost> localCost = new ThreadLocal<RequestCost>();
+
+    /** Queries kept for the slow request log, the rest are only counted */
+    private static final int MAX_QUERIES = 10;
+
+    private final long start = System.nanoTime();
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong columns = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong mutations = new AtomicLong();
+    private final AtomicLong queryCount = new AtomicLong();
+
+    private final List<String> queries = new ArrayList<String>();
+
+
+    /** Start accounting the Cassandra work of this thread to a new cost */
+    public static RequestCost begin() {
+        RequestCost cost = new RequestCost();
+        localCost.set( cost );
+        return cost;
+    }
+
+
+    /** Stop accounting and return the cost, null if none was started */
+    public static RequestCost end() {
+        RequestCost cost = localCost.get();
+        localCost.remove();
+        return cost;
+    }
+
+
+    /** The cost the work of this thread is accounted to, or null */
+    public static RequestCost current() {
+        return localCost.get();
+    }
+
+
+    /** Account the work of this thread to the cost of another thread's request, null detaches */
+    public static void attach( RequestCost cost ) {
+        if ( cost == null ) {
+            localCost.remove();
+        }
+        else {
+            localCost.set( cost );
+        }
+    }
+
+
+    public static void detach() {
+        localCost.remove();
+    }
+
+
+    /**
+     * Record an executed Hector operation
+     *
+     * @param operation The Hector operation type, such as READ or META_WRITE
+     */
+    public static void operation( String operation, long elapsedNanos ) {
+        RequestCost cost = localCost.get();
+        if ( cost == null ) {
+            return;
+        }
+        if ( operation != null && operation.contains( "WRITE" ) ) {
+            cost.writes.incrementAndGet();
+        }
+        else {
+            cost.reads.incrementAndGet();
+        }
+        cost.nanos.addAndGet( elapsedNanos );
+    }
+
+
+    /** Record the columns of a row returned by a read */
+    public static void read( Collection<? extends HColumn<?, ?>> row ) {
+        RequestCost cost = localCost.get();
+        if ( cost == null || row == null ) {
+            return;
+        }
+        cost.rows.incrementAndGet();
+        cost.addColumns( row );
+    }
+
+
+    /** Record a single column returned by a read */
+    public static void read( HColumn<?, ?> column ) {
+        RequestCost cost = localCost.get();
+        if ( cost == null || column == null ) {
+            return;
+        }
+        cost.rows.incrementAndGet();
+        cost.columns.incrementAndGet();
+        cost.bytes.addAndGet( sizeOf( column.getName() ) + sizeOf( column.getValue() ) );
+    }
+
+
+    /** Record the rows returned by a multiget */
+    public static <K, N, V> void read( Rows<K, N, V> rows ) {
+        RequestCost cost = localCost.get();
+        if ( cost == null || rows == null ) {
+            return;
+        }
+        for ( Row<K, N, V> row : rows ) {
+            cost.rows.incrementAndGet();
+            cost.addColumns( row.getColumnSlice().getColumns() );
+        }
+    }
+
+
+    /** Record the mutations sent in a batch */
+    public static void mutations( int count ) {
+        RequestCost cost = localCost.get();
+        if ( cost != null ) {
+            cost.mutations.addAndGet( count );
+        }
+    }
+
+
+    /** Record a planned query, the plan is only built into a string when a cost is attached */
+    public static void query( Object query, Object plan ) {
+        RequestCost cost = localCost.get();
+        if ( cost == null ) {
+            return;
+        }
+        cost.queryCount.incrementAndGet();
+        synchronized ( cost.queries ) {
+            if ( cost.queries.size() < MAX_QUERIES ) {
+                cost.queries.add( query + " plan: " + plan );
+            }
+        }
+    }
+
+
+    private void addColumns( Collection<? extends HColumn<?, ?>> row ) {
+        long size = 0;
+        for ( HColumn<?, ?> column : row ) {
+            size += sizeOf( column.getName() ) + sizeOf( column.getValue() );
+        }
+        columns.addAndGet( row.size() );
+        bytes.addAndGet( size );
+    }
+
+
+    private static long sizeOf( Object value ) {
+        if ( value instanceof ByteBuffer ) {
+            return ( ( ByteBuffer ) value ).remaining();
+        }
+        if ( value instanceof byte[] ) {
+            return ( ( byte[] ) value ).length;
+        }
+        if ( value instanceof String ) {
+            return ( ( String ) value ).length();
+        }
+        if ( value instanceof UUID ) {
+            return 16;
+        }
+        if ( value instanceof Long ) {
+            return 8;
+        }
+        return 0;
+    }
+
+
+    public long getReads() {
+        return reads.get();
+    }
+
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+
+    public long getOperations() {
+        return reads.get() + writes.get();
+    }
+
+
+    /** Time spent in Cassandra operations, in nanoseconds */
+    public long getCassandraNanos() {
+        return nanos.get();
+    }
+
+
+    /** Time since the cost was started, in nanoseconds */
+    public long getElapsedNanos() {
+        return System.nanoTime() - start;
+    }
+
+
+    public long getRows() {
+        return rows.get();
+    }
+
+
+    public long getColumns() {
+        return columns.get();
+    }
+
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+
+    public long getMutations() {
+        return mutations.get();
+    }
+
+
+    public long getQueryCount() {
+        return queryCount.get();
+    }
+
+
+    /** The first queries planned, with their plans */
+    public List<String> getQueries() {
+        synchronized ( queries ) {
+            return new ArrayList<String>( queries );
+        }
+    }
+
+
+    /** Format the cost as the value of a Server-Timing response header */
+    public String toServerTiming() {
+        return String.format( "cassandra;dur=%.2f;desc=\"reads=%d writes=%d rows=%d columns=%d bytes=%d "
+                + "mutations=%d queries=%d\", total;dur=%.2f", millis( getCassandraNanos() ), getReads(),
+                getWrites(), getRows(), getColumns(), getBytes(), getMutations(), getQueryCount(),
+                millis( getElapsedNanos() ) );
+    }
+
+
+    private static double millis( long nanos ) {
+        return nanos / 1000000.0;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format( "%.2f ms total, %.2f ms in %d reads and %d writes, %d rows, %d columns, %d bytes, "
+                + "%d mutations, %d queries", millis( getElapsedNanos() ), millis( getCassandraNanos() ), getReads(),
+                getWrites(), getRows(), getColumns(), getBytes(), getMutations(), getQueryCount() );
+    }
+}
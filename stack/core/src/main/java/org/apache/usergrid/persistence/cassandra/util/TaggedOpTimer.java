@@ -39,16 +39,38 @@ public class TaggedOpTimer implements HOpTimer {
     @Override
     public Object start( String tagName ) {
         // look for our threadLocal. if not present, return this.
-        return traceTagManager.timerInstance();
+        TimedOpTag timedOpTag = traceTagManager.timerInstance();
+        if ( RequestCost.current() != null ) {
+            return new CostedOp( timedOpTag );
+        }
+        return timedOpTag;
     }
 
 
     @Override
     public void stop( Object timedOpTag, String opTagName, boolean success ) {
+        if ( timedOpTag instanceof CostedOp ) {
+            CostedOp op = ( CostedOp ) timedOpTag;
+            RequestCost.operation( opTagName, System.nanoTime() - op.start );
+            timedOpTag = op.timedOpTag;
+        }
         if ( timedOpTag instanceof TimedOpTag ) {
             TimedOpTag t = ( ( TimedOpTag ) timedOpTag );
             t.stopAndApply( opTagName, success );
             traceTagManager.addTimer( t );
         }
     }
+
+
+    /** An operation executed for a request whose {@link RequestCost} is accounted */
+    private static class CostedOp {
+
+        private final TimedOpTag timedOpTag;
+        private final long start = System.nanoTime();
+
+
+        private CostedOp( TimedOpTag timedOpTag ) {
+            this.timedOpTag = timedOpTag;
+        }
+    }
 }
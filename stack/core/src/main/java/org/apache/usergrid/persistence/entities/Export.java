@@ -51,6 +51,18 @@ public class Export extends TypedEntity {
     @EntityProperty
     protected String errorMessage;
 
+    /**
+     * Number of entities uploaded so far
+     */
+    @EntityProperty
+    protected Long entitiesExported;
+
+    /**
+     * Number of part files uploaded so far
+     */
+    @EntityProperty
+    protected Long partsExported;
+
 
     public Export() {
     }
@@ -85,4 +97,24 @@ public class Export extends TypedEntity {
         this.errorMessage = errorMessage;
     }
 
+
+    public Long getEntitiesExported() {
+        return entitiesExported;
+    }
+
+
+    public void setEntitiesExported( final Long entitiesExported ) {
+        this.entitiesExported = entitiesExported;
+    }
+
+
+    public Long getPartsExported() {
+        return partsExported;
+    }
+
+
+    public void setPartsExported( final Long partsExported ) {
+        this.partsExported = partsExported;
+    }
+
 }
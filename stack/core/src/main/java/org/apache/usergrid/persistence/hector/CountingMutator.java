@@ -21,6 +21,7 @@ package org.apache.usergrid.persistence.hector;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.usergrid.persistence.cassandra.util.RequestCost;
 
 import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.Serializer;
@@ -217,6 +218,7 @@ public class CountingMutator<K> implements Mutator<K> {
 
     @Override
     public MutationResult execute() {
+        RequestCost.mutations( target.getPendingMutationCount() );
         return target.execute();
     }
 
@@ -324,6 +326,7 @@ public class CountingMutator<K> implements Mutator<K> {
 
         if ( target.getPendingMutationCount() >= maxSize ) {
             logger.info( "Max mutation size of {} reached.  Flushing", maxSize);
+            RequestCost.mutations( target.getPendingMutationCount() );
             target.execute();
         }
     }
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.query.ir;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.usergrid.persistence.query.ir.QuerySlice.RangeValue;
+
+import static org.apache.usergrid.persistence.cassandra.IndexUpdate.indexValueCode;
+import static org.apache.usergrid.persistence.cassandra.IndexUpdate.toIndexableValue;
+
+
+/**
+ * Intermediate representation of a contains operation with several terms, i.e. name contains 'quick brown fox'. Every
+ * term is a slice of the keywords index of the property, and an entity matches when it contains all of the terms.
+ * The slices are intersected rarest term first, see {@link SearchVisitor#visit(ContainsNode)}.
+ */
+public class ContainsNode extends QueryNode {
+
+    private final String propertyName;
+    private final List<String> terms;
+    private final List<QuerySlice> slices;
+
+
+    /**
+     * @param propertyName The keywords index of the property
+     * @param terms The analyzed terms, each one a keyword
+     * @param nodeId The id of the node, for the cursors of the slices
+     */
+    public ContainsNode( String propertyName, List<String> terms, int nodeId ) {
+        this.propertyName = propertyName;
+        this.terms = terms;
+        this.slices = new ArrayList<QuerySlice>( terms.size() );
+
+        for ( String term : terms ) {
+            Object indexedValue = toIndexableValue( term );
+            byte code = indexValueCode( indexedValue );
+
+            QuerySlice slice = new QuerySlice( propertyName, nodeId );
+            slice.setStart( new RangeValue( code, indexedValue, true ) );
+            slice.setFinish( new RangeValue( code, indexedValue, true ) );
+            slices.add( slice );
+        }
+    }
+
+
+    /** @return the keywords index of the property */
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+
+    /** @return the terms, in query order */
+    public List<String> getTerms() {
+        return terms;
+    }
+
+
+    /** @return one slice per term, in query order */
+    public List<QuerySlice> getAllSlices() {
+        return slices;
+    }
+
+
+    @Override
+    public void visit( NodeVisitor visitor ) throws Exception {
+        visitor.visit( this );
+    }
+
+
+    @Override
+    public int getCount() {
+        return slices.size();
+    }
+
+
+    @Override
+    public boolean ignoreHintSize() {
+        return slices.size() > 1;
+    }
+
+
+    @Override
+    public String toString() {
+        return "ContainsNode [propertyName=" + propertyName + ", terms=" + terms + "]";
+    }
+}
@@ -48,6 +48,13 @@ public interface NodeVisitor {
      */
     public void visit( SliceNode node ) throws Exception;
 
+    /**
+     *
+     * @param node
+     * @throws Exception
+     */
+    public void visit( ContainsNode node ) throws Exception;
+
     /**
      *
      * @param node
@@ -17,6 +17,13 @@
 package org.apache.usergrid.persistence.query.ir;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 
 import org.apache.usergrid.persistence.EntityManager;
@@ -231,15 +238,89 @@ public abstract class SearchVisitor implements NodeVisitor {
      */
     @Override
     public void visit( SliceNode node ) throws Exception {
-        IntersectionIterator intersections = new IntersectionIterator( queryProcessor.getPageSizeHint( node ) );
+        results.push( intersect( node, new ArrayList<QuerySlice>( node.getAllSlices() ) ) );
+    }
+
 
-        for ( QuerySlice slice : node.getAllSlices() ) {
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * org.apache.usergrid.persistence.query.ir.NodeVisitor#visit(org.apache.usergrid.persistence
+     * .query.ir.ContainsNode)
+     */
+    @Override
+    public void visit( ContainsNode node ) throws Exception {
+        results.push( intersect( node, node.getAllSlices() ) );
+    }
+
+
+    /**
+     * Intersect the slices, smallest first.  The first iterator of an intersection drives it, every other iterator is
+     * scanned once per page of the first one, so starting with the rarest term or value bounds the work by the size of
+     * the smallest slice.  The intersection stops as soon as a page is filled.
+     * <p/>
+     * When a slice has a cursor it drove the previous page and must stay first, since the cursor of an intersection is
+     * only kept for its first iterator.
+     */
+    private IntersectionIterator intersect( QueryNode node, List<QuerySlice> slices ) throws Exception {
+        List<SliceIterator> iterators = new ArrayList<SliceIterator>( slices.size() );
+
+        for ( QuerySlice slice : slices ) {
             IndexScanner scanner = secondaryIndexScan( node, slice );
 
-            intersections.addIterator( new SliceIterator( slice, scanner, COLLECTION_PARSER) );
+            iterators.add( new SliceIterator( slice, scanner, COLLECTION_PARSER) );
+        }
+
+        if ( iterators.size() > 1 ) {
+            order( slices, iterators );
         }
 
-        results.push( intersections );
+        IntersectionIterator intersections = new IntersectionIterator( queryProcessor.getPageSizeHint( node ) );
+
+        for ( SliceIterator iterator : iterators ) {
+            intersections.addIterator( iterator );
+        }
+
+        return intersections;
+    }
+
+
+    /** Order the iterators of the slices, the slice with a cursor first, otherwise by their estimated sizes */
+    private void order( List<QuerySlice> slices, List<SliceIterator> iterators ) throws Exception {
+        for ( int i = 0; i < slices.size(); i++ ) {
+            if ( slices.get( i ).hasCursor() ) {
+                iterators.add( 0, iterators.remove( i ) );
+                return;
+            }
+        }
+
+        final long[] sizes = estimateSizes( slices );
+        final Map<SliceIterator, Long> estimates = new IdentityHashMap<SliceIterator, Long>();
+
+        for ( int i = 0; i < sizes.length; i++ ) {
+            // unknown sizes go last, in query order
+            estimates.put( iterators.get( i ), sizes[i] < 0 ? Long.MAX_VALUE : sizes[i] );
+        }
+
+        // stable, slices with equal estimates keep their query order
+        Collections.sort( iterators, new Comparator<SliceIterator>() {
+            @Override
+            public int compare( SliceIterator o1, SliceIterator o2 ) {
+                return estimates.get( o1 ).compareTo( estimates.get( o2 ) );
+            }
+        } );
+    }
+
+
+    /**
+     * Estimate the number of entries in each slice, to intersect the smallest first.  Returns -1 for the slices that
+     * can't be estimated, which is all of them by default.
+     */
+    protected long[] estimateSizes( List<QuerySlice> slices ) throws Exception {
+        long[] sizes = new long[slices.size()];
+        Arrays.fill( sizes, -1 );
+        return sizes;
     }
 
 
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -149,11 +150,16 @@ public class OrderByIterator extends MergeIterator {
     }
 
 
-    /** A Sorted set with a max size. When a new entry is added, the max is removed */
+    /**
+     * A Sorted set with a max size. When a new entry is added, the max is removed.  Only the ids added since the last
+     * load are read, and only the ids of the entities currently in the set are retained, so memory is bounded by the
+     * max size plus a single page of candidates regardless of how many candidates are scanned
+     */
     public static final class SortedEntitySet extends TreeSet<Entity> {
 
         private final int maxSize;
         private final Map<UUID, ScanColumn> cursorVal = new HashMap<UUID, ScanColumn>();
+        private final Map<UUID, ScanColumn> pending = new LinkedHashMap<UUID, ScanColumn>();
         private final EntityManager em;
         private final List<String> fields;
         private final Entity minEntity;
@@ -180,6 +186,11 @@ public class OrderByIterator extends MergeIterator {
                 return false;
             }
 
+            //we're full and this entity sorts after our last element, it would be removed immediately
+            if ( size() >= maxSize && comparator.compare( entity, last() ) >= 0 ) {
+                return false;
+            }
+
             boolean added = super.add( entity );
 
             while ( size() > maxSize ) {
@@ -195,7 +206,12 @@ public class OrderByIterator extends MergeIterator {
 
         /** add the id to be loaded, and the dynamiccomposite column that belongs with it */
         public void add( ScanColumn col ) {
-            cursorVal.put( col.getUUID(), col );
+            //already loaded and still in our set
+            if ( cursorVal.containsKey( col.getUUID() ) ) {
+                return;
+            }
+
+            pending.put( col.getUUID(), col );
         }
 
 
@@ -218,16 +234,26 @@ public class OrderByIterator extends MergeIterator {
         }
 
 
+        /** Load the sort fields of the ids added since the last load, and keep the ones that sort into our set */
         public void load() {
+            if ( pending.isEmpty() ) {
+                return;
+            }
+
             try {
-                for ( Entity e : em.getPartialEntities( cursorVal.keySet(), fields ) ) {
-                    add( e );
+                for ( Entity e : em.getPartialEntities( pending.keySet(), fields ) ) {
+                    if ( add( e ) ) {
+                        cursorVal.put( e.getUuid(), pending.get( e.getUuid() ) );
+                    }
                 }
             }
             catch ( Exception e ) {
                 logger.error( "Unable to load partial entities", e );
                 throw new RuntimeException( e );
             }
+            finally {
+                pending.clear();
+            }
         }
 
 
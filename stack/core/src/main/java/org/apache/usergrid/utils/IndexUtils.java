@@ -52,7 +52,16 @@ public class IndexUtils {
 
     private static final Logger LOG = LoggerFactory.getLogger( IndexUtils.class );
 
-    static Analyzer analyzer = new StandardAnalyzer( Version.LUCENE_30 );
+    /**
+     * Analyzers are not shared between threads, each thread reuses its own analyzer and token stream for every value it
+     * indexes or queries
+     */
+    private static final ThreadLocal<Analyzer> analyzer = new ThreadLocal<Analyzer>() {
+        @Override
+        protected Analyzer initialValue() {
+            return new StandardAnalyzer( Version.LUCENE_30 );
+        }
+    };
 
 
     private static void buildKeyValueSet( Object node, Map<String, List<Object>> keyValues, String path,
@@ -203,9 +212,9 @@ public class IndexUtils {
 
 
     public static List<String> keywords( String source ) {
-        TokenStream ts = analyzer.tokenStream( "keywords", new StringReader( source ) );
         List<String> keywords = new ArrayList<String>();
         try {
+            TokenStream ts = analyzer.get().reusableTokenStream( "keywords", new StringReader( source ) );
             while ( ts.incrementToken() ) {
                 keywords.add( ts.getAttribute( TermAttribute.class ).term() );
             }
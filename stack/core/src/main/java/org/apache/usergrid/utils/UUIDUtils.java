@@ -17,15 +17,16 @@
 package org.apache.usergrid.utils;
 
 
+import java.security.SecureRandom;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
-import com.fasterxml.uuid.EthernetAddress;
 import com.fasterxml.uuid.UUIDComparator;
 
 import static com.fasterxml.uuid.impl.UUIDUtil.BYTE_OFFSET_CLOCK_HI;
@@ -55,65 +56,77 @@ public class UUIDUtils {
     }
 
 
-    private static ReentrantLock tsLock = new ReentrantLock( true );
-
     public static final UUID MIN_TIME_UUID = UUID.fromString( "00000000-0000-1000-8000-000000000000" );
 
     public static final UUID MAX_TIME_UUID = UUID.fromString( "ffffffff-ffff-1fff-bfff-ffffffffffff" );
 
     public static final UUID ZERO_UUID = new UUID( 0, 0 );
 
-    private static long timestampMillisNow = System.currentTimeMillis();
+    /**
+     * The furthest the issued timestamps may run ahead of the wall clock before callers wait for it to catch up. Only
+     * reached when more than a million uuids per second are requested for a sustained period.
+     */
+    private static final long MAX_DRIFT_MICROS = TimeUnit.MILLISECONDS.toMicros( 100 );
+
+    /** The timestamp in microseconds of the last uuid issued by {@link #newTimeUUID()} */
+    private static final AtomicLong lastTimestampMicros = new AtomicLong( 0 );
 
-    private static AtomicInteger currentMicrosPoint = new AtomicInteger( 0 );
     private static AtomicInteger customMicrosPointer = new AtomicInteger( 0 );
 
+    private static final SecureRandom SEED_RANDOM = new SecureRandom();
+
+    /** Per thread randoms so the clock sequence and node bits don't contend on a shared generator */
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            synchronized ( SEED_RANDOM ) {
+                return new Random( SEED_RANDOM.nextLong() );
+            }
+        }
+    };
+
 
     /**
      * Return the "next" UUID in micro second resolution. <b>WARNING</b>: this is designed to return the next unique
-     * timestamped UUID for this JVM. Depending on velocity of the call, this method may block internally to insure that
-     * "now" is kept in sync with the UUIDs being generated by this call.
+     * timestamped UUID for this JVM. Every call returns a uuid with a strictly greater microsecond timestamp than the
+     * previous call from any thread.
      * <p/>
-     * In other words, we will intentionally burn CPU insuring that this method is not executed more than 10k -1 times
-     * per millisecond and guarantee that those microseconds held within are sequential.
+     * Timestamps are claimed with a compare and set, so callers never lock. When more than 1000 uuids are requested
+     * within a millisecond the following microseconds are issued, running ahead of the wall clock until the rate drops.
+     * Only if that lead exceeds {@link #MAX_DRIFT_MICROS} will callers pause for the clock to catch up.
      * <p/>
      * If we did not do this, you would get <b>timestamp collision</b> even though the UUIDs will technically be
      * 'unique.'
      */
     public static java.util.UUID newTimeUUID() {
-        // get & inc counter, but roll on 1k (because we divide by 10 on retrieval)
-        // if count + currentMicro > 1k, block and roll
-        tsLock.lock();
-        long ts = System.currentTimeMillis();
-        if ( ts > timestampMillisNow ) {
-            timestampMillisNow = ts;
-            currentMicrosPoint.set( 0 );
-        }
-        int pointer = currentMicrosPoint.getAndIncrement();
-        try {
-            if ( pointer > 990 ) {
-                TimeUnit.MILLISECONDS.sleep( 1L );
+        long next;
+
+        while ( true ) {
+            long now = TimeUnit.MILLISECONDS.toMicros( System.currentTimeMillis() );
+            long last = lastTimestampMicros.get();
+
+            next = now > last ? now : last + 1;
+
+            if ( next - now > MAX_DRIFT_MICROS ) {
+                LockSupport.parkNanos( TimeUnit.MICROSECONDS.toNanos( next - now - MAX_DRIFT_MICROS ) );
+                continue;
+            }
+
+            if ( lastTimestampMicros.compareAndSet( last, next ) ) {
+                break;
             }
         }
-        catch ( Exception ex ) {
-            ex.printStackTrace();
-        }
-        finally {
-            tsLock.unlock();
-        }
-        return newTimeUUID( ts, MICROS[pointer] );
+
+        return newTimeUUID( next / 1000, MICROS[( int ) ( next % 1000 )] );
     }
 
 
     private static final long KCLOCK_OFFSET = 0x01b21dd213814000L;
     private static final long KCLOCK_MULTIPLIER_L = 10000L;
 
-    private static final Random CLOCK_SEQ_RANDOM = new Random();
-
-
     // 14 bits of randomness
     private static int getRandomClockSequence() {
-        return CLOCK_SEQ_RANDOM.nextInt() & 0x3FFF;
+        return RANDOM.get().nextInt() & 0x3FFF;
     }
 
 
@@ -180,9 +193,16 @@ public class UUIDUtils {
         }
 
         byte[] uuidBytes = new byte[16];
-        // 47 bits of randomness
-        EthernetAddress eth = EthernetAddress.constructMulticastAddress();
-        eth.toByteArray( uuidBytes, 10 );
+        // 47 bits of randomness, a multicast node address so it can't collide with a real one
+        Random random = RANDOM.get();
+        int nodeHi = random.nextInt();
+        int nodeLo = random.nextInt();
+        uuidBytes[10] = ( byte ) ( ( nodeHi >>> 8 ) | 0x01 );
+        uuidBytes[11] = ( byte ) nodeHi;
+        uuidBytes[12] = ( byte ) ( nodeLo >>> 24 );
+        uuidBytes[13] = ( byte ) ( nodeLo >>> 16 );
+        uuidBytes[14] = ( byte ) ( nodeLo >>> 8 );
+        uuidBytes[15] = ( byte ) nodeLo;
         setTimestamp( ts, uuidBytes, getRandomClockSequence(), timeoffset );
 
         return uuid( uuidBytes );
@@ -195,16 +215,7 @@ public class UUIDUtils {
      * with the same timestamp, you will have non-unique temporal values stored in your UUID.
      */
     public static UUID newTimeUUID( long ts ) {
-        tsLock.lock();
-        int pointer = customMicrosPointer.getAndIncrement();
-        try {
-            if ( pointer > 990 ) {
-                customMicrosPointer.set( 0 );
-            }
-        }
-        finally {
-            tsLock.unlock();
-        }
+        int pointer = ( customMicrosPointer.getAndIncrement() & Integer.MAX_VALUE ) % MICROS.length;
         return newTimeUUID( ts, MICROS[pointer] );
     }
 
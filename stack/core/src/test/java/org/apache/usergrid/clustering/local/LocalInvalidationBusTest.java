@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.clustering.local;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.clustering.Invalidation;
+import org.apache.usergrid.clustering.InvalidationListener;
+import org.apache.usergrid.clustering.TopicBatch;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class LocalInvalidationBusTest {
+
+    @Test
+    public void deliversToTopicListeners() {
+        LocalInvalidationBus bus = new LocalInvalidationBus();
+
+        RecordingListener entities = new RecordingListener();
+        RecordingListener permissions = new RecordingListener();
+
+        bus.addListener( "entities", new InvalidationListener() {
+            @Override
+            public void onInvalidation( Invalidation invalidation ) {
+                throw new RuntimeException( "listener failure" );
+            }
+        } );
+        bus.addListener( "entities", entities );
+        bus.addListener( "permissions", permissions );
+
+        UUID applicationId = UUIDUtils.newTimeUUID();
+        Invalidation invalidation = Invalidation.entity( applicationId, UUIDUtils.newTimeUUID() );
+
+        bus.invalidate( "entities", invalidation );
+
+        assertEquals( Arrays.asList( invalidation ), entities.received );
+        assertTrue( permissions.received.isEmpty() );
+
+        bus.removeListener( "entities", entities );
+        bus.invalidate( "entities", Invalidation.application( applicationId ) );
+
+        assertEquals( 1, entities.received.size() );
+    }
+
+
+    @Test
+    public void sendsDeduplicatedBatches() {
+        RecordingBus bus = new RecordingBus( 3 );
+
+        UUID applicationId = UUIDUtils.newTimeUUID();
+        UUID userId = UUIDUtils.newTimeUUID();
+
+        for ( int i = 0; i < 3; i++ ) {
+            bus.invalidate( "permissions", Invalidation.principal( applicationId, userId ) );
+        }
+
+        for ( int i = 0; i < 4; i++ ) {
+            bus.invalidate( "entities", Invalidation.entity( applicationId, UUIDUtils.newTimeUUID() ) );
+        }
+
+        assertTrue( bus.sent.isEmpty() );
+
+        bus.flush();
+
+        int permissionBatches = 0;
+        int entityInvalidations = 0;
+
+        for ( TopicBatch<Invalidation> batch : bus.sent ) {
+            assertEquals( bus.getBusId(), batch.getSender() );
+            assertTrue( batch.getMessages().size() <= 3 );
+
+            if ( "permissions".equals( batch.getTopic() ) ) {
+                permissionBatches++;
+                assertEquals( 1, batch.getMessages().size() );
+            }
+            else {
+                entityInvalidations += batch.getMessages().size();
+            }
+        }
+
+        assertEquals( 1, permissionBatches );
+        assertEquals( 4, entityInvalidations );
+
+        bus.sent.clear();
+        bus.flush();
+
+        assertTrue( bus.sent.isEmpty() );
+    }
+
+
+    @Test
+    public void receivesOtherNodesOnly() {
+        RecordingBus bus = new RecordingBus( 10 );
+        RecordingListener listener = new RecordingListener();
+        bus.addListener( "entities", listener );
+
+        UUID applicationId = UUIDUtils.newTimeUUID();
+        Invalidation invalidation = Invalidation.application( applicationId );
+        List<Invalidation> invalidations = Arrays.asList( invalidation );
+
+        bus.receive( new TopicBatch<Invalidation>( bus.getBusId(), "entities", invalidations ) );
+
+        assertTrue( listener.received.isEmpty() );
+
+        bus.receive( new TopicBatch<Invalidation>( UUID.randomUUID(), "entities", invalidations ) );
+
+        assertEquals( invalidations, listener.received );
+    }
+
+
+    private static class RecordingListener implements InvalidationListener {
+
+        private final List<Invalidation> received = new ArrayList<Invalidation>();
+
+
+        @Override
+        public void onInvalidation( Invalidation invalidation ) {
+            received.add( invalidation );
+        }
+    }
+
+
+    /** Captures the batches that would be sent to the other nodes */
+    private static class RecordingBus extends LocalInvalidationBus {
+
+        private final List<TopicBatch<Invalidation>> sent = new ArrayList<TopicBatch<Invalidation>>();
+
+
+        private RecordingBus( int batchSize ) {
+            setBatchSize( batchSize );
+        }
+
+
+        @Override
+        protected boolean isRemote() {
+            return true;
+        }
+
+
+        @Override
+        protected void send( TopicBatch<Invalidation> batch ) {
+            sent.add( batch );
+        }
+    }
+}
@@ -17,8 +17,11 @@
 package org.apache.usergrid.mq;
 
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
@@ -276,4 +279,43 @@ public class MessagesIT extends AbstractCoreIT {
         assertFalse( "Both transactions have been removed", qm.hasOutstandingTransactions( queuePath, null ) );
         assertFalse( "Both messages and transactions have been returned", qm.hasPendingReads( queuePath, null ) );
     }
+
+
+    @Test
+    public void testStripedQueue() throws Exception {
+        QueueManager qm = app.getQm();
+
+        String queuePath = "/striped/queue";
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put( Queue.QUEUE_STRIPES, 4 );
+        qm.updateQueue( queuePath, properties );
+
+        assertEquals( 4L, qm.getQueue( queuePath ).getLongProperty( Queue.QUEUE_STRIPES ) );
+
+        List<UUID> posted = new ArrayList<UUID>();
+        for ( int i = 0; i < 20; i++ ) {
+            Message message = new Message();
+            message.setIntProperty( "index", i );
+            posted.add( qm.postToQueue( queuePath, message ).getUuid() );
+        }
+
+        // the stripes are merged back in time order, across two pages
+        List<UUID> read = new ArrayList<UUID>();
+        QueueQuery qq = new QueueQuery();
+        qq.setLimit( 15 );
+        QueueResults results = qm.getFromQueue( queuePath, qq );
+        assertEquals( 15, results.size() );
+        for ( Message message : results.getMessages() ) {
+            read.add( message.getUuid() );
+        }
+
+        results = qm.getFromQueue( queuePath, qq );
+        assertEquals( 5, results.size() );
+        for ( Message message : results.getMessages() ) {
+            read.add( message.getUuid() );
+        }
+
+        assertEquals( posted, read );
+    }
 }
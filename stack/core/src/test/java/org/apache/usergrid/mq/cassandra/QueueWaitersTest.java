@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra;
+
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class QueueWaitersTest {
+
+    private final UUID applicationId = UUIDUtils.newTimeUUID();
+
+    private QueueWaiters waiters;
+
+
+    @Before
+    public void setup() {
+        // no cassandra service, only local posts and explicit post times wake waiters
+        waiters = new QueueWaiters();
+        waiters.init();
+    }
+
+
+    @Test
+    public void localPostWakesWaitersOfTheQueue() {
+        CountingWaiter foo = new CountingWaiter();
+        CountingWaiter bar = new CountingWaiter();
+
+        waiters.addWaiter( applicationId, "/foo", 0, foo );
+        waiters.addWaiter( applicationId, "/bar", 0, bar );
+        assertEquals( 2, waiters.getWaiting() );
+
+        waiters.messagePosted( applicationId, "/Foo/" );
+        assertEquals( 1, foo.count.get() );
+        assertEquals( 0, bar.count.get() );
+        assertEquals( 1, waiters.getWaiting() );
+
+        // woken waiters are removed
+        waiters.messagePosted( applicationId, "/foo" );
+        assertEquals( 1, foo.count.get() );
+
+        waiters.messagePosted( UUIDUtils.newTimeUUID(), "/bar" );
+        assertEquals( 0, bar.count.get() );
+    }
+
+
+    @Test
+    public void removedWaiterIsNotWoken() {
+        CountingWaiter waiter = new CountingWaiter();
+
+        waiters.addWaiter( applicationId, "/foo", 0, waiter );
+        assertTrue( waiters.removeWaiter( applicationId, "/foo", waiter ) );
+        assertFalse( waiters.removeWaiter( applicationId, "/foo", waiter ) );
+
+        waiters.messagePosted( applicationId, "/foo" );
+        assertEquals( 0, waiter.count.get() );
+        assertEquals( 0, waiters.getWaiting() );
+    }
+
+
+    @Test
+    public void remotePostWakesOnlyOlderWaiters() {
+        CountingWaiter older = new CountingWaiter();
+        CountingWaiter newer = new CountingWaiter();
+
+        waiters.addWaiter( applicationId, "/foo", 1000, older );
+        waiters.addWaiter( applicationId, "/foo", 3000, newer );
+
+        waiters.postedAt( applicationId, "/foo", 2000 );
+        assertEquals( 1, older.count.get() );
+        assertEquals( 0, newer.count.get() );
+        assertEquals( 1, waiters.getWaiting() );
+
+        waiters.postedAt( applicationId, "/foo", 3000 );
+        assertEquals( 1, newer.count.get() );
+        assertEquals( 0, waiters.getWaiting() );
+    }
+
+
+    private static class CountingWaiter implements QueueWaiters.Waiter {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+
+        @Override
+        public void onMessages() {
+            count.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mq.cassandra.io;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.apache.usergrid.mq.Message;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class ConsumerReadAheadTest {
+
+    private final UUID applicationId = UUIDUtils.newTimeUUID();
+    private final UUID queueId = UUIDUtils.newTimeUUID();
+    private final UUID consumerId = UUIDUtils.newTimeUUID();
+
+    private List<Message> queue;
+    private FakeSearch search;
+    private ConsumerReadAhead readAhead;
+
+
+    @Before
+    public void setup() {
+        queue = new ArrayList<Message>();
+        for ( int i = 0; i < 10; i++ ) {
+            Message message = new Message();
+            message.setUuid( UUIDUtils.newTimeUUID() );
+            queue.add( message );
+        }
+
+        search = new FakeSearch();
+
+        readAhead = new ConsumerReadAhead();
+        readAhead.setPrefetchSize( 4 );
+        readAhead.setExecutor( new Executor() {
+            @Override
+            public void execute( Runnable command ) {
+                command.run();
+            }
+        } );
+        readAhead.init();
+    }
+
+
+    @Test
+    public void readsAreAnsweredFromTheBuffer() {
+        assertNull( readAhead.take( applicationId, queueId, consumerId, null, 2 ) );
+
+        readAhead.readAhead( search, applicationId, queueId, consumerId, null );
+        assertEquals( 1, search.fetches );
+
+        List<Message> messages = readAhead.take( applicationId, queueId, consumerId, null, 2 );
+        assertEquals( queue.subList( 0, 2 ), messages );
+
+        // half of the buffer is left, it is refilled from its end
+        readAhead.readAhead( search, applicationId, queueId, consumerId, queue.get( 1 ).getUuid() );
+        assertEquals( 2, search.fetches );
+
+        messages = readAhead.take( applicationId, queueId, consumerId, queue.get( 1 ).getUuid(), 4 );
+        assertEquals( queue.subList( 2, 6 ), messages );
+    }
+
+
+    @Test
+    public void consumerMovedElsewhere() {
+        readAhead.readAhead( search, applicationId, queueId, consumerId, null );
+
+        // another node served the consumer, the buffer doesn't start at its position
+        assertNull( readAhead.take( applicationId, queueId, consumerId, queue.get( 2 ).getUuid(), 1 ) );
+
+        readAhead.readAhead( search, applicationId, queueId, consumerId, queue.get( 2 ).getUuid() );
+        assertEquals( queue.subList( 3, 5 ),
+                readAhead.take( applicationId, queueId, consumerId, queue.get( 2 ).getUuid(), 2 ) );
+    }
+
+
+    @Test
+    public void readsLargerThanTheBufferMiss() {
+        readAhead.readAhead( search, applicationId, queueId, consumerId, null );
+
+        assertNull( readAhead.take( applicationId, queueId, consumerId, null, 5 ) );
+        assertEquals( queue.subList( 0, 4 ), readAhead.take( applicationId, queueId, consumerId, null, 4 ) );
+    }
+
+
+    @Test
+    public void endOfQueueStopsReadAhead() {
+        readAhead.readAhead( search, applicationId, queueId, consumerId, queue.get( 7 ).getUuid() );
+        assertEquals( 1, search.fetches );
+
+        assertEquals( queue.subList( 8, 10 ),
+                readAhead.take( applicationId, queueId, consumerId, queue.get( 7 ).getUuid(), 2 ) );
+
+        // the fetch came back short, nothing is read until the consumer misses
+        readAhead.readAhead( search, applicationId, queueId, consumerId, queue.get( 9 ).getUuid() );
+        assertEquals( 1, search.fetches );
+    }
+
+
+    @Test
+    public void bufferedMessagesAreBounded() {
+        readAhead.setMaxBufferedMessages( 6 );
+
+        readAhead.readAhead( search, applicationId, queueId, consumerId, null );
+        readAhead.readAhead( search, applicationId, queueId, UUIDUtils.newTimeUUID(), null );
+
+        assertEquals( 1, search.fetches );
+    }
+
+
+    /** Reads from the in memory queue */
+    private class FakeSearch extends ReadAheadSearch {
+
+        private int fetches;
+
+
+        private FakeSearch() {
+            super( applicationId, null, null );
+        }
+
+
+        @Override
+        List<Message> fetch( UUID queueId, UUID startId, int count ) {
+            fetches++;
+
+            int start = 0;
+            if ( startId != null ) {
+                while ( !queue.get( start ).getUuid().equals( startId ) ) {
+                    start++;
+                }
+                start++;
+            }
+
+            return new ArrayList<Message>( queue.subList( start, Math.min( start + count, queue.size() ) ) );
+        }
+    }
+}
@@ -19,9 +19,11 @@ package org.apache.usergrid.persistence;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.junit.Rule;
@@ -33,6 +35,7 @@ import org.apache.usergrid.Application;
 import org.apache.usergrid.CoreApplication;
 import org.apache.usergrid.cassandra.Concurrent;
 import org.apache.usergrid.persistence.Results.Level;
+import org.apache.usergrid.persistence.cassandra.EntityManagerImpl;
 import org.apache.usergrid.persistence.entities.User;
 import org.apache.usergrid.persistence.exceptions.DuplicateUniquePropertyExistsException;
 import org.apache.usergrid.persistence.exceptions.NoIndexException;
@@ -678,6 +681,74 @@ public class CollectionIT extends AbstractCoreIT {
     }
 
 
+    @Test
+    public void containsTermsQuery() throws Exception {
+        UUID applicationId = setup.createApplication( "testOrganization", "containsTermsQuery" );
+        assertNotNull( applicationId );
+
+        EntityManager em = setup.getEmf().getEntityManager( applicationId );
+        assertNotNull( em );
+
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put( "keywords", "blah,test,game" );
+        properties.put( "title", "Solitaire" );
+
+        Entity game1 = em.create( "game", properties );
+        assertNotNull( game1 );
+
+        properties = new LinkedHashMap<String, Object>();
+        properties.put( "keywords", "random,test" );
+        properties.put( "title", "Hearts" );
+
+        Entity game2 = em.create( "game", properties );
+        assertNotNull( game2 );
+
+        // every term must match
+        Query query = Query.fromQL( "select * where keywords contains 'test random'" );
+        Results r = em.searchCollection( em.getApplicationRef(), "games", query );
+        assertEquals( 1, r.size() );
+        assertEquals( game2.getUuid(), r.getEntity().getUuid() );
+
+        query = Query.fromQL( "select * where keywords contains 'random blah'" );
+        r = em.searchCollection( em.getApplicationRef(), "games", query );
+        assertEquals( 0, r.size() );
+
+        // the frequencies follow updates, the removed keyword no longer matches
+        em.setProperty( game2, "keywords", "blah,test" );
+
+        query = Query.fromQL( "select * where keywords contains 'test random'" );
+        r = em.searchCollection( em.getApplicationRef(), "games", query );
+        assertEquals( 0, r.size() );
+
+        query = Query.fromQL( "select * where keywords contains 'blah test'" );
+        r = em.searchCollection( em.getApplicationRef(), "games", query );
+        assertEquals( 2, r.size() );
+
+        // page through an intersection driven by the rarest term, every entity exactly once
+        for ( int i = 0; i < 10; i++ ) {
+            properties = new LinkedHashMap<String, Object>();
+            properties.put( "keywords", "common,paged" + ( i % 2 == 0 ? ",rare" : "" ) );
+            properties.put( "title", "Game " + i );
+            em.create( "game", properties );
+        }
+
+        Set<UUID> found = new HashSet<UUID>();
+        query = Query.fromQL( "select * where keywords contains 'common rare paged'" );
+        query.setLimit( 2 );
+
+        do {
+            r = em.searchCollection( em.getApplicationRef(), "games", query );
+            for ( Entity entity : r.getEntities() ) {
+                assertTrue( found.add( entity.getUuid() ) );
+            }
+            query.setCursor( r.getCursor() );
+        }
+        while ( r.getCursor() != null );
+
+        assertEquals( 5, found.size() );
+    }
+
+
     @Test
     public void notQuery() throws Exception {
         UUID applicationId = setup.createApplication( "testOrganization", "notQuery" );
@@ -1696,4 +1767,64 @@ public class CollectionIT extends AbstractCoreIT {
 
         em.create( "restaurant", restaurant2.getProperties() );
     }
+
+
+    @Test
+    public void duplicateNameInBatchTest() throws Exception {
+        UUID applicationId = setup.createApplication( "testOrganization", "duplicateNameInBatchTest" );
+        assertNotNull( applicationId );
+
+        EntityManager em = setup.getEmf().getEntityManager( applicationId );
+        assertNotNull( em );
+
+        List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+        batch.add( hashMap( "name", ( Object ) "4peaks" ) );
+        batch.add( hashMap( "name", ( Object ) "4PEAKS" ) );
+
+        try {
+            em.createAll( "restaurant", batch );
+            fail( "Duplicate names within one batch should be rejected" );
+        }
+        catch ( DuplicateUniquePropertyExistsException e ) {
+            // expected
+        }
+
+        //nothing from the rejected batch should have been written
+        Query query = new Query();
+        query.addEqualityFilter( "name", "4peaks" );
+        Results r = em.searchCollection( em.getApplicationRef(), "restaurants", query );
+        assertEquals( 0, r.size() );
+    }
+
+
+    @Test
+    public void existingNameInLaterChunkTest() throws Exception {
+        UUID applicationId = setup.createApplication( "testOrganization", "existingNameInLaterChunkTest" );
+        assertNotNull( applicationId );
+
+        EntityManager em = setup.getEmf().getEntityManager( applicationId );
+        assertNotNull( em );
+
+        em.create( "restaurant", hashMap( "name", ( Object ) "taken" ) );
+
+        List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+        for ( int i = 0; i < EntityManagerImpl.CREATE_ALL_CHUNK_SIZE; i++ ) {
+            batch.add( hashMap( "name", ( Object ) ( "chunked" + i ) ) );
+        }
+        batch.add( hashMap( "name", ( Object ) "taken" ) );
+
+        try {
+            em.createAll( "restaurant", batch );
+            fail( "A name taken by an existing entity should be rejected" );
+        }
+        catch ( DuplicateUniquePropertyExistsException e ) {
+            // expected
+        }
+
+        //the first chunk was checked and written before the second was checked
+        Query query = new Query();
+        query.addEqualityFilter( "name", "chunked0" );
+        Results r = em.searchCollection( em.getApplicationRef(), "restaurants", query );
+        assertEquals( 1, r.size() );
+    }
 }
@@ -460,4 +460,54 @@ public class IndexIT extends AbstractCoreIT {
             fail( "The last match was null but should have been herring!" );
         }
     }
+
+
+    /** Updates several indexed properties at once, the previous entries of all of them are read in a single slice */
+    @Test
+    public void testMultiplePropertyUpdate() throws Exception {
+
+        UUID applicationId = setup.createApplication( "testOrganization", "testMultiplePropertyUpdate" );
+
+        EntityManager em = setup.getEmf().getEntityManager( applicationId );
+
+        Map<String, Object> address = new LinkedHashMap<String, Object>();
+        address.put( "city", "San Francisco" );
+
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        properties.put( "name", "multi" );
+        properties.put( "status", "pickled" );
+        properties.put( "color", "green" );
+        properties.put( "size", 1 );
+        properties.put( "address", address );
+
+        Entity entity = em.create( "item", properties );
+
+        address = new LinkedHashMap<String, Object>();
+        address.put( "city", "San Jose" );
+
+        Map<String, Object> updates = new LinkedHashMap<String, Object>();
+        updates.put( "status", "herring" );
+        updates.put( "color", "red" );
+        updates.put( "size", 2 );
+        updates.put( "address", address );
+
+        em.updateProperties( entity, updates );
+
+        String[] previous = {
+                "status = 'pickled'", "color = 'green'", "size = 1", "address.city = 'San Francisco'"
+        };
+
+        for ( String ql : previous ) {
+            Results r = em.searchCollection( em.getApplicationRef(), "items", Query.fromQL( ql ) );
+            assertEquals( ql, 0, r.size() );
+        }
+
+        String[] current = { "status = 'herring'", "color = 'red'", "size = 2", "address.city = 'San Jose'" };
+
+        for ( String ql : current ) {
+            Results r = em.searchCollection( em.getApplicationRef(), "items", Query.fromQL( ql ) );
+            assertEquals( ql, 1, r.size() );
+            assertEquals( entity.getUuid(), r.getEntity().getUuid() );
+        }
+    }
 }
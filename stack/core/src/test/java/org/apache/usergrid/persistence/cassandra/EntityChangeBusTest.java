@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.apache.usergrid.persistence.EntityChange;
+import org.apache.usergrid.persistence.EntityChange.Operation;
+import org.apache.usergrid.persistence.EntityChangeListener;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class EntityChangeBusTest {
+
+    @Test
+    public void failingListenerDoesNotBlockOthers() {
+        EntityChangeBus bus = new EntityChangeBus();
+
+        assertFalse( bus.hasListeners() );
+
+        final List<EntityChange> received = new ArrayList<EntityChange>();
+
+        bus.addListener( new EntityChangeListener() {
+            @Override
+            public void onChange( EntityChange change ) {
+                throw new RuntimeException( "listener failure" );
+            }
+        } );
+
+        bus.addListener( new EntityChangeListener() {
+            @Override
+            public void onChange( EntityChange change ) {
+                received.add( change );
+            }
+        } );
+
+        assertTrue( bus.hasListeners() );
+
+        EntityChange change =
+                new EntityChange( UUIDUtils.newTimeUUID(), Operation.CREATE, "user", UUIDUtils.newTimeUUID(),
+                        System.currentTimeMillis() );
+
+        bus.publish( change );
+
+        assertEquals( 1, received.size() );
+        assertSame( change, received.get( 0 ) );
+    }
+}
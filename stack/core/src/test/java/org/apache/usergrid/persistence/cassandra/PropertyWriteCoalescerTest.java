@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.persistence.EntityRef;
+import org.apache.usergrid.persistence.SimpleEntityRef;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class PropertyWriteCoalescerTest {
+
+    @Test
+    public void onlyConfiguredPropertiesAreCoalesced() {
+        PropertyWriteCoalescer coalescer = new PropertyWriteCoalescer();
+
+        assertFalse( coalescer.isCoalesced( "user", "lastseen" ) );
+
+        coalescer.setProperties( "users.lastSeen, devices.*" );
+
+        assertTrue( coalescer.isEnabled() );
+        assertTrue( coalescer.isCoalesced( "user", "lastseen" ) );
+        assertTrue( coalescer.isCoalesced( "device", "location" ) );
+        assertFalse( coalescer.isCoalesced( "user", "location" ) );
+        assertFalse( coalescer.isCoalesced( "group", "lastseen" ) );
+
+        // unique properties are never coalesced
+        coalescer.setProperties( "users.*" );
+        assertFalse( coalescer.isCoalesced( "user", "username" ) );
+
+        coalescer.setWindow( 0 );
+        assertFalse( coalescer.isEnabled() );
+    }
+
+
+    @Test
+    public void flushWritesLastValuePerEntity() {
+        PropertyWriteCoalescer coalescer = new PropertyWriteCoalescer();
+        coalescer.setProperties( "devices.*" );
+
+        RecordingEntityManager em = new RecordingEntityManager( UUIDUtils.newTimeUUID() );
+        EntityRef first = new SimpleEntityRef( "device", UUIDUtils.newTimeUUID() );
+        EntityRef second = new SimpleEntityRef( "device", UUIDUtils.newTimeUUID() );
+
+        for ( int i = 0; i < 10; i++ ) {
+            assertTrue( coalescer.offer( em, first, properties( "lastseen", i ) ) );
+        }
+        assertTrue( coalescer.offer( em, first, properties( "location", "here" ) ) );
+        assertTrue( coalescer.offer( em, second, properties( "lastseen", 42 ) ) );
+
+        assertEquals( 2, coalescer.getPendingCount() );
+        assertTrue( em.updates.isEmpty() );
+
+        coalescer.flush();
+
+        assertEquals( 0, coalescer.getPendingCount() );
+        assertEquals( 2, em.updates.size() );
+
+        Map<String, Object> firstUpdate = em.updated( first.getUuid() );
+        assertEquals( 9, firstUpdate.get( "lastseen" ) );
+        assertEquals( "here", firstUpdate.get( "location" ) );
+        assertEquals( 42, em.updated( second.getUuid() ).get( "lastseen" ) );
+
+        // nothing left to write
+        coalescer.flush();
+        assertEquals( 2, em.updates.size() );
+    }
+
+
+    @Test
+    public void overflowWritesThrough() {
+        PropertyWriteCoalescer coalescer = new PropertyWriteCoalescer();
+        coalescer.setProperties( "devices.*" );
+        coalescer.setMaxPending( 1 );
+
+        RecordingEntityManager em = new RecordingEntityManager( UUIDUtils.newTimeUUID() );
+        EntityRef first = new SimpleEntityRef( "device", UUIDUtils.newTimeUUID() );
+
+        assertTrue( coalescer.offer( em, first, properties( "lastseen", 1 ) ) );
+        assertTrue( coalescer.offer( em, first, properties( "lastseen", 2 ) ) );
+        assertFalse( coalescer.offer( em, new SimpleEntityRef( "device", UUIDUtils.newTimeUUID() ),
+                properties( "lastseen", 3 ) ) );
+        assertFalse( coalescer.offer( em, new SimpleEntityRef( "user", UUIDUtils.newTimeUUID() ),
+                properties( "lastseen", 3 ) ) );
+    }
+
+
+    @Test
+    public void writtenWithOfferTime() {
+        PropertyWriteCoalescer coalescer = new PropertyWriteCoalescer();
+        coalescer.setProperties( "devices.*" );
+
+        RecordingEntityManager em = new RecordingEntityManager( UUIDUtils.newTimeUUID() );
+        EntityRef device = new SimpleEntityRef( "device", UUIDUtils.newTimeUUID() );
+
+        assertTrue( coalescer.offer( em, device, properties( "lastseen", 1 ) ) );
+
+        // a direct write made after the offer but before the flush must stay newer
+        UUID direct = UUIDUtils.newTimeUUID();
+
+        coalescer.flush();
+
+        assertEquals( 1, em.timestamps.size() );
+        assertTrue( UUIDUtils.compare( em.timestamps.get( 0 ), direct ) < 0 );
+    }
+
+
+    @Test
+    public void drainWritesPendingUpdate() {
+        PropertyWriteCoalescer coalescer = new PropertyWriteCoalescer();
+        coalescer.setProperties( "devices.*" );
+
+        RecordingEntityManager em = new RecordingEntityManager( UUIDUtils.newTimeUUID() );
+        EntityRef device = new SimpleEntityRef( "device", UUIDUtils.newTimeUUID() );
+
+        assertTrue( coalescer.offer( em, device, properties( "lastseen", 1 ) ) );
+
+        // another application's entity with the same id is not drained
+        coalescer.drain( UUIDUtils.newTimeUUID(), device.getUuid() );
+        assertTrue( em.updates.isEmpty() );
+
+        coalescer.drain( em.getApplicationId(), device.getUuid() );
+
+        assertEquals( 0, coalescer.getPendingCount() );
+        assertEquals( 1, em.updated( device.getUuid() ).get( "lastseen" ) );
+    }
+
+
+    @Test
+    public void pendingPerApplication() {
+        PropertyWriteCoalescer coalescer = new PropertyWriteCoalescer();
+        coalescer.setProperties( "devices.*" );
+
+        RecordingEntityManager first = new RecordingEntityManager( UUIDUtils.newTimeUUID() );
+        RecordingEntityManager second = new RecordingEntityManager( UUIDUtils.newTimeUUID() );
+        EntityRef device = new SimpleEntityRef( "device", UUIDUtils.newTimeUUID() );
+
+        assertTrue( coalescer.offer( first, device, properties( "lastseen", 1 ) ) );
+        assertTrue( coalescer.offer( second, device, properties( "lastseen", 2 ) ) );
+
+        assertEquals( 2, coalescer.getPendingCount() );
+
+        coalescer.flush();
+
+        assertEquals( 1, first.updated( device.getUuid() ).get( "lastseen" ) );
+        assertEquals( 2, second.updated( device.getUuid() ).get( "lastseen" ) );
+    }
+
+
+    private static Map<String, Object> properties( String name, Object value ) {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put( name, value );
+        return properties;
+    }
+
+
+    /** Records the writes of the coalescer instead of sending them to cassandra */
+    private static class RecordingEntityManager extends EntityManagerImpl {
+
+        private final UUID applicationId;
+        private final List<UUID> ids = new ArrayList<UUID>();
+        private final List<Map<String, Object>> updates = new ArrayList<Map<String, Object>>();
+        private final List<UUID> timestamps = new ArrayList<UUID>();
+
+
+        private RecordingEntityManager( UUID applicationId ) {
+            this.applicationId = applicationId;
+        }
+
+
+        @Override
+        public UUID getApplicationId() {
+            return applicationId;
+        }
+
+
+        @Override
+        public void updateProperties( UUID entityId, Map<String, Object> properties, UUID timestampUuid )
+                throws Exception {
+            ids.add( entityId );
+            updates.add( properties );
+            timestamps.add( timestampUuid );
+        }
+
+
+        private Map<String, Object> updated( UUID entityId ) {
+            return updates.get( ids.indexOf( entityId ) );
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.usergrid.persistence.cassandra;
 
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.UUID;
 
@@ -29,6 +30,7 @@ import org.apache.usergrid.cassandra.Concurrent;
 import org.apache.usergrid.persistence.Query;
 import org.apache.usergrid.persistence.exceptions.PersistenceException;
 import org.apache.usergrid.persistence.query.ir.AndNode;
+import org.apache.usergrid.persistence.query.ir.ContainsNode;
 import org.apache.usergrid.persistence.query.ir.NotNode;
 import org.apache.usergrid.persistence.query.ir.OrNode;
 import org.apache.usergrid.persistence.query.ir.OrderByNode;
@@ -268,6 +270,61 @@ public class QueryProcessorTest {
     }
 
 
+    @Test
+    public void containsTerms() throws Exception {
+        String queryString = "select * where a contains 'quick brown fox'";
+
+        ANTLRStringStream in = new ANTLRStringStream( queryString );
+        QueryFilterLexer lexer = new QueryFilterLexer( in );
+        TokenRewriteStream tokens = new TokenRewriteStream( lexer );
+        QueryFilterParser parser = new QueryFilterParser( tokens );
+
+        Query query = parser.ql().query;
+
+        QueryProcessor processor = new QueryProcessor( query, null, null, null );
+
+        ContainsNode node = ( ContainsNode ) processor.getFirstNode();
+
+        assertEquals( "a.keywords", node.getPropertyName() );
+        assertEquals( Arrays.asList( "quick", "brown", "fox" ), node.getTerms() );
+        assertEquals( 3, node.getAllSlices().size() );
+
+        for ( QuerySlice slice : node.getAllSlices() ) {
+            assertEquals( "a.keywords", slice.getPropertyName() );
+            assertEquals( slice.getStart(), slice.getFinish() );
+            assertTrue( slice.getStart().isInclusive() );
+        }
+
+        assertEquals( "quick", node.getAllSlices().get( 0 ).getStart().getValue() );
+        assertEquals( "fox", node.getAllSlices().get( 2 ).getStart().getValue() );
+    }
+
+
+    @Test
+    public void containsTermsInContext() throws Exception {
+        String queryString = "select * where b = 1 and not a contains 'quick fox'";
+
+        ANTLRStringStream in = new ANTLRStringStream( queryString );
+        QueryFilterLexer lexer = new QueryFilterLexer( in );
+        TokenRewriteStream tokens = new TokenRewriteStream( lexer );
+        QueryFilterParser parser = new QueryFilterParser( tokens );
+
+        Query query = parser.ql().query;
+
+        QueryProcessor processor = new QueryProcessor( query, null, null, null );
+
+        AndNode node = ( AndNode ) processor.getFirstNode();
+
+        SliceNode left = ( SliceNode ) node.getLeft();
+        assertEquals( 1, left.getAllSlices().size() );
+
+        NotNode not = ( NotNode ) node.getRight();
+        ContainsNode contains = ( ContainsNode ) not.getSubtractNode();
+
+        assertEquals( Arrays.asList( "quick", "fox" ), contains.getTerms() );
+    }
+
+
     @Test
     public void within() throws Exception {
         String queryString = "select * where a within .5 of 157.00, 0.00";
@@ -819,4 +876,93 @@ public class QueryProcessorTest {
 
 
     }
+
+
+    @Test
+    public void queryScopeIgnoresText() throws Exception {
+        QueryProcessor processor =
+                new QueryProcessor( Query.fromQL( "select * where a = 5 and b = 'foo' order by c" ), null, null, null );
+
+        QueryProcessor other =
+                new QueryProcessor( Query.fromQL( "select *  where b='foo' AND a=5 order by c" ), null, null, null );
+
+        assertEquals( processor.getQueryScope(), other.getQueryScope() );
+    }
+
+
+    @Test
+    public void queryScopeIgnoresCursor() throws Exception {
+        Query query = Query.fromQL( "select * where a > 5" );
+
+        Query next = Query.fromQL( "select * where a > 5" );
+        next.setCursor( "c29tZWN1cnNvcg" );
+
+        assertEquals( new QueryProcessor( query, null, null, null ).getQueryScope(),
+                new QueryProcessor( next, null, null, null ).getQueryScope() );
+    }
+
+
+    @Test
+    public void queryScopeDiffers() throws Exception {
+        String scope = new QueryProcessor( Query.fromQL( "select * where a > 5" ), null, null, null ).getQueryScope();
+
+        assertFalse( scope.equals(
+                new QueryProcessor( Query.fromQL( "select * where a >= 5" ), null, null, null ).getQueryScope() ) );
+        assertFalse( scope.equals(
+                new QueryProcessor( Query.fromQL( "select * where a > 6" ), null, null, null ).getQueryScope() ) );
+        assertFalse( scope.equals(
+                new QueryProcessor( Query.fromQL( "select * where a > 5 order by a desc" ), null, null, null )
+                        .getQueryScope() ) );
+        assertFalse( scope.equals(
+                new QueryProcessor( Query.fromQL( "select * where a > 5" ).withLimit( 50 ), null, null, null )
+                        .getQueryScope() ) );
+
+        //queries built without ql have the same text whatever their filters
+        Query query = new Query();
+        query.addEqualityFilter( "a", 5 );
+
+        Query other = new Query();
+        other.addEqualityFilter( "a", 6 );
+
+        assertEquals( query.toString(), other.toString() );
+        assertFalse( new QueryProcessor( query, null, null, null ).getQueryScope()
+                .equals( new QueryProcessor( other, null, null, null ).getQueryScope() ) );
+    }
+
+
+    @Test
+    public void onlyIntersectedSlicesLearn() throws Exception {
+        QueryProcessor processor =
+                new QueryProcessor( Query.fromQL( "select * where a = 1 or b = 2" ), null, null, null );
+
+        OrNode or = ( OrNode ) processor.getFirstNode();
+
+        assertTrue( processor.isIntersected( or ) );
+
+        //each result of the union comes from one of its slices only
+        assertFalse( processor.isIntersected( or.getLeft() ) );
+        assertFalse( processor.isIntersected( or.getRight() ) );
+
+        processor = new QueryProcessor( Query.fromQL( "select * where a > 1 and not b = 2" ), null, null, null );
+
+        AndNode and = ( AndNode ) processor.getFirstNode();
+        NotNode not = ( NotNode ) and.getRight();
+
+        assertTrue( processor.isIntersected( and.getLeft() ) );
+        assertFalse( processor.isIntersected( not.getSubtractNode() ) );
+    }
+
+
+    @Test
+    public void sliceShapes() throws Exception {
+        assertEquals( "eq", QueryProcessor.getSliceShape( firstSlice( "select * where a = 1" ) ) );
+        assertEquals( "(..*", QueryProcessor.getSliceShape( firstSlice( "select * where a > 5" ) ) );
+        assertEquals( "[..)", QueryProcessor.getSliceShape( firstSlice( "select * where a >= 5 and a < 9" ) ) );
+    }
+
+
+    private static QuerySlice firstSlice( String ql ) throws Exception {
+        SliceNode node = ( SliceNode ) new QueryProcessor( Query.fromQL( ql ), null, null, null ).getFirstNode();
+        return node.getAllSlices().iterator().next();
+    }
 }
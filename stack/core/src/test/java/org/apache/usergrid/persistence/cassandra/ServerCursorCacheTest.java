@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.apache.usergrid.persistence.cassandra.ServerCursorCache.ServerCursor;
+import org.apache.usergrid.persistence.query.ir.result.EmptyIterator;
+import org.apache.usergrid.persistence.query.ir.result.ResultIterator;
+import org.apache.usergrid.persistence.query.ir.result.ScanColumn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+
+public class ServerCursorCacheTest {
+
+    @Test
+    public void takeOnce() {
+        ServerCursorCache cache = new ServerCursorCache( true, 10, 60 );
+
+        ResultIterator itr = new EmptyIterator();
+
+        String cursor = cache.put( "scope", statelessCursor(), itr, Collections.<ScanColumn>emptyList() );
+
+        ServerCursor serverCursor = cache.take( "scope", cursor );
+
+        assertSame( itr, serverCursor.getIterator() );
+
+        assertNull( cache.take( "scope", cursor ) );
+    }
+
+
+    @Test
+    public void wrongScope() {
+        ServerCursorCache cache = new ServerCursorCache( true, 10, 60 );
+
+        String cursor =
+                cache.put( "scope", statelessCursor(), new EmptyIterator(), Collections.<ScanColumn>emptyList() );
+
+        assertNull( cache.take( "otherscope", cursor ) );
+    }
+
+
+    @Test
+    public void discard() {
+        ServerCursorCache cache = new ServerCursorCache( true, 10, 60 );
+
+        String cursor =
+                cache.put( "scope", statelessCursor(), new EmptyIterator(), Collections.<ScanColumn>emptyList() );
+
+        cache.discard( cursor );
+
+        assertNull( cache.take( "scope", cursor ) );
+
+        //stateless and missing cursors are ignored
+        cache.discard( statelessCursor() );
+        cache.discard( null );
+    }
+
+
+    @Test
+    public void statelessCursorFallback() {
+        ServerCursorCache cache = new ServerCursorCache( true, 10, 60 );
+
+        String stateless = statelessCursor();
+
+        String cursor = cache.put( "scope", stateless, new EmptyIterator(), Collections.<ScanColumn>emptyList() );
+
+        assertEquals( stateless, ServerCursorCache.getStatelessCursor( cursor ) );
+        assertEquals( stateless, ServerCursorCache.getStatelessCursor( stateless ) );
+        assertNull( ServerCursorCache.getCursorId( stateless ) );
+        assertNull( cache.take( "scope", stateless ) );
+
+        //the stateless positions must parse the same with or without the id
+        CursorCache parsed = new CursorCache( cursor );
+
+        assertEquals( ByteBuffer.wrap( new byte[] { 1, 2, 3 } ), parsed.getCursorBytes( 100 ) );
+    }
+
+
+    private String statelessCursor() {
+        CursorCache cursorCache = new CursorCache();
+        cursorCache.setNextCursor( 100, ByteBuffer.wrap( new byte[] { 1, 2, 3 } ) );
+        return cursorCache.asString();
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.clustering.local.LocalInvalidationBus;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.apache.usergrid.utils.ConversionUtils.bytes;
+
+
+public class UniqueValueFilterTest {
+
+    @Test
+    public void disabledNeverSkips() {
+        UniqueValueFilter filter = new UniqueValueFilter( null );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+
+        filter.rebuild( Collections.<ByteBuffer>emptyList().iterator() );
+
+        assertFalse( filter.isAbsent( appId, "users", "username", "bob" ) );
+    }
+
+
+    @Test
+    public void notAbsentBeforeRebuild() {
+        UniqueValueFilter filter = newFilter();
+
+        UUID appId = UUIDUtils.newTimeUUID();
+
+        assertFalse( filter.isAbsent( appId, "users", "username", "bob" ) );
+    }
+
+
+    @Test
+    public void rebuildFromRowKeys() {
+        UniqueValueFilter filter = newFilter();
+
+        UUID appId = UUIDUtils.newTimeUUID();
+        UUID otherAppId = UUIDUtils.newTimeUUID();
+
+        //register both applications
+        filter.isAbsent( appId, "users", "username", "bob" );
+        filter.isAbsent( otherAppId, "users", "username", "bob" );
+
+        List<ByteBuffer> rowKeys = new ArrayList<ByteBuffer>();
+        rowKeys.add( rowKey( appId, "users", "username", "bob" ) );
+        rowKeys.add( rowKey( appId, "users", "email", "bob@usergrid.org" ) );
+        rowKeys.add( rowKey( otherAppId, "users", "username", "alice" ) );
+
+        filter.rebuild( rowKeys.iterator() );
+
+        assertFalse( filter.isAbsent( appId, "users", "username", "bob" ) );
+        assertFalse( filter.isAbsent( appId, "users", "username", "BOB" ) );
+        assertFalse( filter.isAbsent( appId, "users", "email", "bob@usergrid.org" ) );
+        assertTrue( filter.isAbsent( appId, "users", "username", "alice" ) );
+
+        //no filter for the collection and property yet, must read
+        assertFalse( filter.isAbsent( appId, "groups", "path", "bob" ) );
+
+        assertFalse( filter.isAbsent( otherAppId, "users", "username", "alice" ) );
+        assertTrue( filter.isAbsent( otherAppId, "users", "username", "bob" ) );
+    }
+
+
+    @Test
+    public void newApplicationsWaitForOneScan() {
+        UniqueValueFilter filter = newFilter();
+
+        filter.isAbsent( UUIDUtils.newTimeUUID(), "users", "username", "bob" );
+        filter.isAbsent( UUIDUtils.newTimeUUID(), "users", "username", "bob" );
+
+        assertTrue( filter.hasUnbuilt() );
+
+        //one scan builds every application seen before it
+        filter.rebuild( Collections.<ByteBuffer>emptyList().iterator() );
+
+        assertFalse( filter.hasUnbuilt() );
+
+        filter.isAbsent( UUIDUtils.newTimeUUID(), "users", "username", "bob" );
+
+        assertTrue( filter.hasUnbuilt() );
+    }
+
+
+    @Test
+    public void writesUpdateFilter() {
+        UniqueValueFilter filter = newFilter();
+
+        UUID appId = UUIDUtils.newTimeUUID();
+
+        //written before the first rebuild, must survive it
+        filter.put( appId, "users", "username", "bob" );
+
+        filter.rebuild( Collections.<ByteBuffer>emptyList().iterator() );
+
+        assertFalse( filter.isAbsent( appId, "users", "username", "bob" ) );
+        assertTrue( filter.isAbsent( appId, "users", "username", "alice" ) );
+
+        filter.put( appId, "users", "username", "alice" );
+
+        assertFalse( filter.isAbsent( appId, "users", "username", "alice" ) );
+    }
+
+
+    @Test
+    public void writesDuringRebuildAreKept() {
+        final UniqueValueFilter filter = newFilter();
+
+        final UUID appId = UUIDUtils.newTimeUUID();
+
+        filter.isAbsent( appId, "users", "username", "bob" );
+
+        final List<ByteBuffer> rowKeys = new ArrayList<ByteBuffer>();
+        rowKeys.add( rowKey( appId, "users", "username", "alice" ) );
+
+        //write while the scan is in progress
+        filter.rebuild( new Iterator<ByteBuffer>() {
+            private int index = 0;
+
+
+            @Override
+            public boolean hasNext() {
+                if ( index == 0 ) {
+                    filter.put( appId, "users", "username", "bob" );
+                }
+                return index < rowKeys.size();
+            }
+
+
+            @Override
+            public ByteBuffer next() {
+                return rowKeys.get( index++ );
+            }
+
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        } );
+
+        assertFalse( filter.isAbsent( appId, "users", "username", "alice" ) );
+        assertFalse( filter.isAbsent( appId, "users", "username", "bob" ) );
+    }
+
+
+    @Test
+    public void applicationRegisteredDuringScanIsNotBuilt() {
+        final UniqueValueFilter filter = newFilter();
+
+        final UUID appId = UUIDUtils.newTimeUUID();
+        final UUID lateAppId = UUIDUtils.newTimeUUID();
+
+        filter.isAbsent( appId, "users", "username", "bob" );
+
+        final List<ByteBuffer> rowKeys = new ArrayList<ByteBuffer>();
+        rowKeys.add( rowKey( lateAppId, "users", "username", "alice" ) );
+        rowKeys.add( rowKey( appId, "users", "username", "alice" ) );
+        rowKeys.add( rowKey( lateAppId, "users", "username", "carol" ) );
+
+        filter.rebuild( new Iterator<ByteBuffer>() {
+            private int index = 0;
+
+
+            @Override
+            public boolean hasNext() {
+                //the late application is registered after its first key was scanned
+                if ( index == 2 ) {
+                    filter.isAbsent( lateAppId, "users", "username", "bob" );
+                }
+                return index < rowKeys.size();
+            }
+
+
+            @Override
+            public ByteBuffer next() {
+                return rowKeys.get( index++ );
+            }
+
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        } );
+
+        assertTrue( filter.isAbsent( appId, "users", "username", "bob" ) );
+
+        //alice was missed by the partial scan, so nothing can be skipped until a complete one
+        assertFalse( filter.isAbsent( lateAppId, "users", "username", "alice" ) );
+        assertFalse( filter.isAbsent( lateAppId, "users", "username", "bob" ) );
+
+        filter.rebuild( rowKeys.iterator() );
+
+        assertFalse( filter.isAbsent( lateAppId, "users", "username", "alice" ) );
+        assertTrue( filter.isAbsent( lateAppId, "users", "username", "bob" ) );
+    }
+
+
+    @Test
+    public void untrustedNeverSkips() {
+        UniqueValueFilter filter = new UniqueValueFilter( null );
+        filter.setEnabled( true );
+        filter.setExpectedInsertions( 1000 );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+
+        filter.put( appId, "users", "username", "bob" );
+        filter.rebuild( Collections.<ByteBuffer>emptyList().iterator() );
+
+        //writes of other nodes don't reach the filter
+        assertFalse( filter.isAbsent( appId, "users", "username", "alice" ) );
+
+        filter.setInvalidationBus( new LocalInvalidationBus() );
+
+        //the bus only delivers locally
+        assertFalse( filter.isAbsent( appId, "users", "username", "alice" ) );
+
+        filter.setClustered( true );
+
+        assertTrue( filter.isAbsent( appId, "users", "username", "alice" ) );
+    }
+
+
+    @Test
+    public void writesOfOtherNodesUpdateFilter() {
+        LocalInvalidationBus bus = new LocalInvalidationBus();
+
+        UniqueValueFilter node = newFilter();
+        node.setInvalidationBus( bus );
+        node.setClustered( true );
+
+        UniqueValueFilter otherNode = newFilter();
+        otherNode.setInvalidationBus( bus );
+        otherNode.setClustered( true );
+
+        UUID appId = UUIDUtils.newTimeUUID();
+
+        node.isAbsent( appId, "users", "username", "bob" );
+        node.rebuild( Collections.singletonList( rowKey( appId, "users", "username", "bob" ) ).iterator() );
+
+        assertTrue( node.isAbsent( appId, "users", "username", "alice" ) );
+
+        otherNode.put( appId, "users", "username", "alice" );
+
+        assertFalse( node.isAbsent( appId, "users", "username", "alice" ) );
+        assertTrue( node.isAbsent( appId, "users", "username", "carol" ) );
+    }
+
+
+    private UniqueValueFilter newFilter() {
+        UniqueValueFilter filter = new UniqueValueFilter( null );
+        filter.setEnabled( true );
+        filter.setSingleNode( true );
+        filter.setExpectedInsertions( 1000 );
+        return filter;
+    }
+
+
+    /** Create the raw key as stored in the virtual keyspace */
+    private ByteBuffer rowKey( UUID appId, String collectionName, String propertyName, Object value ) {
+        byte[] key = bytes( UniqueValueFilter.rowKey( appId, collectionName, propertyName, value ) );
+
+        ByteBuffer buffer = ByteBuffer.allocate( 16 + key.length );
+        buffer.putLong( appId.getMostSignificantBits() );
+        buffer.putLong( appId.getLeastSignificantBits() );
+        buffer.put( key );
+        buffer.rewind();
+
+        return buffer;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra.index;
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class IndexSliceSizerTest {
+
+    @Test
+    public void unknownSliceUsesDefault() {
+        IndexSliceSizer sizer = new IndexSliceSizer( true, 1000, 5000, 10 );
+
+        assertEquals( 1000, sizer.track( "app:users", "name", "eq", 10, true ).getPageSize() );
+    }
+
+
+    @Test
+    public void selectiveSliceGrows() {
+        IndexSliceSizer sizer = new IndexSliceSizer( true, 1000, 5000, 10 );
+
+        // three full pages were read to find 10 results
+        IndexSliceSizer.SliceTracker tracker = sizer.track( "app:users", "age", "eq", 10, true );
+        tracker.loaded( 1000, true );
+        tracker.loaded( 1000, true );
+        tracker.loaded( 1000, true );
+        tracker.complete( 10, true );
+
+        assertEquals( 2500, sizer.track( "app:users", "age", "eq", 10, true ).getPageSize() );
+
+        // other properties are learned on their own
+        assertEquals( 1000, sizer.track( "app:users", "name", "eq", 10, true ).getPageSize() );
+    }
+
+
+    @Test
+    public void unselectiveSliceShrinks() {
+        IndexSliceSizer sizer = new IndexSliceSizer( true, 1000, 5000, 10 );
+
+        int pageSize = 1000;
+        for ( int i = 0; i < 20; i++ ) {
+            IndexSliceSizer.SliceTracker tracker = sizer.track( "app:users", "active", "eq", 10, true );
+            pageSize = tracker.getPageSize();
+            tracker.loaded( pageSize, true );
+            tracker.complete( 10, true );
+        }
+
+        assertTrue( pageSize < 100 );
+        assertTrue( pageSize >= 10 );
+    }
+
+
+    @Test
+    public void exhaustedSliceIsExact() {
+        IndexSliceSizer sizer = new IndexSliceSizer( true, 1000, 5000, 10 );
+
+        IndexSliceSizer.SliceTracker tracker = sizer.track( "app:users", "age", "eq", 10, true );
+        tracker.loaded( 40, false );
+        tracker.complete( 4, true );
+
+        assertEquals( 100, sizer.track( "app:users", "age", "eq", 10, true ).getPageSize() );
+    }
+
+
+    @Test
+    public void partialPageIsNotLearned() {
+        IndexSliceSizer sizer = new IndexSliceSizer( true, 1000, 5000, 10 );
+
+        // the slice stopped because another slice ran out, it says nothing
+        IndexSliceSizer.SliceTracker tracker = sizer.track( "app:users", "age", "eq", 10, true );
+        tracker.loaded( 1000, true );
+        tracker.complete( 2, true );
+
+        assertEquals( 1000, sizer.track( "app:users", "age", "eq", 10, true ).getPageSize() );
+    }
+
+
+    @Test
+    public void shapesAreLearnedApart() {
+        IndexSliceSizer sizer = new IndexSliceSizer( true, 1000, 5000, 10 );
+
+        IndexSliceSizer.SliceTracker tracker = sizer.track( "app:users", "age", "eq", 10, true );
+        tracker.loaded( 40, false );
+        tracker.complete( 4, true );
+
+        assertEquals( 100, sizer.track( "app:users", "age", "eq", 10, true ).getPageSize() );
+        assertEquals( 1000, sizer.track( "app:users", "age", "(..*", 10, true ).getPageSize() );
+    }
+
+
+    @Test
+    public void unionSliceIsNotLearned() {
+        IndexSliceSizer sizer = new IndexSliceSizer( true, 1000, 5000, 10 );
+
+        // the results of a union don't all come from this slice
+        IndexSliceSizer.SliceTracker tracker = sizer.track( "app:users", "age", "eq", 10, false );
+        tracker.loaded( 40, false );
+        tracker.complete( 4, true );
+
+        assertEquals( 1000, sizer.track( "app:users", "age", "eq", 10, true ).getPageSize() );
+    }
+
+
+    @Test
+    public void disabledUsesDefault() {
+        IndexSliceSizer sizer = new IndexSliceSizer( false, 1000, 5000, 10 );
+
+        IndexSliceSizer.SliceTracker tracker = sizer.track( "app:users", "age", "eq", 10, true );
+        tracker.loaded( 1000, true );
+        tracker.loaded( 1000, true );
+        tracker.complete( 10, true );
+
+        assertEquals( 1000, sizer.track( "app:users", "age", "eq", 10, true ).getPageSize() );
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.cassandra.util;
+
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import me.prettyprint.hector.api.beans.HColumn;
+
+import static me.prettyprint.hector.api.factory.HFactory.createColumn;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class RequestCostUnitTest {
+
+    @After
+    public void cleanup() {
+        RequestCost.end();
+    }
+
+
+    @Test
+    public void operationsAreAccounted() throws Exception {
+        TaggedOpTimer taggedOpTimer = new TaggedOpTimer( new TraceTagManager() );
+        RequestCost cost = RequestCost.begin();
+
+        Object read = taggedOpTimer.start( "READ" );
+        Thread.sleep( 10 );
+        taggedOpTimer.stop( read, "READ", true );
+        taggedOpTimer.stop( taggedOpTimer.start( "META_WRITE" ), "META_WRITE", true );
+
+        assertEquals( 1, cost.getReads() );
+        assertEquals( 1, cost.getWrites() );
+        assertTrue( cost.getCassandraNanos() >= 10000000 );
+        assertSame( cost, RequestCost.end() );
+        assertNull( RequestCost.current() );
+    }
+
+
+    @Test
+    public void readsAreSized() {
+        RequestCost cost = RequestCost.begin();
+
+        RequestCost.read( createColumn( "name", "value" ) );
+        RequestCost.read( Arrays.<HColumn<String, Long>>asList( createColumn( "a", 1L ), createColumn( "b", 2L ) ) );
+        RequestCost.mutations( 3 );
+        RequestCost.query( "select *", "plan" );
+
+        assertEquals( 2, cost.getRows() );
+        assertEquals( 3, cost.getColumns() );
+        assertEquals( 4 + 5 + 1 + 8 + 1 + 8, cost.getBytes() );
+        assertEquals( 3, cost.getMutations() );
+        assertEquals( 1, cost.getQueryCount() );
+        assertTrue( cost.toServerTiming().startsWith( "cassandra;dur=" ) );
+    }
+
+
+    @Test
+    public void nothingIsAccountedWithoutCost() {
+        RequestCost.read( createColumn( "name", "value" ) );
+        RequestCost.mutations( 3 );
+        assertNull( RequestCost.end() );
+    }
+}
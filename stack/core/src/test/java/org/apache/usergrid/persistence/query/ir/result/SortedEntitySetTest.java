@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.persistence.query.ir.result;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.persistence.DynamicEntity;
+import org.apache.usergrid.persistence.Entity;
+import org.apache.usergrid.persistence.EntityManager;
+import org.apache.usergrid.persistence.EntityPropertyComparator;
+import org.apache.usergrid.persistence.query.ir.result.OrderByIterator.SortedEntitySet;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+
+public class SortedEntitySetTest {
+
+    private static final List<String> FIELDS = Collections.singletonList( "rank" );
+
+
+    @Test
+    public void keepsSmallestEntries() {
+        PartialEntities entities = new PartialEntities();
+
+        SortedEntitySet set = newSet( entities, 2, null );
+
+        List<UUID> ids = new ArrayList<UUID>();
+
+        for ( int rank : new int[] { 5, 3, 4, 1, 2 } ) {
+            ids.add( entities.create( rank ) );
+        }
+
+        for ( UUID id : ids ) {
+            set.add( column( id ) );
+        }
+
+        set.load();
+
+        Set<ScanColumn> results = set.toIds();
+
+        assertEquals( 2, results.size() );
+
+        Iterator<ScanColumn> itr = results.iterator();
+
+        assertEquals( ids.get( 3 ), itr.next().getUUID() );
+        assertEquals( ids.get( 4 ), itr.next().getUUID() );
+    }
+
+
+    @Test
+    public void loadsOnlyNewCandidates() {
+        PartialEntities entities = new PartialEntities();
+
+        SortedEntitySet set = newSet( entities, 2, null );
+
+        UUID first = entities.create( 1 );
+        UUID second = entities.create( 2 );
+
+        set.add( column( first ) );
+        set.add( column( second ) );
+        set.load();
+
+        assertEquals( 2, entities.reads );
+
+        //the members of the set aren't read again
+        UUID third = entities.create( 0 );
+
+        set.add( column( first ) );
+        set.add( column( second ) );
+        set.add( column( third ) );
+        set.load();
+
+        assertEquals( 3, entities.reads );
+
+        //nothing new, nothing read
+        set.load();
+
+        assertEquals( 3, entities.reads );
+
+        Iterator<ScanColumn> itr = set.toIds().iterator();
+
+        assertEquals( third, itr.next().getUUID() );
+        assertEquals( first, itr.next().getUUID() );
+    }
+
+
+    @Test
+    public void cursorsOnlyForMembers() {
+        PartialEntities entities = new PartialEntities();
+
+        SortedEntitySet set = newSet( entities, 3, null );
+
+        //page through many more candidates than the set holds
+        for ( int page = 0; page < 10; page++ ) {
+            for ( int i = 0; i < 10; i++ ) {
+                set.add( column( entities.create( 1000 - ( page * 10 + i ) ) ) );
+            }
+
+            set.load();
+        }
+
+        assertEquals( 100, entities.reads );
+
+        Set<ScanColumn> results = set.toIds();
+
+        assertEquals( 3, results.size() );
+
+        for ( ScanColumn col : results ) {
+            assertNotNull( col );
+        }
+    }
+
+
+    @Test
+    public void skipsEntriesUpToCursor() {
+        PartialEntities entities = new PartialEntities();
+
+        UUID first = entities.create( 1 );
+        UUID second = entities.create( 2 );
+        UUID third = entities.create( 3 );
+
+        SortedEntitySet set = newSet( entities, 10, second );
+
+        set.add( column( first ) );
+        set.add( column( second ) );
+        set.add( column( third ) );
+        set.load();
+
+        Set<ScanColumn> results = set.toIds();
+
+        assertEquals( 1, results.size() );
+        assertEquals( third, results.iterator().next().getUUID() );
+    }
+
+
+    private SortedEntitySet newSet( PartialEntities entities, int maxSize, UUID minEntityId ) {
+        return new SortedEntitySet( new EntityPropertyComparator( "rank", false ), entities.proxy(), FIELDS, maxSize,
+                minEntityId );
+    }
+
+
+    private ScanColumn column( UUID id ) {
+        return new UUIDIndexSliceParser.UUIDColumn( id, null );
+    }
+
+
+    /** An entity manager that only implements getPartialEntities and counts the ids it reads */
+    private static class PartialEntities implements InvocationHandler {
+
+        private final Map<UUID, Entity> entities = new HashMap<UUID, Entity>();
+
+        private int reads;
+
+
+        UUID create( int rank ) {
+            UUID id = UUIDUtils.newTimeUUID();
+
+            Entity entity = new DynamicEntity( "thing", id );
+            entity.setProperty( "rank", rank );
+
+            entities.put( id, entity );
+
+            return id;
+        }
+
+
+        EntityManager proxy() {
+            return ( EntityManager ) Proxy.newProxyInstance( EntityManager.class.getClassLoader(),
+                    new Class<?>[] { EntityManager.class }, this );
+        }
+
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            if ( !"getPartialEntities".equals( method.getName() ) ) {
+                throw new UnsupportedOperationException( method.getName() );
+            }
+
+            List<Entity> results = new ArrayList<Entity>();
+
+            for ( UUID id : ( Collection<UUID> ) args[0] ) {
+                Entity entity = entities.get( id );
+
+                if ( entity != null ) {
+                    reads++;
+                    results.add( entity );
+                }
+            }
+
+            return results;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -220,6 +221,56 @@ public class UUIDUtilsTest {
     }
 
 
+    @Test
+    public void concurrentUuidsUniqueAndIncreasing() throws Exception {
+        final int threads = 8;
+        final int count = 1000 * 100;
+        final CountDownLatch start = new CountDownLatch( 1 );
+
+        ExecutorService exec = Executors.newFixedThreadPool( threads );
+        List<Future<List<UUID>>> jobs = new ArrayList<Future<List<UUID>>>( threads );
+
+        for ( int x = 0; x < threads; x++ ) {
+            jobs.add( exec.submit( new Callable<List<UUID>>() {
+                @Override
+                public List<UUID> call() throws Exception {
+                    List<UUID> created = new ArrayList<UUID>( count );
+                    start.await();
+
+                    for ( int i = 0; i < count; i++ ) {
+                        created.add( newTimeUUID() );
+                    }
+
+                    return created;
+                }
+            } ) );
+        }
+
+        long startTime = System.currentTimeMillis();
+        start.countDown();
+
+        Set<Long> micros = new HashSet<Long>( threads * count );
+
+        for ( Future<List<UUID>> job : jobs ) {
+            List<UUID> created = job.get();
+
+            for ( int i = 0; i < count; i++ ) {
+                UUID uuid = created.get( i );
+
+                assertTrue( "Duplicate timestamp", micros.add( UUIDUtils.getTimestampInMicros( uuid ) ) );
+
+                if ( i > 0 ) {
+                    assertTrue( "UUIDs out of order", UUIDUtils.compare( created.get( i - 1 ), uuid ) < 0 );
+                }
+            }
+        }
+
+        exec.shutdown();
+
+        LOG.info( "execution took {}", System.currentTimeMillis() - startTime );
+    }
+
+
     @Test
     public void timeUUIDOrderingRolls() {
 
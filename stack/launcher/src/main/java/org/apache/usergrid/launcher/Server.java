@@ -122,12 +122,14 @@ public class Server implements org.springframework.context.ApplicationContextAwa
         handler.addInitParameter( com.sun.jersey.api.core.PackagesResourceConfig.PROPERTY_PACKAGES, "org.apache.usergrid" );
         handler.addInitParameter( com.sun.jersey.api.json.JSONConfiguration.FEATURE_POJO_MAPPING, "true" );
         handler.addInitParameter( com.sun.jersey.api.core.ResourceConfig.PROPERTY_CONTAINER_REQUEST_FILTERS,
-                "org.apache.usergrid.rest.filters.MeteringFilter,org.apache.usergrid.rest.filters.JSONPCallbackFilter," +
+                "org.apache.usergrid.rest.filters.RequestCostFilter," +
+                        "org.apache.usergrid.rest.filters.MeteringFilter,org.apache.usergrid.rest.filters.JSONPCallbackFilter," +
                         "org.apache.usergrid.rest.security.shiro.filters.OAuth2AccessTokenSecurityFilter," +
                         "org.apache.usergrid.rest.security.shiro.filters.BasicAuthSecurityFilter," +
                         "org.apache.usergrid.rest.security.shiro.filters.ClientCredentialsSecurityFilter" );
         handler.addInitParameter( com.sun.jersey.api.core.ResourceConfig.PROPERTY_CONTAINER_RESPONSE_FILTERS,
-                "org.apache.usergrid.rest.security.CrossOriginRequestFilter,org.apache.usergrid.rest.filters.MeteringFilter" );
+                "org.apache.usergrid.rest.security.CrossOriginRequestFilter,org.apache.usergrid.rest.filters.MeteringFilter," +
+                        "org.apache.usergrid.rest.filters.RequestCostFilter" );
         handler.addInitParameter( com.sun.jersey.api.core.ResourceConfig.PROPERTY_RESOURCE_FILTER_FACTORIES,
                 "org.apache.usergrid.rest.security.SecuredResourceFilterFactory,com.sun.jersey.api.container.filter"
                         + ".RolesAllowedResourceFilterFactory" );
@@ -146,6 +148,8 @@ public class Server implements org.springframework.context.ApplicationContextAwa
         initParameters.put( "targetFilterLifecycle", "true" );
         handler.addFilter( new org.apache.usergrid.rest.filters.ContentTypeFilter(), "contentTypeFilter", java.util.Collections.EMPTY_MAP );
 
+        handler.addFilter( new org.springframework.web.filter.DelegatingFilterProxy(), "throttleFilter", java.util.Collections.EMPTY_MAP );
+
         handler.addFilter( new org.springframework.web.filter.DelegatingFilterProxy(), "shiroFilter", initParameters );
 
         handler.addFilter( new org.apache.usergrid.rest.SwaggerServlet(), "swagger", null );
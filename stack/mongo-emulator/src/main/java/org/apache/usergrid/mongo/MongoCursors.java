@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mongo;
+
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.usergrid.persistence.Query;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+
+/**
+ * The open cursors of the mongo emulator.  Maps the cursor id returned to a mongo client to the query and the
+ * usergrid cursor of the next page.  The table is bounded and cursors expire when they are not read for the timeout,
+ * as mongo itself does.
+ */
+public class MongoCursors {
+
+    private final Cache<Long, MongoCursor> cursors;
+
+    private final Random random = new Random();
+
+
+    /**
+     * @param maxSize The maximum number of open cursors
+     * @param timeout The time in seconds an unused cursor is kept
+     */
+    public MongoCursors( long maxSize, long timeout ) {
+        cursors = CacheBuilder.newBuilder().maximumSize( maxSize ).expireAfterAccess( timeout, TimeUnit.SECONDS )
+                              .build();
+    }
+
+
+    /**
+     * Open a cursor for the query.  The query must already be positioned on the next page
+     *
+     * @return The id of the cursor, never 0
+     */
+    public long open( UUID applicationId, String fullCollectionName, Query query, int position ) {
+        long cursorId;
+
+        do {
+            //mongo cursor ids are positive, 0 means no cursor
+            cursorId = random.nextLong() & Long.MAX_VALUE;
+        }
+        while ( cursorId == 0 || cursors.asMap()
+                                        .putIfAbsent( cursorId,
+                                                new MongoCursor( applicationId, fullCollectionName, query,
+                                                        position ) ) != null );
+
+        return cursorId;
+    }
+
+
+    /**
+     * Remove the cursor from the table so it can be read.  Returns null if the cursor doesn't exist, has expired or was
+     * opened on a different application or collection, in which case it is left open.  Return it with {@link
+     * #update(long, MongoCursor)} if it has more results.
+     */
+    public MongoCursor take( long cursorId, UUID applicationId, String fullCollectionName ) {
+        MongoCursor cursor = cursors.getIfPresent( cursorId );
+
+        if ( cursor == null || !cursor.applicationId.equals( applicationId ) || !cursor.fullCollectionName
+                .equals( fullCollectionName ) ) {
+            return null;
+        }
+
+        //another read may have taken it since the lookup
+        if ( !cursors.asMap().remove( cursorId, cursor ) ) {
+            return null;
+        }
+
+        return cursor;
+    }
+
+
+    /** Return a cursor that was taken */
+    public void update( long cursorId, MongoCursor cursor ) {
+        cursors.put( cursorId, cursor );
+    }
+
+
+    public void kill( long cursorId ) {
+        cursors.invalidate( cursorId );
+    }
+
+
+    public long size() {
+        return cursors.size();
+    }
+
+
+    /** The state of an open cursor */
+    public static class MongoCursor {
+
+        private final UUID applicationId;
+        private final String fullCollectionName;
+        private final Query query;
+        private int position;
+
+
+        private MongoCursor( UUID applicationId, String fullCollectionName, Query query, int position ) {
+            this.applicationId = applicationId;
+            this.fullCollectionName = fullCollectionName;
+            this.query = query;
+            this.position = position;
+        }
+
+
+        public UUID getApplicationId() {
+            return applicationId;
+        }
+
+
+        /** The query, positioned on the next page */
+        public Query getQuery() {
+            return query;
+        }
+
+
+        /** The number of documents already returned */
+        public int getPosition() {
+            return position;
+        }
+
+
+        public void setPosition( int position ) {
+            this.position = position;
+        }
+    }
+}
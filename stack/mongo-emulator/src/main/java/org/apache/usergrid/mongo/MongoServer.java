@@ -150,9 +150,18 @@ public class MongoServer {
         // Set up the pipeline factory.
         ExecutionHandler executionHandler =
                 new ExecutionHandler( new OrderedMemoryAwareThreadPoolExecutor( 16, 1048576, 1048576 ) );
+        // Cursors opened by queries, shared by all connections so drivers can read them from any connection
+        long cursorsSize = 1000;
+        long cursorsTimeout = 600;
+        if ( properties != null ) {
+            cursorsSize = Long.parseLong( properties.getProperty( "usergrid.mongo.cursors.size", "1000" ) );
+            cursorsTimeout = Long.parseLong( properties.getProperty( "usergrid.mongo.cursors.timeout", "600" ) );
+        }
+        MongoCursors cursors = new MongoCursors( cursorsSize, cursorsTimeout );
+
         // TODO if config'ed for SSL, start the SslMSPF instead, change port as well?
         bootstrap.setPipelineFactory(
-                new MongoServerPipelineFactory( emf, smf, management, securityManager, executionHandler ) );
+                new MongoServerPipelineFactory( emf, smf, management, securityManager, cursors, executionHandler ) );
 
         // Bind and start to accept incoming connections.
         channel = bootstrap.bind( new InetSocketAddress( 27017 ) );
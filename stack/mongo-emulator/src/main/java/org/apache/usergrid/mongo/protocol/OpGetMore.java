@@ -23,11 +23,25 @@ import java.nio.ByteBuffer;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.MessageEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.management.ApplicationInfo;
 import org.apache.usergrid.mongo.MongoChannelHandler;
+import org.apache.usergrid.mongo.MongoCursors.MongoCursor;
+import org.apache.usergrid.persistence.EntityManager;
+import org.apache.usergrid.persistence.Identifier;
+import org.apache.usergrid.persistence.Query;
+import org.apache.usergrid.persistence.Results;
+import org.apache.usergrid.security.shiro.utils.SubjectUtils;
 
 
 public class OpGetMore extends OpCrud {
 
+    private static final Logger logger = LoggerFactory.getLogger( OpGetMore.class );
+
+    /** Reply flag set when the cursor doesn't exist */
+    public static final int CURSOR_NOT_FOUND = 1;
+
     int numberToReturn;
     long cursorID;
 
@@ -97,7 +111,51 @@ public class OpGetMore extends OpCrud {
      */
     @Override
     public OpReply doOp( MongoChannelHandler handler, ChannelHandlerContext ctx, MessageEvent messageEvent ) {
-        return new OpReply( this );
+        OpReply reply = new OpReply( this );
+
+        //the cursor must belong to an application the current user can access, check it before touching the cursor
+        ApplicationInfo application = SubjectUtils.getApplication( Identifier.from( getDatabaseName() ) );
+
+        if ( application == null ) {
+            reply.setResponseFlags( CURSOR_NOT_FOUND );
+            return reply;
+        }
+
+        MongoCursor cursor = handler.getCursors().take( cursorID, application.getId(), fullCollectionName );
+
+        if ( cursor == null ) {
+            reply.setResponseFlags( CURSOR_NOT_FOUND );
+            return reply;
+        }
+
+        Query query = cursor.getQuery();
+
+        if ( numberToReturn > 0 ) {
+            query.setLimit( Math.min( numberToReturn, Query.MAX_LIMIT ) );
+        }
+
+        EntityManager em = handler.getEmf().getEntityManager( application.getId() );
+
+        try {
+            Results results = em.searchCollection( em.getApplicationRef(), getCollectionName(), query );
+
+            OpQuery.addEntities( reply, results );
+
+            reply.setStartingFrom( cursor.getPosition() );
+
+            if ( results.getCursor() != null ) {
+                query.setCursor( results.getCursor() );
+                cursor.setPosition( cursor.getPosition() + results.size() );
+                handler.getCursors().update( cursorID, cursor );
+                reply.setCursorID( cursorID );
+            }
+        }
+        catch ( Exception ex ) {
+            logger.error( "Unable to read cursor {}", cursorID, ex );
+            reply.setResponseFlags( CURSOR_NOT_FOUND );
+        }
+
+        return reply;
     }
 
 
@@ -44,6 +44,9 @@ public class OpInsert extends OpCrud {
 
     private static final Logger logger = LoggerFactory.getLogger( OpInsert.class );
 
+    /** Insert flag to keep inserting the remaining documents after one fails */
+    public static final int CONTINUE_ON_ERROR = 1;
+
     protected int flags;
     protected List<BSONObject> documents = new ArrayList<BSONObject>();
 
@@ -146,20 +149,39 @@ public class OpInsert extends OpCrud {
 
         EntityManager em = handler.getEmf().getEntityManager( application.getId() );
 
+        List<Map<String, Object>> properties = new ArrayList<Map<String, Object>>( documents.size() );
 
         for ( BSONObject document : documents ) {
+            //special case to serialize mongo ObjectId if required
+            Object id = document.get( "_id" );
+
+            if ( id instanceof ObjectId ) {
+                document.put( "_id", ( ( ObjectId ) id ).toStringMongod() );
+            }
+
+            properties.add( document.toMap() );
+        }
+
+        //create all documents in one batch, unless the client asked to skip failed documents
+        if ( ( flags & CONTINUE_ON_ERROR ) == 0 ) {
             try {
-                //special case to serialize mongo ObjectId if required
-                Object id = document.get( "_id" );
+                em.createAll( getCollectionName(), properties );
+            }
+            catch ( Exception e ) {
+                logger.error( "Unable to insert {} mongo documents", documents.size(), e );
+                ctx.setAttachment( e );
+            }
 
-                if ( id instanceof ObjectId ) {
-                    document.put( "_id", ( ( ObjectId ) id ).toStringMongod() );
-                }
+            //insert never returns a response in mongo
+            return null;
+        }
 
-                em.create( getCollectionName(), document.toMap() );
+        for ( int i = 0; i < documents.size(); i++ ) {
+            try {
+                em.create( getCollectionName(), properties.get( i ) );
             }
             catch ( Exception e ) {
-                logger.error( "Unable to insert mongo document {}", document, e );
+                logger.error( "Unable to insert mongo document {}", documents.get( i ), e );
                 ctx.setAttachment( e );
             }
         }
@@ -386,46 +386,30 @@ public class OpQuery extends OpCrud {
             return reply;
         }
 
-        int count = getNumberToReturn();
-        if ( count <= 0 ) {
+        //a negative number to return asks for a single batch, and no cursor
+        int count = Math.abs( getNumberToReturn() );
+        if ( count == 0 ) {
             count = 30;
         }
 
         EntityManager em = handler.getEmf().getEntityManager( application.getId() );
 
         try {
-            Results results = null;
             Query q = MongoQueryParser.toNativeQuery( query, returnFieldSelector, numberToReturn );
-            if ( q != null ) {
-                results = em.searchCollection( em.getApplicationRef(), getCollectionName(), q );
+            if ( q == null ) {
+                q = new Query();
             }
-            else {
-                results = em.getCollection( em.getApplicationRef(), getCollectionName(), null, count,
-                        Results.Level.ALL_PROPERTIES, false );
-            }
-            if ( !results.isEmpty() ) {
-                for ( Entity entity : results.getEntities() ) {
-
-                    Object savedId = entity.getProperty( "_id" );
-                    Object mongoId = null;
-
-                    //try to parse it into an ObjectId
-                    if ( savedId == null ) {
-                        mongoId = entity.getUuid();
-                    }
-                    else {
-                        try {
-                            mongoId = new ObjectId( savedId.toString() );
-                            //it's not a mongo Id, use it as is
-                        }
-                        catch ( IllegalArgumentException iae ) {
-                            mongoId = savedId;
-                        }
-                    }
-
-                    reply.addDocument( map( entry( "_id", mongoId ), toJsonMap( entity ),
-                            entry( Schema.PROPERTY_UUID, entity.getUuid().toString() ) ) );
-                }
+            q.setLimit( Math.min( count, Query.MAX_LIMIT ) );
+            q.setResultsLevel( Results.Level.ALL_PROPERTIES );
+
+            Results results = em.searchCollection( em.getApplicationRef(), getCollectionName(), q );
+
+            addEntities( reply, results );
+
+            if ( getNumberToReturn() >= 0 && results.getCursor() != null ) {
+                q.setCursor( results.getCursor() );
+                reply.setCursorID( handler.getCursors()
+                                          .open( application.getId(), fullCollectionName, q, results.size() ) );
             }
         }
         catch ( Exception ex ) {
@@ -435,6 +419,37 @@ public class OpQuery extends OpCrud {
     }
 
 
+    /** Add the entities of the results to the reply as mongo documents */
+    static void addEntities( OpReply reply, Results results ) {
+        if ( results.isEmpty() ) {
+            return;
+        }
+
+        for ( Entity entity : results.getEntities() ) {
+
+            Object savedId = entity.getProperty( "_id" );
+            Object mongoId = null;
+
+            //try to parse it into an ObjectId
+            if ( savedId == null ) {
+                mongoId = entity.getUuid();
+            }
+            else {
+                try {
+                    mongoId = new ObjectId( savedId.toString() );
+                    //it's not a mongo Id, use it as is
+                }
+                catch ( IllegalArgumentException iae ) {
+                    mongoId = savedId;
+                }
+            }
+
+            reply.addDocument( map( entry( "_id", mongoId ), toJsonMap( entity ),
+                    entry( Schema.PROPERTY_UUID, entity.getUuid().toString() ) ) );
+        }
+    }
+
+
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.mongo;
+
+
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.mongo.MongoCursors.MongoCursor;
+import org.apache.usergrid.persistence.Query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class MongoCursorsTest {
+
+    @Test
+    public void takeAndUpdate() {
+        MongoCursors cursors = new MongoCursors( 10, 60 );
+
+        UUID appId = UUID.randomUUID();
+        Query query = new Query();
+
+        long cursorId = cursors.open( appId, "test.users", query, 30 );
+
+        assertTrue( cursorId > 0 );
+
+        MongoCursor cursor = cursors.take( cursorId, appId, "test.users" );
+
+        assertSame( query, cursor.getQuery() );
+        assertEquals( appId, cursor.getApplicationId() );
+        assertEquals( 30, cursor.getPosition() );
+
+        //taken cursors can't be read concurrently
+        assertNull( cursors.take( cursorId, appId, "test.users" ) );
+
+        cursors.update( cursorId, cursor );
+
+        assertSame( cursor, cursors.take( cursorId, appId, "test.users" ) );
+    }
+
+
+    @Test
+    public void wrongCollection() {
+        MongoCursors cursors = new MongoCursors( 10, 60 );
+
+        UUID appId = UUID.randomUUID();
+
+        long cursorId = cursors.open( appId, "test.users", new Query(), 30 );
+
+        assertNull( cursors.take( cursorId, appId, "test.groups" ) );
+
+        //a mismatched read must not close the cursor
+        assertNotNull( cursors.take( cursorId, appId, "test.users" ) );
+    }
+
+
+    @Test
+    public void wrongApplication() {
+        MongoCursors cursors = new MongoCursors( 10, 60 );
+
+        UUID appId = UUID.randomUUID();
+
+        long cursorId = cursors.open( appId, "test.users", new Query(), 30 );
+
+        assertNull( cursors.take( cursorId, UUID.randomUUID(), "test.users" ) );
+        assertNotNull( cursors.take( cursorId, appId, "test.users" ) );
+    }
+
+
+    @Test
+    public void kill() {
+        MongoCursors cursors = new MongoCursors( 10, 60 );
+
+        UUID appId = UUID.randomUUID();
+
+        long cursorId = cursors.open( appId, "test.users", new Query(), 30 );
+
+        cursors.kill( cursorId );
+
+        assertNull( cursors.take( cursorId, appId, "test.users" ) );
+        assertEquals( 0, cursors.size() );
+    }
+}
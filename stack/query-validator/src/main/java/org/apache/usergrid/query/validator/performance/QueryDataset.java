@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.query.validator.performance;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates a reproducible collection of entities for the query performance harness. The size and the cardinality of
+ * every indexed property are configurable, so the same query shapes can be measured against selective and
+ * unselective indexes. The same seed always generates the same entities.
+ */
+public class QueryDataset {
+
+    private static final String[] WORDS = {
+            "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet", "kilo",
+            "lima", "mike", "november", "oscar", "papa", "quebec", "romeo", "sierra", "tango", "uniform", "victor",
+            "whiskey", "xray", "yankee", "zulu"
+    };
+
+    /** The center of the generated locations, downtown San Francisco */
+    public static final double LATITUDE = 37.779632;
+    public static final double LONGITUDE = -122.395131;
+
+    /** Locations are spread over a square of roughly 10km around the center */
+    private static final double SPREAD = 0.05;
+
+    private int size = 1000;
+    private int categories = 10;
+    private int ranks = 100;
+    private int words = 10;
+    private int wordsPerEntity = 3;
+    private long seed = 42;
+
+    public QueryDataset() {
+    }
+
+    public QueryDataset(int size, int categories, int ranks, int words) {
+        this.size = size;
+        this.categories = categories;
+        this.ranks = ranks;
+        this.words = Math.min(words, WORDS.length);
+    }
+
+    /**
+     * Generate the entity properties:
+     * <ul>
+     * <li>name - unique</li>
+     * <li>category - one of {@link #getCategories()} values</li>
+     * <li>rank - an integer in [0, {@link #getRanks()})</li>
+     * <li>score - a double in [0, 1)</li>
+     * <li>active - a boolean, true for half of the entities</li>
+     * <li>description - {@link #getWordsPerEntity()} words drawn from {@link #getWords()} words, for contains</li>
+     * <li>location - a point around {@link #LATITUDE}, {@link #LONGITUDE}</li>
+     * </ul>
+     */
+    public List<Map<String, Object>> generate() {
+        Random random = new Random(seed);
+        List<Map<String, Object>> entities = new ArrayList<Map<String, Object>>(size);
+
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> properties = new LinkedHashMap<String, Object>();
+            properties.put("name", String.format("entity-%08d", i));
+            properties.put("category", category(random.nextInt(categories)));
+            properties.put("rank", random.nextInt(ranks));
+            properties.put("score", random.nextDouble());
+            properties.put("active", i % 2 == 0);
+
+            StringBuilder description = new StringBuilder();
+            for (int w = 0; w < wordsPerEntity; w++) {
+                if (w > 0) {
+                    description.append(' ');
+                }
+                description.append(word(random.nextInt(words)));
+            }
+            properties.put("description", description.toString());
+
+            Map<String, Object> location = new HashMap<String, Object>();
+            location.put("latitude", LATITUDE + (random.nextDouble() - 0.5) * SPREAD);
+            location.put("longitude", LONGITUDE + (random.nextDouble() - 0.5) * SPREAD);
+            properties.put("location", location);
+
+            entities.add(properties);
+        }
+
+        return entities;
+    }
+
+    public static String category(int index) {
+        return "category-" + index;
+    }
+
+    public static String word(int index) {
+        return WORDS[index % WORDS.length];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public int getCategories() {
+        return categories;
+    }
+
+    public void setCategories(int categories) {
+        this.categories = categories;
+    }
+
+    public int getRanks() {
+        return ranks;
+    }
+
+    public void setRanks(int ranks) {
+        this.ranks = ranks;
+    }
+
+    public int getWords() {
+        return words;
+    }
+
+    public void setWords(int words) {
+        this.words = Math.min(words, WORDS.length);
+    }
+
+    public int getWordsPerEntity() {
+        return wordsPerEntity;
+    }
+
+    public void setWordsPerEntity(int wordsPerEntity) {
+        this.wordsPerEntity = wordsPerEntity;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /** Describe the dataset for the report, runs are only comparable when these match */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("size", size);
+        map.put("categories", categories);
+        map.put("ranks", ranks);
+        map.put("words", words);
+        map.put("wordsPerEntity", wordsPerEntity);
+        map.put("seed", seed);
+        return map;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.query.validator.performance;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
+
+/**
+ * The measurements of one harness run. Reports are written as JSON so a run can be kept as the baseline of the next
+ * one, and {@link #compare(QueryPerformanceReport)} renders the differences of every shape against that baseline.
+ */
+public class QueryPerformanceReport {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    static {
+        mapper.configure(SerializationConfig.Feature.INDENT_OUTPUT, true);
+    }
+
+    private Map<String, Object> dataset = new LinkedHashMap<String, Object>();
+    private int iterations;
+    private long timestamp;
+    private List<Result> results = new ArrayList<Result>();
+
+    public QueryPerformanceReport() {
+    }
+
+    public QueryPerformanceReport(Map<String, Object> dataset, int iterations) {
+        this.dataset = dataset;
+        this.iterations = iterations;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public void add(Result result) {
+        results.add(result);
+    }
+
+    public Result getResult(String name) {
+        for (Result result : results) {
+            if (result.getName().equals(name)) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    public void write(File file) throws IOException {
+        mapper.writeValue(file, this);
+    }
+
+    public static QueryPerformanceReport read(File file) throws IOException {
+        return mapper.readValue(file, QueryPerformanceReport.class);
+    }
+
+    /** A table of the measurements of every shape */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-20s %8s %8s %8s %8s %8s %8s %8s%n", "query", "results", "p50 ms", "p90 ms",
+                "p99 ms", "max ms", "reads", "ops"));
+        for (Result result : results) {
+            sb.append(String.format("%-20s %8d %8.2f %8.2f %8.2f %8.2f %8.1f %8.1f%n", result.getName(),
+                    result.getResults(), result.getP50Millis(), result.getP90Millis(), result.getP99Millis(),
+                    result.getMaxMillis(), result.getReads(), result.getOperations()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A table of the changes against a baseline, latencies as a percentage and Cassandra operations as absolute
+     * differences. Shapes missing from the baseline are listed as new.
+     */
+    public String compare(QueryPerformanceReport baseline) {
+        StringBuilder sb = new StringBuilder();
+        if (!dataset.equals(baseline.getDataset())) {
+            sb.append("WARNING: the baseline was measured with a different dataset ").append(baseline.getDataset())
+                    .append(String.format("%n"));
+        }
+        sb.append(String.format("%-20s %10s %10s %10s %10s%n", "query", "p50", "p99", "reads", "ops"));
+        for (Result result : results) {
+            Result before = baseline.getResult(result.getName());
+            if (before == null) {
+                sb.append(String.format("%-20s %10s%n", result.getName(), "new"));
+                continue;
+            }
+            sb.append(String.format("%-20s %10s %10s %+10.1f %+10.1f%n", result.getName(),
+                    change(before.getP50Millis(), result.getP50Millis()),
+                    change(before.getP99Millis(), result.getP99Millis()),
+                    result.getReads() - before.getReads(), result.getOperations() - before.getOperations()));
+        }
+        return sb.toString();
+    }
+
+    private static String change(double before, double after) {
+        if (before == 0) {
+            return "-";
+        }
+        return String.format("%+.1f%%", (after - before) * 100 / before);
+    }
+
+    public Map<String, Object> getDataset() {
+        return dataset;
+    }
+
+    public void setDataset(Map<String, Object> dataset) {
+        this.dataset = dataset;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    public void setResults(List<Result> results) {
+        this.results = results;
+    }
+
+    /** The measurements of one shape, latencies in milliseconds and Cassandra operations per execution */
+    public static class Result {
+
+        private String name;
+        private String query;
+        private int results;
+        private double meanMillis;
+        private double p50Millis;
+        private double p90Millis;
+        private double p99Millis;
+        private double maxMillis;
+        private double reads;
+        private double operations;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public void setQuery(String query) {
+            this.query = query;
+        }
+
+        public int getResults() {
+            return results;
+        }
+
+        public void setResults(int results) {
+            this.results = results;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public void setMeanMillis(double meanMillis) {
+            this.meanMillis = meanMillis;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public void setP50Millis(double p50Millis) {
+            this.p50Millis = p50Millis;
+        }
+
+        public double getP90Millis() {
+            return p90Millis;
+        }
+
+        public void setP90Millis(double p90Millis) {
+            this.p90Millis = p90Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public void setP99Millis(double p99Millis) {
+            this.p99Millis = p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        public void setMaxMillis(double maxMillis) {
+            this.maxMillis = maxMillis;
+        }
+
+        public double getReads() {
+            return reads;
+        }
+
+        public void setReads(double reads) {
+            this.reads = reads;
+        }
+
+        public double getOperations() {
+            return operations;
+        }
+
+        public void setOperations(double operations) {
+            this.operations = operations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d results, p50 %.2f ms, p99 %.2f ms, %.1f reads, %.1f ops", name, results,
+                    p50Millis, p99Millis, reads, operations);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.query.validator.performance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import org.apache.usergrid.persistence.EntityManager;
+import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.persistence.Query;
+import org.apache.usergrid.persistence.Results;
+import org.apache.usergrid.persistence.Schema;
+import org.apache.usergrid.persistence.cassandra.util.TimedOpTag;
+import org.apache.usergrid.persistence.cassandra.util.TraceTag;
+import org.apache.usergrid.persistence.cassandra.util.TraceTagManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads a {@link QueryDataset} directly through the entity manager and measures every {@link QueryShape} against it.
+ * Besides the wall clock latency of each execution, the Cassandra operations issued by the query are counted by
+ * attaching a {@link TraceTag} to the running thread, so a planner change that turns an index seek into a scan shows
+ * up even when the dataset is small enough to hide it in the latency.
+ */
+@Component
+public class QueryPerformanceRunner {
+
+    private static final Logger logger = Logger.getLogger(QueryPerformanceRunner.class.getName());
+
+    /** Entities are written in chunks to keep the batch mutations reasonable */
+    private static final int LOAD_CHUNK = 100;
+
+    /** Prefix of the tags applied by the entity manager aspect, these time methods and not Cassandra operations */
+    private static final String METHOD_TAG_PREFIX = "execution(";
+
+    @Autowired
+    private EntityManagerFactory emf;
+
+    @Autowired
+    private TraceTagManager traceTagManager;
+
+    private int warmup = 5;
+    private int iterations = 20;
+
+    /** Write the dataset to the collection of the entity type in the application */
+    public void load(UUID applicationId, String entityType, QueryDataset dataset) throws Exception {
+        EntityManager em = emf.getEntityManager(applicationId);
+        List<Map<String, Object>> entities = dataset.generate();
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < entities.size(); i += LOAD_CHUNK) {
+            em.createAll(entityType, entities.subList(i, Math.min(i + LOAD_CHUNK, entities.size())));
+        }
+
+        logger.info(String.format("Loaded %d %s entities in %d ms", entities.size(), entityType,
+                System.currentTimeMillis() - start));
+    }
+
+    /** Execute every shape, warmup runs first and then the measured iterations */
+    public QueryPerformanceReport run(UUID applicationId, String entityType, QueryDataset dataset,
+                                     List<QueryShape> shapes) throws Exception {
+        EntityManager em = emf.getEntityManager(applicationId);
+        String collection = Schema.defaultCollectionName(entityType);
+        QueryPerformanceReport report = new QueryPerformanceReport(dataset.toMap(), iterations);
+
+        for (QueryShape shape : shapes) {
+            for (int i = 0; i < warmup; i++) {
+                execute(em, collection, shape);
+            }
+
+            List<Execution> executions = new ArrayList<Execution>(iterations);
+            for (int i = 0; i < iterations; i++) {
+                executions.add(execute(em, collection, shape));
+            }
+
+            QueryPerformanceReport.Result result = summarize(shape, executions);
+            logger.info(result.toString());
+            report.add(result);
+        }
+
+        return report;
+    }
+
+    private Execution execute(EntityManager em, String collection, QueryShape shape) throws Exception {
+        Query query = Query.fromQL(shape.getQuery());
+        query.setLimit(shape.getLimit());
+
+        // every operation of the query has to stay on the tag, or the counts would be partial
+        int flushAtOpCount = traceTagManager.getFlushAtOpCount();
+        traceTagManager.setFlushAtOpCount(Integer.MAX_VALUE);
+        traceTagManager.attach(traceTagManager.create("query-performance-" + shape.getName()));
+
+        Execution execution = new Execution();
+        TraceTag tag;
+        try {
+            long start = System.nanoTime();
+            Results results = em.searchCollection(em.getApplicationRef(), collection, query);
+            execution.nanos = System.nanoTime() - start;
+            execution.results = results.size();
+        } finally {
+            tag = traceTagManager.detach();
+            traceTagManager.setFlushAtOpCount(flushAtOpCount);
+        }
+
+        for (TimedOpTag op : tag) {
+            String name = op.getTagName();
+            if (name == null || name.startsWith(METHOD_TAG_PREFIX)) {
+                continue;
+            }
+            execution.operations++;
+            if (name.contains("READ")) {
+                execution.reads++;
+            }
+        }
+
+        return execution;
+    }
+
+    private QueryPerformanceReport.Result summarize(QueryShape shape, List<Execution> executions) {
+        List<Long> nanos = new ArrayList<Long>(executions.size());
+        long total = 0;
+        long reads = 0;
+        long operations = 0;
+        int results = 0;
+
+        for (Execution execution : executions) {
+            nanos.add(execution.nanos);
+            total += execution.nanos;
+            reads += execution.reads;
+            operations += execution.operations;
+            results = execution.results;
+        }
+        Collections.sort(nanos);
+
+        int count = Math.max(executions.size(), 1);
+        QueryPerformanceReport.Result result = new QueryPerformanceReport.Result();
+        result.setName(shape.getName());
+        result.setQuery(shape.getQuery());
+        result.setResults(results);
+        result.setMeanMillis(millis(total / count));
+        result.setP50Millis(millis(percentile(nanos, 0.50)));
+        result.setP90Millis(millis(percentile(nanos, 0.90)));
+        result.setP99Millis(millis(percentile(nanos, 0.99)));
+        result.setMaxMillis(millis(nanos.isEmpty() ? 0 : nanos.get(nanos.size() - 1)));
+        result.setReads((double) reads / count);
+        result.setOperations((double) operations / count);
+        return result;
+    }
+
+    /** Nearest rank percentile of a sorted list */
+    static long percentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile * sorted.size());
+        return sorted.get(Math.max(0, Math.min(rank, sorted.size()) - 1));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    public int getWarmup() {
+        return warmup;
+    }
+
+    public void setWarmup(int warmup) {
+        this.warmup = warmup;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    private static class Execution {
+        long nanos;
+        int results;
+        int reads;
+        int operations;
+    }
+}
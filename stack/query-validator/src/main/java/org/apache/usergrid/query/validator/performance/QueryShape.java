@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.query.validator.performance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A named query measured by the performance harness. Names identify the shape across runs, so they must stay stable
+ * when the query planner changes.
+ */
+public class QueryShape {
+
+    private final String name;
+    private final String query;
+    private final int limit;
+
+    public QueryShape(String name, String query, int limit) {
+        this.name = name;
+        this.query = query;
+        this.limit = limit;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /** The catalog of shapes covering every operator of the query language, tuned to the dataset */
+    public static List<QueryShape> catalog(QueryDataset dataset) {
+        String category = QueryDataset.category(0);
+        String otherCategory = QueryDataset.category(1 % dataset.getCategories());
+        int lowRank = dataset.getRanks() / 4;
+        int highRank = dataset.getRanks() * 3 / 4;
+        String word = QueryDataset.word(0);
+
+        List<QueryShape> shapes = new ArrayList<QueryShape>();
+        shapes.add(new QueryShape("all", "select *", 10));
+        shapes.add(new QueryShape("equality", "select * where category = '" + category + "'", 10));
+        shapes.add(new QueryShape("equality-unique", "select * where name = 'entity-00000000'", 10));
+        shapes.add(new QueryShape("range", "select * where rank >= " + lowRank + " and rank < " + highRank, 10));
+        shapes.add(new QueryShape("and", "select * where category = '" + category + "' and active = true", 10));
+        shapes.add(new QueryShape("or",
+                "select * where category = '" + category + "' or category = '" + otherCategory + "'", 10));
+        shapes.add(new QueryShape("not", "select * where not category = '" + category + "'", 10));
+        shapes.add(new QueryShape("and-range",
+                "select * where category = '" + category + "' and rank < " + lowRank, 10));
+        shapes.add(new QueryShape("order-by", "select * order by score desc", 10));
+        shapes.add(new QueryShape("equality-order-by",
+                "select * where category = '" + category + "' order by rank asc", 10));
+        shapes.add(new QueryShape("geo-within", "select * where location within 1000 of " + QueryDataset.LATITUDE
+                + ", " + QueryDataset.LONGITUDE, 10));
+        shapes.add(new QueryShape("contains", "select * where description contains '" + word + "'", 10));
+        shapes.add(new QueryShape("contains-prefix",
+                "select * where description contains '" + word.substring(0, 2) + "*'", 10));
+        return shapes;
+    }
+}
@@ -20,13 +20,15 @@ import org.junit.ClassRule;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.apache.usergrid.cassandra.CassandraResource;
+import org.apache.usergrid.query.validator.performance.QueryPerformanceIT;
 import org.apache.usergrid.query.validator.users.UserQueryIT;
 import org.apache.usergrid.rest.ITSetup;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses(
         {
-                UserQueryIT.class
+                UserQueryIT.class,
+                QueryPerformanceIT.class
         })
 public class QueryITSuite {
     @ClassRule
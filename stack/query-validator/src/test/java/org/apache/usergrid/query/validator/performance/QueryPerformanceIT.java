@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.query.validator.performance;
+
+import java.io.File;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.logging.Logger;
+import org.apache.commons.lang.StringUtils;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.apache.usergrid.query.validator.QueryITSuite;
+
+/**
+ * Measures the latency and the Cassandra operations of every {@link QueryShape} and writes the report to
+ * target/query-performance.json. Set usergrid.query.validator.perf.baseline to the report of a previous run to print
+ * the changes against it.
+ */
+public class QueryPerformanceIT {
+
+    private static final Logger logger = Logger.getLogger(QueryPerformanceIT.class.getName());
+
+    private static final String ENTITY_TYPE = "item";
+
+    private static QueryPerformanceRunner runner;
+    private static QueryDataset dataset;
+    private static UUID applicationId;
+    private static String baseline;
+    private static String output;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        Properties properties = QueryITSuite.cassandraResource.getBean("properties", Properties.class);
+        runner = QueryITSuite.cassandraResource.getBean(QueryPerformanceRunner.class);
+        runner.setWarmup(Integer.parseInt(properties.getProperty("usergrid.query.validator.perf.warmup", "5")));
+        runner.setIterations(Integer.parseInt(properties.getProperty("usergrid.query.validator.perf.iterations", "20")));
+
+        dataset = new QueryDataset();
+        dataset.setSize(Integer.parseInt(properties.getProperty("usergrid.query.validator.perf.size", "1000")));
+        dataset.setCategories(Integer.parseInt(properties.getProperty("usergrid.query.validator.perf.categories", "10")));
+        dataset.setRanks(Integer.parseInt(properties.getProperty("usergrid.query.validator.perf.ranks", "100")));
+        dataset.setWords(Integer.parseInt(properties.getProperty("usergrid.query.validator.perf.words", "10")));
+
+        baseline = properties.getProperty("usergrid.query.validator.perf.baseline");
+        output = properties.getProperty("usergrid.query.validator.perf.output", "target/query-performance.json");
+
+        String name = "perf" + UUID.randomUUID().toString().replaceAll("-", "");
+        applicationId = QueryITSuite.serverResource.getEmf().createApplication(name, name);
+        runner.load(applicationId, ENTITY_TYPE, dataset);
+    }
+
+    @Test
+    public void measureQueryShapes() throws Exception {
+        List<QueryShape> shapes = QueryShape.catalog(dataset);
+        QueryPerformanceReport report = runner.run(applicationId, ENTITY_TYPE, dataset, shapes);
+        Assert.assertEquals(shapes.size(), report.getResults().size());
+
+        File file = new File(output);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        report.write(file);
+        logger.info("Query performance written to " + file.getAbsolutePath() + "\n" + report.format());
+
+        if (StringUtils.isNotEmpty(baseline)) {
+            QueryPerformanceReport before = QueryPerformanceReport.read(new File(baseline));
+            logger.info("Query performance against " + baseline + "\n" + report.compare(before));
+        }
+    }
+}
@@ -40,6 +40,7 @@ import javax.ws.rs.core.UriInfo;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 import org.apache.usergrid.exception.NotImplementedException;
@@ -61,7 +62,9 @@ import org.apache.usergrid.rest.applications.queues.QueueResource;
 import org.apache.usergrid.rest.applications.users.UsersResource;
 import org.apache.usergrid.rest.exceptions.AuthErrorInfo;
 import org.apache.usergrid.rest.exceptions.RedirectionException;
+import org.apache.usergrid.rest.filters.ThrottleFilter;
 import org.apache.usergrid.rest.security.annotations.RequireApplicationAccess;
+import org.apache.usergrid.security.crypto.EncryptionOverloadException;
 import org.apache.usergrid.security.oauth.AccessInfo;
 import org.apache.usergrid.security.oauth.ClientCredentialsInfo;
 
@@ -102,12 +105,17 @@ public class ApplicationResource extends ServiceResource {
     UUID applicationId;
     QueueManager queues;
 
+    @Autowired
+    ThrottleFilter throttle;
+
 
     public ApplicationResource() {
     }
 
 
     public ApplicationResource init( UUID applicationId ) throws Exception {
+        // refuse requests over the application's limits before doing any of their work
+        throttle.admit( httpServletRequest, applicationId );
         this.applicationId = applicationId;
         services = smf.getServiceManager( applicationId );
         queues = qmf.getQueueManager( applicationId );
@@ -135,7 +143,7 @@ public class ApplicationResource extends ServiceResource {
     @RequireApplicationAccess
     @Path("queues")
     public QueueResource getQueueResource() throws Exception {
-        return getSubResource( QueueResource.class ).init( queues, "" );
+        return getSubResource( QueueResource.class ).init( applicationId, queues, "" );
     }
 
 
@@ -245,6 +253,9 @@ public class ApplicationResource extends ServiceResource {
                 catch ( DisabledAppUserException daue ) {
                     errorDescription = "user disabled";
                 }
+                catch ( EncryptionOverloadException eoe ) {
+                    throw eoe;
+                }
                 catch ( Exception e1 ) {
                 }
             }
@@ -17,8 +17,11 @@
 package org.apache.usergrid.rest.applications;
 
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -37,10 +40,13 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.PathSegment;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.apache.usergrid.rest.RootResource;
@@ -53,15 +59,21 @@ import org.springframework.stereotype.Component;
 import org.apache.usergrid.persistence.Entity;
 import org.apache.usergrid.persistence.EntityManager;
 import org.apache.usergrid.persistence.Query;
+import org.apache.usergrid.persistence.Results.Level;
+import org.apache.usergrid.persistence.cassandra.ServerCursorCache;
 import org.apache.usergrid.rest.AbstractContextResource;
 import org.apache.usergrid.rest.ApiResponse;
 import org.apache.usergrid.rest.applications.assets.AssetsResource;
 import org.apache.usergrid.rest.security.annotations.RequireApplicationAccess;
 import org.apache.usergrid.security.oauth.AccessInfo;
+import org.apache.usergrid.security.shiro.utils.SubjectUtils;
 import org.apache.usergrid.services.assets.data.AssetUtils;
 import org.apache.usergrid.services.assets.data.BinaryStore;
+import org.apache.usergrid.services.assets.data.FileRangeInputStream;
 import org.apache.usergrid.utils.InflectionUtils;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
+import org.apache.shiro.subject.Subject;
 
 import com.sun.jersey.api.json.JSONWithPadding;
 import com.sun.jersey.core.provider.EntityHolder;
@@ -73,6 +85,10 @@ import com.sun.jersey.multipart.FormDataMultiPart;
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
 
 import static org.apache.commons.lang.StringUtils.isNotBlank;
+import static org.apache.usergrid.persistence.Schema.PROPERTY_MODIFIED;
+import static org.apache.usergrid.persistence.Schema.defaultCollectionName;
+import static org.apache.usergrid.persistence.cassandra.ServerCursorCache.getStatelessCursor;
+import static org.apache.usergrid.security.shiro.utils.SubjectUtils.getPermissionFromPath;
 import static org.apache.usergrid.services.ServiceParameter.addParameter;
 import static org.apache.usergrid.services.ServicePayload.batchPayload;
 import static org.apache.usergrid.services.ServicePayload.idListPayload;
@@ -95,6 +111,9 @@ public class ServiceResource extends AbstractContextResource {
     @Autowired
     private BinaryStore binaryStore;
 
+    @Autowired
+    private ServerCursorCache serverCursorCache;
+
     protected ServiceManager services;
 
     List<ServiceParameter> serviceParameters = null;
@@ -275,24 +294,120 @@ public class ServiceResource extends AbstractContextResource {
     }
 
 
+    /**
+     * Returns the results of the request, or a 304 if the If-None-Match header matches the current entity tag.  The
+     * tag of a single entity is derived from its modified timestamp, the tag of a page from the ids and modified
+     * timestamps of its entities and its cursor.
+     */
     @GET
     @Produces({MediaType.APPLICATION_JSON, MediaType.TEXT_HTML})
     @RequireApplicationAccess
-    public JSONWithPadding executeGet( @Context UriInfo ui,
-                                       @QueryParam("callback") @DefaultValue("callback") String callback )
+    public Response executeGet( @Context UriInfo ui,
+                                @QueryParam("callback") @DefaultValue("callback") String callback )
             throws Exception {
 
         LOG.debug( "ServiceResource.executeGet" );
 
+        if ( httpServletRequest.getHeader( HttpHeaders.IF_NONE_MATCH ) != null ) {
+            EntityTag tag = getItemEntityTag();
+            if ( tag != null ) {
+                Response.ResponseBuilder notModified = request.evaluatePreconditions( tag );
+                if ( notModified != null ) {
+                    return notModified.build();
+                }
+            }
+        }
+
         ApiResponse response = createApiResponse();
 
         response.setAction( "get" );
         response.setApplication( services.getApplication() );
         response.setParams( ui.getQueryParameters() );
 
-        executeServiceRequest( ui, response, ServiceAction.GET, null );
+        ServiceResults results = executeServiceRequest( ui, response, ServiceAction.GET, null );
 
-        return new JSONWithPadding( response, callback );
+        EntityTag tag = getResultsEntityTag( results );
+        if ( tag == null ) {
+            return Response.ok( new JSONWithPadding( response, callback ) ).build();
+        }
+
+        Response.ResponseBuilder notModified = request.evaluatePreconditions( tag );
+        if ( notModified != null ) {
+            //the client keeps its old cursor, so the one for this page will never be resumed
+            serverCursorCache.discard( results.getCursor() );
+            return notModified.build();
+        }
+
+        return Response.ok( new JSONWithPadding( response, callback ) ).tag( tag ).build();
+    }
+
+
+    /**
+     * Returns the tag of a /collection/uuid request from the modified timestamp alone, without loading the entity
+     * through the service.  Returns null when the request is for anything else, or when the caller isn't explicitly
+     * permitted to read the path, in which case the full request decides.
+     */
+    private EntityTag getItemEntityTag() throws Exception {
+        List<ServiceParameter> parameters = getServiceParameters();
+
+        if ( parameters.size() != 2 || !parameters.get( 0 ).isName() || !parameters.get( 1 ).isId() ) {
+            return null;
+        }
+
+        String collectionName = parameters.get( 0 ).getName();
+        UUID entityId = parameters.get( 1 ).getId();
+
+        Subject currentUser = SubjectUtils.getSubject();
+        if ( currentUser == null || !currentUser.isPermitted(
+                getPermissionFromPath( services.getApplicationId(), "get", "/" + collectionName + "/" + entityId ) ) ) {
+            return null;
+        }
+
+        Entity entity = services.getEntityManager().loadPartialEntity( entityId, PROPERTY_MODIFIED );
+
+        if ( entity == null || !defaultCollectionName( entity.getType() ).equalsIgnoreCase( collectionName ) ) {
+            return null;
+        }
+
+        return getEntityTag( Collections.singletonList( entity ), null );
+    }
+
+
+    /** Returns the tag of entity results, or null if the results hold anything other than entities */
+    private static EntityTag getResultsEntityTag( ServiceResults results ) {
+        if ( results == null || results.hasData() || results.getServiceMetadata() != null
+                || results.getCounters() != null || results.getLevel().compareTo( Level.CORE_PROPERTIES ) < 0 ) {
+            return null;
+        }
+
+        if ( results.getResultsType() != ServiceResults.Type.COLLECTION
+                && results.getResultsType() != ServiceResults.Type.CONNECTION ) {
+            return null;
+        }
+
+        return getEntityTag( results.getEntities(), results.getCursor() );
+    }
+
+
+    /**
+     * Weak tag of the entities and cursor of a page, or null if an entity has no modified timestamp.  Only the
+     * stateless part of the cursor is hashed, the server cursor id is new on every request
+     */
+    static EntityTag getEntityTag( List<Entity> entities, String cursor ) {
+        StringBuilder builder = new StringBuilder();
+
+        for ( Entity entity : entities ) {
+            if ( entity.getModified() == null ) {
+                return null;
+            }
+            builder.append( entity.getUuid() ).append( ':' ).append( entity.getModified() ).append( ',' );
+        }
+
+        if ( cursor != null ) {
+            builder.append( getStatelessCursor( cursor ) );
+        }
+
+        return new EntityTag( DigestUtils.md5Hex( builder.toString() ), true );
     }
 
 
@@ -612,7 +727,7 @@ public class ServiceResource extends AbstractContextResource {
             contentLength = ( Long ) fileMetadata.get( AssetUtils.CONTENT_LENGTH );
             end = contentLength - 1;
             if ( rangeValue.startsWith( "-" ) ) {
-                start = contentLength - 1 - Long.parseLong( rangeValue.substring( "-".length() ) );
+                start = Math.max( contentLength - Long.parseLong( rangeValue.substring( "-".length() ) ), 0 );
             }
             else {
                 String[] startEnd = rangeValue.split( "-" );
@@ -628,7 +743,8 @@ public class ServiceResource extends AbstractContextResource {
                 }
             }
 
-            inputStream = binaryStore.read( getApplicationId(), entity, start, end - start );
+            // the range is inclusive of the end byte
+            inputStream = binaryStore.read( getApplicationId(), entity, start, end - start + 1 );
         }
         else { // no range
 
@@ -640,9 +756,22 @@ public class ServiceResource extends AbstractContextResource {
             return Response.status( Response.Status.NOT_FOUND ).build();
         }
 
+        Object body = inputStream;
+
+        // write local ranges with positional reads and close the file as soon as the range is sent
+        if ( inputStream instanceof FileRangeInputStream ) {
+            final FileRangeInputStream fileRange = ( FileRangeInputStream ) inputStream;
+            body = new StreamingOutput() {
+                @Override
+                public void write( OutputStream output ) throws IOException {
+                    fileRange.transferTo( output );
+                }
+            };
+        }
+
         Long lastModified = ( Long ) fileMetadata.get( AssetUtils.LAST_MODIFIED );
         Response.ResponseBuilder responseBuilder =
-                Response.ok( inputStream ).type( ( String ) fileMetadata.get( AssetUtils.CONTENT_TYPE ) )
+                Response.ok( body ).type( ( String ) fileMetadata.get( AssetUtils.CONTENT_TYPE ) )
                         .lastModified( new Date( lastModified ) );
 
         if ( fileMetadata.get( AssetUtils.E_TAG ) != null ) {
@@ -650,6 +779,7 @@ public class ServiceResource extends AbstractContextResource {
         }
 
         if ( range ) {
+            responseBuilder.status( 206 );
             responseBuilder.header( "Content-Range", "bytes " + start + "-" + end + "/" + contentLength );
         }
 
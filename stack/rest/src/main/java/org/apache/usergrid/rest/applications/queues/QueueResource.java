@@ -20,6 +20,7 @@ package org.apache.usergrid.rest.applications.queues;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
@@ -45,6 +46,7 @@ import org.apache.usergrid.mq.QueueManager;
 import org.apache.usergrid.mq.QueueQuery;
 import org.apache.usergrid.mq.QueueResults;
 import org.apache.usergrid.rest.AbstractContextResource;
+import org.apache.usergrid.rest.filters.QueueWaitFilter;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -62,6 +64,7 @@ public class QueueResource extends AbstractContextResource {
 
     static final Logger logger = LoggerFactory.getLogger( QueueResource.class );
 
+    UUID applicationId;
     QueueManager mq;
     String queuePath = "";
 
@@ -70,7 +73,8 @@ public class QueueResource extends AbstractContextResource {
     }
 
 
-    public QueueResource init( QueueManager mq, String queuePath ) {
+    public QueueResource init( UUID applicationId, QueueManager mq, String queuePath ) {
+        this.applicationId = applicationId;
         this.mq = mq;
         this.queuePath = queuePath;
         return this;
@@ -82,7 +86,7 @@ public class QueueResource extends AbstractContextResource {
 
         logger.info( "QueueResource.getSubPath" );
 
-        return getSubResource( QueueResource.class ).init( mq, queuePath + "/" + subPath );
+        return getSubResource( QueueResource.class ).init( applicationId, mq, queuePath + "/" + subPath );
     }
 
 
@@ -139,7 +143,11 @@ public class QueueResource extends AbstractContextResource {
             logger.info( "QueueResource.executeGet: " + queuePath );
 
             QueueQuery query = QueueQuery.fromQueryParams( ui.getQueryParameters() );
+            long since = System.currentTimeMillis();
             QueueResults results = mq.getFromQueue( queuePath, query );
+            if ( results.size() == 0 ) {
+                waitForMessages( since );
+            }
             return new JSONWithPadding( results, callback );
         }
 
@@ -149,6 +157,19 @@ public class QueueResource extends AbstractContextResource {
     }
 
 
+    /**
+     * Ask the {@link QueueWaitFilter} to hold the request open until messages are posted, when the client asked to
+     * wait and hasn't waited yet.  Without the filter the empty result is returned right away.
+     */
+    private void waitForMessages( long since ) {
+        if ( ( applicationId != null ) && ( httpServletRequest.getAttribute( QueueWaitFilter.WAITED_ATTRIBUTE ) == null )
+                && ( QueueWaitFilter.getWait( httpServletRequest ) > 0 ) ) {
+            httpServletRequest.setAttribute( QueueWaitFilter.WAIT_ATTRIBUTE,
+                    new QueueWaitFilter.Wait( applicationId, queuePath, since ) );
+        }
+    }
+
+
     @SuppressWarnings("unchecked")
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
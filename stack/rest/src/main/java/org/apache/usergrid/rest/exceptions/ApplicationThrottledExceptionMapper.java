@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.rest.exceptions;
+
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+
+import static org.apache.usergrid.rest.exceptions.EncryptionOverloadExceptionMapper.TOO_MANY_REQUESTS;
+
+
+/** <p> Map an ApplicationThrottledException to an HTTP 429 response, telling the client when to retry. </p> */
+@Provider
+public class ApplicationThrottledExceptionMapper extends AbstractExceptionMapper<ApplicationThrottledException> {
+
+    @Override
+    public Response toResponse( ApplicationThrottledException e ) {
+
+        return Response.fromResponse( toResponse( TOO_MANY_REQUESTS, e ) )
+                       .header( "Retry-After", String.valueOf( e.getRetryAfter() ) ).build();
+    }
+}
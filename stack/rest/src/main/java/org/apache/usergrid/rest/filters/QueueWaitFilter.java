@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.rest.filters;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.ws.rs.HttpMethod;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.mq.cassandra.QueueWaiters;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+
+/**
+ * Holds GETs of empty queues made with the wait parameter open without holding a container thread.  The request runs
+ * through the chain once with its response buffered.  If the queue resource found nothing to return and asked to wait,
+ * the buffered response is dropped, the request is suspended and registered with the {@link QueueWaiters}, and it is
+ * dispatched through the chain again once messages are posted or the wait expires.  The second run reads the queue
+ * and returns whatever it finds, empty or not.
+ * <p/>
+ * Only GETs of queue paths are considered, and the wait parameter is read from the query string alone, so form posts
+ * reach the filters after this one with their body unread.  Containers without async support, and requests without
+ * the wait parameter, pass straight through.
+ */
+public class QueueWaitFilter implements Filter {
+
+    private static final Logger logger = LoggerFactory.getLogger( QueueWaitFilter.class );
+
+    /** Set by the queue resource when the read was empty and the request should wait, holds a {@link Wait} */
+    public static final String WAIT_ATTRIBUTE = QueueWaitFilter.class.getName() + ".wait";
+
+    /** Set on the request dispatched again after waiting, the queue resource doesn't ask to wait twice */
+    public static final String WAITED_ATTRIBUTE = QueueWaitFilter.class.getName() + ".waited";
+
+    public static final String WAIT_PARAMETER = "wait";
+
+    /** The path segment of queue resources */
+    private static final String QUEUES_SEGMENT = "queues";
+
+    private final Counter parked = Metrics.newCounter( QueueWaitFilter.class, "parked" );
+    private final Counter woken = Metrics.newCounter( QueueWaitFilter.class, "woken" );
+    private final Counter expired = Metrics.newCounter( QueueWaitFilter.class, "expired" );
+
+    private QueueWaiters waiters;
+    private long maxWait = 30000;
+
+
+    /** What the queue resource found empty, and when */
+    public static class Wait {
+
+        private final UUID applicationId;
+        private final String queuePath;
+        private final long since;
+
+
+        public Wait( UUID applicationId, String queuePath, long since ) {
+            this.applicationId = applicationId;
+            this.queuePath = queuePath;
+            this.since = since;
+        }
+    }
+
+
+    @Override
+    public void init( FilterConfig filterConfig ) throws ServletException {
+        logger.info( "Starting queue wait filter" );
+    }
+
+
+    @Override
+    public void doFilter( ServletRequest request, ServletResponse response, FilterChain chain )
+            throws IOException, ServletException {
+
+        if ( waiters == null || !( request instanceof HttpServletRequest )
+                || request.getDispatcherType() != DispatcherType.REQUEST || !request.isAsyncSupported()
+                || !HttpMethod.GET.equals( ( ( HttpServletRequest ) request ).getMethod() ) || !isQueuePath(
+                ( HttpServletRequest ) request ) ) {
+            chain.doFilter( request, response );
+            return;
+        }
+
+        long wait = getWait( ( HttpServletRequest ) request );
+
+        if ( wait <= 0 ) {
+            chain.doFilter( request, response );
+            return;
+        }
+
+        BufferedResponse buffered = new BufferedResponse( ( HttpServletResponse ) response );
+        chain.doFilter( request, buffered );
+
+        Wait queueWait = ( Wait ) request.getAttribute( WAIT_ATTRIBUTE );
+        if ( queueWait == null ) {
+            buffered.writeTo( response );
+            return;
+        }
+
+        // the empty result is read again once woken, with the headers set then
+        request.removeAttribute( WAIT_ATTRIBUTE );
+        request.setAttribute( WAITED_ATTRIBUTE, Boolean.TRUE );
+        response.reset();
+
+        park( request.startAsync( request, response ), queueWait, Math.min( wait, maxWait ) );
+    }
+
+
+    private void park( final AsyncContext async, final Wait queueWait, long wait ) {
+        final AtomicBoolean dispatched = new AtomicBoolean();
+
+        final QueueWaiters.Waiter waiter = new QueueWaiters.Waiter() {
+            @Override
+            public void onMessages() {
+                if ( dispatched.compareAndSet( false, true ) ) {
+                    woken.inc();
+                    async.dispatch();
+                }
+            }
+        };
+
+        async.setTimeout( wait );
+        async.addListener( new AsyncListener() {
+            @Override
+            public void onTimeout( AsyncEvent event ) throws IOException {
+                waiters.removeWaiter( queueWait.applicationId, queueWait.queuePath, waiter );
+                if ( dispatched.compareAndSet( false, true ) ) {
+                    expired.inc();
+                    async.dispatch();
+                }
+            }
+
+
+            @Override
+            public void onError( AsyncEvent event ) throws IOException {
+                waiters.removeWaiter( queueWait.applicationId, queueWait.queuePath, waiter );
+            }
+
+
+            @Override
+            public void onComplete( AsyncEvent event ) throws IOException {
+            }
+
+
+            @Override
+            public void onStartAsync( AsyncEvent event ) throws IOException {
+            }
+        } );
+
+        parked.inc();
+        waiters.addWaiter( queueWait.applicationId, queueWait.queuePath, queueWait.since, waiter );
+    }
+
+
+    @Override
+    public void destroy() {
+    }
+
+
+    /**
+     * Get the requested wait in milliseconds, 0 if none.  Read from the query string rather than the parameters, which
+     * would consume the body of form posts
+     */
+    public static long getWait( HttpServletRequest request ) {
+        String query = request.getQueryString();
+        if ( query == null ) {
+            return 0;
+        }
+
+        for ( String parameter : query.split( "&" ) ) {
+            int eq = parameter.indexOf( '=' );
+            if ( eq < 0 || !WAIT_PARAMETER.equals( parameter.substring( 0, eq ) ) ) {
+                continue;
+            }
+            try {
+                return Long.parseLong( parameter.substring( eq + 1 ).trim() );
+            }
+            catch ( NumberFormatException e ) {
+                return 0;
+            }
+        }
+
+        return 0;
+    }
+
+
+    /** True if the request is for a queue resource, i.e. a path segment is "queues" */
+    public static boolean isQueuePath( HttpServletRequest request ) {
+        String uri = request.getRequestURI();
+        if ( uri == null ) {
+            return false;
+        }
+
+        for ( String segment : uri.split( "/" ) ) {
+            if ( QUEUES_SEGMENT.equalsIgnoreCase( segment ) ) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    public void setWaiters( QueueWaiters waiters ) {
+        this.waiters = waiters;
+    }
+
+
+    public void setMaxWait( long maxWait ) {
+        this.maxWait = maxWait;
+    }
+
+
+    /** Holds the body back until it's known whether the request waits, headers and status go through */
+    private static class BufferedResponse extends HttpServletResponseWrapper {
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+
+        private BufferedResponse( HttpServletResponse response ) {
+            super( response );
+        }
+
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if ( outputStream == null ) {
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write( int b ) {
+                        body.write( b );
+                    }
+
+
+                    @Override
+                    public void write( byte[] b, int off, int len ) {
+                        body.write( b, off, len );
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if ( writer == null ) {
+                writer = new PrintWriter( new OutputStreamWriter( body, getCharacterEncoding() ) );
+            }
+            return writer;
+        }
+
+
+        @Override
+        public void flushBuffer() {
+        }
+
+
+        @Override
+        public void resetBuffer() {
+            body.reset();
+        }
+
+
+        @Override
+        public void reset() {
+            super.reset();
+            body.reset();
+        }
+
+
+        private void writeTo( ServletResponse response ) throws IOException {
+            if ( writer != null ) {
+                writer.flush();
+            }
+            if ( body.size() > 0 ) {
+                body.writeTo( response.getOutputStream() );
+            }
+            response.flushBuffer();
+        }
+    }
+}
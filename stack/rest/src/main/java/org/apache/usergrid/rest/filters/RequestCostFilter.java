@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.rest.filters;
+
+
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.ws.rs.core.Context;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+import org.apache.usergrid.persistence.cassandra.util.RequestCost;
+
+import com.sun.jersey.api.core.HttpContext;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+
+import static org.apache.commons.collections.MapUtils.getBooleanValue;
+import static org.apache.commons.collections.MapUtils.getDoubleValue;
+import static org.apache.commons.collections.MapUtils.getLongValue;
+
+
+/**
+ * Accounts the Cassandra work of each request with a {@link RequestCost}.  The cost is added to per endpoint
+ * histograms, logged with the queries and their plans when the request was slow, and, when enabled, returned in a
+ * Server-Timing header.  The header exposes internal cost data to every caller, so it is off by default.
+ * Endpoints are named by the HTTP method and the resource class that handled the request, such as
+ * GET.ServiceResource.
+ */
+@Component
+public class RequestCostFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger( RequestCostFilter.class );
+
+    public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    public static final String PROPERTIES_ENABLED = "usergrid.request.cost.enabled";
+    public static final String PROPERTIES_SERVER_TIMING = "usergrid.request.cost.header";
+    public static final String PROPERTIES_SLOW_THRESHOLD = "usergrid.request.slow.threshold";
+    public static final String PROPERTIES_SLOW_SAMPLE = "usergrid.request.slow.sample";
+
+    private final ConcurrentMap<String, EndpointCost> endpoints = new ConcurrentHashMap<String, EndpointCost>();
+    private final Random random = new Random();
+
+    private boolean enabled = true;
+    private boolean serverTiming = false;
+    private long slowThreshold = 1000;
+    private double slowSample = 1.0;
+
+    @Context
+    private HttpContext hc;
+
+
+    @Autowired
+    public void setProperties( Properties properties ) {
+        enabled = getBooleanValue( properties, PROPERTIES_ENABLED, true );
+        serverTiming = getBooleanValue( properties, PROPERTIES_SERVER_TIMING, false );
+        slowThreshold = getLongValue( properties, PROPERTIES_SLOW_THRESHOLD, 1000 );
+        slowSample = getDoubleValue( properties, PROPERTIES_SLOW_SAMPLE, 1.0 );
+    }
+
+
+    @Override
+    public ContainerRequest filter( ContainerRequest request ) {
+        if ( enabled ) {
+            // replaces a cost left behind by a request that failed before its response was filtered
+            RequestCost.begin();
+        }
+        return request;
+    }
+
+
+    @Override
+    public ContainerResponse filter( ContainerRequest request, ContainerResponse response ) {
+        RequestCost cost = RequestCost.end();
+        if ( cost == null ) {
+            return response;
+        }
+
+        try {
+            if ( serverTiming ) {
+                response.getHttpHeaders().putSingle( SERVER_TIMING_HEADER, cost.toServerTiming() );
+            }
+
+            String endpoint = getEndpoint( request );
+            getEndpointCost( endpoint ).update( cost );
+
+            long millis = cost.getElapsedNanos() / 1000000;
+            if ( slowThreshold > 0 && millis >= slowThreshold && random.nextDouble() < slowSample ) {
+                StringBuilder message = new StringBuilder( "Slow request " ).append( request.getMethod() ).append( ' ' )
+                        .append( request.getRequestUri().getPath() ).append( " (" ).append( endpoint ).append( "): " )
+                        .append( cost );
+                for ( String query : cost.getQueries() ) {
+                    message.append( "\n    " ).append( query );
+                }
+                logger.warn( message.toString() );
+            }
+        }
+        catch ( Exception e ) {
+            logger.error( "Unable to report request cost", e );
+        }
+
+        return response;
+    }
+
+
+    private String getEndpoint( ContainerRequest request ) {
+        List<Object> resources = hc != null ? hc.getUriInfo().getMatchedResources() : null;
+        if ( resources == null || resources.isEmpty() ) {
+            return request.getMethod() + ".unmatched";
+        }
+        return request.getMethod() + "." + ClassUtils.getUserClass( resources.get( 0 ) ).getSimpleName();
+    }
+
+
+    private EndpointCost getEndpointCost( String endpoint ) {
+        EndpointCost cost = endpoints.get( endpoint );
+        if ( cost == null ) {
+            cost = new EndpointCost( endpoint );
+            EndpointCost existing = endpoints.putIfAbsent( endpoint, cost );
+            if ( existing != null ) {
+                cost = existing;
+            }
+        }
+        return cost;
+    }
+
+
+    /** Histograms of the cost of the requests of one endpoint */
+    private static class EndpointCost {
+
+        private final Histogram operations;
+        private final Histogram cassandraMillis;
+        private final Histogram rows;
+        private final Histogram columns;
+        private final Histogram bytes;
+        private final Histogram mutations;
+
+
+        private EndpointCost( String endpoint ) {
+            operations = Metrics.newHistogram( RequestCostFilter.class, "cassandra_ops", endpoint, true );
+            cassandraMillis = Metrics.newHistogram( RequestCostFilter.class, "cassandra_millis", endpoint, true );
+            rows = Metrics.newHistogram( RequestCostFilter.class, "rows", endpoint, true );
+            columns = Metrics.newHistogram( RequestCostFilter.class, "columns", endpoint, true );
+            bytes = Metrics.newHistogram( RequestCostFilter.class, "bytes", endpoint, true );
+            mutations = Metrics.newHistogram( RequestCostFilter.class, "mutations", endpoint, true );
+        }
+
+
+        private void update( RequestCost cost ) {
+            operations.update( cost.getOperations() );
+            cassandraMillis.update( cost.getCassandraNanos() / 1000000 );
+            rows.update( cost.getRows() );
+            columns.update( cost.getColumns() );
+            bytes.update( cost.getBytes() );
+            mutations.update( cost.getMutations() );
+        }
+    }
+}
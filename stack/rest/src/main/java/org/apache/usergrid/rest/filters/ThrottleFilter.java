@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.rest.filters;
+
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.persistence.EntityManager;
+import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.persistence.SimpleEntityRef;
+import org.apache.usergrid.rest.exceptions.ApplicationThrottledException;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+
+import static org.apache.usergrid.management.cassandra.ManagementServiceImpl.APPLICATION_INFO;
+import static org.apache.usergrid.persistence.cassandra.CassandraService.MANAGEMENT_APPLICATION_ID;
+import static org.apache.usergrid.utils.ConversionUtils.getDouble;
+import static org.apache.usergrid.utils.ConversionUtils.getInt;
+
+
+/**
+ * Keeps one application from taking the node from the others.  Every application has a token bucket refilled at its
+ * request rate, and while more requests than the concurrency are in flight on the node, each application is held to
+ * its share of them, weighted by the application's weight.  An application with no request in flight is always
+ * admitted, so a tenant running an expensive loop waits on itself and not on everyone else.  Refused requests are
+ * answered with a 429 before the resource does any of their work.
+ * <p/>
+ * The limits are read from the rate_limit (requests per second), rate_limit_burst and rate_limit_weight properties of
+ * the application's application_info entity in the management application, falling back to the node defaults.  Only a
+ * sysadmin can write that entity, the application entity itself is writable by anyone with access to the application
+ * and so can't hold its own limits.  Requests are admitted when the application resource
+ * is resolved, and this filter gives their slot back once the request completes.
+ */
+public class ThrottleFilter implements Filter {
+
+    private static final Logger logger = LoggerFactory.getLogger( ThrottleFilter.class );
+
+    public static final String RATE_LIMIT_PROPERTY = "rate_limit";
+    public static final String RATE_LIMIT_BURST_PROPERTY = "rate_limit_burst";
+    public static final String RATE_LIMIT_WEIGHT_PROPERTY = "rate_limit_weight";
+
+    /** Set on requests running through this filter, only those take a slot since only those give it back */
+    static final String FILTERED_ATTRIBUTE = ThrottleFilter.class.getName() + ".filtered";
+
+    /** Holds the {@link AppThrottle} the request took a slot from */
+    private static final String ADMITTED_ATTRIBUTE = ThrottleFilter.class.getName() + ".admitted";
+
+    private final ConcurrentMap<UUID, AppThrottle> apps = new ConcurrentHashMap<UUID, AppThrottle>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong activeWeight = new AtomicLong();
+
+    private final Meter admitted = Metrics.newMeter( ThrottleFilter.class, "admitted", "requests", TimeUnit.SECONDS );
+    private final Meter throttledRate =
+            Metrics.newMeter( ThrottleFilter.class, "throttled_rate", "requests", TimeUnit.SECONDS );
+    private final Meter throttledShare =
+            Metrics.newMeter( ThrottleFilter.class, "throttled_share", "requests", TimeUnit.SECONDS );
+
+    private EntityManagerFactory emf;
+
+    private boolean enabled = false;
+    private double rate = 0;
+    private double burst = 0;
+    private int concurrency = 200;
+    private long refreshInterval = 60000;
+
+
+    public ThrottleFilter() {
+        Metrics.newGauge( ThrottleFilter.class, "in_flight", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return inFlight.get();
+            }
+        } );
+    }
+
+
+    @Override
+    public void init( FilterConfig filterConfig ) throws ServletException {
+        logger.info( "Starting throttle filter, rate {} burst {} concurrency {}",
+                new Object[] { rate, burst, concurrency } );
+    }
+
+
+    @Override
+    public void doFilter( ServletRequest request, ServletResponse response, FilterChain chain )
+            throws IOException, ServletException {
+
+        request.setAttribute( FILTERED_ATTRIBUTE, Boolean.TRUE );
+        try {
+            chain.doFilter( request, response );
+        }
+        finally {
+            AppThrottle app = ( AppThrottle ) request.getAttribute( ADMITTED_ATTRIBUTE );
+            if ( app != null ) {
+                request.removeAttribute( ADMITTED_ATTRIBUTE );
+                app.exit();
+            }
+            request.removeAttribute( FILTERED_ATTRIBUTE );
+        }
+    }
+
+
+    @Override
+    public void destroy() {
+    }
+
+
+    /**
+     * Admit a request to an application, or refuse it
+     *
+     * @throws ApplicationThrottledException if the application is over its rate or its share
+     */
+    public void admit( ServletRequest request, UUID applicationId ) throws ApplicationThrottledException {
+        if ( !enabled || request == null || applicationId == null
+                || request.getAttribute( ADMITTED_ATTRIBUTE ) != null ) {
+            return;
+        }
+
+        AppThrottle app = getAppThrottle( applicationId );
+
+        boolean filtered = request.getAttribute( FILTERED_ATTRIBUTE ) != null;
+        if ( filtered && !app.enter() ) {
+            throttledShare.mark();
+            app.throttled().mark();
+            throw new ApplicationThrottledException(
+                    "Application " + applicationId + " is over its share of the requests in flight", 1 );
+        }
+
+        // a queue read dispatched again after waiting was counted when it first came in
+        if ( request.getAttribute( QueueWaitFilter.WAITED_ATTRIBUTE ) == null ) {
+            long retryAfter = app.take();
+            if ( retryAfter > 0 ) {
+                if ( filtered ) {
+                    app.exit();
+                }
+                throttledRate.mark();
+                app.throttled().mark();
+                throw new ApplicationThrottledException(
+                        "Application " + applicationId + " is over its rate of " + app.limits.rate
+                                + " requests per second", retryAfter );
+            }
+        }
+
+        if ( filtered ) {
+            request.setAttribute( ADMITTED_ATTRIBUTE, app );
+        }
+        admitted.mark();
+    }
+
+
+    private AppThrottle getAppThrottle( UUID applicationId ) {
+        AppThrottle app = apps.get( applicationId );
+        if ( app == null ) {
+            app = new AppThrottle( applicationId );
+            AppThrottle existing = apps.putIfAbsent( applicationId, app );
+            if ( existing != null ) {
+                app = existing;
+            }
+        }
+        if ( System.currentTimeMillis() - app.limitsLoaded > refreshInterval ) {
+            app.limitsLoaded = System.currentTimeMillis();
+            app.limits = loadLimits( applicationId );
+        }
+        return app;
+    }
+
+
+    /** Read the limits set on the application info in the management application, the defaults when unset */
+    Limits loadLimits( UUID applicationId ) {
+        Limits defaults = new Limits( rate, burst, 1 );
+        if ( emf == null ) {
+            return defaults;
+        }
+        try {
+            EntityManager em = emf.getEntityManager( MANAGEMENT_APPLICATION_ID );
+            Map<String, Object> properties =
+                    em.getProperties( new SimpleEntityRef( APPLICATION_INFO, applicationId ) );
+            if ( properties == null ) {
+                return defaults;
+            }
+            double appRate = properties.get( RATE_LIMIT_PROPERTY ) != null ?
+                             getDouble( properties.get( RATE_LIMIT_PROPERTY ) ) : rate;
+            double appBurst = properties.get( RATE_LIMIT_BURST_PROPERTY ) != null ?
+                              getDouble( properties.get( RATE_LIMIT_BURST_PROPERTY ) ) : burst;
+            int appWeight = properties.get( RATE_LIMIT_WEIGHT_PROPERTY ) != null ?
+                            getInt( properties.get( RATE_LIMIT_WEIGHT_PROPERTY ) ) : 1;
+            return new Limits( appRate, appBurst, appWeight );
+        }
+        catch ( Exception e ) {
+            logger.warn( "Unable to read the limits of application {}, using the defaults", applicationId, e );
+            return defaults;
+        }
+    }
+
+
+    public void setEntityManagerFactory( EntityManagerFactory emf ) {
+        this.emf = emf;
+    }
+
+
+    public void setEnabled( boolean enabled ) {
+        this.enabled = enabled;
+    }
+
+
+    /** Default requests per second of an application, 0 for no limit */
+    public void setRate( double rate ) {
+        this.rate = rate;
+    }
+
+
+    /** Default requests an application may make at once above its rate, 0 for one second of its rate */
+    public void setBurst( double burst ) {
+        this.burst = burst;
+    }
+
+
+    /** Requests in flight on the node above which applications are held to their share, 0 to never share */
+    public void setConcurrency( int concurrency ) {
+        this.concurrency = concurrency;
+    }
+
+
+    /** Milliseconds the limits of an application are kept before being read again */
+    public void setRefreshInterval( long refreshInterval ) {
+        this.refreshInterval = refreshInterval;
+    }
+
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+
+    /** The limits of one application */
+    static class Limits {
+
+        final double rate;
+        final double burst;
+        final int weight;
+
+
+        Limits( double rate, double burst, int weight ) {
+            this.rate = rate;
+            this.burst = burst > 0 ? burst : Math.max( rate, 1 );
+            this.weight = Math.max( weight, 1 );
+        }
+    }
+
+
+    /** The bucket and the requests in flight of one application */
+    class AppThrottle {
+
+        private final UUID applicationId;
+
+        volatile Limits limits = new Limits( rate, burst, 1 );
+        volatile long limitsLoaded = 0;
+
+        private double tokens = -1;
+        private long refilled = System.nanoTime();
+
+        private int appInFlight = 0;
+        private int countedWeight = 0;
+
+        private Meter throttled;
+
+
+        AppThrottle( UUID applicationId ) {
+            this.applicationId = applicationId;
+        }
+
+
+        /** Take a slot if the node has room, or the application is under its share */
+        synchronized boolean enter() {
+            int weight = limits.weight;
+            if ( concurrency > 0 && inFlight.get() >= concurrency ) {
+                long active = activeWeight.get() + ( appInFlight == 0 ? weight : 0 );
+                long share = Math.max( 1, concurrency * weight / Math.max( active, 1 ) );
+                if ( appInFlight >= share ) {
+                    return false;
+                }
+            }
+            if ( appInFlight++ == 0 ) {
+                countedWeight = weight;
+                activeWeight.addAndGet( weight );
+            }
+            inFlight.incrementAndGet();
+            return true;
+        }
+
+
+        synchronized void exit() {
+            inFlight.decrementAndGet();
+            if ( --appInFlight == 0 ) {
+                activeWeight.addAndGet( -countedWeight );
+            }
+        }
+
+
+        /** Take a token from the bucket, return 0 if one was taken or the seconds until one is available */
+        synchronized long take() {
+            Limits l = limits;
+            if ( l.rate <= 0 ) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            if ( tokens < 0 ) {
+                tokens = l.burst;
+            }
+            else {
+                tokens = Math.min( l.burst, tokens + ( now - refilled ) * l.rate / 1000000000.0 );
+            }
+            refilled = now;
+            if ( tokens >= 1 ) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max( 1, ( long ) Math.ceil( ( 1 - tokens ) / l.rate ) );
+        }
+
+
+        synchronized Meter throttled() {
+            if ( throttled == null ) {
+                throttled = Metrics.newMeter( ThrottleFilter.class, "throttled", applicationId.toString(), "requests",
+                        TimeUnit.SECONDS );
+            }
+            return throttled;
+        }
+    }
+}
@@ -54,6 +54,7 @@ import org.apache.usergrid.rest.AbstractContextResource;
 import org.apache.usergrid.rest.exceptions.RedirectionException;
 import org.apache.usergrid.rest.management.organizations.OrganizationsResource;
 import org.apache.usergrid.rest.management.users.UsersResource;
+import org.apache.usergrid.security.crypto.EncryptionOverloadException;
 import org.apache.usergrid.security.oauth.AccessInfo;
 import org.apache.usergrid.security.shiro.utils.SubjectUtils;
 
@@ -227,6 +228,9 @@ public class ManagementResource extends AbstractContextResource {
                         return Response.status( response.getResponseStatus() ).type( jsonMediaType( callback ) )
                                        .entity( wrapWithCallback( response.getBody(), callback ) ).build();
                     }
+                    catch ( EncryptionOverloadException eoe ) {
+                        throw eoe;
+                    }
                     catch ( Exception e1 ) {
                         logger.error( errorDescription, e1 );
                     }
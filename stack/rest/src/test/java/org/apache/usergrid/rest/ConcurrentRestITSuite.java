@@ -27,6 +27,7 @@ import org.apache.usergrid.rest.applications.ApplicationRequestCounterIT;
 import org.apache.usergrid.rest.applications.ApplicationResourceIT;
 import org.apache.usergrid.rest.applications.DevicesResourceIT;
 import org.apache.usergrid.rest.applications.assets.AssetResourceIT;
+import org.apache.usergrid.rest.applications.collection.ConditionalGetIT;
 import org.apache.usergrid.rest.applications.collection.PagingResourceIT;
 import org.apache.usergrid.rest.applications.events.EventsResourceIT;
 import org.apache.usergrid.rest.applications.users.ActivityResourceIT;
@@ -50,8 +51,8 @@ import org.apache.usergrid.rest.management.users.organizations.UsersOrganization
         {
                 ActivityResourceIT.class, AdminEmailEncodingIT.class, ApplicationRequestCounterIT.class,
                 ApplicationResourceIT.class, AssetResourceIT.class, BasicIT.class, CollectionsResourceIT.class,
-                ContentTypeResourceIT.class, DevicesResourceIT.class, EventsResourceIT.class, GroupResourceIT.class,
-                MUUserResourceIT.class, ManagementResourceIT.class, OrganizationResourceIT.class,
+                ConditionalGetIT.class, ContentTypeResourceIT.class, DevicesResourceIT.class, EventsResourceIT.class,
+                GroupResourceIT.class, MUUserResourceIT.class, ManagementResourceIT.class, OrganizationResourceIT.class,
                 OrganizationsResourceIT.class, OwnershipResourceIT.class, PagingResourceIT.class,
                 PermissionsResourceIT.class, RegistrationIT.class, UserResourceIT.class,
                 UsersOrganizationsResourceIT.class
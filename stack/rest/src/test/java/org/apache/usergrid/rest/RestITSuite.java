@@ -25,6 +25,7 @@ import org.apache.usergrid.cassandra.Concurrent;
 import org.apache.usergrid.rest.applications.ApplicationRequestCounterIT;
 import org.apache.usergrid.rest.applications.DevicesResourceIT;
 import org.apache.usergrid.rest.applications.assets.AssetResourceIT;
+import org.apache.usergrid.rest.applications.collection.ConditionalGetIT;
 import org.apache.usergrid.rest.applications.collection.PagingResourceIT;
 import org.apache.usergrid.rest.applications.events.EventsResourceIT;
 import org.apache.usergrid.rest.applications.users.ActivityResourceIT;
@@ -44,10 +45,11 @@ import org.apache.usergrid.rest.management.users.organizations.UsersOrganization
 @Suite.SuiteClasses(
         {
                 ActivityResourceIT.class, AdminEmailEncodingIT.class, ApplicationRequestCounterIT.class,
-                AssetResourceIT.class, BasicIT.class, CollectionsResourceIT.class, ContentTypeResourceIT.class,
-                DevicesResourceIT.class, EventsResourceIT.class, GroupResourceIT.class, OrganizationResourceIT.class,
-                OrganizationsResourceIT.class, OwnershipResourceIT.class, PagingResourceIT.class,
-                PermissionsResourceIT.class, UserResourceIT.class, UsersOrganizationsResourceIT.class
+                AssetResourceIT.class, BasicIT.class, CollectionsResourceIT.class, ConditionalGetIT.class,
+                ContentTypeResourceIT.class, DevicesResourceIT.class, EventsResourceIT.class, GroupResourceIT.class,
+                OrganizationResourceIT.class, OrganizationsResourceIT.class, OwnershipResourceIT.class,
+                PagingResourceIT.class, PermissionsResourceIT.class, UserResourceIT.class,
+                UsersOrganizationsResourceIT.class
         })
 @Concurrent()
 public class RestITSuite {
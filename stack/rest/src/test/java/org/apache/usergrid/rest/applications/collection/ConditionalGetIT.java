@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.rest.applications.collection;
+
+
+import java.util.Map;
+import java.util.UUID;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import org.codehaus.jackson.JsonNode;
+import org.junit.Test;
+import org.apache.usergrid.rest.AbstractRestIT;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.apache.usergrid.utils.MapUtils.hashMap;
+
+
+/** Tests If-None-Match requests for entities and collection pages */
+public class ConditionalGetIT extends AbstractRestIT {
+
+    @Test
+    public void entityNotModified() throws Exception {
+        Map<String, String> properties = hashMap( "name", "conditional1" );
+
+        JsonNode node = appPath( "conditionals" ).post( JsonNode.class, properties );
+
+        UUID entityId = getEntityId( node, 0 );
+
+        ClientResponse response = appPath( "conditionals/" + entityId ).get( ClientResponse.class );
+
+        assertEquals( 200, response.getStatus() );
+
+        String eTag = response.getHeaders().getFirst( HttpHeaders.ETAG );
+
+        assertNotNull( eTag );
+
+        response = appPath( "conditionals/" + entityId ).header( HttpHeaders.IF_NONE_MATCH, eTag )
+                .get( ClientResponse.class );
+
+        assertEquals( 304, response.getStatus() );
+
+        //modify the entity, the old tag must no longer match
+        appPath( "conditionals/" + entityId ).put( JsonNode.class, hashMap( "color", "blue" ) );
+
+        response = appPath( "conditionals/" + entityId ).header( HttpHeaders.IF_NONE_MATCH, eTag )
+                .get( ClientResponse.class );
+
+        assertEquals( 200, response.getStatus() );
+        assertFalse( eTag.equals( response.getHeaders().getFirst( HttpHeaders.ETAG ) ) );
+    }
+
+
+    @Test
+    public void collectionNotModified() throws Exception {
+        appPath( "conditionalpages" ).post( JsonNode.class, hashMap( "name", "page1" ) );
+
+        ClientResponse response = appPath( "conditionalpages" ).get( ClientResponse.class );
+
+        assertEquals( 200, response.getStatus() );
+
+        String eTag = response.getHeaders().getFirst( HttpHeaders.ETAG );
+
+        assertNotNull( eTag );
+
+        response = appPath( "conditionalpages" ).header( HttpHeaders.IF_NONE_MATCH, eTag ).get( ClientResponse.class );
+
+        assertEquals( 304, response.getStatus() );
+
+        //a new member changes the page
+        appPath( "conditionalpages" ).post( JsonNode.class, hashMap( "name", "page2" ) );
+
+        response = appPath( "conditionalpages" ).header( HttpHeaders.IF_NONE_MATCH, eTag ).get( ClientResponse.class );
+
+        assertEquals( 200, response.getStatus() );
+    }
+
+
+    @Test
+    public void pageWithServerCursorNotModified() throws Exception {
+        appPath( "conditionalcursors" ).post( JsonNode.class, hashMap( "name", "cursor1" ) );
+        appPath( "conditionalcursors" ).post( JsonNode.class, hashMap( "name", "cursor2" ) );
+
+        //the page has a next cursor, with server cursors enabled its id differs on every request
+        ClientResponse response = firstPage( "conditionalcursors" ).get( ClientResponse.class );
+
+        assertEquals( 200, response.getStatus() );
+
+        String eTag = response.getHeaders().getFirst( HttpHeaders.ETAG );
+
+        assertNotNull( eTag );
+
+        response = firstPage( "conditionalcursors" ).header( HttpHeaders.IF_NONE_MATCH, eTag )
+                .get( ClientResponse.class );
+
+        assertEquals( 304, response.getStatus() );
+    }
+
+
+    private WebResource.Builder firstPage( String collection ) {
+        return resource().path( "/test-organization/test-app/" + collection ).queryParam( "limit", "1" )
+                .queryParam( "access_token", access_token ).accept( MediaType.APPLICATION_JSON )
+                .type( MediaType.APPLICATION_JSON_TYPE );
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.rest.filters;
+
+
+import javax.servlet.DispatcherType;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.apache.usergrid.mq.cassandra.QueueWaiters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class QueueWaitFilterTest {
+
+    @Test
+    public void waitIsReadFromQueryString() {
+        MockHttpServletRequest request = new MockHttpServletRequest( "GET", "/test-organization/test-app/queues/q" );
+        request.setQueryString( "limit=10&wait=5000" );
+
+        assertEquals( 5000, QueueWaitFilter.getWait( request ) );
+
+        request.setQueryString( "waiting=1&wait=soon" );
+        assertEquals( 0, QueueWaitFilter.getWait( request ) );
+
+        // a wait in the parameters only, as a form post body would be, is ignored
+        request.setQueryString( null );
+        request.addParameter( "wait", "5000" );
+        assertEquals( 0, QueueWaitFilter.getWait( request ) );
+    }
+
+
+    @Test
+    public void onlyQueuePaths() {
+        assertTrue( QueueWaitFilter
+                .isQueuePath( new MockHttpServletRequest( "GET", "/test-organization/test-app/queues/q" ) ) );
+        assertTrue( QueueWaitFilter.isQueuePath( new MockHttpServletRequest( "GET", "/test-app/queues" ) ) );
+        assertFalse( QueueWaitFilter.isQueuePath( new MockHttpServletRequest( "GET", "/test-app/users/queues2" ) ) );
+        assertFalse( QueueWaitFilter.isQueuePath( new MockHttpServletRequest( "GET", "/test-app/users" ) ) );
+    }
+
+
+    @Test
+    public void postsPassStraightThrough() throws Exception {
+        QueueWaitFilter filter = new QueueWaitFilter();
+        filter.setWaiters( new QueueWaiters() );
+
+        MockHttpServletRequest request = new MockHttpServletRequest( "POST", "/test-app/queues/q" ) {
+            @Override
+            public String getParameter( String name ) {
+                throw new AssertionError( "The body of a post must be left to the filters after this one" );
+            }
+
+
+            @Override
+            public DispatcherType getDispatcherType() {
+                return DispatcherType.REQUEST;
+            }
+
+
+            @Override
+            public boolean isAsyncSupported() {
+                return true;
+            }
+        };
+        request.setQueryString( "wait=5000" );
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter( request, response, chain );
+
+        assertSame( request, chain.getRequest() );
+        assertSame( response, chain.getResponse() );
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.rest.filters;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.apache.usergrid.persistence.EntityManager;
+import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.persistence.EntityRef;
+import org.apache.usergrid.rest.exceptions.ApplicationThrottledException;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.apache.usergrid.management.cassandra.ManagementServiceImpl.APPLICATION_INFO;
+import static org.apache.usergrid.persistence.cassandra.CassandraService.MANAGEMENT_APPLICATION_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class ThrottleFilterTest {
+
+    private ThrottleFilter throttle;
+
+
+    @Before
+    public void setup() {
+        throttle = new ThrottleFilter();
+    }
+
+
+    @Test
+    public void rateIsLimited() {
+        throttle.setRate( 2 );
+        UUID applicationId = UUIDUtils.newTimeUUID();
+
+        throttle.admit( new MockHttpServletRequest(), applicationId );
+        throttle.admit( new MockHttpServletRequest(), applicationId );
+        try {
+            throttle.admit( new MockHttpServletRequest(), applicationId );
+            fail( "The third request of the second should be throttled" );
+        }
+        catch ( ApplicationThrottledException e ) {
+            assertTrue( e.getRetryAfter() >= 1 );
+        }
+
+        // other applications have their own bucket
+        throttle.admit( new MockHttpServletRequest(), UUIDUtils.newTimeUUID() );
+    }
+
+
+    @Test
+    public void busyNodeIsShared() throws Exception {
+        throttle.setConcurrency( 2 );
+        UUID busy = UUIDUtils.newTimeUUID();
+        UUID quiet = UUIDUtils.newTimeUUID();
+
+        MockHttpServletRequest first = filtered();
+        throttle.admit( first, busy );
+        throttle.admit( filtered(), busy );
+        assertEquals( 2, throttle.getInFlight() );
+
+        try {
+            throttle.admit( filtered(), busy );
+            fail( "The busy application is over its share of the full node" );
+        }
+        catch ( ApplicationThrottledException e ) {
+            assertEquals( 1, e.getRetryAfter() );
+        }
+
+        // an application with nothing in flight always gets in
+        throttle.admit( filtered(), quiet );
+        assertEquals( 3, throttle.getInFlight() );
+
+        // the slot is given back once the request went through the filter
+        throttle.doFilter( first, new MockHttpServletResponse(), new MockFilterChain() );
+        assertEquals( 2, throttle.getInFlight() );
+    }
+
+
+    @Test
+    public void limitsAreReadFromManagementApplication() {
+        throttle.setRate( 5 );
+        final UUID applicationId = UUIDUtils.newTimeUUID();
+
+        final Map<String, Object> info = new HashMap<String, Object>();
+        info.put( ThrottleFilter.RATE_LIMIT_PROPERTY, 50 );
+        info.put( ThrottleFilter.RATE_LIMIT_WEIGHT_PROPERTY, 3 );
+
+        // the application entity is writable by the tenant, its limits must be ignored
+        final Map<String, Object> application = new HashMap<String, Object>();
+        application.put( ThrottleFilter.RATE_LIMIT_PROPERTY, 1000000 );
+
+        throttle.setEntityManagerFactory( proxy( EntityManagerFactory.class, new InvocationHandler() {
+            @Override
+            public Object invoke( Object factory, Method method, Object[] args ) {
+                final UUID emApplicationId = ( UUID ) args[0];
+                return proxy( EntityManager.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke( Object em, Method method, Object[] args ) {
+                        EntityRef ref = ( EntityRef ) args[0];
+                        if ( MANAGEMENT_APPLICATION_ID.equals( emApplicationId ) && APPLICATION_INFO
+                                .equals( ref.getType() ) && applicationId.equals( ref.getUuid() ) ) {
+                            return info;
+                        }
+                        return application;
+                    }
+                } );
+            }
+        } ) );
+
+        ThrottleFilter.Limits limits = throttle.loadLimits( applicationId );
+
+        assertEquals( 50, limits.rate, 0 );
+        assertEquals( 3, limits.weight );
+
+        // unset limits fall back to the node defaults
+        info.clear();
+        assertEquals( 5, throttle.loadLimits( applicationId ).rate, 0 );
+    }
+
+
+    @SuppressWarnings( "unchecked" )
+    private static <T> T proxy( Class<T> type, InvocationHandler handler ) {
+        return ( T ) Proxy.newProxyInstance( type.getClassLoader(), new Class<?>[] { type }, handler );
+    }
+
+
+    /** A request inside the filter, only those take a slot */
+    private static MockHttpServletRequest filtered() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute( ThrottleFilter.FILTERED_ATTRIBUTE, Boolean.TRUE );
+        return request;
+    }
+}
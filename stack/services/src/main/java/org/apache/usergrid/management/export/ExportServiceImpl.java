@@ -17,12 +17,29 @@
 package org.apache.usergrid.management.export;
 
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
 
 import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonFactory;
@@ -46,6 +63,8 @@ import org.apache.usergrid.persistence.Results;
 import org.apache.usergrid.persistence.entities.Export;
 import org.apache.usergrid.persistence.entities.JobData;
 
+import org.apache.commons.lang.StringUtils;
+
 import com.google.common.collect.BiMap;
 
 import static org.apache.usergrid.persistence.cassandra.CassandraService.MANAGEMENT_APPLICATION_ID;
@@ -76,6 +95,21 @@ public class ExportServiceImpl implements ExportService {
     //Amount of time that has passed before sending another heart beat in millis
     public static final int TIMESTAMP_DELTA = 5000;
 
+    //Number of threads reading collections of an application in parallel
+    private int readThreads = 4;
+
+    //Number of threads serializing and uploading part files
+    private int writeThreads = 8;
+
+    //Maximum number of entities in a single part file
+    private int partSize = MAX_ENTITY_FETCH;
+
+    //Maximum number of parts read but not yet uploaded, bounds the memory used by a single export
+    private int maxPendingParts = 16;
+
+    //Directory of the "local" storage provider, local exports are refused when not set
+    private String localDirectory;
+
     private JsonFactory jsonFactory = new JsonFactory();
 
 
@@ -209,6 +243,13 @@ public class ExportServiceImpl implements ExportService {
             if ( s3PlaceHolder != null ) {
                 s3Export = ( S3Export ) s3PlaceHolder;
             }
+            else if ( "local".equals( getStorageProvider( config ) ) ) {
+                //the directory is server configuration, never taken from the export request
+                if ( StringUtils.isBlank( localDirectory ) ) {
+                    throw new IllegalArgumentException( "The local storage provider is not enabled" );
+                }
+                s3Export = new LocalFileExportImpl( new File( localDirectory ) );
+            }
             else {
                 s3Export = new S3ExportImpl();
             }
@@ -279,6 +320,13 @@ public class ExportServiceImpl implements ExportService {
     }
 
 
+    private Object getStorageProvider( Map<String, Object> config ) {
+        Map<String, Object> properties = ( Map<String, Object> ) config.get( "properties" );
+
+        return properties == null ? null : properties.get( "storage_provider" );
+    }
+
+
     public SchedulerService getSch() {
         return sch;
     }
@@ -310,6 +358,31 @@ public class ExportServiceImpl implements ExportService {
     }
 
 
+    public void setReadThreads( final int readThreads ) {
+        this.readThreads = readThreads;
+    }
+
+
+    public void setWriteThreads( final int writeThreads ) {
+        this.writeThreads = writeThreads;
+    }
+
+
+    public void setPartSize( final int partSize ) {
+        this.partSize = partSize;
+    }
+
+
+    public void setMaxPendingParts( final int maxPendingParts ) {
+        this.maxPendingParts = maxPendingParts;
+    }
+
+
+    public void setLocalDirectory( final String localDirectory ) {
+        this.localDirectory = localDirectory;
+    }
+
+
     public Export getExportEntity( final JobExecution jobExecution ) throws Exception {
 
         UUID exportId = ( UUID ) jobExecution.getJobData().getProperty( EXPORT_ID );
@@ -340,23 +413,7 @@ public class ExportServiceImpl implements ExportService {
 
             appFileName = prepareOutputFileName( "application", application.getValue(), null );
 
-            File ephemeral = collectionExportAndQuery( application.getKey(), config, export, jobExecution );
-
-            fileTransfer( export, appFileName, ephemeral, config, s3Export );
-        }
-    }
-
-
-    public void fileTransfer( Export export, String appFileName, File ephemeral, Map<String, Object> config,
-                              S3Export s3Export ) {
-        try {
-            s3Export.copyToS3( ephemeral, config, appFileName );
-
-        }
-        catch ( Exception e ) {
-            export.setErrorMessage( e.getMessage() );
-            export.setState( Export.State.FAILED );
-            return;
+            collectionExportAndQuery( application.getKey(), appFileName, config, export, jobExecution, s3Export );
         }
     }
 
@@ -373,9 +430,7 @@ public class ExportServiceImpl implements ExportService {
         ApplicationInfo application = managementService.getApplicationInfo( applicationId );
         String appFileName = prepareOutputFileName( "application", application.getName(), null );
 
-        File ephemeral = collectionExportAndQuery( applicationId, config, export, jobExecution );
-
-        fileTransfer( export, appFileName, ephemeral, config, s3Export );
+        collectionExportAndQuery( applicationId, appFileName, config, export, jobExecution, s3Export );
     }
 
 
@@ -393,10 +448,7 @@ public class ExportServiceImpl implements ExportService {
         String appFileName = prepareOutputFileName( "application", application.getName(),
                 ( String ) config.get( "collectionName" ) );
 
-
-        File ephemeral = collectionExportAndQuery( applicationUUID, config, export, jobExecution );
-
-        fileTransfer( export, appFileName, ephemeral, config, s3Export );
+        collectionExportAndQuery( applicationUUID, appFileName, config, export, jobExecution, s3Export );
     }
 
 
@@ -528,10 +580,10 @@ public class ExportServiceImpl implements ExportService {
     }
 
 
-    protected JsonGenerator getJsonGenerator( File ephermal ) throws IOException {
+    protected JsonGenerator getJsonGenerator( OutputStream out ) throws IOException {
         //TODO:shouldn't the below be UTF-16?
 
-        JsonGenerator jg = jsonFactory.createJsonGenerator( ephermal, JsonEncoding.UTF8 );
+        JsonGenerator jg = jsonFactory.createJsonGenerator( out, JsonEncoding.UTF8 );
         jg.setPrettyPrinter( new DefaultPrettyPrinter() );
         jg.setCodec( new ObjectMapper() );
         return jg;
@@ -561,68 +613,260 @@ public class ExportServiceImpl implements ExportService {
 
 
     /**
-     * handles the query and export of collections
+     * @return the name of a part file of an export, the output file name without the extension followed by the
+     *         collection name and the part number
      */
-    //TODO:Needs further refactoring.
-    protected File collectionExportAndQuery( UUID applicationUUID, final Map<String, Object> config, Export export,
-                                             final JobExecution jobExecution ) throws Exception {
+    protected String preparePartFileName( String outputFileName, String collectionName, int part ) {
+        String prefix = outputFileName.endsWith( ".json" ) ?
+                        outputFileName.substring( 0, outputFileName.length() - ".json".length() ) : outputFileName;
+
+        return String.format( "%s.%s.%05d.json.gz", prefix, collectionName, part );
+    }
+
+
+    /**
+     * Handles the query and export of collections.  Each collection is read on the read pool, and every
+     * <code>partSize</code> entities are handed to the write pool, which serializes them to a gzipped part file and
+     * uploads it while reading continues.  The calling thread heartbeats the job and records progress on the export
+     * entity until every part is uploaded.
+     */
+    protected void collectionExportAndQuery( UUID applicationUUID, String appFileName,
+                                             final Map<String, Object> config, Export export,
+                                             final JobExecution jobExecution, S3Export s3Export ) throws Exception {
 
         EntityManager em = emf.getEntityManager( applicationUUID );
         Map<String, Object> metadata = em.getApplicationCollectionMetadata();
-        long starting_time = System.currentTimeMillis();
-        File ephemeral = new File( "tempExport" + UUID.randomUUID() );
-        ephemeral.deleteOnExit();
 
+        ExecutorService readers = Executors.newFixedThreadPool( readThreads );
+        ExecutorService writers = Executors.newFixedThreadPool( writeThreads );
 
-        JsonGenerator jg = getJsonGenerator( ephemeral );
+        ExportProgress progress =
+                new ExportProgress( em, appFileName, config, s3Export, writers, new Semaphore( maxPendingParts ) );
 
-        jg.writeStartArray();
+        List<Future<Void>> reads = new ArrayList<Future<Void>>();
 
-        for ( String collectionName : metadata.keySet() ) {
-            if ( collectionName.equals( "exports" ) ) {
-                continue;
+        try {
+            for ( String collectionName : metadata.keySet() ) {
+                if ( collectionName.equals( "exports" ) ) {
+                    continue;
+                }
+                //if the collection you are looping through doesn't match the name of the one you want. Don't export it.
+
+                if ( ( config.get( "collectionName" ) == null ) || collectionName
+                        .equals( config.get( "collectionName" ) ) ) {
+
+                    reads.add( readers.submit( new CollectionReader( progress, collectionName ) ) );
+                }
+            }
+
+            //all reads are submitted before waiting so that a failed read doesn't leave parts unwritten
+            for ( Future<Void> read : reads ) {
+                await( read, progress, export, jobExecution );
+            }
+
+            Future<Void> write;
+
+            while ( ( write = progress.writes.poll() ) != null ) {
+                await( write, progress, export, jobExecution );
+            }
+
+            updateProgress( progress, export );
+        }
+        finally {
+            readers.shutdownNow();
+            writers.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Wait for the task, heartbeating the job and recording progress while it runs
+     */
+    private void await( Future<Void> future, ExportProgress progress, Export export, JobExecution jobExecution )
+            throws Exception {
+
+        while ( true ) {
+            try {
+                future.get( TIMESTAMP_DELTA, TimeUnit.MILLISECONDS );
+                return;
+            }
+            catch ( TimeoutException e ) {
+                jobExecution.heartbeat();
+                updateProgress( progress, export );
             }
-            //if the collection you are looping through doesn't match the name of the one you want. Don't export it.
-
-            if ( ( config.get( "collectionName" ) == null ) || collectionName
-                    .equals( config.get( "collectionName" ) ) ) {
-                //Query entity manager for the entities in a collection
-                Query query = null;
-                if ( config.get( "query" ) == null ) {
-                    query = new Query();
+            catch ( ExecutionException e ) {
+                if ( e.getCause() instanceof Exception ) {
+                    throw ( Exception ) e.getCause();
                 }
-                else {
-                    try {
-                        query = Query.fromQL( ( String ) config.get( "query" ) );
-                    }
-                    catch ( Exception e ) {
-                        export.setErrorMessage( e.getMessage() );
+                throw e;
+            }
+        }
+    }
+
+
+    /**
+     * Record the number of entities and parts exported so far on the export entity
+     */
+    private void updateProgress( ExportProgress progress, Export export ) throws Exception {
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put( "entitiesExported", progress.entities.get() );
+        properties.put( "partsExported", progress.parts.get() );
+
+        emf.getEntityManager( MANAGEMENT_APPLICATION_ID ).updateProperties( export, properties );
+    }
+
+
+    /**
+     * The state shared by the readers and writers of the export of a single application
+     */
+    private static class ExportProgress {
+
+        private final EntityManager em;
+        private final String appFileName;
+        private final Map<String, Object> config;
+        private final S3Export s3Export;
+
+        private final ConcurrentLinkedQueue<Future<Void>> writes = new ConcurrentLinkedQueue<Future<Void>>();
+        private final AtomicLong entities = new AtomicLong();
+        private final AtomicLong parts = new AtomicLong();
+
+        private final ExecutorService writers;
+        private final Semaphore pendingParts;
+
+
+        private ExportProgress( EntityManager em, String appFileName, Map<String, Object> config,
+                                S3Export s3Export, ExecutorService writers, Semaphore pendingParts ) {
+            this.em = em;
+            this.appFileName = appFileName;
+            this.config = config;
+            this.s3Export = s3Export;
+            this.writers = writers;
+            this.pendingParts = pendingParts;
+        }
+    }
+
+
+    /**
+     * Pages through a single collection, handing every full part to the writers.  Blocks when too many parts are
+     * waiting to be written.
+     */
+    private class CollectionReader implements Callable<Void> {
+
+        private final ExportProgress progress;
+        private final String collectionName;
+        private final AtomicInteger partNumber = new AtomicInteger();
+
+
+        private CollectionReader( ExportProgress progress, String collectionName ) {
+            this.progress = progress;
+            this.collectionName = collectionName;
+        }
+
+
+        @Override
+        public Void call() throws Exception {
+            //Query entity manager for the entities in a collection
+            Query query = null;
+            if ( progress.config.get( "query" ) == null ) {
+                query = new Query();
+            }
+            else {
+                query = Query.fromQL( ( String ) progress.config.get( "query" ) );
+            }
+            query.setLimit( MAX_ENTITY_FETCH );
+            query.setResultsLevel( Results.Level.ALL_PROPERTIES );
+            query.setCollection( collectionName );
+
+            Results entities = progress.em.searchCollection( progress.em.getApplicationRef(), collectionName, query );
+
+            List<Entity> part = new ArrayList<Entity>( partSize );
+
+            //pages through the query and backs up all results.
+            PagingResultsIterator itr = new PagingResultsIterator( entities );
+            for ( Object e : itr ) {
+                part.add( ( Entity ) e );
+
+                if ( part.size() == partSize ) {
+                    write( part );
+                    part = new ArrayList<Entity>( partSize );
+                }
+            }
+
+            if ( !part.isEmpty() ) {
+                write( part );
+            }
+
+            return null;
+        }
+
+
+        private void write( List<Entity> part ) throws InterruptedException {
+            progress.pendingParts.acquire();
+
+            String partFileName = preparePartFileName( progress.appFileName, collectionName,
+                    partNumber.incrementAndGet() );
+
+            progress.writes.add( progress.writers.submit( new PartWriter( progress, part, partFileName ) ) );
+        }
+    }
+
+
+    /**
+     * Serializes a part to a gzipped temporary file and uploads it
+     */
+    private class PartWriter implements Callable<Void> {
+
+        private final ExportProgress progress;
+        private final List<Entity> entities;
+        private final String partFileName;
+
+
+        private PartWriter( ExportProgress progress, List<Entity> entities, String partFileName ) {
+            this.progress = progress;
+            this.entities = entities;
+            this.partFileName = partFileName;
+        }
+
+
+        @Override
+        public Void call() throws Exception {
+            File ephemeral = File.createTempFile( "tempExport", ".json.gz" );
+
+            try {
+                OutputStream out = new GZIPOutputStream( new BufferedOutputStream( new FileOutputStream( ephemeral ) ) );
+
+                JsonGenerator jg = getJsonGenerator( out );
+
+                try {
+                    jg.writeStartArray();
+
+                    for ( Entity entity : entities ) {
+                        jg.writeStartObject();
+                        jg.writeFieldName( "Metadata" );
+                        jg.writeObject( entity );
+                        saveCollectionMembers( jg, progress.em, ( String ) progress.config.get( "collectionName" ),
+                                entity );
+                        jg.writeEndObject();
                     }
+
+                    jg.writeEndArray();
                 }
-                query.setLimit( MAX_ENTITY_FETCH );
-                query.setResultsLevel( Results.Level.ALL_PROPERTIES );
-                query.setCollection( collectionName );
-
-                Results entities = em.searchCollection( em.getApplicationRef(), collectionName, query );
-
-                //pages through the query and backs up all results.
-                PagingResultsIterator itr = new PagingResultsIterator( entities );
-                for ( Object e : itr ) {
-                    starting_time = checkTimeDelta( starting_time, jobExecution );
-                    Entity entity = ( Entity ) e;
-                    jg.writeStartObject();
-                    jg.writeFieldName( "Metadata" );
-                    jg.writeObject( entity );
-                    saveCollectionMembers( jg, em, ( String ) config.get( "collectionName" ), entity );
-                    jg.writeEndObject();
-                    jg.flush();
+                finally {
+                    //closes the gzip stream, which writes the trailer
+                    jg.close();
                 }
+
+                progress.s3Export.copyToS3( ephemeral, progress.config, partFileName );
+
+                progress.entities.addAndGet( entities.size() );
+                progress.parts.incrementAndGet();
+            }
+            finally {
+                ephemeral.delete();
+                progress.pendingParts.release();
             }
-        }
-        jg.writeEndArray();
-        jg.flush();
-        jg.close();
 
-        return ephemeral;
+            return null;
+        }
     }
 }
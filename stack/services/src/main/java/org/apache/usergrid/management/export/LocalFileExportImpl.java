@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.management.export;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+
+/**
+ * Copies export files to a directory on the local file system instead of uploading them.  Used when the storage
+ * provider of the export is "local", and for tests.  The directory comes from server configuration, and files are
+ * never written outside of it whatever their names.
+ */
+public class LocalFileExportImpl implements S3Export {
+
+    private final File directory;
+
+    private volatile String fn;
+
+
+    public LocalFileExportImpl( File directory ) {
+        this.directory = directory;
+    }
+
+
+    @Override
+    public void copyToS3( File ephemeral, final Map<String, Object> exportInfo, String filename ) {
+
+        fn = filename;
+
+        try {
+            FileUtils.copyFile( ephemeral, resolve( filename ) );
+        }
+        catch ( IOException e ) {
+            throw new RuntimeException( "Unable to copy " + filename + " to " + directory, e );
+        }
+    }
+
+
+    /** The file for the name, refusing names such as "../x" that resolve outside of the directory */
+    File resolve( String filename ) throws IOException {
+        String root = directory.getCanonicalPath() + File.separator;
+        File file = new File( directory, filename ).getCanonicalFile();
+
+        if ( !file.getPath().startsWith( root ) ) {
+            throw new IOException( "Export file " + filename + " is outside of " + directory );
+        }
+
+        return file;
+    }
+
+
+    @Override
+    public String getFilename() {
+        return fn;
+    }
+}
@@ -39,19 +39,50 @@ import com.google.inject.Module;
 
 
 /**
- *
- *
+ * Uploads export files to S3.  The blob store context is created on the first upload and reused for the remaining
+ * parts of the export, uploads may run concurrently.
  */
 public class S3ExportImpl implements S3Export {
 
-    String fn;
+    private static final Logger logger = LoggerFactory.getLogger( S3ExportImpl.class );
+
+    volatile String fn;
+
+    private BlobStoreContext context;
+    private String bucketName;
 
     @Override
     public void copyToS3( File ephemeral ,final Map<String,Object> exportInfo, String filename ) {
 
         fn = filename;
 
-        Logger logger = LoggerFactory.getLogger( ExportServiceImpl.class );
+        AsyncBlobStore blobStore = getBlobStore( exportInfo );
+
+        try {
+            BlobBuilder blobBuilder = blobStore.blobBuilder( filename ).payload( ephemeral ).calculateMD5()
+                                               .contentType( filename.endsWith( ".gz" ) ? "application/x-gzip" :
+                                                             "application/json" );
+
+
+            Blob blob = blobBuilder.build();
+
+            ListenableFuture<String> futureETag = blobStore.putBlob( bucketName, blob, PutOptions.Builder.multipart() );
+
+
+            logger.info( "Uploaded file {} etag={}", filename, futureETag.get() );
+        }
+        catch ( Exception e ) {
+            logger.error( "Error uploading to blob store", e );
+            throw new RuntimeException( "Unable to upload " + filename, e );
+        }
+    }
+
+
+    private synchronized AsyncBlobStore getBlobStore( Map<String, Object> exportInfo ) {
+        if ( context != null ) {
+            return context.getAsyncBlobStore();
+        }
+
         /*won't need any of the properties as I have the export info*/
         Map<String,Object> properties = ( Map<String, Object> ) exportInfo.get( "properties" );
 
@@ -84,25 +115,14 @@ public class S3ExportImpl implements S3Export {
         }
         catch ( Exception ex ) {
             logger.error( "Could not start binary service: {}", ex.getMessage() );
-            return;
+            context.close();
+            throw new RuntimeException( "Unable to create bucket " + bucketName, ex );
         }
 
-        try {
-            AsyncBlobStore blobStore = context.getAsyncBlobStore();
-            BlobBuilder blobBuilder =
-                    blobStore.blobBuilder( fn ).payload( ephemeral ).calculateMD5().contentType( "application/json" );
-
-
-            Blob blob = blobBuilder.build();
-
-            ListenableFuture<String> futureETag = blobStore.putBlob( bucketName, blob, PutOptions.Builder.multipart() );
-
+        this.bucketName = bucketName;
+        this.context = context;
 
-            logger.info( "Uploaded file etag=" + futureETag.get() );
-        }
-        catch ( Exception e ) {
-            logger.error( "Error uploading to blob store", e );
-        }
+        return context.getAsyncBlobStore();
     }
 
     @Override
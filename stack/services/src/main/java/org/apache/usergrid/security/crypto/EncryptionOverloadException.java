@@ -0,0 +1,32 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.security.crypto;
+
+
+/**
+ * Thrown when a password can't be hashed or verified because the crypto worker pool and its queue are full.  The
+ * request should be retried later, the REST tier answers it with a 429.
+ */
+public class EncryptionOverloadException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public EncryptionOverloadException( String message ) {
+        super( message );
+    }
+}
@@ -22,19 +22,43 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 import org.apache.usergrid.persistence.CredentialsInfo;
 import org.apache.usergrid.security.crypto.command.EncryptionCommand;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
 import static org.apache.commons.codec.binary.Base64.encodeBase64URLSafeString;
 
 
-/** @author tnine */
+/**
+ * Hashes and verifies secrets on a dedicated, bounded worker pool.  Password hashes are deliberately expensive, so
+ * running them on the request threads would let a burst of logins take every container thread.  Once the pool and its
+ * queue are full further requests fail fast with an {@link EncryptionOverloadException}.
+ *
+ * @author tnine
+ */
 @Service("encryptionService")
 public class EncryptionServiceImpl implements EncryptionService {
 
@@ -44,6 +68,21 @@ public class EncryptionServiceImpl implements EncryptionService {
     private List<EncryptionCommand> inputCommands;
     private EncryptionCommand defaultCommand;
 
+    private final Counter rejected = Metrics.newCounter( EncryptionServiceImpl.class, "rejected" );
+    private final Timer queueTimer =
+            Metrics.newTimer( EncryptionServiceImpl.class, "queue", TimeUnit.MILLISECONDS, TimeUnit.SECONDS );
+    private final Map<String, Timer> commandTimers = new ConcurrentHashMap<String, Timer>();
+
+    /** The number of hashing threads, 0 for one per processor */
+    @Value("${usergrid.crypto.threads:0}")
+    private int threads = 0;
+
+    /** The number of hashes that may wait for a thread before requests are rejected */
+    @Value("${usergrid.crypto.queue:100}")
+    private int queueSize = 100;
+
+    private ThreadPoolExecutor executor;
+
 
     /*
      * (non-Javadoc)
@@ -54,7 +93,8 @@ public class EncryptionServiceImpl implements EncryptionService {
      * java.util.UUID)
      */
     @Override
-    public boolean verify( String inputSecret, CredentialsInfo creds, UUID userId, UUID applicationId ) {
+    public boolean verify( String inputSecret, final CredentialsInfo creds, final UUID userId,
+                           final UUID applicationId ) {
 
 
         String[] storedCommands = null;
@@ -74,11 +114,10 @@ public class EncryptionServiceImpl implements EncryptionService {
             storedCommands = new String[] { creds.getCipher() };
         }
 
-        byte[] encrypted = inputSecret.getBytes( UTF8 );
+        final EncryptionCommand[] chain = new EncryptionCommand[storedCommands.length];
 
-        // run the bytes through each command sequentially to generate our
-        // acceptable hashcode
-        for ( String commandName : storedCommands ) {
+        for ( int i = 0; i < storedCommands.length; i++ ) {
+            String commandName = storedCommands[i];
             EncryptionCommand command = commands.get( commandName );
 
             // verify we have a command to load
@@ -89,11 +128,32 @@ public class EncryptionServiceImpl implements EncryptionService {
                         commandName ) );
             }
 
-            encrypted = command.auth( encrypted, creds, userId, applicationId );
+            chain[i] = command;
         }
 
+        final byte[] input = inputSecret.getBytes( UTF8 );
 
-        return encode( encrypted ).equals( creds.getSecret() );
+        return execute( new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                byte[] encrypted = input;
+
+                // run the bytes through each command sequentially to generate our
+                // acceptable hashcode
+                for ( EncryptionCommand command : chain ) {
+                    TimerContext timer = getTimer( "verify", command ).time();
+
+                    try {
+                        encrypted = command.auth( encrypted, creds, userId, applicationId );
+                    }
+                    finally {
+                        timer.stop();
+                    }
+                }
+
+                return encode( encrypted ).equals( creds.getSecret() );
+            }
+        } );
     }
 
 
@@ -137,6 +197,45 @@ public class EncryptionServiceImpl implements EncryptionService {
         defaultCommand = commands.get( defaultCommandName );
 
         Assert.notNull( defaultCommand, "Encryption command for type " + defaultCommandName + " must be present" );
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+        executor = new ThreadPoolExecutor( poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( Math.max( 1, queueSize ) ),
+                new ThreadFactoryBuilder().setNameFormat( "crypto-%d" ).setDaemon( true ).build() );
+
+        Metrics.newGauge( EncryptionServiceImpl.class, "queue_depth", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return getQueueDepth();
+            }
+        } );
+    }
+
+
+    /** The number of hashes waiting for a thread */
+    int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+
+    @PreDestroy
+    public void destroy() {
+        if ( executor != null ) {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /** Set the number of hashing threads, 0 for one per processor.  Must be set before init */
+    public void setThreads( int threads ) {
+        this.threads = threads;
+    }
+
+
+    /** Set the number of hashes that may wait for a thread before requests are rejected.  Must be set before init */
+    public void setQueueSize( int queueSize ) {
+        this.queueSize = queueSize;
     }
 
 
@@ -172,14 +271,29 @@ public class EncryptionServiceImpl implements EncryptionService {
      * (java.lang.String, org.apache.usergrid.persistence.entities.User, java.util.UUID)
      */
     @Override
-    public CredentialsInfo defaultEncryptedCredentials( String input, UUID userId, UUID applicationId ) {
-        CredentialsInfo credentials = new CredentialsInfo();
+    public CredentialsInfo defaultEncryptedCredentials( String input, final UUID userId, final UUID applicationId ) {
+        final CredentialsInfo credentials = new CredentialsInfo();
         credentials.setRecoverable( false );
         credentials.setEncrypted( true );
         credentials.setCryptoChain( new String[] { defaultCommand.getName() } );
 
-        credentials.setSecret(
-                encode( defaultCommand.hash( input.getBytes( UTF8 ), credentials, userId, applicationId ) ) );
+        final byte[] bytes = input.getBytes( UTF8 );
+
+        byte[] hashed = execute( new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                TimerContext timer = getTimer( "hash", defaultCommand ).time();
+
+                try {
+                    return defaultCommand.hash( bytes, credentials, userId, applicationId );
+                }
+                finally {
+                    timer.stop();
+                }
+            }
+        } );
+
+        credentials.setSecret( encode( hashed ) );
 
         return credentials;
     }
@@ -206,4 +320,53 @@ public class EncryptionServiceImpl implements EncryptionService {
     protected String encode( byte[] bytes ) {
         return encodeBase64URLSafeString( bytes );
     }
+
+
+    /** Run the task on the worker pool and wait for its result, failing fast if the pool is saturated */
+    private <T> T execute( final Callable<T> task ) {
+        final TimerContext queued = queueTimer.time();
+
+        Future<T> future;
+
+        try {
+            future = executor.submit( new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    queued.stop();
+                    return task.call();
+                }
+            } );
+        }
+        catch ( RejectedExecutionException e ) {
+            rejected.inc();
+            throw new EncryptionOverloadException( "Too many concurrent authentication requests, try again later" );
+        }
+
+        try {
+            return future.get();
+        }
+        catch ( InterruptedException e ) {
+            future.cancel( true );
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted while waiting for the hash", e );
+        }
+        catch ( ExecutionException e ) {
+            throw Throwables.propagate( e.getCause() );
+        }
+    }
+
+
+    /** Get the timer of the operation with the command, timers are scoped by the command name */
+    private Timer getTimer( String operation, EncryptionCommand command ) {
+        String key = operation + ":" + command.getName();
+        Timer timer = commandTimers.get( key );
+
+        if ( timer == null ) {
+            timer = Metrics.newTimer( EncryptionServiceImpl.class, operation, command.getName(), TimeUnit.MILLISECONDS,
+                    TimeUnit.SECONDS );
+            commandTimers.put( key, timer );
+        }
+
+        return timer;
+    }
 }
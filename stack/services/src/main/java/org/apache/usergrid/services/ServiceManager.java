@@ -121,6 +121,11 @@ public class ServiceManager {
     }
 
 
+    public ServiceManagerFactory getServiceManagerFactory() {
+        return smf;
+    }
+
+
     private void setServicePackagePrefixes( String packages ) {
         List<String> packagePrefixes = new ArrayList<String>();
         Collections.addAll(packagePrefixes, package_prefixes);
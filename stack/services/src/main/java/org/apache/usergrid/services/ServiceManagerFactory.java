@@ -20,6 +20,8 @@ package org.apache.usergrid.services;
 import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
@@ -31,6 +33,8 @@ import org.apache.usergrid.mq.QueueManagerFactory;
 import org.apache.usergrid.persistence.EntityManager;
 import org.apache.usergrid.persistence.EntityManagerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 
 public class ServiceManagerFactory implements ApplicationContextAware {
 
@@ -45,6 +49,9 @@ public class ServiceManagerFactory implements ApplicationContextAware {
     private List<ServiceExecutionEventListener> eventListeners;
     private List<ServiceCollectionEventListener> collectionListeners;
 
+    private ExecutorService fanOutExecutor;
+    private int fanOutParallelism = 8;
+
 
     public ServiceManagerFactory( EntityManagerFactory emf, Properties properties, SchedulerService schedulerService,
                                   LockManager lockManager, QueueManagerFactory qmf ) {
@@ -129,4 +136,40 @@ public class ServiceManagerFactory implements ApplicationContextAware {
     public LockManager getLockManager() {
         return lockManager;
     }
+
+
+    /**
+     * The number of threads shared by all requests to execute the sibling requests of a path that fans out, such as
+     * /users/me/following/activities.  0 executes them serially on the request thread.
+     */
+    public void setFanOutThreads( int fanOutThreads ) {
+        if ( fanOutThreads > 0 ) {
+            fanOutExecutor = Executors.newFixedThreadPool( fanOutThreads,
+                    new ThreadFactoryBuilder().setNameFormat( "service-fanout-%d" ).setDaemon( true ).build() );
+        }
+    }
+
+
+    /** @return the pool executing fan out requests or null if fan outs are serial */
+    public ExecutorService getFanOutExecutor() {
+        return fanOutExecutor;
+    }
+
+
+    /** The maximum number of sibling requests of a single request executed at the same time */
+    public void setFanOutParallelism( int fanOutParallelism ) {
+        this.fanOutParallelism = fanOutParallelism;
+    }
+
+
+    public int getFanOutParallelism() {
+        return fanOutParallelism;
+    }
+
+
+    public void destroy() {
+        if ( fanOutExecutor != null ) {
+            fanOutExecutor.shutdownNow();
+        }
+    }
 }
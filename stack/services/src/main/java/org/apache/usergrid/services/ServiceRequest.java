@@ -20,17 +20,27 @@ package org.apache.usergrid.services;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.usergrid.persistence.EntityRef;
 import org.apache.usergrid.persistence.Query;
+import org.apache.usergrid.persistence.cassandra.util.RequestCost;
+import org.apache.usergrid.security.shiro.utils.SubjectUtils;
 import org.apache.usergrid.services.ServiceParameter.QueryParameter;
 import org.apache.usergrid.services.ServiceResults.Type;
 
 import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
 
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 import static org.apache.usergrid.utils.ListUtils.isEmpty;
@@ -41,6 +51,9 @@ public class ServiceRequest {
 
     private static final Logger logger = LoggerFactory.getLogger( ServiceRequest.class );
 
+    /** Set while a thread executes a fan out request, so nested fan outs run serially instead of waiting on the pool */
+    private static final ThreadLocal<Boolean> FAN_OUT_THREAD = new ThreadLocal<Boolean>();
+
     public static long count = 0;
 
     private final long id = count++;
@@ -242,11 +255,11 @@ public class ServiceRequest {
 
         List<ServiceRequest> requests = previousResults.getNextRequests();
 
-        if ( returnsTree ) {
+        List<ServiceResults> results = executeAll( requests, previousResults );
 
-            for ( ServiceRequest request : requests ) {
+        if ( returnsTree ) {
 
-                ServiceResults rs = request.execute( previousResults );
+            for ( ServiceResults rs : results ) {
                 if ( rs != null ) {
                     previousResults.setChildResults( rs );
                 }
@@ -257,9 +270,7 @@ public class ServiceRequest {
         else {
             ServiceResults aggregate_results = null;
 
-            for ( ServiceRequest request : requests ) {
-
-                ServiceResults rs = request.execute( previousResults );
+            for ( ServiceResults rs : results ) {
                 if ( rs != null ) {
                     if ( aggregate_results == null ) {
                         aggregate_results = rs;
@@ -275,6 +286,112 @@ public class ServiceRequest {
     }
 
 
+    /**
+     * Execute the sibling requests, returning their results in the order of the requests.  Sibling reads run on the
+     * fan out pool of the service manager factory, at most {@link ServiceManagerFactory#getFanOutParallelism()} at a
+     * time.  Writes, and fan outs reached from a fan out thread, run serially on the calling thread.
+     */
+    private List<ServiceResults> executeAll( List<ServiceRequest> requests, ServiceResults previousResults )
+            throws Exception {
+
+        ServiceManagerFactory smf = services.getServiceManagerFactory();
+        ExecutorService executor = smf != null ? smf.getFanOutExecutor() : null;
+
+        if ( executor == null || action != ServiceAction.GET || requests.size() < 2 || FAN_OUT_THREAD.get() != null ) {
+
+            List<ServiceResults> results = new ArrayList<ServiceResults>( requests.size() );
+
+            for ( ServiceRequest request : requests ) {
+                results.add( request.execute( previousResults ) );
+            }
+
+            return results;
+        }
+
+        ServiceResults[] results = new ServiceResults[requests.size()];
+
+        CompletionService<Void> completionService = new ExecutorCompletionService<Void>( executor );
+        List<Future<Void>> futures = new ArrayList<Future<Void>>( requests.size() );
+
+        Subject subject = SubjectUtils.getSubject();
+        int parallelism = Math.max( smf.getFanOutParallelism(), 1 );
+        int submitted = 0;
+
+        try {
+            for ( int completed = 0; completed < requests.size(); completed++ ) {
+
+                while ( submitted < requests.size() && submitted - completed < parallelism ) {
+                    futures.add( completionService.submit(
+                            fanOutTask( subject, requests.get( submitted ).copy(), submitted, results,
+                                    previousResults ) ) );
+                    submitted++;
+                }
+
+                completionService.take().get();
+            }
+        }
+        catch ( ExecutionException e ) {
+            Throwable cause = e.getCause();
+            if ( cause instanceof Exception ) {
+                throw ( Exception ) cause;
+            }
+            if ( cause instanceof Error ) {
+                throw ( Error ) cause;
+            }
+            throw e;
+        }
+        finally {
+            for ( Future<Void> future : futures ) {
+                future.cancel( true );
+            }
+        }
+
+        return Arrays.asList( results );
+    }
+
+
+    /** Create the task executing a sibling request on a fan out thread as the current subject */
+    private static Callable<Void> fanOutTask( Subject subject, final ServiceRequest request, final int index,
+                                              final ServiceResults[] results, final ServiceResults previousResults ) {
+        final RequestCost cost = RequestCost.current();
+        Callable<Void> task = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                FAN_OUT_THREAD.set( Boolean.TRUE );
+                RequestCost.attach( cost );
+                try {
+                    results[index] = request.execute( previousResults );
+                }
+                finally {
+                    FAN_OUT_THREAD.remove();
+                    RequestCost.detach();
+                }
+                return null;
+            }
+        };
+
+        return subject != null ? subject.associateWith( task ) : task;
+    }
+
+
+    /**
+     * Copy of this request with its own query parameters, since services modify the query of the request they
+     * execute
+     */
+    private ServiceRequest copy() {
+        List<ServiceParameter> copy = new ArrayList<ServiceParameter>( parameters.size() );
+        for ( ServiceParameter parameter : parameters ) {
+            if ( parameter instanceof QueryParameter ) {
+                parameter = new QueryParameter( new Query( parameter.getQuery() ) );
+            }
+            copy.add( parameter );
+        }
+
+        return new ServiceRequest( services, action, parent, owner, path, childPath, serviceName, copy, payload,
+                returnsTree );
+    }
+
+
     public List<ServiceParameter> getParameters() {
         return parameters;
     }
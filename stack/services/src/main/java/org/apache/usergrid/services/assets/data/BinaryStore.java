@@ -35,7 +35,7 @@ public interface BinaryStore {
     /** read the entity's file data from the store */
     InputStream read( UUID appId, Entity entity ) throws IOException;
 
-    /** read partial data from the store */
+    /** read up to length bytes of the entity's file data from the store, starting at offset */
     InputStream read( UUID appId, Entity entity, long offset, long length ) throws IOException;
 
     /** delete the entity data from the store. */
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.services.assets.data;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Reads a byte range of a file with positional channel reads, so a range never reads the bytes before it.  Callers
+ * that hold a file or socket channel can write the range with {@link #transferTo(WritableByteChannel)}, which lets
+ * the platform move the bytes without copying them through the heap.  Other outputs are copied through a buffer.
+ */
+public class FileRangeInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FileChannel channel;
+    private long position;
+    private long remaining;
+
+
+    /**
+     * @param file The file to read
+     * @param offset The first byte to read
+     * @param length The maximum number of bytes to read.  Ranges past the end of the file are truncated
+     */
+    public FileRangeInputStream( File file, long offset, long length ) throws IOException {
+        this.channel = new RandomAccessFile( file, "r" ).getChannel();
+        this.position = Math.min( Math.max( offset, 0 ), channel.size() );
+        this.remaining = Math.max( Math.min( length, channel.size() - position ), 0 );
+    }
+
+
+    /** The number of bytes left in the range */
+    public long getRemaining() {
+        return remaining;
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read( b, 0, 1 ) < 0 ? -1 : b[0] & 0xff;
+    }
+
+
+    @Override
+    public int read( byte[] b, int off, int len ) throws IOException {
+        if ( remaining <= 0 ) {
+            return -1;
+        }
+
+        if ( len == 0 ) {
+            return 0;
+        }
+
+        int read = channel.read( ByteBuffer.wrap( b, off, ( int ) Math.min( len, remaining ) ), position );
+
+        if ( read < 0 ) {
+            remaining = 0;
+            return -1;
+        }
+
+        position += read;
+        remaining -= read;
+
+        return read;
+    }
+
+
+    @Override
+    public long skip( long n ) throws IOException {
+        long skipped = Math.max( Math.min( n, remaining ), 0 );
+        position += skipped;
+        remaining -= skipped;
+        return skipped;
+    }
+
+
+    @Override
+    public int available() throws IOException {
+        return ( int ) Math.min( remaining, Integer.MAX_VALUE );
+    }
+
+
+    /**
+     * Write the rest of the range to the output and close this stream.  File outputs are written through their
+     * channel, any other output is copied through a buffer
+     *
+     * @return The number of bytes written
+     */
+    public long transferTo( OutputStream out ) throws IOException {
+        if ( out instanceof FileOutputStream ) {
+            return transferTo( ( ( FileOutputStream ) out ).getChannel() );
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        long written = 0;
+
+        try {
+            int read;
+
+            while ( ( read = read( buffer, 0, buffer.length ) ) > 0 ) {
+                out.write( buffer, 0, read );
+                written += read;
+            }
+        }
+        finally {
+            close();
+        }
+
+        return written;
+    }
+
+
+    /**
+     * Write the rest of the range to the channel with {@link FileChannel#transferTo(long, long,
+     * WritableByteChannel)} and close this stream.  Zero copy when the target is a file or socket channel
+     *
+     * @return The number of bytes written
+     */
+    public long transferTo( WritableByteChannel target ) throws IOException {
+        long written = 0;
+
+        try {
+            while ( remaining > 0 ) {
+                long transferred = channel.transferTo( position, remaining, target );
+
+                //the file was truncated underneath us
+                if ( transferred <= 0 ) {
+                    break;
+                }
+
+                position += transferred;
+                remaining -= transferred;
+                written += transferred;
+            }
+        }
+        finally {
+            close();
+        }
+
+        return written;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -17,42 +17,39 @@
 package org.apache.usergrid.services.assets.data;
 
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import org.jclouds.ContextBuilder;
-import org.jclouds.blobstore.AsyncBlobStore;
+import org.jclouds.aws.s3.AWSS3ApiMetadata;
+import org.jclouds.aws.s3.AWSS3Client;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.BlobBuilder;
 import org.jclouds.blobstore.options.GetOptions;
-import org.jclouds.blobstore.options.PutOptions;
 import org.jclouds.http.config.JavaUrlHttpCommandExecutorServiceModule;
+import org.jclouds.io.Payload;
+import org.jclouds.io.Payloads;
 import org.jclouds.logging.log4j.config.Log4JLoggingModule;
 import org.jclouds.netty.config.NettyPayloadModule;
+import org.jclouds.s3.domain.ObjectMetadataBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.apache.usergrid.persistence.Entity;
-import org.apache.usergrid.persistence.EntityManager;
-import org.apache.usergrid.persistence.EntityManagerFactory;
 
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 import com.google.common.collect.ImmutableSet;
-import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Module;
 
 
@@ -68,10 +65,7 @@ public class S3BinaryStore implements BinaryStore {
     private String accessId;
     private String secretKey;
     private String bucketName;
-    private ExecutorService executor = Executors.newFixedThreadPool( 10 );
-
-    @Autowired
-    private EntityManagerFactory emf;
+    private int partSize = ( int ) FIVE_MB;
 
 
     public S3BinaryStore( String accessId, String secretKey, String bucketName ) {
@@ -101,28 +95,52 @@ public class S3BinaryStore implements BinaryStore {
     }
 
 
+    /** The size of each part of a multipart upload, also the most an upload holds in memory.  At least 5MB */
+    public void setPartSize( int partSize ) {
+        this.partSize = Math.max( partSize, ( int ) FIVE_MB );
+    }
+
+
+    /**
+     * Uploads the data in parts of {@link #setPartSize(int)} bytes.  Data that fits in a single part is uploaded
+     * with a single put, larger data is streamed with a multipart upload, one part at a time, so at most one part is
+     * held in memory per upload.
+     */
     @Override
     public void write( final UUID appId, final Entity entity, InputStream inputStream ) throws IOException {
 
         String uploadFileName = AssetUtils.buildAssetKey( appId, entity );
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        long written = IOUtils.copyLarge( inputStream, baos, 0, FIVE_MB );
-        byte[] data = baos.toByteArray();
+
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance( "MD5" );
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            throw new IOException( e );
+        }
+
+        InputStream digestStream = new DigestInputStream( inputStream, md5 );
+
+        byte[] part = new byte[partSize];
+        int read = IOUtils.read( digestStream, part );
 
         final Map<String, Object> fileMetadata = AssetUtils.getFileMetadata( entity );
         fileMetadata.put( AssetUtils.LAST_MODIFIED, System.currentTimeMillis() );
 
-        String mimeType = AssetMimeHandler.get().getMimeType( entity, data );
+        String mimeType = AssetMimeHandler.get().getMimeType( entity, partData( part, read ) );
 
-        if ( written < FIVE_MB ) { // total smaller than 5mb
+        Object contentDisposition = fileMetadata.get( AssetUtils.CONTENT_DISPOSITION );
+
+        if ( read < partSize ) { // fits in a single part
 
             BlobStore blobStore = getContext().getBlobStore();
             BlobBuilder.PayloadBlobBuilder bb =
-                    blobStore.blobBuilder( uploadFileName ).payload( data ).calculateMD5().contentType( mimeType );
+                    blobStore.blobBuilder( uploadFileName ).payload( partData( part, read ) ).calculateMD5()
+                             .contentType( mimeType );
 
-            fileMetadata.put( AssetUtils.CONTENT_LENGTH, written );
-            if ( fileMetadata.get( AssetUtils.CONTENT_DISPOSITION ) != null ) {
-                bb.contentDisposition( fileMetadata.get( AssetUtils.CONTENT_DISPOSITION ).toString() );
+            fileMetadata.put( AssetUtils.CONTENT_LENGTH, ( long ) read );
+            if ( contentDisposition != null ) {
+                bb.contentDisposition( contentDisposition.toString() );
             }
             final Blob blob = bb.build();
 
@@ -131,57 +149,69 @@ public class S3BinaryStore implements BinaryStore {
 
             String eTag = blobStore.putBlob( bucketName, blob );
             fileMetadata.put( AssetUtils.E_TAG, eTag );
+
+            return;
         }
-        else { // bigger than 5mb... dump 5 mb tmp files and upload from them
-
-            // todo: yes, AsyncBlobStore is deprecated, but there appears to be no replacement yet
-            final AsyncBlobStore blobStore = getContext().getAsyncBlobStore();
-
-            File tempFile = File.createTempFile( entity.getUuid().toString(), "tmp" );
-            tempFile.deleteOnExit();
-            OutputStream os = null;
-            try {
-                os = new BufferedOutputStream( new FileOutputStream( tempFile.getAbsolutePath() ) );
-                os.write( data );
-                written += IOUtils.copyLarge( inputStream, os, 0, ( FileUtils.ONE_GB * 5 ) );
-            }
-            finally {
-                IOUtils.closeQuietly( os );
+
+        AWSS3Client s3 = getContext().unwrap( AWSS3ApiMetadata.CONTEXT_TOKEN ).getApi();
+
+        ObjectMetadataBuilder objectMetadata =
+                ObjectMetadataBuilder.create().key( uploadFileName ).contentType( mimeType );
+        if ( contentDisposition != null ) {
+            objectMetadata.contentDisposition( contentDisposition.toString() );
+        }
+
+        String uploadId = s3.initiateMultipartUpload( bucketName, objectMetadata.build() );
+
+        Map<Integer, String> parts = new TreeMap<Integer, String>();
+        long written = 0;
+
+        try {
+            int partNumber = 1;
+
+            while ( read > 0 ) {
+                Payload payload = Payloads.newByteArrayPayload( partData( part, read ) );
+                payload.getContentMetadata().setContentLength( ( long ) read );
+
+                parts.put( partNumber, s3.uploadPart( bucketName, uploadFileName, partNumber, uploadId, payload ) );
+
+                written += read;
+                partNumber++;
+
+                read = IOUtils.read( digestStream, part );
             }
 
-            BlobBuilder.PayloadBlobBuilder bb =
-                    blobStore.blobBuilder( uploadFileName ).payload( tempFile ).calculateMD5().contentType( mimeType );
+            String eTag = s3.completeMultipartUpload( bucketName, uploadFileName, uploadId, parts );
 
             fileMetadata.put( AssetUtils.CONTENT_LENGTH, written );
-            if ( fileMetadata.get( AssetUtils.CONTENT_DISPOSITION ) != null ) {
-                bb.contentDisposition( fileMetadata.get( AssetUtils.CONTENT_DISPOSITION ).toString() );
-            }
-            final Blob blob = bb.build();
+            fileMetadata.put( AssetUtils.CHECKSUM, Hex.encodeHexString( md5.digest() ) );
+            fileMetadata.put( AssetUtils.E_TAG, eTag );
+        }
+        catch ( IOException e ) {
+            abort( s3, uploadFileName, uploadId );
+            throw e;
+        }
+        catch ( RuntimeException e ) {
+            abort( s3, uploadFileName, uploadId );
+            throw e;
+        }
+    }
+
 
-            final File finalTempFile = tempFile;
-            final ListenableFuture<String> future =
-                    blobStore.putBlob( bucketName, blob, PutOptions.Builder.multipart() );
-
-            Runnable listener = new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        String eTag = future.get();
-                        fileMetadata.put( AssetUtils.E_TAG, eTag );
-                        EntityManager em = emf.getEntityManager( appId );
-                        em.update( entity );
-                        finalTempFile.delete();
-                    }
-                    catch ( Exception e ) {
-                        LOG.error( "error uploading", e );
-                    }
-                    if ( finalTempFile != null && finalTempFile.exists() ) {
-                        finalTempFile.delete();
-                    }
-                }
-            };
-            future.addListener( listener, executor );
+    /** Abort a failed multipart upload so its parts aren't kept, and billed, by S3 */
+    private void abort( AWSS3Client s3, String uploadFileName, String uploadId ) {
+        try {
+            s3.abortMultipartUpload( bucketName, uploadFileName, uploadId );
         }
+        catch ( RuntimeException e ) {
+            LOG.error( "Unable to abort multipart upload " + uploadId + " of " + uploadFileName, e );
+        }
+    }
+
+
+    /** The bytes read into the part buffer.  Only the last part of an upload is copied */
+    private static byte[] partData( byte[] part, int read ) {
+        return read == part.length ? part : Arrays.copyOf( part, read );
     }
 
 
@@ -193,7 +223,8 @@ public class S3BinaryStore implements BinaryStore {
             blob = blobStore.getBlob( bucketName, AssetUtils.buildAssetKey( appId, entity ) );
         }
         else {
-            GetOptions options = GetOptions.Builder.range( offset, length );
+            // the range end is inclusive
+            GetOptions options = GetOptions.Builder.range( offset, offset + length - 1 );
             blob = blobStore.getBlob( bucketName, AssetUtils.buildAssetKey( appId, entity ), options );
         }
         if ( blob == null || blob.getPayload() == null ) {
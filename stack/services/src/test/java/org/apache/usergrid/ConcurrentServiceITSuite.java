@@ -39,6 +39,7 @@ import org.apache.usergrid.services.ConnectionsServiceIT;
 import org.apache.usergrid.services.GroupServiceIT;
 import org.apache.usergrid.services.RolesServiceIT;
 import org.apache.usergrid.services.ServiceFactoryIT;
+import org.apache.usergrid.services.ServiceFanOutIT;
 import org.apache.usergrid.services.ServiceInvocationIT;
 import org.apache.usergrid.services.ServiceRequestIT;
 import org.apache.usergrid.services.UsersServiceIT;
@@ -51,7 +52,7 @@ import org.apache.usergrid.services.UsersServiceIT;
                 CollectionServiceIT.class, ConnectionsServiceIT.class, ManagementServiceIT.class, ExportServiceIT.class ,EmailFlowIT.class,
                 FacebookProviderIT.class, GroupServiceIT.class, OrganizationIT.class, PingIdentityProviderIT.class,
                 RolesServiceIT.class, RoleIT.class, ServiceRequestIT.class, ServiceFactoryIT.class,
-                ServiceInvocationIT.class, TokenServiceIT.class, UsersServiceIT.class
+                ServiceFanOutIT.class, ServiceInvocationIT.class, TokenServiceIT.class, UsersServiceIT.class
         })
 @Concurrent()
 public class ConcurrentServiceITSuite {
@@ -36,6 +36,7 @@ import org.apache.usergrid.services.ConnectionsServiceIT;
 import org.apache.usergrid.services.GroupServiceIT;
 import org.apache.usergrid.services.RolesServiceIT;
 import org.apache.usergrid.services.ServiceFactoryIT;
+import org.apache.usergrid.services.ServiceFanOutIT;
 import org.apache.usergrid.services.ServiceInvocationIT;
 import org.apache.usergrid.services.ServiceRequestIT;
 import org.apache.usergrid.services.UsersServiceIT;
@@ -48,7 +49,7 @@ import org.apache.usergrid.services.UsersServiceIT;
                 CollectionServiceIT.class, ConnectionsServiceIT.class, ManagementServiceIT.class, EmailFlowIT.class,
                 FacebookProviderIT.class, GroupServiceIT.class, OrganizationIT.class, PingIdentityProviderIT.class,
                 RoleIT.class, RolesServiceIT.class, ServiceRequestIT.class, ServiceFactoryIT.class,
-                ServiceInvocationIT.class, UsersServiceIT.class
+                ServiceFanOutIT.class, ServiceInvocationIT.class, UsersServiceIT.class
         })
 @Concurrent()
 public class ServiceITSuite {
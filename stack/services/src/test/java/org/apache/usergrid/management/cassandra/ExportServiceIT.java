@@ -19,13 +19,19 @@ package org.apache.usergrid.management.cassandra;
 
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.jclouds.ContextBuilder;
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
@@ -55,18 +61,22 @@ import org.apache.usergrid.management.OrganizationInfo;
 import org.apache.usergrid.management.UserInfo;
 import org.apache.usergrid.management.export.ExportJob;
 import org.apache.usergrid.management.export.ExportService;
+import org.apache.usergrid.management.export.ExportServiceImpl;
 import org.apache.usergrid.management.export.S3Export;
 import org.apache.usergrid.management.export.S3ExportImpl;
 import org.apache.usergrid.persistence.Entity;
 import org.apache.usergrid.persistence.EntityManager;
+import org.apache.usergrid.persistence.entities.Export;
 import org.apache.usergrid.persistence.entities.JobData;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Module;
 
+import static org.apache.usergrid.persistence.cassandra.CassandraService.MANAGEMENT_APPLICATION_ID;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -974,6 +984,133 @@ public class ExportServiceIT {
         blobStore.deleteContainer( bucketName );
     }
 
+    /** Runs a collection export through the read and write pools into gzipped part files of the local provider */
+    @Test
+    public void testExportToLocalDirectory() throws Exception {
+        int entitiesToCreate = 5;
+
+        EntityManager em = setup.getEmf().getEntityManager( applicationId );
+
+        for ( int i = 0; i < entitiesToCreate; i++ ) {
+            Map<String, Object> properties = new LinkedHashMap<String, Object>();
+            properties.put( "name", "part" + i );
+            em.create( "localpart", properties );
+        }
+
+        File directory = new File( FileUtils.getTempDirectory(), "export-" + UUID.randomUUID() );
+        File requested = new File( FileUtils.getTempDirectory(), "export-requested-" + UUID.randomUUID() );
+
+        ExportServiceImpl exportService = newExportService();
+        exportService.setLocalDirectory( directory.getPath() );
+        exportService.setPartSize( 2 );
+
+        HashMap<String, Object> payload = localPayloadBuilder( requested );
+        payload.put( "organizationId", organization.getUuid() );
+        payload.put( "applicationId", applicationId );
+        payload.put( "collectionName", "localparts" );
+
+        UUID exportUUID = createExport();
+
+        JobExecution jobExecution = mock( JobExecution.class );
+        when( jobExecution.getJobData() ).thenReturn( jobDataCreator( payload, exportUUID, null ) );
+
+        try {
+            exportService.doExport( jobExecution );
+
+            assertEquals( "FINISHED", exportService.getState( exportUUID ) );
+
+            //the path of the request is ignored
+            assertFalse( requested.exists() );
+
+            Collection<File> parts = FileUtils.listFiles( directory, new String[] { "gz" }, true );
+
+            assertEquals( 3, parts.size() );
+
+            JSONParser parser = new JSONParser();
+            int exported = 0;
+
+            for ( File part : parts ) {
+                assertTrue( part.getCanonicalPath().startsWith( directory.getCanonicalPath() ) );
+
+                InputStream in = new GZIPInputStream( new FileInputStream( part ) );
+
+                try {
+                    exported += ( ( org.json.simple.JSONArray ) parser.parse( new InputStreamReader( in, "UTF-8" ) ) )
+                            .size();
+                }
+                finally {
+                    in.close();
+                }
+            }
+
+            assertEquals( entitiesToCreate, exported );
+        }
+        finally {
+            FileUtils.deleteQuietly( directory );
+            FileUtils.deleteQuietly( requested );
+        }
+    }
+
+
+    @Test
+    public void testLocalExportRequiresConfiguredDirectory() throws Exception {
+        File requested = new File( FileUtils.getTempDirectory(), "export-requested-" + UUID.randomUUID() );
+
+        ExportServiceImpl exportService = newExportService();
+
+        HashMap<String, Object> payload = localPayloadBuilder( requested );
+        payload.put( "organizationId", organization.getUuid() );
+        payload.put( "applicationId", applicationId );
+
+        UUID exportUUID = createExport();
+
+        JobExecution jobExecution = mock( JobExecution.class );
+        when( jobExecution.getJobData() ).thenReturn( jobDataCreator( payload, exportUUID, null ) );
+
+        exportService.doExport( jobExecution );
+
+        assertEquals( "FAILED", exportService.getState( exportUUID ) );
+        assertFalse( requested.exists() );
+    }
+
+
+    /** Create the export entity without scheduling a job, so only the test runs the export */
+    private UUID createExport() throws Exception {
+        EntityManager em = setup.getEmf().getEntityManager( MANAGEMENT_APPLICATION_ID );
+
+        if ( !em.getApplicationCollections().contains( "exports" ) ) {
+            em.createApplicationCollection( "exports" );
+        }
+
+        return em.create( new Export() ).getUuid();
+    }
+
+
+    /** An export service of our own, so the local directory and part size don't leak into the other tests */
+    private ExportServiceImpl newExportService() {
+        ExportServiceImpl exportService = new ExportServiceImpl();
+        exportService.setEmf( setup.getEmf() );
+        exportService.setManagementService( setup.getMgmtSvc() );
+        return exportService;
+    }
+
+
+    /** A payload for the local storage provider that asks for a directory of its own */
+    private HashMap<String, Object> localPayloadBuilder( File requested ) {
+        HashMap<String, Object> payload = new HashMap<String, Object>();
+        Map<String, Object> properties = new HashMap<String, Object>();
+        Map<String, Object> storage_info = new HashMap<String, Object>();
+        storage_info.put( "path", requested.getPath() );
+
+        properties.put( "storage_provider", "local" );
+        properties.put( "storage_info", storage_info );
+
+        payload.put( "path", "test-organization/test-app" );
+        payload.put( "properties", properties );
+        return payload;
+    }
+
+
     public JobData jobDataCreator(HashMap<String, Object> payload,UUID exportUUID,S3Export s3Export) {
         JobData jobData = new JobData();
 
@@ -18,30 +18,45 @@ package org.apache.usergrid.management.cassandra;
 
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
-import org.apache.commons.io.FileUtils;
+import org.codehaus.jackson.map.ObjectMapper;
 
 import org.apache.usergrid.management.export.S3Export;
 
 
 /**
- * Streams / reads the information written from the export service to a file named "test.json"
+ * Streams / reads the information written from the export service to a file named "test.json".  The gzipped part
+ * files of an export are merged into a single json array so the tests can read the whole export.
  */
 public class MockS3ExportImpl implements S3Export {
     private final String filename;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<Object> entities = new ArrayList<Object>();
 
     public MockS3ExportImpl (String filename) {
         this.filename = filename;
     }
 
     @Override
-    public void copyToS3( File ephemeral, final Map<String,Object> exportInfo, String filename ) {
+    public synchronized void copyToS3( File ephemeral, final Map<String,Object> exportInfo, String filename ) {
 
         File verfiedData = new File( this.filename );
         try {
-            FileUtils.copyFile(ephemeral,verfiedData);
+            InputStream in = new GZIPInputStream( new FileInputStream( ephemeral ) );
+            try {
+                entities.addAll( mapper.readValue( in, List.class ) );
+            }
+            finally {
+                in.close();
+            }
+            mapper.writeValue( verfiedData, entities );
         }
         catch ( IOException e ) {
             e.printStackTrace();
@@ -20,6 +20,7 @@ package org.apache.usergrid.security.crypto;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Test;
 import org.apache.usergrid.persistence.CredentialsInfo;
@@ -28,6 +29,7 @@ import org.apache.usergrid.security.crypto.command.Md5HashCommand;
 import org.apache.usergrid.security.crypto.command.Sha1HashCommand;
 
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 /** @author tnine */
@@ -168,4 +170,87 @@ public class EncryptionServiceImplTest {
 
         assertTrue( "Legacy password verified", result );
     }
+
+
+    /** Once the worker pool and its queue are full verification must fail fast instead of waiting */
+    @Test
+    public void rejectsWhenSaturated() throws Exception {
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        EncryptionCommand blocking = new EncryptionCommand() {
+
+            @Override
+            public byte[] hash( byte[] input, CredentialsInfo info, UUID userId, UUID applicationId ) {
+                return input;
+            }
+
+
+            @Override
+            public String getName() {
+                return "blocking";
+            }
+
+
+            @Override
+            public byte[] auth( byte[] input, CredentialsInfo info, UUID userId, UUID applicationId ) {
+                started.countDown();
+
+                try {
+                    release.await();
+                }
+                catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                }
+
+                return input;
+            }
+        };
+
+        List<EncryptionCommand> commands = new ArrayList<EncryptionCommand>();
+        commands.add( blocking );
+
+        final EncryptionServiceImpl service = new EncryptionServiceImpl();
+        service.setCommands( commands );
+        service.setDefaultCommandName( blocking.getName() );
+        service.setThreads( 1 );
+        service.setQueueSize( 1 );
+        service.init();
+
+        final CredentialsInfo creds = new CredentialsInfo();
+        creds.setCryptoChain( new String[] { blocking.getName() } );
+
+        Runnable verify = new Runnable() {
+            @Override
+            public void run() {
+                service.verify( "secret", creds, null, null );
+            }
+        };
+
+        Thread running = new Thread( verify );
+        running.start();
+        started.await();
+
+        Thread queued = new Thread( verify );
+        queued.start();
+
+        while ( service.getQueueDepth() == 0 ) {
+            Thread.sleep( 10 );
+        }
+
+        try {
+            service.verify( "secret", creds, null, null );
+            fail( "Verification should have been rejected" );
+        }
+        catch ( EncryptionOverloadException e ) {
+            // expected
+        }
+        finally {
+            release.countDown();
+        }
+
+        running.join();
+        queued.join();
+        service.destroy();
+    }
 }
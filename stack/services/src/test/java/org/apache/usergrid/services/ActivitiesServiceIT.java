@@ -109,4 +109,34 @@ public class ActivitiesServiceIT extends AbstractServiceIT {
 
         app.testRequest( ServiceAction.GET, 4, null, "users", userD.getUuid(), "feed" );
     }
+
+
+    @Test
+    public void testFollowingActivities() throws Exception {
+        app.put( "username", "fanout" );
+        app.put( "email", "fanout@usergrid.org" );
+
+        Entity follower = app.testRequest( ServiceAction.POST, 1, "users" ).getEntity();
+        assertNotNull( follower );
+
+        for ( int i = 0; i < 3; i++ ) {
+            app.put( "username", "fanout" + i );
+            app.put( "email", "fanout" + i + "@usergrid.org" );
+
+            Entity followed = app.testRequest( ServiceAction.POST, 1, "users" ).getEntity();
+            assertNotNull( followed );
+
+            app.testRequest( ServiceAction.POST, 1, "users", follower.getUuid(), "connections", "following",
+                    followed.getUuid() );
+
+            app.add( Activity.newActivity( Activity.VERB_POST, null, "fan out " + i, null, followed, null, "tweet",
+                    null, null ) );
+
+            assertNotNull(
+                    app.testRequest( ServiceAction.POST, 1, "users", followed.getUuid(), "activities" ).getEntity() );
+        }
+
+        //one activities request per followed user, merged into a single result
+        app.testRequest( ServiceAction.GET, 3, "users", follower.getUuid(), "following", "activities" );
+    }
 }
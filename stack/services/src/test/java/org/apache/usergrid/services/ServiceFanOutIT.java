@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.services;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.apache.usergrid.cassandra.Concurrent;
+import org.apache.usergrid.persistence.Entity;
+import org.apache.usergrid.persistence.entities.Activity;
+import org.apache.usergrid.services.exceptions.ServiceResourceNotFoundException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import static org.apache.usergrid.services.ServiceParameter.parameters;
+
+
+/** Executes paths that fan out into sibling requests on the fan out pool and compares them to serial execution */
+@Concurrent()
+public class ServiceFanOutIT extends AbstractServiceIT {
+
+    @Test
+    public void mergedInRequestOrder() throws Exception {
+        Entity follower = createUser( "fanoutorder" );
+
+        for ( int i = 0; i < 4; i++ ) {
+            Entity followed = createUser( "fanoutorder" + i );
+            follow( follower, followed );
+            post( followed, "first " + i );
+            post( followed, "second " + i );
+        }
+
+        ServiceManagerFactory smf = fanOutFactory( 4 );
+
+        try {
+            ServiceResults serial = execute( app.getSm(), "users", follower.getUuid(), "following", "activities" );
+            ServiceResults parallel =
+                    execute( smf.getServiceManager( app.getId() ), "users", follower.getUuid(), "following",
+                            "activities" );
+
+            assertEquals( 8, parallel.getEntities().size() );
+            assertEquals( getIds( serial ), getIds( parallel ) );
+        }
+        finally {
+            smf.destroy();
+        }
+    }
+
+
+    @Test
+    public void siblingFailurePropagates() throws Exception {
+        Entity follower = createUser( "fanoutfailure" );
+
+        Entity activity = null;
+
+        for ( int i = 0; i < 3; i++ ) {
+            Entity followed = createUser( "fanoutfailure" + i );
+            follow( follower, followed );
+
+            if ( i == 0 ) {
+                activity = post( followed, "only activity" );
+            }
+        }
+
+        ServiceManagerFactory smf = fanOutFactory( 4 );
+
+        try {
+            //the activity is only a member of the first followed user's activities, the other siblings fail
+            execute( smf.getServiceManager( app.getId() ), "users", follower.getUuid(), "following", "activities",
+                    activity.getUuid() );
+            fail( "The failing siblings should fail the request" );
+        }
+        catch ( ServiceResourceNotFoundException e ) {
+            //the cause of the ExecutionException, as serial execution throws it
+        }
+        finally {
+            smf.destroy();
+        }
+    }
+
+
+    @Test(timeout = 60000)
+    public void nestedFanOutRunsSerially() throws Exception {
+        Entity follower = createUser( "fanoutnested" );
+
+        for ( int i = 0; i < 2; i++ ) {
+            Entity followed = createUser( "fanoutnested" + i );
+            follow( follower, followed );
+
+            Entity second = createUser( "fanoutnestedsecond" + i );
+            follow( followed, second );
+            post( second, "nested " + i );
+        }
+
+        //a single thread, a nested fan out waiting on the pool would wait on itself
+        ServiceManagerFactory smf = fanOutFactory( 1 );
+
+        try {
+            ServiceResults serial =
+                    execute( app.getSm(), "users", follower.getUuid(), "following", "following", "activities" );
+            ServiceResults parallel =
+                    execute( smf.getServiceManager( app.getId() ), "users", follower.getUuid(), "following",
+                            "following", "activities" );
+
+            assertEquals( 2, parallel.getEntities().size() );
+            assertEquals( getIds( serial ), getIds( parallel ) );
+        }
+        finally {
+            smf.destroy();
+        }
+    }
+
+
+    /** A factory sharing the services of the test setup with its own fan out pool */
+    private ServiceManagerFactory fanOutFactory( int threads ) {
+        ServiceManagerFactory smf = setup.getSmf();
+
+        ServiceManagerFactory fanOut =
+                new ServiceManagerFactory( setup.getEmf(), setup.getProps(), smf.getSchedulerService(),
+                        smf.getLockManager(), setup.getQmf() );
+        fanOut.setApplicationContext( smf.getApplicationContext() );
+        fanOut.setFanOutThreads( threads );
+        fanOut.setFanOutParallelism( 2 );
+
+        return fanOut;
+    }
+
+
+    private Entity createUser( String username ) throws Exception {
+        app.put( "username", username );
+        app.put( "email", username + "@usergrid.org" );
+
+        Entity user = app.testRequest( ServiceAction.POST, 1, "users" ).getEntity();
+        assertNotNull( user );
+
+        return user;
+    }
+
+
+    private void follow( Entity follower, Entity followed ) throws Exception {
+        app.testRequest( ServiceAction.POST, 1, "users", follower.getUuid(), "connections", "following",
+                followed.getUuid() );
+    }
+
+
+    private Entity post( Entity user, String content ) throws Exception {
+        app.add( Activity.newActivity( Activity.VERB_POST, null, content, null, user, null, "tweet", null, null ) );
+
+        Entity activity = app.testRequest( ServiceAction.POST, 1, "users", user.getUuid(), "activities" ).getEntity();
+        assertNotNull( activity );
+
+        return activity;
+    }
+
+
+    private static ServiceResults execute( ServiceManager sm, Object... params ) throws Exception {
+        return sm.newRequest( ServiceAction.GET, parameters( params ) ).execute();
+    }
+
+
+    private static List<UUID> getIds( ServiceResults results ) {
+        List<UUID> ids = new ArrayList<UUID>();
+
+        for ( Entity entity : results.getEntities() ) {
+            ids.add( entity.getUuid() );
+        }
+
+        return ids;
+    }
+}
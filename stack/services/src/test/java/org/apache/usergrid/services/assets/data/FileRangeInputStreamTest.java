@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.services.assets.data;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+public class FileRangeInputStreamTest {
+
+    private File file;
+
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile( "range", "test" );
+        FileUtils.writeStringToFile( file, "0123456789" );
+    }
+
+
+    @After
+    public void deleteFile() {
+        FileUtils.deleteQuietly( file );
+    }
+
+
+    @Test
+    public void readRange() throws IOException {
+        FileRangeInputStream in = new FileRangeInputStream( file, 2, 5 );
+
+        assertEquals( "23456", IOUtils.toString( in ) );
+        assertEquals( -1, in.read() );
+
+        in.close();
+    }
+
+
+    @Test
+    public void truncateToFile() throws IOException {
+        FileRangeInputStream in = new FileRangeInputStream( file, 8, Long.MAX_VALUE );
+
+        assertEquals( 2, in.getRemaining() );
+        assertEquals( "89", IOUtils.toString( in ) );
+
+        in.close();
+
+        in = new FileRangeInputStream( file, 20, 5 );
+
+        assertEquals( 0, in.getRemaining() );
+        assertEquals( -1, in.read() );
+
+        in.close();
+    }
+
+
+    @Test
+    public void transferRest() throws IOException {
+        FileRangeInputStream in = new FileRangeInputStream( file, 1, 8 );
+
+        assertEquals( '1', in.read() );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals( 7, in.transferTo( out ) );
+        assertArrayEquals( "2345678".getBytes(), out.toByteArray() );
+    }
+
+
+    @Test
+    public void transferToFile() throws IOException {
+        File target = File.createTempFile( "range", "target" );
+
+        try {
+            FileOutputStream out = new FileOutputStream( target );
+
+            try {
+                assertEquals( 4, new FileRangeInputStream( file, 3, 4 ).transferTo( out ) );
+            }
+            finally {
+                out.close();
+            }
+
+            assertEquals( "3456", FileUtils.readFileToString( target ) );
+        }
+        finally {
+            FileUtils.deleteQuietly( target );
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.tools;
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Stack;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.persistence.EntityManager;
+import org.apache.usergrid.persistence.Query;
+import org.apache.usergrid.persistence.Results;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricPredicate;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.reporting.ConsoleReporter;
+
+
+/**
+ * Benchmarks order by queries that sort on low cardinality fields, such as booleans, where every candidate in the
+ * primary range must be sorted in memory.  Optionally populates the collection first.  Reports the latency of each
+ * page and the heap used while paging.
+ */
+public class OrderByBenchMark extends ToolBase {
+
+    private static final Logger logger = LoggerFactory.getLogger( OrderByBenchMark.class );
+
+    private static final String COLLECTION = "orderbybenchmarks";
+
+    private static final String DEFAULT_QUERY = "select * where active = true order by created desc, ordinal asc";
+
+    private final Timer pageReads =
+            Metrics.newTimer( OrderByBenchMark.class, "page", TimeUnit.MILLISECONDS, TimeUnit.SECONDS );
+
+    private final Histogram heapUsed = Metrics.newHistogram( OrderByBenchMark.class, "heap_used_mb" );
+
+
+    @Override
+    @SuppressWarnings("static-access")
+    public Options createOptions() {
+
+        Option hostOption =
+                OptionBuilder.withArgName( "host" ).hasArg().isRequired( true ).withDescription( "Cassandra host" )
+                             .create( "host" );
+
+        Option appIdOption = OptionBuilder.withArgName( "appId" ).hasArg().isRequired( true )
+                                          .withDescription( "Application Id to use" ).create( "appId" );
+
+        Option countOption = OptionBuilder.withArgName( "count" ).hasArg().isRequired( false )
+                                          .withDescription( "Number of entities to create before querying" )
+                                          .create( "count" );
+
+        Option workerOption = OptionBuilder.withArgName( "workers" ).hasArg().isRequired( false )
+                                           .withDescription( "Number of workers to use when creating entities" )
+                                           .create( "workers" );
+
+        Option limitOption = OptionBuilder.withArgName( "limit" ).hasArg().isRequired( false )
+                                          .withDescription( "Page size of the query" ).create( "limit" );
+
+        Option pagesOption = OptionBuilder.withArgName( "pages" ).hasArg().isRequired( false )
+                                          .withDescription( "Maximum number of pages to read" ).create( "pages" );
+
+        Option queryOption = OptionBuilder.withArgName( "ql" ).hasArg().isRequired( false )
+                                          .withDescription( "Query to run, defaults to '" + DEFAULT_QUERY + "'" )
+                                          .create( "ql" );
+
+        Options options = new Options();
+        options.addOption( hostOption );
+        options.addOption( appIdOption );
+        options.addOption( countOption );
+        options.addOption( workerOption );
+        options.addOption( limitOption );
+        options.addOption( pagesOption );
+        options.addOption( queryOption );
+
+        return options;
+    }
+
+
+    @Override
+    public void runTool( CommandLine line ) throws Exception {
+        startSpring();
+
+        UUID appId = UUID.fromString( line.getOptionValue( "appId" ) );
+
+        EntityManager em = emf.getEntityManager( appId );
+
+        if ( line.hasOption( "count" ) ) {
+            populate( appId, Integer.parseInt( line.getOptionValue( "count" ) ),
+                    Integer.parseInt( line.getOptionValue( "workers", "10" ) ) );
+        }
+
+        int limit = Integer.parseInt( line.getOptionValue( "limit", String.valueOf( Query.MAX_LIMIT ) ) );
+        int maxPages = Integer.parseInt( line.getOptionValue( "pages", String.valueOf( Integer.MAX_VALUE ) ) );
+
+        Query query = Query.fromQL( line.getOptionValue( "ql", DEFAULT_QUERY ) );
+        query.setLimit( limit );
+
+        final ConsoleReporter reporter =
+                new ConsoleReporter( Metrics.defaultRegistry(), System.out, MetricPredicate.ALL );
+
+        Runtime runtime = Runtime.getRuntime();
+
+        long returned = 0;
+        int pages = 0;
+
+        long start = System.currentTimeMillis();
+
+        Results results;
+
+        do {
+            TimerContext timer = pageReads.time();
+
+            results = em.searchCollection( em.getApplicationRef(), COLLECTION, query );
+
+            timer.stop();
+
+            heapUsed.update( ( runtime.totalMemory() - runtime.freeMemory() ) / ( 1024 * 1024 ) );
+
+            returned += results.size();
+            pages++;
+
+            query.setCursor( results.getCursor() );
+        }
+        while ( results.getCursor() != null && pages < maxPages );
+
+        long stop = System.currentTimeMillis();
+
+        System.out.println(
+                String.format( "Read %d entities in %d pages in %d ms", returned, pages, stop - start ) );
+
+        reporter.run();
+    }
+
+
+    /** Create count entities, with a boolean field that matches half of them */
+    private void populate( UUID appId, int count, int workerSize ) throws Exception {
+
+        logger.info( "Creating {} entities with {} workers", count, workerSize );
+
+        ExecutorService executors = Executors.newFixedThreadPool( workerSize );
+
+        int size = count / workerSize;
+
+        Stack<Future<Void>> futures = new Stack<Future<Void>>();
+
+        for ( int i = 0; i < workerSize; i++ ) {
+            futures.push( executors.submit( new InsertWorker( i, size, appId ) ) );
+        }
+
+        while ( !futures.isEmpty() ) {
+            futures.pop().get();
+        }
+
+        executors.shutdown();
+
+        logger.info( "All workers completed insertion" );
+    }
+
+
+    private class InsertWorker implements Callable<Void> {
+
+        private final int workerNumber;
+        private final int count;
+        private final UUID appId;
+
+
+        private InsertWorker( int workerNumber, int count, UUID appId ) {
+            this.workerNumber = workerNumber;
+            this.count = count;
+            this.appId = appId;
+        }
+
+
+        @Override
+        public Void call() throws Exception {
+
+            EntityManager em = emf.getEntityManager( appId );
+
+            for ( int i = 0; i < count; i++ ) {
+
+                Map<String, Object> properties = new HashMap<String, Object>();
+                properties.put( "ordinal", workerNumber * count + i );
+                properties.put( "active", i % 2 == 0 );
+
+                em.create( "orderbybenchmark", properties );
+
+                if ( i % 1000 == 0 ) {
+                    logger.info( "{} : Written {} of {}", new Object[] { workerNumber, i, count } );
+                }
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.websocket;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.handler.codec.http.websocket.DefaultWebSocketFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.apache.usergrid.persistence.EntityChange;
+import org.apache.usergrid.persistence.EntityChangeListener;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+
+import static org.apache.usergrid.persistence.Schema.defaultCollectionName;
+import static org.apache.usergrid.utils.JsonUtils.mapToJsonString;
+
+
+/**
+ * Pushes entity changes to the websocket channels subscribed to a collection or to a single entity.  Changes are
+ * coalesced per subscription path, only the latest change to each entity is kept, and flushed as one frame per path
+ * on a fixed interval.  A path that collects more than the batch size between flushes sends a resync notice instead,
+ * as does a channel that was not writable when a batch was sent to it, so a slow client is told to re-read rather
+ * than queueing frames without bound.
+ * <p/>
+ * Frames only identify the changed entities, clients read the entities over REST with their own credentials.
+ */
+public class EntityChangePublisher implements EntityChangeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger( EntityChangePublisher.class );
+
+    private final Counter frames = Metrics.newCounter( EntityChangePublisher.class, "frames" );
+    private final Counter coalesced = Metrics.newCounter( EntityChangePublisher.class, "coalesced" );
+    private final Counter overflows = Metrics.newCounter( EntityChangePublisher.class, "overflows" );
+    private final Counter slowChannels = Metrics.newCounter( EntityChangePublisher.class, "slow_channels" );
+
+    private final ConcurrentHashMap<String, ChannelGroup> subscribers = new ConcurrentHashMap<String, ChannelGroup>();
+
+    private final ConcurrentHashMap<String, PendingChanges> pending = new ConcurrentHashMap<String, PendingChanges>();
+
+    /** Channels that missed a batch, with the paths they need to re-read */
+    private final ConcurrentHashMap<Channel, Set<String>> lagging = new ConcurrentHashMap<Channel, Set<String>>();
+
+    private final long flushInterval;
+    private final int batchSize;
+
+    private ScheduledExecutorService executor;
+
+
+    /**
+     * @param flushInterval The time in milliseconds changes are coalesced before they are pushed
+     * @param batchSize The maximum number of changes in one frame before a resync is sent instead
+     */
+    public EntityChangePublisher( long flushInterval, int batchSize ) {
+        this.flushInterval = flushInterval;
+        this.batchSize = batchSize;
+    }
+
+
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        executor.scheduleWithFixedDelay( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                }
+                catch ( Exception e ) {
+                    logger.error( "Unable to push entity changes", e );
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS );
+    }
+
+
+    public void stop() {
+        if ( executor != null ) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+
+    /** The subscription path for every entity in a collection */
+    public static String getPath( UUID applicationId, String collectionName ) {
+        return applicationId + "/" + collectionName.toLowerCase();
+    }
+
+
+    /** The subscription path for a single entity */
+    public static String getPath( UUID applicationId, String collectionName, UUID entityId ) {
+        return getPath( applicationId, collectionName ) + "/" + entityId;
+    }
+
+
+    public void addSubscription( String path, Channel channel ) {
+        synchronized ( subscribers ) {
+            ChannelGroup group = subscribers.get( path );
+
+            if ( group == null ) {
+                group = new DefaultChannelGroup( path );
+                subscribers.put( path, group );
+            }
+
+            group.add( channel );
+        }
+    }
+
+
+    public void removeSubscription( String path, Channel channel ) {
+        synchronized ( subscribers ) {
+            ChannelGroup group = subscribers.get( path );
+
+            if ( group == null ) {
+                return;
+            }
+
+            group.remove( channel );
+
+            if ( group.isEmpty() ) {
+                subscribers.remove( path );
+                pending.remove( path );
+            }
+        }
+
+        lagging.remove( channel );
+    }
+
+
+    public ChannelGroup getSubscriptionGroup( String path ) {
+        return subscribers.get( path );
+    }
+
+
+    @Override
+    public void onChange( EntityChange change ) {
+        if ( subscribers.isEmpty() ) {
+            return;
+        }
+
+        String collectionPath = getPath( change.getApplicationId(), defaultCollectionName( change.getEntityType() ) );
+
+        queue( collectionPath, change );
+        queue( collectionPath + "/" + change.getEntityId(), change );
+    }
+
+
+    private void queue( String path, EntityChange change ) {
+        if ( !subscribers.containsKey( path ) ) {
+            return;
+        }
+
+        PendingChanges changes = pending.get( path );
+
+        if ( changes == null ) {
+            PendingChanges created = new PendingChanges();
+            changes = pending.putIfAbsent( path, created );
+
+            if ( changes == null ) {
+                changes = created;
+            }
+        }
+
+        changes.add( change );
+    }
+
+
+    /** Push the changes collected since the last flush. Package private for testing */
+    void flush() {
+        for ( Map.Entry<String, PendingChanges> entry : pending.entrySet() ) {
+            String path = entry.getKey();
+
+            List<EntityChange> changes = entry.getValue().drain();
+
+            if ( changes == null ) {
+                continue;
+            }
+
+            ChannelGroup group = subscribers.get( path );
+
+            if ( group == null || group.isEmpty() ) {
+                continue;
+            }
+
+            Map<String, Object> frame = new LinkedHashMap<String, Object>();
+            frame.put( "path", path );
+
+            if ( changes.isEmpty() ) {
+                overflows.inc();
+                frame.put( "resync", true );
+            }
+            else {
+                frame.put( "changes", toJson( changes ) );
+            }
+
+            String text = mapToJsonString( frame );
+
+            for ( Channel channel : group ) {
+                if ( !channel.isWritable() ) {
+                    markLagging( channel, path );
+                    continue;
+                }
+
+                channel.write( new DefaultWebSocketFrame( text ) );
+                frames.inc();
+            }
+        }
+
+        resyncLagging();
+    }
+
+
+    private void markLagging( Channel channel, String path ) {
+        Set<String> paths = lagging.get( channel );
+
+        if ( paths == null ) {
+            slowChannels.inc();
+            Set<String> created = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+            paths = lagging.putIfAbsent( channel, created );
+
+            if ( paths == null ) {
+                paths = created;
+            }
+        }
+
+        paths.add( path );
+    }
+
+
+    /** Tell each channel that has drained its write buffer which paths it missed changes on */
+    private void resyncLagging() {
+        for ( Map.Entry<Channel, Set<String>> entry : lagging.entrySet() ) {
+            Channel channel = entry.getKey();
+
+            if ( !channel.isOpen() ) {
+                lagging.remove( channel );
+                continue;
+            }
+
+            if ( !channel.isWritable() ) {
+                continue;
+            }
+
+            lagging.remove( channel );
+
+            Map<String, Object> frame = new LinkedHashMap<String, Object>();
+            frame.put( "paths", new ArrayList<String>( entry.getValue() ) );
+            frame.put( "resync", true );
+
+            channel.write( new DefaultWebSocketFrame( mapToJsonString( frame ) ) );
+            frames.inc();
+        }
+    }
+
+
+    private List<Map<String, Object>> toJson( List<EntityChange> changes ) {
+        List<Map<String, Object>> json = new ArrayList<Map<String, Object>>( changes.size() );
+
+        for ( EntityChange change : changes ) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put( "operation", change.getOperation().toString().toLowerCase() );
+            map.put( "type", change.getEntityType() );
+            map.put( "uuid", change.getEntityId() );
+            map.put( "timestamp", change.getTimestamp() );
+
+            if ( change.getConnectionType() != null ) {
+                map.put( "connection", change.getConnectionType() );
+                map.put( "connected", change.getConnectedEntityId() );
+            }
+
+            json.add( map );
+        }
+
+        return json;
+    }
+
+
+    /** The changes to a path since the last flush, keeping only the latest change to each entity or connection */
+    private class PendingChanges {
+
+        private final LinkedHashMap<String, EntityChange> changes = new LinkedHashMap<String, EntityChange>();
+        private boolean overflow = false;
+
+
+        public synchronized void add( EntityChange change ) {
+            if ( overflow ) {
+                return;
+            }
+
+            String key = change.getConnectionType() == null ? change.getEntityId().toString() :
+                         change.getEntityId() + "/" + change.getConnectionType() + "/" + change
+                                 .getConnectedEntityId();
+
+            //remove first so the entity moves to the end of the batch
+            if ( changes.remove( key ) != null ) {
+                coalesced.inc();
+            }
+
+            changes.put( key, change );
+
+            if ( changes.size() > batchSize ) {
+                changes.clear();
+                overflow = true;
+            }
+        }
+
+
+        /**
+         * Return the changes and reset.  Returns null if there were no changes, and an empty list if there were too
+         * many changes to send
+         */
+        public synchronized List<EntityChange> drain() {
+            if ( overflow ) {
+                overflow = false;
+                return Collections.emptyList();
+            }
+
+            if ( changes.isEmpty() ) {
+                return null;
+            }
+
+            List<EntityChange> drained = new ArrayList<EntityChange>( changes.values() );
+            changes.clear();
+
+            return drained;
+        }
+    }
+}
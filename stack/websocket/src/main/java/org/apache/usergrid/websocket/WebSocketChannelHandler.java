@@ -19,7 +19,8 @@ package org.apache.usergrid.websocket;
 
 import java.security.MessageDigest;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -33,7 +34,6 @@ import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.jboss.netty.channel.group.ChannelGroup;
-import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpHeaders.Names;
@@ -49,9 +49,17 @@ import org.jboss.netty.handler.codec.http.websocket.WebSocketFrameEncoder;
 import org.jboss.netty.util.CharsetUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.apache.usergrid.management.ApplicationInfo;
 import org.apache.usergrid.management.ManagementService;
+import org.apache.usergrid.management.OrganizationInfo;
+import org.apache.usergrid.management.UserInfo;
 import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.security.AuthPrincipalInfo;
+import org.apache.usergrid.security.AuthPrincipalType;
+import org.apache.usergrid.security.shiro.PrincipalCredentialsToken;
+import org.apache.usergrid.security.tokens.TokenService;
 import org.apache.usergrid.services.ServiceManagerFactory;
+import org.apache.usergrid.utils.UUIDUtils;
 
 import org.apache.shiro.mgt.SessionsSecurityManager;
 import org.apache.shiro.subject.Subject;
@@ -59,6 +67,7 @@ import org.apache.shiro.subject.Subject;
 import static org.apache.commons.lang.StringUtils.isEmpty;
 import static org.apache.commons.lang.StringUtils.removeEnd;
 import static org.apache.commons.lang.StringUtils.split;
+import static org.apache.usergrid.security.shiro.utils.SubjectUtils.getPermissionFromPath;
 import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONNECTION;
 import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
 import static org.jboss.netty.handler.codec.http.HttpHeaders.Names.ORIGIN;
@@ -86,26 +95,29 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
     private final EntityManagerFactory emf;
     private final ServiceManagerFactory smf;
     private final ManagementService management;
+    private final TokenService tokens;
     private final SessionsSecurityManager securityManager;
+    private final EntityChangePublisher publisher;
     private final boolean ssl;
 
     boolean websocket = false;
 
     Subject subject = null;
 
-    private static ConcurrentHashMap<String, ChannelGroup> subscribers = new ConcurrentHashMap<String, ChannelGroup>();
-
-    List<String> subscriptions;
+    List<String> subscriptions = new CopyOnWriteArrayList<String>();
 
 
     public WebSocketChannelHandler( EntityManagerFactory emf, ServiceManagerFactory smf, ManagementService management,
-                                    SessionsSecurityManager securityManager, boolean ssl ) {
+                                    TokenService tokens, SessionsSecurityManager securityManager,
+                                    EntityChangePublisher publisher, boolean ssl ) {
         super();
 
         this.emf = emf;
         this.smf = smf;
         this.management = management;
+        this.tokens = tokens;
         this.securityManager = securityManager;
+        this.publisher = publisher;
         this.ssl = ssl;
 
         if ( securityManager != null ) {
@@ -182,6 +194,10 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
         if ( websocket ) {
             LOG.info( "Websocket disconnected" );
         }
+        for ( String path : subscriptions ) {
+            removeSubscription( path, ctx.getChannel() );
+        }
+        subscriptions.clear();
     }
 
 
@@ -237,24 +253,20 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
             String path = qs.getPath();
             LOG.info( path );
 
-            // Fill in the headers and contents depending on handshake method.
-            if ( req.containsHeader( SEC_WEBSOCKET_KEY1 ) && req.containsHeader( SEC_WEBSOCKET_KEY2 ) ) {
-
-                String[] segments = split( path, '/' );
+            // Every subscription is checked against the permissions of the access token's principal.
+            List<String> accessToken = qs.getParameters().get( "access_token" );
 
-                if ( segments.length != 3 ) {
-                    LOG.info( "Wrong number of path segments, expected 3, found " + segments.length );
-                    sendHttpResponse( ctx, req, FORBIDDEN );
-                    return;
-                }
+            if ( accessToken == null || !login( accessToken.get( 0 ) ) ) {
+                sendHttpResponse( ctx, req, FORBIDDEN );
+                return;
+            }
 
-                String nsStr = segments[0];
-                String collStr = segments[1];
-                String idStr = segments[2];
+            String subscription = getSubscriptionPath( path );
 
-                LOG.info( nsStr + "/" + collStr + "/" + idStr );
+            // Fill in the headers and contents depending on handshake method.
+            if ( req.containsHeader( SEC_WEBSOCKET_KEY1 ) && req.containsHeader( SEC_WEBSOCKET_KEY2 ) ) {
 
-                if ( isEmpty( nsStr ) || isEmpty( collStr ) || isEmpty( idStr ) ) {
+                if ( subscription == null ) {
                     sendHttpResponse( ctx, req, FORBIDDEN );
                     return;
                 }
@@ -302,6 +314,10 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
 
             p.replace( "encoder", "wsencoder", new WebSocketFrameEncoder() );
 
+            if ( subscription != null ) {
+                subscribe( subscription, ctx.getChannel() );
+            }
+
             return;
         }
 
@@ -310,49 +326,176 @@ public class WebSocketChannelHandler extends SimpleChannelUpstreamHandler {
     }
 
 
-    private void handleWebSocketFrame( ChannelHandlerContext ctx, WebSocketFrame frame ) {
+    /**
+     * Frames are subscription commands of the form "subscribe /app/collection[/id]" or "unsubscribe
+     * /app/collection[/id]".  Anything else is echoed back uppercased.
+     */
+    private void handleWebSocketFrame( ChannelHandlerContext ctx, WebSocketFrame frame ) throws Exception {
+        String[] command = split( frame.getTextData().trim(), ' ' );
+
+        if ( command.length == 2 && ( "subscribe".equalsIgnoreCase( command[0] ) || "unsubscribe"
+                .equalsIgnoreCase( command[0] ) ) ) {
+
+            String subscription = getSubscriptionPath( command[1] );
+
+            if ( subscription == null ) {
+                ctx.getChannel().write( new DefaultWebSocketFrame( "ERROR " + command[1] ) );
+                return;
+            }
+
+            if ( "subscribe".equalsIgnoreCase( command[0] ) ) {
+                subscribe( subscription, ctx.getChannel() );
+            }
+            else {
+                subscriptions.remove( subscription );
+                removeSubscription( subscription, ctx.getChannel() );
+            }
+
+            ctx.getChannel().write( new DefaultWebSocketFrame( "OK " + subscription ) );
+            return;
+        }
+
         // Send the uppercased string back.
         ctx.getChannel().write( new DefaultWebSocketFrame( frame.getTextData().toUpperCase() ) );
     }
 
-    // TODO Review this for concurrency safety
-    // Note: subscriptions are added and removed relatively infrequently
-    // during the lifecycle of a connection i.e. typical minimum lifespan
-    // would be 10 seconds when someone opens an app, it connects, then
-    // they close the app.
 
+    /**
+     * Resolve a path of the form app/collection or app/collection/id, where app is an application id or name, to the
+     * publisher's subscription path.  Returns null if the path is not valid, or the subject may not read it.
+     */
+    private String getSubscriptionPath( String path ) throws Exception {
+        String[] segments = split( path, '/' );
+
+        if ( segments.length != 2 && segments.length != 3 ) {
+            LOG.info( "Wrong number of path segments, expected 2 or 3, found " + segments.length );
+            return null;
+        }
+
+        String nsStr = segments[0];
+        String collStr = segments[1];
+
+        if ( isEmpty( nsStr ) || isEmpty( collStr ) ) {
+            return null;
+        }
+
+        UUID applicationId = UUIDUtils.tryGetUUID( nsStr );
+
+        if ( applicationId == null && emf != null ) {
+            applicationId = emf.lookupApplication( nsStr );
+        }
+
+        if ( applicationId == null ) {
+            LOG.info( "Unknown application " + nsStr );
+            return null;
+        }
+
+        if ( segments.length == 2 ) {
+            return isPermitted( applicationId, "/" + collStr ) ?
+                   EntityChangePublisher.getPath( applicationId, collStr ) : null;
+        }
 
-    private ChannelGroup getChannelGroupWithDefault( String path ) {
-        ChannelGroup group = subscribers.get( path );
+        UUID entityId = UUIDUtils.tryGetUUID( segments[2] );
 
-        if ( group == null ) {
-            group = subscribers.putIfAbsent( path, new DefaultChannelGroup() );
+        if ( entityId == null ) {
+            return null;
         }
 
-        return group;
+        return isPermitted( applicationId, "/" + collStr + "/" + entityId ) ?
+               EntityChangePublisher.getPath( applicationId, collStr, entityId ) : null;
     }
 
 
-    public void addSubscription( String path, Channel channel ) {
-        ChannelGroup group = subscribers.get( path );
-        synchronized ( group ) {
-            group.add( channel );
+    /** True if the authenticated subject may read the path of the application */
+    private boolean isPermitted( UUID applicationId, String path ) {
+        if ( subject == null || !subject.isAuthenticated() ) {
+            return false;
         }
+
+        if ( !subject.isPermitted( getPermissionFromPath( applicationId, "get", path ) ) ) {
+            LOG.info( "Subscription to " + path + " of application " + applicationId + " not permitted" );
+            return false;
+        }
+
+        return true;
     }
 
 
-    public void removeSubscription( String path, Channel channel ) {
-        ChannelGroup group = subscribers.get( path );
-        synchronized ( group ) {
-            group.remove( channel );
-            if ( group.isEmpty() ) {
-                subscribers.remove( path, group );
+    /** Authenticate the subject of this channel with an access token, as the REST tier does for bearer tokens */
+    private boolean login( String accessToken ) {
+        if ( isEmpty( accessToken ) || subject == null || tokens == null ) {
+            return false;
+        }
+
+        try {
+            AuthPrincipalInfo principal = tokens.getTokenInfo( accessToken ).getPrincipal();
+
+            if ( principal == null ) {
+                return false;
+            }
+
+            PrincipalCredentialsToken token = null;
+
+            if ( AuthPrincipalType.ADMIN_USER.equals( principal.getType() ) ) {
+                UserInfo user = management.getAdminUserInfoFromAccessToken( accessToken );
+                if ( user != null ) {
+                    token = PrincipalCredentialsToken.getFromAdminUserInfoAndAccessToken( user, accessToken );
+                }
+            }
+            else if ( AuthPrincipalType.APPLICATION_USER.equals( principal.getType() ) ) {
+                UserInfo user = management.getAppUserFromAccessToken( accessToken );
+                if ( user != null ) {
+                    token = PrincipalCredentialsToken.getFromAppUserInfoAndAccessToken( user, accessToken );
+                }
+            }
+            else if ( AuthPrincipalType.ORGANIZATION.equals( principal.getType() ) ) {
+                OrganizationInfo organization = management.getOrganizationInfoFromAccessToken( accessToken );
+                if ( organization != null ) {
+                    token = PrincipalCredentialsToken
+                            .getFromOrganizationInfoAndAccessToken( organization, accessToken );
+                }
+            }
+            else if ( AuthPrincipalType.APPLICATION.equals( principal.getType() ) ) {
+                ApplicationInfo application = management.getApplicationInfoFromAccessToken( accessToken );
+                if ( application != null ) {
+                    token = PrincipalCredentialsToken.getFromApplicationInfoAndAccessToken( application, accessToken );
+                }
+            }
+
+            if ( token == null ) {
+                return false;
             }
+
+            subject.login( token );
+
+            return subject.isAuthenticated();
+        }
+        catch ( Exception e ) {
+            LOG.info( "Websocket access token rejected: " + e.getMessage() );
+            return false;
+        }
+    }
+
+
+    private void subscribe( String path, Channel channel ) {
+        if ( !subscriptions.contains( path ) ) {
+            subscriptions.add( path );
+            addSubscription( path, channel );
         }
     }
 
 
+    public void addSubscription( String path, Channel channel ) {
+        publisher.addSubscription( path, channel );
+    }
+
+
+    public void removeSubscription( String path, Channel channel ) {
+        publisher.removeSubscription( path, channel );
+    }
+
+
     public ChannelGroup getSubscriptionGroup( String path ) {
-        return subscribers.get( path );
+        return publisher.getSubscriptionGroup( path );
     }
 }
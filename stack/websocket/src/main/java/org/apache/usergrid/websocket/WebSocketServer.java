@@ -34,7 +34,9 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.apache.usergrid.management.ManagementService;
 import org.apache.usergrid.persistence.EntityManagerFactory;
+import org.apache.usergrid.persistence.cassandra.EntityChangeBus;
 import org.apache.usergrid.persistence.cassandra.EntityManagerFactoryImpl;
+import org.apache.usergrid.security.tokens.TokenService;
 import org.apache.usergrid.services.ServiceManagerFactory;
 
 import org.apache.shiro.mgt.DefaultSecurityManager;
@@ -60,8 +62,11 @@ public class WebSocketServer {
     EntityManagerFactory emf;
     ServiceManagerFactory smf;
     ManagementService management;
+    TokenService tokens;
     Realm realm;
     SessionsSecurityManager securityManager;
+    EntityChangeBus entityChangeBus;
+    EntityChangePublisher publisher;
     boolean ssl = false;
     Channel channel;
     Properties properties;
@@ -96,6 +101,18 @@ public class WebSocketServer {
     }
 
 
+    @Autowired
+    public void setTokenService( TokenService tokens ) {
+        this.tokens = tokens;
+    }
+
+
+    @Autowired
+    public void setEntityChangeBus( EntityChangeBus entityChangeBus ) {
+        this.entityChangeBus = entityChangeBus;
+    }
+
+
     public void setSsl( boolean ssl ) {
         this.ssl = ssl;
     }
@@ -155,13 +172,29 @@ public class WebSocketServer {
         ServerBootstrap bootstrap = new ServerBootstrap(
                 new NioServerSocketChannelFactory( Executors.newCachedThreadPool(), Executors.newCachedThreadPool() ) );
 
+        // Push entity changes to subscribed channels, those of other nodes arrive when the bus is clustered.
+        long pushInterval = 250;
+        int pushBatchSize = 100;
+        if ( properties != null ) {
+            pushInterval = Long.parseLong( properties.getProperty( "usergrid.websocket.push.interval", "250" ) );
+            pushBatchSize = Integer.parseInt( properties.getProperty( "usergrid.websocket.push.batch", "100" ) );
+        }
+
+        publisher = new EntityChangePublisher( pushInterval, pushBatchSize );
+        publisher.start();
+
+        if ( entityChangeBus != null ) {
+            entityChangeBus.addListener( publisher );
+        }
+
         // Set up the pipeline factory.
         ExecutionHandler executionHandler =
                 new ExecutionHandler( new OrderedMemoryAwareThreadPoolExecutor( 16, 1048576, 1048576 ) );
 
         // Set up the event pipeline factory.
         bootstrap.setPipelineFactory(
-                new WebSocketServerPipelineFactory( emf, smf, management, securityManager, executionHandler, ssl ) );
+                new WebSocketServerPipelineFactory( emf, smf, management, tokens, securityManager, publisher,
+                        executionHandler, ssl ) );
 
         // Bind and start to accept incoming connections.
         channel = bootstrap.bind( new InetSocketAddress( 8088 ) );
@@ -176,6 +209,13 @@ public class WebSocketServer {
             channel.close();
             channel = null;
         }
+        if ( publisher != null ) {
+            if ( entityChangeBus != null ) {
+                entityChangeBus.removeListener( publisher );
+            }
+            publisher.stop();
+            publisher = null;
+        }
         logger.info( "Usergrid WebSocket Server stopped..." );
     }
 }
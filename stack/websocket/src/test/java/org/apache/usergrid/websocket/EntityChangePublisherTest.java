@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.usergrid.websocket;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.jboss.netty.channel.SucceededChannelFuture;
+import org.jboss.netty.handler.codec.http.websocket.WebSocketFrame;
+import org.junit.Test;
+import org.apache.usergrid.clustering.TopicBatch;
+import org.apache.usergrid.persistence.EntityChange;
+import org.apache.usergrid.persistence.EntityChange.Operation;
+import org.apache.usergrid.persistence.cassandra.EntityChangeBus;
+import org.apache.usergrid.utils.UUIDUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class EntityChangePublisherTest {
+
+    private static final AtomicInteger channelIds = new AtomicInteger();
+
+
+    @Test
+    public void publishedChangeReachesSubscriber() {
+        EntityChangeBus bus = new EntityChangeBus();
+        EntityChangePublisher publisher = new EntityChangePublisher( 250, 100 );
+        bus.addListener( publisher );
+
+        UUID applicationId = UUIDUtils.newTimeUUID();
+        UUID userId = UUIDUtils.newTimeUUID();
+
+        TestChannel subscriber = new TestChannel();
+        TestChannel other = new TestChannel();
+
+        publisher.addSubscription( EntityChangePublisher.getPath( applicationId, "users" ), subscriber.channel );
+        publisher.addSubscription( EntityChangePublisher.getPath( applicationId, "groups" ), other.channel );
+
+        bus.publish( new EntityChange( applicationId, Operation.UPDATE, "user", userId, 1 ) );
+        bus.publish( new EntityChange( applicationId, Operation.UPDATE, "user", userId, 2 ) );
+
+        publisher.flush();
+
+        //both updates coalesced into a single frame
+        assertEquals( 1, subscriber.frames.size() );
+        assertTrue( subscriber.frames.get( 0 ).contains( userId.toString() ) );
+        assertEquals( 0, other.frames.size() );
+
+        publisher.flush();
+
+        assertEquals( 1, subscriber.frames.size() );
+    }
+
+
+    @Test
+    public void changesOfOtherNodesReachSubscriber() {
+        RelayBus writer = new RelayBus();
+        RelayBus server = new RelayBus();
+        writer.peer = server;
+        server.peer = writer;
+
+        //the writing node has no local listener, but must still publish
+        assertTrue( writer.hasListeners() );
+
+        EntityChangePublisher publisher = new EntityChangePublisher( 250, 100 );
+        server.addListener( publisher );
+
+        UUID applicationId = UUIDUtils.newTimeUUID();
+        UUID userId = UUIDUtils.newTimeUUID();
+
+        TestChannel subscriber = new TestChannel();
+
+        publisher.addSubscription( EntityChangePublisher.getPath( applicationId, "users", userId ),
+                subscriber.channel );
+
+        writer.publish( new EntityChange( applicationId, Operation.DELETE, "user", userId, 1 ) );
+
+        publisher.flush();
+
+        assertEquals( 0, subscriber.frames.size() );
+
+        writer.flush();
+        publisher.flush();
+
+        assertEquals( 1, subscriber.frames.size() );
+        assertTrue( subscriber.frames.get( 0 ).contains( userId.toString() ) );
+        assertTrue( subscriber.frames.get( 0 ).contains( "delete" ) );
+    }
+
+
+    /** A clustered bus that sends its batches straight to its peer */
+    private static class RelayBus extends EntityChangeBus {
+
+        private RelayBus peer;
+
+
+        @Override
+        protected boolean isRemote() {
+            return true;
+        }
+
+
+        @Override
+        protected void send( TopicBatch<EntityChange> batch ) {
+            peer.receive( batch );
+        }
+    }
+
+
+    /** A writable channel that records the text of the frames written to it */
+    private static class TestChannel implements InvocationHandler {
+
+        private final Integer id = channelIds.incrementAndGet();
+        private final List<String> frames = new ArrayList<String>();
+        private final Channel channel = ( Channel ) Proxy
+                .newProxyInstance( Channel.class.getClassLoader(), new Class<?>[] { Channel.class }, this );
+
+
+        @Override
+        public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            String name = method.getName();
+
+            if ( "getId".equals( name ) || "hashCode".equals( name ) ) {
+                return id;
+            }
+            if ( "equals".equals( name ) ) {
+                return proxy == args[0];
+            }
+            if ( "compareTo".equals( name ) ) {
+                return id.compareTo( ( ( Channel ) args[0] ).getId() );
+            }
+            if ( "isOpen".equals( name ) || "isWritable".equals( name ) ) {
+                return true;
+            }
+            if ( "getCloseFuture".equals( name ) ) {
+                return new DefaultChannelFuture( channel, false );
+            }
+            if ( "write".equals( name ) ) {
+                frames.add( ( ( WebSocketFrame ) args[0] ).getTextData() );
+                return new SucceededChannelFuture( channel );
+            }
+            if ( "toString".equals( name ) ) {
+                return "channel " + id;
+            }
+
+            throw new UnsupportedOperationException( name );
+        }
+    }
+}